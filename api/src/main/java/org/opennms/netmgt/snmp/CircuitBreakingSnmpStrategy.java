@@ -0,0 +1,516 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.snmp;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stops sending requests to agents that stopped answering.
+ *
+ * Each request to a dead agent would otherwise hold its caller, its session and its
+ * tracker for the timeout times the retries. After a number of consecutive timeouts
+ * the circuit of the agent opens and its requests fail right away like they would
+ * after timing out: with a {@link SnmpAgentTimeoutException} for the asynchronous
+ * requests and the walks, with no value for the blocking ones. While the circuit is
+ * open, the agent is probed periodically with a GET of sysObjectID.0 and the circuit
+ * closes again as soon as the agent answers, to a probe or to a request that was
+ * already in flight.
+ *
+ * The blocking requests do not tell a timeout from the other failures, so a request
+ * without any value counts as a timeout only when it took at least the timeout of the
+ * agent configuration.
+ *
+ * Used with the {@link ClassBasedStrategyResolver}, it is configured with the system
+ * properties {@code org.opennms.core.snmp.circuitBreaker.delegate}, the class of the
+ * strategy sending the requests, {@code failureThreshold}, the number of consecutive
+ * timeouts opening the circuit, {@code probeIntervalMs}, the time between two probes, and
+ * {@code idleMs}, the time after which the circuit of an agent that is closed without any
+ * timeout is dropped, so that sweeping large ranges does not keep one for every address.
+ */
+public class CircuitBreakingSnmpStrategy extends DelegatingSnmpStrategy {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CircuitBreakingSnmpStrategy.class);
+
+    private static final String PREFIX = "org.opennms.core.snmp.circuitBreaker.";
+
+    private static final SnmpObjId SYS_OBJECT_ID = SnmpObjId.get(".1.3.6.1.2.1.1.2.0");
+
+    private static final ScheduledExecutorService s_timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread thread = new Thread(r, "CircuitBreakingSnmpStrategy-Timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public enum State {
+        /**
+         * Requests are sent to the agent.
+         */
+        CLOSED,
+        /**
+         * Requests fail right away until the next probe.
+         */
+        OPEN,
+        /**
+         * A probe is in flight, requests still fail right away.
+         */
+        HALF_OPEN
+    }
+
+    private final int m_failureThreshold;
+    private final long m_probeIntervalMs;
+    private final long m_idleNanos;
+    private final Map<SnmpAgentAddress, Circuit> m_circuits = new ConcurrentHashMap<>();
+    private final AtomicLong m_nextEviction = new AtomicLong(System.nanoTime());
+    private final CircuitBreakerStats m_stats = new CircuitBreakerStats();
+
+    public CircuitBreakingSnmpStrategy() {
+        super(PREFIX + "delegate");
+        m_failureThreshold = Integer.getInteger(PREFIX + "failureThreshold", 5);
+        m_probeIntervalMs = Long.getLong(PREFIX + "probeIntervalMs", 30000L);
+        m_idleNanos = TimeUnit.MILLISECONDS.toNanos(Long.getLong(PREFIX + "idleMs", 600000L));
+    }
+
+    public CircuitBreakingSnmpStrategy(final SnmpStrategy delegate, final int failureThreshold, final long probeIntervalMs) {
+        this(delegate, failureThreshold, probeIntervalMs, 600000L);
+    }
+
+    public CircuitBreakingSnmpStrategy(final SnmpStrategy delegate, final int failureThreshold, final long probeIntervalMs, final long idleMs) {
+        super(delegate);
+        m_failureThreshold = failureThreshold;
+        m_probeIntervalMs = probeIntervalMs;
+        m_idleNanos = TimeUnit.MILLISECONDS.toNanos(idleMs);
+    }
+
+    public int getFailureThreshold() {
+        return m_failureThreshold;
+    }
+
+    public long getProbeIntervalMs() {
+        return m_probeIntervalMs;
+    }
+
+    public State getState(final SnmpAgentAddress address) {
+        final Circuit circuit = m_circuits.get(address);
+        return circuit == null ? State.CLOSED : circuit.m_state;
+    }
+
+    public CircuitBreakerStats getStats() {
+        return m_stats;
+    }
+
+    /**
+     * Number of agents that have a circuit, i.e. one that is not closed or that was used recently.
+     */
+    int getCircuitCount() {
+        return m_circuits.size();
+    }
+
+    private Circuit getCircuit(final SnmpAgentConfig agentConfig) {
+        final long now = System.nanoTime();
+        evictIdleCircuits(now);
+        // touched while holding the key, so that it is not evicted in between
+        return m_circuits.compute(new SnmpAgentAddress(agentConfig.getAddress(), agentConfig.getPort()), (address, circuit) -> {
+            final Circuit touched = circuit != null ? circuit : new Circuit(address);
+            touched.m_lastUsed = now;
+            return touched;
+        });
+    }
+
+    /**
+     * Drops the circuits that are closed without any timeout and were not used for the idle
+     * time, at most once per idle time.
+     */
+    private void evictIdleCircuits(final long now) {
+        final long next = m_nextEviction.get();
+        if (now - next < 0 || !m_nextEviction.compareAndSet(next, now + m_idleNanos)) {
+            return;
+        }
+        for (final SnmpAgentAddress address : m_circuits.keySet()) {
+            m_circuits.computeIfPresent(address, (a, circuit) -> circuit.isIdle(now) ? null : circuit);
+        }
+    }
+
+    /**
+     * Sends a blocking request unless the circuit of the agent is open, in which case
+     * the given value is returned as if the request timed out.
+     */
+    private <T> T call(final SnmpAgentConfig agentConfig, final Supplier<T> request, final T rejected, final Predicate<T> answered) {
+        final Circuit circuit = getCircuit(agentConfig);
+        if (circuit.m_state != State.CLOSED) {
+            m_stats.m_rejected.increment();
+            LOG.debug("Circuit of {} is {}, not sending the request", circuit.m_address, circuit.m_state);
+            return rejected;
+        }
+        final long start = System.nanoTime();
+        final T result = request.get();
+        if (answered.test(result)) {
+            circuit.responded();
+        } else if (TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= agentConfig.getTimeout()) {
+            circuit.timedOut(agentConfig);
+        }
+        return result;
+    }
+
+    private CompletableFuture<SnmpValue[]> callAsync(final SnmpAgentConfig agentConfig, final Supplier<CompletableFuture<SnmpValue[]>> request) {
+        final Circuit circuit = getCircuit(agentConfig);
+        if (circuit.m_state != State.CLOSED) {
+            m_stats.m_rejected.increment();
+            LOG.debug("Circuit of {} is {}, not sending the request", circuit.m_address, circuit.m_state);
+            final CompletableFuture<SnmpValue[]> future = new CompletableFuture<>();
+            future.completeExceptionally(new SnmpException(new SnmpAgentTimeoutException(agentConfig.getAddress())));
+            return future;
+        }
+        // callers are completed after the circuit was updated
+        return request.get().whenComplete((values, t) -> {
+            if (t == null) {
+                circuit.responded();
+            } else if (isTimeout(t)) {
+                circuit.timedOut(agentConfig);
+            }
+        });
+    }
+
+    private static boolean isTimeout(Throwable t) {
+        for (; t != null; t = t.getCause()) {
+            if (t instanceof SnmpAgentTimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean answered(final SnmpValue value) {
+        return value != null;
+    }
+
+    private static boolean answered(final SnmpValue[] values) {
+        if (values != null) {
+            for (final SnmpValue value : values) {
+                if (value != null) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public SnmpWalker createWalker(final SnmpAgentConfig agentConfig, final String name, final CollectionTracker tracker) {
+        final Circuit circuit = getCircuit(agentConfig);
+        if (circuit.m_state != State.CLOSED) {
+            m_stats.m_rejected.increment();
+            LOG.debug("Circuit of {} is {}, not walking {}", circuit.m_address, circuit.m_state, name);
+            return new RejectedWalker(agentConfig, name, tracker);
+        }
+        return super.createWalker(agentConfig, name, new CircuitTracker(circuit, agentConfig, tracker));
+    }
+
+    @Override
+    public SnmpValue set(final SnmpAgentConfig agentConfig, final SnmpObjId oid, final SnmpValue value) {
+        return call(agentConfig, () -> super.set(agentConfig, oid, value), null, CircuitBreakingSnmpStrategy::answered);
+    }
+
+    @Override
+    public SnmpValue[] set(final SnmpAgentConfig agentConfig, final SnmpObjId[] oids, final SnmpValue[] values) {
+        return call(agentConfig, () -> super.set(agentConfig, oids, values), new SnmpValue[] { null }, CircuitBreakingSnmpStrategy::answered);
+    }
+
+    @Override
+    public SnmpValue get(final SnmpAgentConfig agentConfig, final SnmpObjId oid) {
+        return call(agentConfig, () -> super.get(agentConfig, oid), null, CircuitBreakingSnmpStrategy::answered);
+    }
+
+    @Override
+    public SnmpValue[] get(final SnmpAgentConfig agentConfig, final SnmpObjId[] oids) {
+        return call(agentConfig, () -> super.get(agentConfig, oids), new SnmpValue[] { null }, CircuitBreakingSnmpStrategy::answered);
+    }
+
+    @Override
+    public CompletableFuture<SnmpValue[]> getAsync(final SnmpAgentConfig agentConfig, final SnmpObjId[] oids) {
+        return callAsync(agentConfig, () -> super.getAsync(agentConfig, oids));
+    }
+
+    @Override
+    public CompletableFuture<SnmpValue[]> setAsync(final SnmpAgentConfig agentConfig, final SnmpObjId[] oids, final SnmpValue[] values) {
+        return callAsync(agentConfig, () -> super.setAsync(agentConfig, oids, values));
+    }
+
+    @Override
+    public SnmpValue getNext(final SnmpAgentConfig agentConfig, final SnmpObjId oid) {
+        return call(agentConfig, () -> super.getNext(agentConfig, oid), null, CircuitBreakingSnmpStrategy::answered);
+    }
+
+    @Override
+    public SnmpValue[] getNext(final SnmpAgentConfig agentConfig, final SnmpObjId[] oids) {
+        return call(agentConfig, () -> super.getNext(agentConfig, oids), new SnmpValue[] { null }, CircuitBreakingSnmpStrategy::answered);
+    }
+
+    @Override
+    public SnmpValue[] getBulk(final SnmpAgentConfig agentConfig, final SnmpObjId[] oids) {
+        return call(agentConfig, () -> super.getBulk(agentConfig, oids), new SnmpValue[] { null }, CircuitBreakingSnmpStrategy::answered);
+    }
+
+    /**
+     * State of the circuit of one agent.
+     */
+    private class Circuit {
+        private final SnmpAgentAddress m_address;
+        private volatile State m_state = State.CLOSED;
+        private volatile int m_timeouts = 0;
+        private volatile long m_lastUsed = System.nanoTime();
+        private SnmpAgentConfig m_probeConfig;
+
+        private Circuit(final SnmpAgentAddress address) {
+            m_address = address;
+        }
+
+        private boolean isIdle(final long now) {
+            return m_state == State.CLOSED && m_timeouts == 0 && now - m_lastUsed >= m_idleNanos;
+        }
+
+        public void responded() {
+            m_lastUsed = System.nanoTime();
+            if (m_state == State.CLOSED && m_timeouts == 0) {
+                return;
+            }
+            synchronized (this) {
+                m_timeouts = 0;
+                if (m_state != State.CLOSED) {
+                    transition(State.CLOSED);
+                }
+            }
+        }
+
+        public synchronized void timedOut(final SnmpAgentConfig agentConfig) {
+            m_lastUsed = System.nanoTime();
+            m_timeouts++;
+            if (m_state == State.CLOSED && m_timeouts >= m_failureThreshold) {
+                m_probeConfig = agentConfig;
+                open();
+            }
+        }
+
+        private void open() {
+            transition(State.OPEN);
+            s_timer.schedule(this::probe, m_probeIntervalMs, TimeUnit.MILLISECONDS);
+        }
+
+        private void probe() {
+            final SnmpAgentConfig agentConfig;
+            synchronized (this) {
+                if (m_state != State.OPEN) {
+                    // closed by a late response in the meantime
+                    return;
+                }
+                transition(State.HALF_OPEN);
+                agentConfig = m_probeConfig;
+            }
+            CompletableFuture<SnmpValue[]> probe;
+            try {
+                probe = getDelegate().getAsync(agentConfig, new SnmpObjId[] { SYS_OBJECT_ID });
+            } catch (final RuntimeException e) {
+                probe = new CompletableFuture<>();
+                probe.completeExceptionally(e);
+            }
+            probe.whenComplete((values, t) -> {
+                // an error is an answer too
+                if (t == null || !isTimeout(t)) {
+                    responded();
+                } else {
+                    reopen();
+                }
+            });
+        }
+
+        private synchronized void reopen() {
+            if (m_state == State.HALF_OPEN) {
+                open();
+            }
+        }
+
+        private void transition(final State state) {
+            final State previous = m_state;
+            m_state = state;
+            switch (state) {
+            case OPEN:
+                if (previous == State.CLOSED) {
+                    LOG.warn("Opening the circuit of {} after {} consecutive timeouts", m_address, m_timeouts);
+                    m_stats.m_openCircuits.incrementAndGet();
+                    m_stats.m_opened.increment();
+                } else {
+                    LOG.debug("Probe of {} timed out, keeping its circuit open", m_address);
+                    m_stats.m_probesFailed.increment();
+                }
+                break;
+            case HALF_OPEN:
+                LOG.debug("Probing {}", m_address);
+                m_stats.m_probes.increment();
+                break;
+            case CLOSED:
+                LOG.info("Closing the circuit of {}, it answers again", m_address);
+                m_stats.m_openCircuits.decrementAndGet();
+                m_stats.m_closed.increment();
+                break;
+            }
+        }
+    }
+
+    /**
+     * Reports the outcome of a walk to the circuit of its agent.
+     */
+    private static class CircuitTracker extends DelegatingCollectionTracker {
+        private final Circuit m_circuit;
+        private final SnmpAgentConfig m_agentConfig;
+
+        private CircuitTracker(final Circuit circuit, final SnmpAgentConfig agentConfig, final CollectionTracker tracker) {
+            super(tracker);
+            m_circuit = circuit;
+            m_agentConfig = agentConfig;
+        }
+
+        @Override
+        public void setTimedOut(final boolean timedOut) {
+            super.setTimedOut(timedOut);
+            if (timedOut) {
+                m_circuit.timedOut(m_agentConfig);
+            }
+        }
+
+        @Override
+        public ResponseProcessor buildNextPdu(final PduBuilder pduBuilder) throws SnmpException {
+            final ResponseProcessor processor = super.buildNextPdu(pduBuilder);
+            return new ResponseProcessor() {
+                @Override
+                public void processResponse(final SnmpObjId snmpObjId, final SnmpValue val) throws SnmpException {
+                    processor.processResponse(snmpObjId, val);
+                }
+
+                @Override
+                public boolean processErrors(final int errorStatus, final int errorIndex) throws SnmpException {
+                    m_circuit.responded();
+                    return processor.processErrors(errorStatus, errorIndex);
+                }
+            };
+        }
+    }
+
+    /**
+     * Walk of an agent whose circuit is open, times out as soon as it starts.
+     */
+    private static class RejectedWalker extends SnmpWalker {
+        private RejectedWalker(final SnmpAgentConfig agentConfig, final String name, final CollectionTracker tracker) {
+            super(agentConfig.getAddress(), name, agentConfig.getMaxVarsPerPdu(), agentConfig.getMaxRepetitions(), agentConfig.getRetries(), tracker);
+        }
+
+        @Override
+        public void start() {
+            handleTimeout("circuit of the agent is open");
+        }
+
+        @Override
+        protected WalkerPduBuilder createPduBuilder(final int maxVarsPerPdu) {
+            return null;
+        }
+
+        @Override
+        protected void sendNextPdu(final WalkerPduBuilder pduBuilder) {
+            // never sent
+        }
+
+        @Override
+        public void close() {
+            // nothing to release
+        }
+    }
+
+    /**
+     * Counters of the circuits of all of the agents.
+     */
+    public static class CircuitBreakerStats {
+        private final LongAdder m_opened = new LongAdder();
+        private final LongAdder m_closed = new LongAdder();
+        private final LongAdder m_probes = new LongAdder();
+        private final LongAdder m_probesFailed = new LongAdder();
+        private final LongAdder m_rejected = new LongAdder();
+        private final AtomicLong m_openCircuits = new AtomicLong();
+
+        /**
+         * Transitions from closed to open.
+         */
+        public long getOpened() {
+            return m_opened.sum();
+        }
+
+        /**
+         * Transitions from open or half-open back to closed.
+         */
+        public long getClosed() {
+            return m_closed.sum();
+        }
+
+        /**
+         * Transitions from open to half-open.
+         */
+        public long getProbes() {
+            return m_probes.sum();
+        }
+
+        /**
+         * Transitions from half-open back to open.
+         */
+        public long getProbesFailed() {
+            return m_probesFailed.sum();
+        }
+
+        /**
+         * Requests and walks failed without being sent.
+         */
+        public long getRejected() {
+            return m_rejected.sum();
+        }
+
+        /**
+         * Agents whose circuit is currently open or half-open.
+         */
+        public long getOpenCircuits() {
+            return m_openCircuits.get();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("opened=%d, closed=%d, probes=%d, probesFailed=%d, rejected=%d, openCircuits=%d",
+                    getOpened(), getClosed(), getProbes(), getProbesFailed(), getRejected(), getOpenCircuits());
+        }
+    }
+}
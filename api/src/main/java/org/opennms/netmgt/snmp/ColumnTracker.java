@@ -51,9 +51,17 @@ public class ColumnTracker extends CollectionTracker {
     }
 
     public ColumnTracker(CollectionTracker parent, SnmpObjId base, int maxRepititions, int maxRetries) {
+        this(parent, base, base, maxRepititions, maxRetries);
+    }
+
+    /**
+     * Creates a tracker that resumes the walk of the column after the given OID,
+     * typically the last one returned by a previous, interrupted walk.
+     */
+    public ColumnTracker(CollectionTracker parent, SnmpObjId base, SnmpObjId resumeAfter, int maxRepititions, int maxRetries) {
         super(parent);
         m_base = base;
-        m_last = base;
+        m_last = resumeAfter;
         m_maxRepetitions = maxRepititions;
         m_maxRetries = maxRetries;
     }
@@ -0,0 +1,85 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.snmp;
+
+import java.util.List;
+
+import org.opennms.netmgt.snmp.proxy.WalkRequest;
+import org.opennms.netmgt.snmp.proxy.WalkResponse;
+
+/**
+ * Forwards a walk to another tracker, for the strategies decorating another one
+ * that need to look at the responses of the walks before their tracker does.
+ */
+class DelegatingCollectionTracker extends CollectionTracker {
+    private final CollectionTracker m_tracker;
+
+    DelegatingCollectionTracker(final CollectionTracker tracker) {
+        m_tracker = tracker;
+    }
+
+    protected final CollectionTracker getDelegate() {
+        return m_tracker;
+    }
+
+    @Override
+    public void setMaxRepetitions(final int maxRepetitions) {
+        m_tracker.setMaxRepetitions(maxRepetitions);
+    }
+
+    @Override
+    public void setMaxRetries(final int maxRetries) {
+        m_tracker.setMaxRetries(maxRetries);
+    }
+
+    @Override
+    public void setFailed(final boolean failed) {
+        super.setFailed(failed);
+        m_tracker.setFailed(failed);
+    }
+
+    @Override
+    public void setTimedOut(final boolean timedOut) {
+        super.setTimedOut(timedOut);
+        m_tracker.setTimedOut(timedOut);
+    }
+
+    @Override
+    public boolean isFinished() {
+        return m_tracker.isFinished();
+    }
+
+    @Override
+    public ResponseProcessor buildNextPdu(final PduBuilder pduBuilder) throws SnmpException {
+        return m_tracker.buildNextPdu(pduBuilder);
+    }
+
+    @Override
+    public List<WalkRequest> getWalkRequests() {
+        return m_tracker.getWalkRequests();
+    }
+
+    @Override
+    public void handleWalkResponses(final List<WalkResponse> responses) {
+        m_tracker.handleWalkResponses(responses);
+    }
+}
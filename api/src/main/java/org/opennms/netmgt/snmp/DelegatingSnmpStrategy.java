@@ -0,0 +1,173 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.snmp;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Forwards every call to another strategy, the base of the strategies that add a
+ * behavior in front of any implementation.
+ *
+ * With the {@link ClassBasedStrategyResolver}, the strategy class is the decorator
+ * and its no-arg constructor creates the delegate from the class named by a system
+ * property, SNMP4J by default. Decorators can be stacked by naming another decorator
+ * as the delegate. With the {@link org.opennms.netmgt.snmp.internal.ServiceBasedStrategyResolver},
+ * the decorator is built with its delegate and published with its own class name as
+ * the "implementation".
+ */
+public class DelegatingSnmpStrategy implements SnmpStrategy {
+
+    private static final String DEFAULT_DELEGATE = "org.opennms.netmgt.snmp.snmp4j.Snmp4JStrategy";
+
+    private final SnmpStrategy m_delegate;
+
+    public DelegatingSnmpStrategy(final SnmpStrategy delegate) {
+        m_delegate = delegate;
+    }
+
+    /**
+     * Delegates to a new instance of the class named by the given system property.
+     */
+    protected DelegatingSnmpStrategy(final String delegateProperty) {
+        this(createStrategy(System.getProperty(delegateProperty, DEFAULT_DELEGATE)));
+    }
+
+    private static SnmpStrategy createStrategy(final String strategyClass) {
+        try {
+            return (SnmpStrategy) Class.forName(strategyClass).getDeclaredConstructor().newInstance();
+        } catch (Exception e) {
+            throw new RuntimeException("Unable to instantiate class " + strategyClass, e);
+        }
+    }
+
+    public SnmpStrategy getDelegate() {
+        return m_delegate;
+    }
+
+    @Override
+    public SnmpWalker createWalker(final SnmpAgentConfig agentConfig, final String name, final CollectionTracker tracker) {
+        return m_delegate.createWalker(agentConfig, name, tracker);
+    }
+
+    @Override
+    public SnmpValue set(final SnmpAgentConfig agentConfig, final SnmpObjId oid, final SnmpValue value) {
+        return m_delegate.set(agentConfig, oid, value);
+    }
+
+    @Override
+    public SnmpValue[] set(final SnmpAgentConfig agentConfig, final SnmpObjId[] oids, final SnmpValue[] values) {
+        return m_delegate.set(agentConfig, oids, values);
+    }
+
+    @Override
+    public SnmpValue get(final SnmpAgentConfig agentConfig, final SnmpObjId oid) {
+        return m_delegate.get(agentConfig, oid);
+    }
+
+    @Override
+    public SnmpValue[] get(final SnmpAgentConfig agentConfig, final SnmpObjId[] oids) {
+        return m_delegate.get(agentConfig, oids);
+    }
+
+    @Override
+    public CompletableFuture<SnmpValue[]> getAsync(final SnmpAgentConfig agentConfig, final SnmpObjId[] oids) {
+        return m_delegate.getAsync(agentConfig, oids);
+    }
+
+    @Override
+    public CompletableFuture<SnmpValue[]> setAsync(final SnmpAgentConfig agentConfig, final SnmpObjId[] oids, final SnmpValue[] values) {
+        return m_delegate.setAsync(agentConfig, oids, values);
+    }
+
+    @Override
+    public SnmpValue getNext(final SnmpAgentConfig agentConfig, final SnmpObjId oid) {
+        return m_delegate.getNext(agentConfig, oid);
+    }
+
+    @Override
+    public SnmpValue[] getNext(final SnmpAgentConfig agentConfig, final SnmpObjId[] oids) {
+        return m_delegate.getNext(agentConfig, oids);
+    }
+
+    @Override
+    public SnmpValue[] getBulk(final SnmpAgentConfig agentConfig, final SnmpObjId[] oids) {
+        return m_delegate.getBulk(agentConfig, oids);
+    }
+
+    @Override
+    public void registerForTraps(final TrapNotificationListener listener, final InetAddress address, final int snmpTrapPort, final List<SnmpV3User> snmpv3Users) throws IOException {
+        m_delegate.registerForTraps(listener, address, snmpTrapPort, snmpv3Users);
+    }
+
+    @Override
+    public void registerForTraps(final TrapNotificationListener listener, final InetAddress address, final int snmpTrapPort) throws IOException {
+        m_delegate.registerForTraps(listener, address, snmpTrapPort);
+    }
+
+    @Override
+    public void registerForTraps(final TrapNotificationListener listener, final int snmpTrapPort) throws IOException {
+        m_delegate.registerForTraps(listener, snmpTrapPort);
+    }
+
+    @Override
+    public void unregisterForTraps(final TrapNotificationListener listener) throws IOException {
+        m_delegate.unregisterForTraps(listener);
+    }
+
+    @Override
+    public SnmpValueFactory getValueFactory() {
+        return m_delegate.getValueFactory();
+    }
+
+    @Override
+    public SnmpV1TrapBuilder getV1TrapBuilder() {
+        return m_delegate.getV1TrapBuilder();
+    }
+
+    @Override
+    public SnmpTrapBuilder getV2TrapBuilder() {
+        return m_delegate.getV2TrapBuilder();
+    }
+
+    @Override
+    public SnmpV3TrapBuilder getV3TrapBuilder() {
+        return m_delegate.getV3TrapBuilder();
+    }
+
+    @Override
+    public SnmpV2TrapBuilder getV2InformBuilder() {
+        return m_delegate.getV2InformBuilder();
+    }
+
+    @Override
+    public SnmpV3TrapBuilder getV3InformBuilder() {
+        return m_delegate.getV3InformBuilder();
+    }
+
+    @Override
+    public byte[] getLocalEngineID() {
+        return m_delegate.getLocalEngineID();
+    }
+}
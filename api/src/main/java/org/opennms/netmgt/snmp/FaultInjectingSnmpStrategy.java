@@ -0,0 +1,464 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.snmp;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reproduces the faults of a real network in front of any other strategy, the mock
+ * strategy included, to tune the retries, the timeouts and the walker against them:
+ * latency with jitter, lost requests, requests sent twice to the agent, responses
+ * overtaken by later ones and tooBig errors.
+ *
+ * The faults are configured per agent, falling back to defaults, and drawn from a
+ * random generator per agent seeded with the strategy seed, so that a sequence of
+ * requests to an agent always sees the same faults. Lost requests are retried after
+ * the timeout of the agent configuration up to its retries, then fail with a
+ * {@link SnmpAgentTimeoutException} like the transport would.
+ *
+ * Used with the {@link ClassBasedStrategyResolver}, everything is configured with
+ * system properties prefixed with {@code org.opennms.core.snmp.faults.}: the class of the
+ * {@code delegate}, the {@code seed}, and the defaults named like the setters of
+ * {@link Faults}, e.g. {@code lossRate=0.05}. Faults of an agent are set by inserting its
+ * address, e.g. {@code org.opennms.core.snmp.faults.10.0.0.1.latencyMs=200}.
+ *
+ * Walks are delayed on the thread processing their responses, and duplicates are not
+ * applied to them as the transport discards the second response anyway.
+ */
+public class FaultInjectingSnmpStrategy extends DelegatingSnmpStrategy {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FaultInjectingSnmpStrategy.class);
+
+    private static final String PREFIX = "org.opennms.core.snmp.faults.";
+
+    private static final ScheduledExecutorService s_timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread thread = new Thread(r, "FaultInjectingSnmpStrategy-Timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Sends the delayed asynchronous requests, the timer only waits for their delay
+     * so that sends and their callbacks do not queue up behind each other.
+     */
+    private static final Executor s_sender = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("FaultInjectingSnmpStrategy-Sender-", 0).factory());
+
+    /**
+     * The faults injected for an agent, none by default.
+     */
+    public static class Faults {
+        private long m_latencyMs = 0;
+        private long m_jitterMs = 0;
+        private double m_lossRate = 0;
+        private double m_duplicateRate = 0;
+        private double m_reorderRate = 0;
+        private long m_reorderDelayMs = 50;
+        private double m_tooBigRate = 0;
+
+        public Faults() {
+        }
+
+        public Faults(final Faults faults) {
+            m_latencyMs = faults.m_latencyMs;
+            m_jitterMs = faults.m_jitterMs;
+            m_lossRate = faults.m_lossRate;
+            m_duplicateRate = faults.m_duplicateRate;
+            m_reorderRate = faults.m_reorderRate;
+            m_reorderDelayMs = faults.m_reorderDelayMs;
+            m_tooBigRate = faults.m_tooBigRate;
+        }
+
+        public long getLatencyMs() {
+            return m_latencyMs;
+        }
+
+        /**
+         * Delay added to every request.
+         */
+        public void setLatencyMs(final long latencyMs) {
+            m_latencyMs = latencyMs;
+        }
+
+        public long getJitterMs() {
+            return m_jitterMs;
+        }
+
+        /**
+         * Random delay between 0 and the jitter added on top of the latency.
+         */
+        public void setJitterMs(final long jitterMs) {
+            m_jitterMs = jitterMs;
+        }
+
+        public double getLossRate() {
+            return m_lossRate;
+        }
+
+        /**
+         * Probability of each attempt, retries included, to get no response.
+         */
+        public void setLossRate(final double lossRate) {
+            m_lossRate = lossRate;
+        }
+
+        public double getDuplicateRate() {
+            return m_duplicateRate;
+        }
+
+        /**
+         * Probability of a request to reach the agent twice: the request is sent to the
+         * delegate a second time and the response to the first one is discarded. It
+         * matters for sets, it does not model duplicated responses.
+         */
+        public void setDuplicateRate(final double duplicateRate) {
+            m_duplicateRate = duplicateRate;
+        }
+
+        public double getReorderRate() {
+            return m_reorderRate;
+        }
+
+        /**
+         * Probability of a response to be held back by the reorder delay, letting
+         * the responses to later requests overtake it.
+         */
+        public void setReorderRate(final double reorderRate) {
+            m_reorderRate = reorderRate;
+        }
+
+        public long getReorderDelayMs() {
+            return m_reorderDelayMs;
+        }
+
+        public void setReorderDelayMs(final long reorderDelayMs) {
+            m_reorderDelayMs = reorderDelayMs;
+        }
+
+        public double getTooBigRate() {
+            return m_tooBigRate;
+        }
+
+        /**
+         * Probability of a response to be replaced by a tooBig error.
+         */
+        public void setTooBigRate(final double tooBigRate) {
+            m_tooBigRate = tooBigRate;
+        }
+
+        /**
+         * Sets the fault with the given name from its string value, returns false
+         * if there is no fault with this name.
+         */
+        boolean set(final String name, final String value) {
+            switch (name) {
+            case "latencyMs": setLatencyMs(Long.parseLong(value)); return true;
+            case "jitterMs": setJitterMs(Long.parseLong(value)); return true;
+            case "lossRate": setLossRate(Double.parseDouble(value)); return true;
+            case "duplicateRate": setDuplicateRate(Double.parseDouble(value)); return true;
+            case "reorderRate": setReorderRate(Double.parseDouble(value)); return true;
+            case "reorderDelayMs": setReorderDelayMs(Long.parseLong(value)); return true;
+            case "tooBigRate": setTooBigRate(Double.parseDouble(value)); return true;
+            default: return false;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Faults[latencyMs=" + m_latencyMs + ", jitterMs=" + m_jitterMs + ", lossRate=" + m_lossRate
+                    + ", duplicateRate=" + m_duplicateRate + ", reorderRate=" + m_reorderRate
+                    + ", reorderDelayMs=" + m_reorderDelayMs + ", tooBigRate=" + m_tooBigRate + "]";
+        }
+    }
+
+    /**
+     * The faults drawn for one attempt of a request.
+     */
+    private static class Attempt {
+        private final boolean m_lost;
+        private final long m_delayMs;
+        private final boolean m_duplicate;
+        private final boolean m_tooBig;
+
+        private Attempt(final Faults faults, final Random random) {
+            // always draw the same number of values so that the sequence only depends on the attempt
+            m_lost = random.nextDouble() < faults.getLossRate();
+            final long jitter = faults.getJitterMs() > 0 ? (long)(random.nextDouble() * (faults.getJitterMs() + 1)) : 0;
+            final boolean reordered = random.nextDouble() < faults.getReorderRate();
+            m_duplicate = random.nextDouble() < faults.getDuplicateRate();
+            m_tooBig = random.nextDouble() < faults.getTooBigRate();
+            m_delayMs = faults.getLatencyMs() + jitter + (reordered ? faults.getReorderDelayMs() : 0);
+        }
+    }
+
+    private final long m_seed;
+    private volatile Faults m_defaultFaults;
+    private final Map<InetAddress, Faults> m_faults = new ConcurrentHashMap<>();
+    private final Map<InetAddress, Random> m_randoms = new ConcurrentHashMap<>();
+
+    public FaultInjectingSnmpStrategy() {
+        super(PREFIX + "delegate");
+        m_seed = Long.getLong(PREFIX + "seed", 0L);
+        m_defaultFaults = new Faults();
+        for (final String key : System.getProperties().stringPropertyNames()) {
+            if (!key.startsWith(PREFIX)) {
+                continue;
+            }
+            final String name = key.substring(key.lastIndexOf('.') + 1);
+            final String value = System.getProperty(key);
+            if (key.length() == PREFIX.length() + name.length()) {
+                m_defaultFaults.set(name, value);
+            }
+        }
+        for (final String key : System.getProperties().stringPropertyNames()) {
+            final int lastDot = key.lastIndexOf('.');
+            if (!key.startsWith(PREFIX) || lastDot <= PREFIX.length()) {
+                continue;
+            }
+            final String agent = key.substring(PREFIX.length(), lastDot);
+            try {
+                m_faults.computeIfAbsent(InetAddress.getByName(agent), a -> new Faults(m_defaultFaults)).set(key.substring(lastDot + 1), System.getProperty(key));
+            } catch (UnknownHostException e) {
+                LOG.warn("Ignoring the faults of unknown agent {}", agent);
+            }
+        }
+        LOG.info("Injecting {} by default and {} for specific agents, seed {}", m_defaultFaults, m_faults, m_seed);
+    }
+
+    public FaultInjectingSnmpStrategy(final SnmpStrategy delegate, final long seed) {
+        super(delegate);
+        m_seed = seed;
+        m_defaultFaults = new Faults();
+    }
+
+    public Faults getDefaultFaults() {
+        return m_defaultFaults;
+    }
+
+    public void setDefaultFaults(final Faults faults) {
+        m_defaultFaults = faults;
+    }
+
+    public void setFaults(final InetAddress address, final Faults faults) {
+        m_faults.put(address, faults);
+    }
+
+    public void removeFaults(final InetAddress address) {
+        m_faults.remove(address);
+    }
+
+    /**
+     * Restarts the random sequences of all of the agents.
+     */
+    public void reset() {
+        m_randoms.clear();
+    }
+
+    private Attempt nextAttempt(final InetAddress address) {
+        final Faults faults = m_faults.getOrDefault(address, m_defaultFaults);
+        final Random random = m_randoms.computeIfAbsent(address, a -> new Random(m_seed ^ a.hashCode()));
+        synchronized (random) {
+            return new Attempt(faults, random);
+        }
+    }
+
+    private static void sleep(final long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Runs a blocking request with the faults of the agent, returns the given
+     * timeout value if every attempt is lost or if the agent answers tooBig.
+     */
+    private <T> T exchange(final SnmpAgentConfig agentConfig, final Supplier<T> request, final T timeoutValue) {
+        for (int retry = 0; retry <= agentConfig.getRetries(); retry++) {
+            final Attempt attempt = nextAttempt(agentConfig.getAddress());
+            if (attempt.m_lost) {
+                sleep(agentConfig.getTimeout());
+                continue;
+            }
+            sleep(attempt.m_delayMs);
+            if (attempt.m_duplicate) {
+                request.get();
+            }
+            return attempt.m_tooBig ? timeoutValue : request.get();
+        }
+        LOG.debug("Dropped all of the attempts of a request to {}", agentConfig.getAddress());
+        return timeoutValue;
+    }
+
+    private CompletableFuture<SnmpValue[]> exchangeAsync(final SnmpAgentConfig agentConfig, final Supplier<CompletableFuture<SnmpValue[]>> request) {
+        final CompletableFuture<SnmpValue[]> future = new CompletableFuture<>();
+        attemptAsync(agentConfig, request, 0, future);
+        return future;
+    }
+
+    private void attemptAsync(final SnmpAgentConfig agentConfig, final Supplier<CompletableFuture<SnmpValue[]>> request, final int retry, final CompletableFuture<SnmpValue[]> future) {
+        final Attempt attempt = nextAttempt(agentConfig.getAddress());
+        if (attempt.m_lost) {
+            s_timer.schedule(() -> {
+                if (retry < agentConfig.getRetries()) {
+                    attemptAsync(agentConfig, request, retry + 1, future);
+                } else {
+                    future.completeExceptionally(new SnmpException(new SnmpAgentTimeoutException(agentConfig.getAddress())));
+                }
+            }, agentConfig.getTimeout(), TimeUnit.MILLISECONDS);
+            return;
+        }
+        s_timer.schedule(() -> s_sender.execute(() -> {
+            if (attempt.m_tooBig) {
+                future.completeExceptionally(new SnmpException(new ErrorStatusException(ErrorStatus.TOO_BIG)));
+                return;
+            }
+            try {
+                if (attempt.m_duplicate) {
+                    request.get();
+                }
+                request.get().whenComplete((values, t) -> {
+                    if (t != null) {
+                        future.completeExceptionally(t);
+                    } else {
+                        future.complete(values);
+                    }
+                });
+            } catch (final RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        }), attempt.m_delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public SnmpWalker createWalker(final SnmpAgentConfig agentConfig, final String name, final CollectionTracker tracker) {
+        return super.createWalker(agentConfig, name, new FaultInjectingTracker(agentConfig, name, tracker));
+    }
+
+    @Override
+    public SnmpValue set(final SnmpAgentConfig agentConfig, final SnmpObjId oid, final SnmpValue value) {
+        return exchange(agentConfig, () -> super.set(agentConfig, oid, value), null);
+    }
+
+    @Override
+    public SnmpValue[] set(final SnmpAgentConfig agentConfig, final SnmpObjId[] oids, final SnmpValue[] values) {
+        return exchange(agentConfig, () -> super.set(agentConfig, oids, values), new SnmpValue[] { null });
+    }
+
+    @Override
+    public SnmpValue get(final SnmpAgentConfig agentConfig, final SnmpObjId oid) {
+        return exchange(agentConfig, () -> super.get(agentConfig, oid), null);
+    }
+
+    @Override
+    public SnmpValue[] get(final SnmpAgentConfig agentConfig, final SnmpObjId[] oids) {
+        return exchange(agentConfig, () -> super.get(agentConfig, oids), new SnmpValue[] { null });
+    }
+
+    @Override
+    public CompletableFuture<SnmpValue[]> getAsync(final SnmpAgentConfig agentConfig, final SnmpObjId[] oids) {
+        return exchangeAsync(agentConfig, () -> super.getAsync(agentConfig, oids));
+    }
+
+    @Override
+    public CompletableFuture<SnmpValue[]> setAsync(final SnmpAgentConfig agentConfig, final SnmpObjId[] oids, final SnmpValue[] values) {
+        return exchangeAsync(agentConfig, () -> super.setAsync(agentConfig, oids, values));
+    }
+
+    @Override
+    public SnmpValue getNext(final SnmpAgentConfig agentConfig, final SnmpObjId oid) {
+        return exchange(agentConfig, () -> super.getNext(agentConfig, oid), null);
+    }
+
+    @Override
+    public SnmpValue[] getNext(final SnmpAgentConfig agentConfig, final SnmpObjId[] oids) {
+        return exchange(agentConfig, () -> super.getNext(agentConfig, oids), new SnmpValue[] { null });
+    }
+
+    @Override
+    public SnmpValue[] getBulk(final SnmpAgentConfig agentConfig, final SnmpObjId[] oids) {
+        return exchange(agentConfig, () -> super.getBulk(agentConfig, oids), new SnmpValue[] { null });
+    }
+
+    /**
+     * Applies the faults to the responses of a walk before the tracker of the walk sees them.
+     * A lost response makes the walker send the same PDU again.
+     */
+    private class FaultInjectingTracker extends DelegatingCollectionTracker {
+        private final SnmpAgentConfig m_agentConfig;
+        private final String m_name;
+        private int m_lost = 0;
+
+        private FaultInjectingTracker(final SnmpAgentConfig agentConfig, final String name, final CollectionTracker tracker) {
+            super(tracker);
+            m_agentConfig = agentConfig;
+            m_name = name;
+        }
+
+        @Override
+        public ResponseProcessor buildNextPdu(final PduBuilder pduBuilder) throws SnmpException {
+            final ResponseProcessor processor = super.buildNextPdu(pduBuilder);
+            return new ResponseProcessor() {
+                @Override
+                public void processResponse(final SnmpObjId snmpObjId, final SnmpValue val) throws SnmpException {
+                    processor.processResponse(snmpObjId, val);
+                }
+
+                @Override
+                public boolean processErrors(final int errorStatus, final int errorIndex) throws SnmpException {
+                    final Attempt attempt = nextAttempt(m_agentConfig.getAddress());
+                    if (attempt.m_lost) {
+                        sleep(m_agentConfig.getTimeout());
+                        if (++m_lost > m_agentConfig.getRetries()) {
+                            setTimedOut(true);
+                            throw new SnmpException(new SnmpAgentTimeoutException(m_name, m_agentConfig.getAddress()));
+                        }
+                        // ignore the response and send the request again
+                        return true;
+                    }
+                    m_lost = 0;
+                    sleep(attempt.m_delayMs);
+                    if (attempt.m_tooBig && errorStatus == ErrorStatus.NO_ERROR.ordinal()) {
+                        return processor.processErrors(ErrorStatus.TOO_BIG.ordinal(), 0);
+                    }
+                    return processor.processErrors(errorStatus, errorIndex);
+                }
+            };
+        }
+    }
+}
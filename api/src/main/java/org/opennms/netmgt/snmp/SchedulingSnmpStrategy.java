@@ -0,0 +1,664 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.snmp;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounds the requests in flight, to each agent and overall, so that the subsystems
+ * polling the same device do not flood its agent.
+ *
+ * Requests beyond the limits are queued per agent and the agents with queued requests
+ * are served in turn, one request each, so that a busy agent does not delay the others.
+ * The requests sent to each agent and overall can also be paced to a number of packets
+ * per second. The time spent in the queue is reported apart from the round trip time of
+ * the requests in {@link SchedulerStats}, overall and for each {@link SnmpRequestPriority}.
+ *
+ * The requests of higher priority, taken from the thread sending them, are sent before
+ * the others. Some of the slots, to each agent and overall, are also reserved to the
+ * requests of {@link SnmpRequestPriority#HIGH high} priority so that they do not have
+ * to wait for the requests of lower priority already in flight.
+ *
+ * A walk takes one slot for its whole duration and is started once it gets it, its PDUs
+ * are not paced individually. Blocking requests wait for their slot on the calling thread.
+ *
+ * Used with the {@link ClassBasedStrategyResolver}, it is configured with the system
+ * properties prefixed with {@code org.opennms.core.snmp.scheduler.}: the class of the
+ * {@code delegate} sending the requests, {@code maxInFlightPerAgent} (4 by default),
+ * {@code maxInFlight}, {@code packetsPerSecondPerAgent} and {@code packetsPerSecond},
+ * a value of 0 meaning no limit, and {@code highPriorityReserve}, the number of slots of
+ * each limit reserved to the requests of high priority (1 by default).
+ */
+public class SchedulingSnmpStrategy extends DelegatingSnmpStrategy {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SchedulingSnmpStrategy.class);
+
+    private static final String PREFIX = "org.opennms.core.snmp.scheduler.";
+
+    private static final ScheduledExecutorService s_timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread thread = new Thread(r, "SchedulingSnmpStrategy-Timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final int m_maxInFlightPerAgent;
+    private final int m_maxInFlight;
+    private final int m_highPriorityReserve;
+    private final long m_agentInterval;
+    private final Pacer m_pacer;
+
+    private final Object m_lock = new Object();
+    private final Map<SnmpAgentAddress, Agent> m_agents = new HashMap<>();
+    private final Map<SnmpRequestPriority, Deque<Agent>> m_ready = new EnumMap<>(SnmpRequestPriority.class);
+    private int m_inFlight = 0;
+    private boolean m_paced = false;
+    private final AtomicInteger m_dispatching = new AtomicInteger();
+
+    private final SchedulerStats m_stats = new SchedulerStats();
+    private final Map<SnmpRequestPriority, SchedulerStats> m_priorityStats = new EnumMap<>(SnmpRequestPriority.class);
+
+    public SchedulingSnmpStrategy() {
+        super(PREFIX + "delegate");
+        m_maxInFlightPerAgent = Integer.getInteger(PREFIX + "maxInFlightPerAgent", 4);
+        m_maxInFlight = Integer.getInteger(PREFIX + "maxInFlight", 0);
+        m_highPriorityReserve = Integer.getInteger(PREFIX + "highPriorityReserve", 1);
+        m_agentInterval = interval(Integer.getInteger(PREFIX + "packetsPerSecondPerAgent", 0));
+        m_pacer = new Pacer(interval(Integer.getInteger(PREFIX + "packetsPerSecond", 0)));
+        init();
+    }
+
+    /**
+     * One slot of each limit is reserved to the requests of high priority, like by default
+     * with the system properties.
+     *
+     * @param maxInFlightPerAgent requests in flight to each agent, 0 for no limit
+     * @param maxInFlight requests in flight overall, 0 for no limit
+     * @param packetsPerSecondPerAgent requests sent to each agent per second, 0 for no limit
+     * @param packetsPerSecond requests sent per second overall, 0 for no limit
+     */
+    public SchedulingSnmpStrategy(final SnmpStrategy delegate, final int maxInFlightPerAgent, final int maxInFlight, final int packetsPerSecondPerAgent, final int packetsPerSecond) {
+        this(delegate, maxInFlightPerAgent, maxInFlight, packetsPerSecondPerAgent, packetsPerSecond, 1);
+    }
+
+    /**
+     * @param highPriorityReserve slots of the limits in flight only used by requests of high priority
+     */
+    public SchedulingSnmpStrategy(final SnmpStrategy delegate, final int maxInFlightPerAgent, final int maxInFlight, final int packetsPerSecondPerAgent, final int packetsPerSecond, final int highPriorityReserve) {
+        super(delegate);
+        m_maxInFlightPerAgent = maxInFlightPerAgent;
+        m_maxInFlight = maxInFlight;
+        m_highPriorityReserve = highPriorityReserve;
+        m_agentInterval = interval(packetsPerSecondPerAgent);
+        m_pacer = new Pacer(interval(packetsPerSecond));
+        init();
+    }
+
+    private void init() {
+        for (final SnmpRequestPriority priority : SnmpRequestPriority.values()) {
+            m_ready.put(priority, new ArrayDeque<>());
+            m_priorityStats.put(priority, new SchedulerStats());
+        }
+    }
+
+    private static long interval(final int packetsPerSecond) {
+        return packetsPerSecond <= 0 ? 0 : TimeUnit.SECONDS.toNanos(1) / packetsPerSecond;
+    }
+
+    public SchedulerStats getStats() {
+        return m_stats;
+    }
+
+    public SchedulerStats getStats(final SnmpRequestPriority priority) {
+        return m_priorityStats.get(priority);
+    }
+
+    /**
+     * Slots of the given limit the requests of the given priority may take, at least one.
+     */
+    private int limit(final int max, final SnmpRequestPriority priority) {
+        if (max <= 0 || priority == SnmpRequestPriority.HIGH) {
+            return max;
+        }
+        return Math.max(1, max - m_highPriorityReserve);
+    }
+
+    /**
+     * Requests waiting for a slot to the given agent.
+     */
+    public int getQueued(final SnmpAgentAddress address) {
+        synchronized (m_lock) {
+            final Agent agent = m_agents.get(address);
+            return agent == null ? 0 : agent.m_pending.values().stream().mapToInt(Deque::size).sum();
+        }
+    }
+
+    /**
+     * Requests in flight to the given agent.
+     */
+    public int getInFlight(final SnmpAgentAddress address) {
+        synchronized (m_lock) {
+            final Agent agent = m_agents.get(address);
+            return agent == null ? 0 : agent.m_inFlight;
+        }
+    }
+
+    /**
+     * Queues a request to the agent, the action is called with the request once it
+     * gets a slot and must release it when done.
+     */
+    private Request submit(final SnmpAgentConfig agentConfig, final SnmpRequestPriority priority, final Consumer<Request> action) {
+        final SnmpAgentAddress address = new SnmpAgentAddress(agentConfig.getAddress(), agentConfig.getPort());
+        m_stats.submitted();
+        m_priorityStats.get(priority).submitted();
+        final Request request;
+        synchronized (m_lock) {
+            final Agent agent = m_agents.computeIfAbsent(address, Agent::new);
+            request = new Request(agent, priority, action);
+            agent.m_pending.get(priority).add(request);
+            ready(agent);
+        }
+        dispatch();
+        return request;
+    }
+
+    private boolean mayDispatch(final Agent agent, final SnmpRequestPriority priority) {
+        return !agent.m_paced && !agent.m_pending.get(priority).isEmpty()
+                && (m_maxInFlightPerAgent <= 0 || agent.m_inFlight < limit(m_maxInFlightPerAgent, priority));
+    }
+
+    /**
+     * Puts the agent in line for a slot for each priority it has queued requests of and may send.
+     */
+    private void ready(final Agent agent) {
+        for (final SnmpRequestPriority priority : SnmpRequestPriority.values()) {
+            if (!agent.m_ready.contains(priority) && mayDispatch(agent, priority)) {
+                agent.m_ready.add(priority);
+                m_ready.get(priority).add(agent);
+            }
+        }
+    }
+
+    /**
+     * Hands out the free slots, the requests are started outside of the lock. A single
+     * thread dispatches at a time, the others leave it the requests they released.
+     */
+    private void dispatch() {
+        if (m_dispatching.getAndIncrement() != 0) {
+            return;
+        }
+        do {
+            final List<Request> dispatched = new ArrayList<>();
+            synchronized (m_lock) {
+                final long now = System.nanoTime();
+                for (final SnmpRequestPriority priority : SnmpRequestPriority.values()) {
+                    final Deque<Agent> ready = m_ready.get(priority);
+                    while (!ready.isEmpty() && (m_maxInFlight <= 0 || m_inFlight < limit(m_maxInFlight, priority)) && !m_paced) {
+                        final long delay = m_pacer.delay(now);
+                        if (delay > 0) {
+                            m_paced = true;
+                            s_timer.schedule(() -> {
+                                synchronized (m_lock) {
+                                    m_paced = false;
+                                }
+                                dispatch();
+                            }, delay, TimeUnit.NANOSECONDS);
+                            break;
+                        }
+                        final Agent agent = ready.poll();
+                        agent.m_ready.remove(priority);
+                        if (!mayDispatch(agent, priority)) {
+                            // paced, or its slots were taken by requests of higher priority
+                            continue;
+                        }
+                        final long agentDelay = agent.m_pacer.delay(now);
+                        if (agentDelay > 0) {
+                            agent.m_paced = true;
+                            s_timer.schedule(() -> {
+                                synchronized (m_lock) {
+                                    agent.m_paced = false;
+                                    ready(agent);
+                                }
+                                dispatch();
+                            }, agentDelay, TimeUnit.NANOSECONDS);
+                            continue;
+                        }
+                        m_pacer.sent(now);
+                        agent.m_pacer.sent(now);
+                        final Request request = agent.m_pending.get(priority).poll();
+                        request.m_dispatchedAt = now;
+                        agent.m_inFlight++;
+                        m_inFlight++;
+                        // back in line behind the other agents
+                        ready(agent);
+                        dispatched.add(request);
+                    }
+                }
+            }
+            for (final Request request : dispatched) {
+                m_stats.dispatched(request.m_dispatchedAt - request.m_queuedAt);
+                m_priorityStats.get(request.m_priority).dispatched(request.m_dispatchedAt - request.m_queuedAt);
+                try {
+                    request.m_action.accept(request);
+                } catch (final RuntimeException e) {
+                    LOG.warn("Failed to start a request to {}", request.m_agent.m_address, e);
+                    request.release();
+                }
+            }
+        } while (m_dispatching.decrementAndGet() != 0);
+    }
+
+    private <T> T call(final SnmpAgentConfig agentConfig, final Supplier<T> call, final T interrupted) {
+        final CompletableFuture<Void> slot = new CompletableFuture<>();
+        final Request request = submit(agentConfig, SnmpRequestPriority.current(), r -> {
+            if (!slot.complete(null)) {
+                // the caller gave up while queued
+                r.release();
+            }
+        });
+        try {
+            slot.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (!slot.cancel(false)) {
+                request.release();
+            }
+            return interrupted;
+        } catch (final ExecutionException | CancellationException e) {
+            // never completed exceptionally
+        }
+        try {
+            return call.get();
+        } finally {
+            request.release();
+        }
+    }
+
+    private CompletableFuture<SnmpValue[]> callAsync(final SnmpAgentConfig agentConfig, final Supplier<CompletableFuture<SnmpValue[]>> call) {
+        final CompletableFuture<SnmpValue[]> future = new CompletableFuture<>();
+        submit(agentConfig, SnmpRequestPriority.current(), request -> {
+            if (future.isDone()) {
+                // cancelled while queued
+                request.release();
+                return;
+            }
+            final CompletableFuture<SnmpValue[]> sent;
+            try {
+                sent = call.get();
+            } catch (final RuntimeException e) {
+                request.release();
+                future.completeExceptionally(e);
+                return;
+            }
+            // the caller no longer waits for the response, which frees the slot
+            future.whenComplete((values, t) -> {
+                if (future.isCancelled()) {
+                    sent.cancel(true);
+                }
+            });
+            sent.whenComplete((values, t) -> {
+                request.release();
+                if (t != null) {
+                    future.completeExceptionally(t);
+                } else {
+                    future.complete(values);
+                }
+            });
+        });
+        return future;
+    }
+
+    @Override
+    public SnmpWalker createWalker(final SnmpAgentConfig agentConfig, final String name, final CollectionTracker tracker) {
+        return new QueuedWalker(agentConfig, name, tracker);
+    }
+
+    @Override
+    public SnmpValue set(final SnmpAgentConfig agentConfig, final SnmpObjId oid, final SnmpValue value) {
+        return call(agentConfig, () -> super.set(agentConfig, oid, value), null);
+    }
+
+    @Override
+    public SnmpValue[] set(final SnmpAgentConfig agentConfig, final SnmpObjId[] oids, final SnmpValue[] values) {
+        return call(agentConfig, () -> super.set(agentConfig, oids, values), new SnmpValue[] { null });
+    }
+
+    @Override
+    public SnmpValue get(final SnmpAgentConfig agentConfig, final SnmpObjId oid) {
+        return call(agentConfig, () -> super.get(agentConfig, oid), null);
+    }
+
+    @Override
+    public SnmpValue[] get(final SnmpAgentConfig agentConfig, final SnmpObjId[] oids) {
+        return call(agentConfig, () -> super.get(agentConfig, oids), new SnmpValue[] { null });
+    }
+
+    @Override
+    public CompletableFuture<SnmpValue[]> getAsync(final SnmpAgentConfig agentConfig, final SnmpObjId[] oids) {
+        return callAsync(agentConfig, () -> super.getAsync(agentConfig, oids));
+    }
+
+    @Override
+    public CompletableFuture<SnmpValue[]> setAsync(final SnmpAgentConfig agentConfig, final SnmpObjId[] oids, final SnmpValue[] values) {
+        return callAsync(agentConfig, () -> super.setAsync(agentConfig, oids, values));
+    }
+
+    @Override
+    public SnmpValue getNext(final SnmpAgentConfig agentConfig, final SnmpObjId oid) {
+        return call(agentConfig, () -> super.getNext(agentConfig, oid), null);
+    }
+
+    @Override
+    public SnmpValue[] getNext(final SnmpAgentConfig agentConfig, final SnmpObjId[] oids) {
+        return call(agentConfig, () -> super.getNext(agentConfig, oids), new SnmpValue[] { null });
+    }
+
+    @Override
+    public SnmpValue[] getBulk(final SnmpAgentConfig agentConfig, final SnmpObjId[] oids) {
+        return call(agentConfig, () -> super.getBulk(agentConfig, oids), new SnmpValue[] { null });
+    }
+
+    /**
+     * Spaces the packets sent by a fixed interval.
+     */
+    private static class Pacer {
+        private final long m_interval;
+        private long m_next;
+        private boolean m_started = false;
+
+        private Pacer(final long interval) {
+            m_interval = interval;
+        }
+
+        public long delay(final long now) {
+            return m_interval == 0 || !m_started ? 0 : Math.max(0, m_next - now);
+        }
+
+        public void sent(final long now) {
+            if (m_interval != 0) {
+                m_next = (m_started ? Math.max(m_next, now) : now) + m_interval;
+                m_started = true;
+            }
+        }
+
+        public boolean isIdle(final long now) {
+            return delay(now) == 0;
+        }
+    }
+
+    /**
+     * The requests queued for and in flight to one agent, guarded by the lock of the strategy.
+     */
+    private class Agent {
+        private final SnmpAgentAddress m_address;
+        private final Map<SnmpRequestPriority, Deque<Request>> m_pending = new EnumMap<>(SnmpRequestPriority.class);
+        private final Pacer m_pacer = new Pacer(m_agentInterval);
+        private int m_inFlight = 0;
+        private final EnumSet<SnmpRequestPriority> m_ready = EnumSet.noneOf(SnmpRequestPriority.class);
+        private boolean m_paced = false;
+
+        private Agent(final SnmpAgentAddress address) {
+            m_address = address;
+            for (final SnmpRequestPriority priority : SnmpRequestPriority.values()) {
+                m_pending.put(priority, new ArrayDeque<>());
+            }
+        }
+
+        private boolean isIdle(final long now) {
+            return m_inFlight == 0 && !m_paced && m_pacer.isIdle(now) && m_pending.values().stream().allMatch(Deque::isEmpty);
+        }
+    }
+
+    private class Request {
+        private final Agent m_agent;
+        private final SnmpRequestPriority m_priority;
+        private final Consumer<Request> m_action;
+        private final long m_queuedAt = System.nanoTime();
+        private long m_dispatchedAt;
+        private final AtomicBoolean m_released = new AtomicBoolean(false);
+
+        private Request(final Agent agent, final SnmpRequestPriority priority, final Consumer<Request> action) {
+            m_agent = agent;
+            m_priority = priority;
+            m_action = action;
+        }
+
+        /**
+         * Gives the slot of the request back, once the request completed or was abandoned.
+         */
+        public void release() {
+            if (!m_released.compareAndSet(false, true)) {
+                return;
+            }
+            final long roundTrip = System.nanoTime() - m_dispatchedAt;
+            m_stats.completed(roundTrip);
+            m_priorityStats.get(m_priority).completed(roundTrip);
+            synchronized (m_lock) {
+                m_agent.m_inFlight--;
+                m_inFlight--;
+                ready(m_agent);
+                if (m_agent.isIdle(System.nanoTime())) {
+                    m_agents.remove(m_agent.m_address);
+                }
+            }
+            dispatch();
+        }
+    }
+
+    /**
+     * Walk waiting for a slot, the walk of the delegate is created and started once it
+     * gets one and its outcome is reported as the outcome of this walker.
+     */
+    private class QueuedWalker extends SnmpWalker {
+        private final SnmpAgentConfig m_agentConfig;
+        private final CollectionTracker m_tracker;
+        private final SnmpRequestPriority m_priority = SnmpRequestPriority.current();
+        private volatile SnmpWalker m_walker;
+
+        private QueuedWalker(final SnmpAgentConfig agentConfig, final String name, final CollectionTracker tracker) {
+            super(agentConfig.getAddress(), name, agentConfig.getMaxVarsPerPdu(), agentConfig.getMaxRepetitions(), agentConfig.getRetries(), tracker);
+            m_agentConfig = agentConfig;
+            m_tracker = tracker;
+        }
+
+        @Override
+        public void start() {
+            submit(m_agentConfig, m_priority, request -> {
+                if (isFinished()) {
+                    // cancelled while queued
+                    request.release();
+                    return;
+                }
+                final SnmpWalker walker;
+                try {
+                    walker = getDelegate().createWalker(m_agentConfig, getName(), m_tracker);
+                } catch (final RuntimeException e) {
+                    request.release();
+                    handleFatalError(e);
+                    return;
+                }
+                walker.setCallback((w, t) -> {
+                    request.release();
+                    complete(w);
+                });
+                // published before checking for a cancel, which either sees it or is seen here
+                m_walker = walker;
+                if (isFinished()) {
+                    // cancelled while the walker was created, cancelling it releases the slot
+                    walker.cancel();
+                    return;
+                }
+                walker.start();
+            });
+        }
+
+        private void complete(final SnmpWalker walker) {
+            if (!walker.failed()) {
+                handleDone();
+            } else {
+                handleDelegateError(walker);
+            }
+        }
+
+        @Override
+        public void cancel(final Throwable cause) {
+            final SnmpWalker walker = m_walker;
+            if (walker != null) {
+                walker.cancel(cause);
+            } else {
+                super.cancel(cause);
+                // the walker may have been published in between, in which case start() may not have seen the cancel
+                final SnmpWalker published = m_walker;
+                if (published != null) {
+                    published.cancel(cause);
+                }
+            }
+        }
+
+        @Override
+        public int getPdusSent() {
+            final SnmpWalker walker = m_walker;
+            return walker == null ? 0 : walker.getPdusSent();
+        }
+
+        @Override
+        protected WalkerPduBuilder createPduBuilder(final int maxVarsPerPdu) {
+            return null;
+        }
+
+        @Override
+        protected void sendNextPdu(final WalkerPduBuilder pduBuilder) {
+            // sent by the walker of the delegate
+        }
+
+        @Override
+        public void close() {
+            final SnmpWalker walker = m_walker;
+            if (walker != null) {
+                walker.close();
+            }
+        }
+    }
+
+    /**
+     * Counters of the requests going through the scheduler, overall or of one priority.
+     * The time spent waiting for a slot and the round trip time once sent are accounted
+     * separately.
+     */
+    public static class SchedulerStats {
+        private final LongAdder m_submitted = new LongAdder();
+        private final LongAdder m_dispatched = new LongAdder();
+        private final LongAdder m_completed = new LongAdder();
+        private final LongAdder m_queueTimeTotal = new LongAdder();
+        private final AtomicLong m_queueTimeMax = new AtomicLong();
+        private final LongAdder m_roundTripTotal = new LongAdder();
+        private final AtomicLong m_roundTripMax = new AtomicLong();
+        private final AtomicLong m_queued = new AtomicLong();
+        private final AtomicLong m_inFlight = new AtomicLong();
+
+        private void submitted() {
+            m_submitted.increment();
+            m_queued.incrementAndGet();
+        }
+
+        private void dispatched(final long queueNanos) {
+            m_dispatched.increment();
+            m_queued.decrementAndGet();
+            m_inFlight.incrementAndGet();
+            m_queueTimeTotal.add(queueNanos);
+            m_queueTimeMax.accumulateAndGet(queueNanos, Math::max);
+        }
+
+        private void completed(final long roundTripNanos) {
+            m_completed.increment();
+            m_inFlight.decrementAndGet();
+            m_roundTripTotal.add(roundTripNanos);
+            m_roundTripMax.accumulateAndGet(roundTripNanos, Math::max);
+        }
+
+        public long getSubmitted() {
+            return m_submitted.sum();
+        }
+
+        public long getDispatched() {
+            return m_dispatched.sum();
+        }
+
+        public long getCompleted() {
+            return m_completed.sum();
+        }
+
+        public long getQueued() {
+            return m_queued.get();
+        }
+
+        public long getInFlight() {
+            return m_inFlight.get();
+        }
+
+        public double getAverageQueueTimeMs() {
+            final long dispatched = getDispatched();
+            return dispatched == 0 ? 0 : (double)m_queueTimeTotal.sum() / dispatched / TimeUnit.MILLISECONDS.toNanos(1);
+        }
+
+        public double getMaxQueueTimeMs() {
+            return (double)m_queueTimeMax.get() / TimeUnit.MILLISECONDS.toNanos(1);
+        }
+
+        public double getAverageRoundTripMs() {
+            final long completed = getCompleted();
+            return completed == 0 ? 0 : (double)m_roundTripTotal.sum() / completed / TimeUnit.MILLISECONDS.toNanos(1);
+        }
+
+        public double getMaxRoundTripMs() {
+            return (double)m_roundTripMax.get() / TimeUnit.MILLISECONDS.toNanos(1);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("submitted=%d, dispatched=%d, completed=%d, queued=%d, inFlight=%d, avgQueueTimeMs=%.1f, maxQueueTimeMs=%.1f, avgRoundTripMs=%.1f, maxRoundTripMs=%.1f",
+                    getSubmitted(), getDispatched(), getCompleted(), getQueued(), getInFlight(),
+                    getAverageQueueTimeMs(), getMaxQueueTimeMs(), getAverageRoundTripMs(), getMaxRoundTripMs());
+        }
+    }
+}
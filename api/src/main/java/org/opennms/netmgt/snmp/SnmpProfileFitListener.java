@@ -0,0 +1,63 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.snmp;
+
+import java.net.InetAddress;
+import java.util.Optional;
+
+/**
+ * Receives the results of {@link SnmpProfileMapper#fitProfiles} as they become known.
+ *
+ * The methods are never called concurrently for the same sweep.
+ */
+public interface SnmpProfileFitListener {
+
+    /**
+     * @param address     one of the addresses of the sweep
+     * @param agentConfig configuration of the first profile that fits, empty if none does
+     */
+    void fitted(InetAddress address, Optional<SnmpAgentConfig> agentConfig);
+
+    /**
+     * Called instead of {@link #fitted} when it is unknown whether a profile fits the address,
+     * i.e. because the location could not be reached to probe it. The address is not cached
+     * as not fitting and is probed again by the next fit.
+     *
+     * The default implementation reports the address as not fitting.
+     *
+     * @param address one of the addresses of the sweep
+     * @param cause   why the address could not be probed
+     */
+    default void failed(InetAddress address, Throwable cause) {
+        fitted(address, Optional.empty());
+    }
+
+    /**
+     * Called after each address was fitted or failed.
+     *
+     * @param fitted number of addresses fitted so far
+     * @param total  number of addresses of the sweep, -1 if unknown
+     */
+    default void progress(long fitted, long total) {
+    }
+
+}
@@ -22,6 +22,8 @@
 package org.opennms.netmgt.snmp;
 
 import java.net.InetAddress;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 
@@ -65,4 +67,53 @@ public interface SnmpProfileMapper {
      */
     CompletableFuture<Optional<SnmpAgentConfig>> fitProfile(String label, InetAddress inetAddress, String location, String oid);
 
+    /**
+     * Fit profiles to many IP addresses, i.e. a range being discovered. The addresses are fitted the
+     * same way as with {@link #getAgentConfigFromProfiles(InetAddress, String, String)}, and the
+     * results are handed to the listener as they become known.
+     *
+     * The default implementation fits the addresses one after the other.
+     *
+     * @param inetAddresses addresses that need fitting, they are iterated lazily
+     * @param location      location of the IP addresses.
+     * @param oid           OID with which SNMP get needs to be performed, null for the default
+     * @param listener      notified of the outcome for each address and of the progress
+     * @return a future completed once all the addresses were fitted, cancelling it stops the sweep
+     */
+    default CompletableFuture<Void> fitProfiles(Iterable<InetAddress> inetAddresses, String location, String oid, SnmpProfileFitListener listener) {
+        final long total = inetAddresses instanceof Collection ? ((Collection<?>) inetAddresses).size() : -1;
+        final Iterator<InetAddress> iterator = inetAddresses.iterator();
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        new Object() {
+            private long fitted = 0;
+
+            void next() {
+                // loops over the fits that complete right away, i.e. cached ones, and resumes once the others complete
+                while (!future.isDone() && iterator.hasNext()) {
+                    final InetAddress inetAddress = iterator.next();
+                    final CompletableFuture<Optional<SnmpAgentConfig>> fit = getAgentConfigFromProfiles(inetAddress, location, oid);
+                    if (!fit.isDone()) {
+                        fit.whenComplete((agentConfig, t) -> {
+                            fitted(inetAddress, agentConfig, t);
+                            next();
+                        });
+                        return;
+                    }
+                    fit.whenComplete((agentConfig, t) -> fitted(inetAddress, agentConfig, t));
+                }
+                future.complete(null);
+            }
+
+            void fitted(InetAddress inetAddress, Optional<SnmpAgentConfig> agentConfig, Throwable t) {
+                if (t != null) {
+                    listener.failed(inetAddress, t);
+                } else {
+                    listener.fitted(inetAddress, agentConfig);
+                }
+                listener.progress(++fitted, total);
+            }
+        }.next();
+        return future;
+    }
+
 }
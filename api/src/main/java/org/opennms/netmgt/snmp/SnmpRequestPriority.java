@@ -0,0 +1,81 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.snmp;
+
+import java.util.function.Supplier;
+
+/**
+ * Priority class of SNMP requests, used by the {@link SchedulingSnmpStrategy} to decide
+ * which of the queued requests are sent first.
+ *
+ * The strategies take the priority of the requests from the thread sending them, see
+ * {@link #call(Supplier)}, so that it does not have to be passed down every API.
+ */
+public enum SnmpRequestPriority {
+    /**
+     * Requests someone is waiting for, e.g. from the shell, the UI or while provisioning.
+     */
+    HIGH,
+    /**
+     * Periodic collection, the default.
+     */
+    NORMAL,
+    /**
+     * Background requests that may wait for all of the others.
+     */
+    LOW;
+
+    private static final ThreadLocal<SnmpRequestPriority> s_current = new ThreadLocal<>();
+
+    /**
+     * Priority of the requests sent by the current thread.
+     */
+    public static SnmpRequestPriority current() {
+        final SnmpRequestPriority priority = s_current.get();
+        return priority == null ? NORMAL : priority;
+    }
+
+    /**
+     * Sends the requests made by the given call with this priority. Asynchronous requests
+     * and walks keep the priority they were created with.
+     */
+    public <T> T call(final Supplier<T> call) {
+        final SnmpRequestPriority previous = s_current.get();
+        s_current.set(this);
+        try {
+            return call.get();
+        } finally {
+            if (previous == null) {
+                s_current.remove();
+            } else {
+                s_current.set(previous);
+            }
+        }
+    }
+
+    public void run(final Runnable runnable) {
+        call(() -> {
+            runnable.run();
+            return null;
+        });
+    }
+}
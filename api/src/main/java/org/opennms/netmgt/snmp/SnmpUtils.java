@@ -31,6 +31,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -43,6 +45,11 @@ public abstract class SnmpUtils {
 
     public static final String APPLIANCE_SNMP_COMMUNITY_ALIAS = "appliance.snmp";
     public static final String SNMP_COMMUNITY_ATTRIBUTE = "community";
+    /**
+     * When true, the strategies run the threads waiting for responses, i.e. the
+     * listeners of the sessions, on virtual threads.
+     */
+    public static final String VIRTUAL_THREADS_PROPERTY = "org.opennms.core.snmp.virtualThreads";
     private static Properties sm_config;
     private static StrategyResolver s_strategyResolver;
     private static final boolean canUseClassBasedStrategy = checkIfClassBasedStrategyIsInstantiable();
@@ -150,6 +157,21 @@ public abstract class SnmpUtils {
         return results;
     }
 
+    public static boolean isVirtualThreadMode() {
+        return Boolean.parseBoolean(getConfig().getProperty(VIRTUAL_THREADS_PROPERTY, "false"));
+    }
+
+    /**
+     * Creates an executor running each task on its own virtual thread, for the callers of
+     * the blocking APIs like {@link #get(SnmpAgentConfig, SnmpObjId)} or
+     * {@link #getColumns(SnmpAgentConfig, String, SnmpObjId)}: a request waiting for its
+     * response then parks a virtual thread instead of a platform thread, and the number
+     * of requests in flight is no longer bound by the size of a thread pool.
+     */
+    public static ExecutorService newVirtualThreadPerRequestExecutor(final String name) {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 0).factory());
+    }
+
     public static void setConfig(Properties config) {
         sm_config = config;
     }
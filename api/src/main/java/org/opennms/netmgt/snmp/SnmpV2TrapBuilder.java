@@ -21,8 +21,19 @@
  */
 package org.opennms.netmgt.snmp;
 
+import java.util.concurrent.CompletableFuture;
+
 public interface SnmpV2TrapBuilder extends SnmpTrapBuilder {
 
     SnmpValue[] sendInform(String destAddr, int destPort, int timeout, int retries, String community) throws Exception;
 
+    /**
+     * Sends the INFORM without blocking the calling thread.
+     *
+     * The returned future completes with the values of the acknowledgement, or exceptionally
+     * once all retries have timed out. Implementations may queue the request when too many
+     * INFORMs are already awaiting an acknowledgement from the same destination.
+     */
+    CompletableFuture<SnmpValue[]> sendInformAsync(String destAddr, int destPort, int timeout, int retries, String community);
+
 }
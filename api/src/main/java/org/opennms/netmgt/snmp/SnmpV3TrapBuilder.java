@@ -21,6 +21,7 @@
  */
 package org.opennms.netmgt.snmp;
 
+import java.util.concurrent.CompletableFuture;
 
 public interface SnmpV3TrapBuilder extends SnmpV2TrapBuilder {
 
@@ -30,4 +31,7 @@ public interface SnmpV3TrapBuilder extends SnmpV2TrapBuilder {
     SnmpValue[] sendInform(String destAddr, int destPort, int timeout, int retries, int securityLevel, String securityname, 
     		String authPassPhrase, String authProtocol, String privPassPhrase, String privprotocol) throws Exception;
 
+    CompletableFuture<SnmpValue[]> sendInformAsync(String destAddr, int destPort, int timeout, int retries, int securityLevel, String securityname,
+    		String authPassPhrase, String authProtocol, String privPassPhrase, String privprotocol);
+
 }
@@ -22,8 +22,11 @@
 package org.opennms.netmgt.snmp;
 
 import java.net.InetAddress;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public abstract class SnmpWalker implements AutoCloseable {
 
@@ -39,14 +42,17 @@ public abstract class SnmpWalker implements AutoCloseable {
     private final CollectionTracker m_tracker;
 
     private final CountDownLatch m_signal;
+    private final AtomicBoolean m_finished = new AtomicBoolean(false);
+    private final AtomicInteger m_pdusSent = new AtomicInteger(0);
 
     private final InetAddress m_address;
     private WalkerPduBuilder m_pduBuilder;
     private ResponseProcessor m_responseProcessor;
     private final int m_maxVarsPerPdu;
-    private boolean m_error = false;
-    private String m_errorMessage = "";
-    private Throwable m_errorThrowable = null;
+    // written once by the thread that finishes the walk, the message and the throwable before the flag
+    private volatile boolean m_error = false;
+    private volatile String m_errorMessage = "";
+    private volatile Throwable m_errorThrowable = null;
 
     private SnmpWalkCallback m_callback;
 
@@ -89,11 +95,16 @@ public abstract class SnmpWalker implements AutoCloseable {
     }
 
     protected void buildAndSendNextPdu() throws SnmpException {
+        if (isFinished()) {
+            // cancelled while the previous PDU was in flight
+            return;
+        }
         if (m_tracker.isFinished()) {
             handleDone();
         } else {
             m_pduBuilder.reset();
             m_responseProcessor = m_tracker.buildNextPdu(m_pduBuilder);
+            m_pdusSent.incrementAndGet();
             sendNextPdu(m_pduBuilder);
         }
     }
@@ -118,43 +129,125 @@ public abstract class SnmpWalker implements AutoCloseable {
     }
 
     protected void handleAuthError(String msg) {
+        if (!claimEnd()) {
+            return;
+        }
         m_tracker.setFailed(true);
-        processError("Authentication error processing", msg, null);
+        recordError("Authentication error processing", msg, null);
     }
 
     protected void handleError(String msg) {
-        // XXX why do we set timedOut to false here?  should we be doing this everywhere?
-        m_tracker.setTimedOut(false);
-        processError("Error retrieving", msg, null);
+        handleError(msg, null);
     }
 
     protected void handleError(String msg, Throwable t) {
+        if (!claimEnd()) {
+            return;
+        }
         // XXX why do we set timedOut to false here?  should we be doing this everywhere?
         m_tracker.setTimedOut(false);
-        processError("Error retrieving", msg, t);
+        recordError("Error retrieving", msg, t);
     }
 
     protected void handleFatalError(Throwable e) {
+        if (!claimEnd()) {
+            return;
+        }
         m_tracker.setFailed(true);
-        processError("Unexpected error occurred processing", e.toString(), e);
+        recordError("Unexpected error occurred processing", e.toString(), e);
     }
     
     protected void handleTimeout(String msg) {
+        if (!claimEnd()) {
+            return;
+        }
         m_tracker.setTimedOut(true);
-        processError("Timeout retrieving", msg, new SnmpAgentTimeoutException(getName(), m_address));
+        recordError("Timeout retrieving", msg, new SnmpAgentTimeoutException(getName(), m_address));
+    }
+
+    /**
+     * Fails the walk with the outcome of the walker it delegated to, which shares its
+     * tracker. The message and cause of the delegate are kept as they are.
+     */
+    protected void handleDelegateError(SnmpWalker delegate) {
+        if (!claimEnd()) {
+            return;
+        }
+        recordError(delegate.getErrorMessage(), delegate.getErrorThrowable());
+    }
+
+    /**
+     * Stops the walk before it completes, the responses to the PDUs
+     * in flight are ignored and no further PDU is sent. The walk fails
+     * with a {@link CancellationException}.
+     */
+    public void cancel() {
+        cancel(new CancellationException("Walk of " + getName() + " for " + m_address + " was cancelled."));
+    }
+
+    /**
+     * Stops the walk before it completes and fails it with the given cause,
+     * i.e. when it exceeded its deadline. Does nothing if the walk is already finished.
+     */
+    public void cancel(Throwable cause) {
+        if (!claimEnd()) {
+            return;
+        }
+        m_tracker.setFailed(true);
+        recordError("Cancelled", cause.getMessage(), cause);
+    }
+
+    /**
+     * Number of PDUs sent so far, retries made by the transport excluded.
+     */
+    public int getPdusSent() {
+        return m_pdusSent.get();
     }
 
-    private void processError(String reason, String cause, Throwable t) {
+    /**
+     * Whether the walk completed, failed or was cancelled.
+     */
+    public final boolean isFinished() {
+        return m_finished.get();
+    }
+
+    /**
+     * Claims the end of the walk, only the caller that wins may update the tracker
+     * and complete the walk. Losing means a late response for a walk that was already
+     * cancelled or completed, or a cancel of one that already ended.
+     */
+    private boolean claimEnd() {
+        return m_finished.compareAndSet(false, true);
+    }
+
+    /**
+     * Records the error of a walk whose end was claimed, and completes it.
+     */
+    private void recordError(String reason, String cause, Throwable t) {
         String logMessage = reason + " " + getName() + " for " + m_address + ": " + cause;
 
-        m_error = true;
-        m_errorMessage = logMessage;
+        recordError(logMessage, t);
+    }
+
+    private void recordError(String errorMessage, Throwable t) {
+        m_errorMessage = errorMessage;
         m_errorThrowable = t;
-        
-        finish();
+        m_error = true;
+
+        complete();
     }
 
     private void finish() {
+        if (!claimEnd()) {
+            return;
+        }
+        complete();
+    }
+
+    /**
+     * Called once by the thread that claimed the end of the walk.
+     */
+    private void complete() {
         signal();
         // Trigger the callback after the latch was decreased and the session was closed.
         if (m_callback != null) {
@@ -177,13 +270,12 @@ public abstract class SnmpWalker implements AutoCloseable {
         return m_name;
     }
 
+    /**
+     * Wakes up the threads in {@link #waitFor()}. The latch is the only signal, waiting
+     * on the monitor of the walker would pin the carrier of a virtual thread.
+     */
     private void signal() {
-        synchronized (this) {
-            notifyAll();
-        }
-        if (m_signal != null) {
-            m_signal.countDown();
-        }
+        m_signal.countDown();
     }
 
     public void waitFor() throws InterruptedException {
@@ -50,6 +50,21 @@ public interface LocationAwareSnmpClient {
 
     <T extends CollectionTracker> SNMPRequestBuilder<T> walk(SnmpAgentConfig agent, T tracker);
 
+    /**
+     * Walks the given OIDs and streams the results back in bounded chunks.
+     */
+    SNMPStreamingWalkRequestBuilder walkStreaming(SnmpAgentConfig agent, List<SnmpObjId> oids);
+
+    default SNMPStreamingWalkRequestBuilder walkStreaming(SnmpAgentConfig agent, SnmpObjId... oids) {
+        return walkStreaming(agent, Lists.newArrayList(oids));
+    }
+
+    /**
+     * Starts a batch of requests for many agents at the given location,
+     * sent as a single RPC.
+     */
+    SNMPBatchRequestBuilder batch(String location);
+
     SNMPRequestBuilder<SnmpValue> get(SnmpAgentConfig agent, String oid);
 
     SNMPRequestBuilder<SnmpValue> get(SnmpAgentConfig agent, SnmpObjId oid);
@@ -0,0 +1,77 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.snmp.proxy;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects requests for many agents at the same location and sends them
+ * as a single RPC.
+ *
+ * The requests are built as usual with the {@link LocationAwareSnmpClient} and
+ * handed to {@link #add(SNMPRequestBuilder)} instead of being executed. The location,
+ * system id and time to live of the batch apply to all of them. The receiving end
+ * executes them concurrently, at most {@link #withMaxConcurrency(int)} at a time,
+ * and answers for every agent separately: the future returned for a request completes
+ * with its own result or failure once the batch comes back.
+ */
+public interface SNMPBatchRequestBuilder {
+
+    SNMPBatchRequestBuilder withSystemId(String systemId);
+
+    SNMPBatchRequestBuilder withDescription(String description);
+
+    /**
+     * Without one, the batch waits for its most patient request once for every window of
+     * {@link #withMaxConcurrency(int)} agents. When it expires, the agents that answered in
+     * time keep their results and the others fail on their own.
+     */
+    SNMPBatchRequestBuilder withTimeToLive(Long ttlInMs);
+
+    SNMPBatchRequestBuilder withTimeToLive(long duration, TimeUnit unit);
+
+    /**
+     * Upper bound on the number of requests executed at the same time.
+     */
+    SNMPBatchRequestBuilder withMaxConcurrency(int maxConcurrency);
+
+    /**
+     * Adds a get, set or walk to the batch.
+     *
+     * @return a future completed with the result of this request once the batch was executed
+     * @throws IllegalArgumentException if the request cannot be batched, i.e. streaming walks
+     */
+    <T> CompletableFuture<T> add(SNMPRequestBuilder<T> request);
+
+    /**
+     * Number of requests added so far.
+     */
+    int size();
+
+    /**
+     * Sends the batch. The returned future completes once the futures of
+     * all the requests are complete, or fails if the RPC itself failed.
+     */
+    CompletableFuture<Void> execute();
+
+}
@@ -24,6 +24,8 @@ package org.opennms.netmgt.snmp.proxy;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
+import org.opennms.netmgt.snmp.SnmpRequestPriority;
+
 /**
  * Fluent API for building SNMP requests.
  *
@@ -43,6 +45,20 @@ public interface SNMPRequestBuilder<T> {
 
     SNMPRequestBuilder<T> withTimeToLive(long duration, TimeUnit unit);
 
+    /**
+     * Allows the values of gets to be answered from the response cache of the system
+     * executing the request, if they were retrieved from the same agent less than
+     * maxAge ago. Concurrent gets for the same OIDs then share a single query.
+     * Walks and sets are never cached.
+     */
+    SNMPRequestBuilder<T> withCachedResponses(long maxAge, TimeUnit unit);
+
+    /**
+     * Priority of the request on the system executing it, {@link SnmpRequestPriority#NORMAL}
+     * by default. Requests someone is waiting for should use {@link SnmpRequestPriority#HIGH}.
+     */
+    SNMPRequestBuilder<T> withPriority(SnmpRequestPriority priority);
+
     CompletableFuture<T> execute();
 
 }
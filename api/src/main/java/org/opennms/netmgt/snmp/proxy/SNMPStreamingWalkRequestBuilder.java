@@ -0,0 +1,77 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.snmp.proxy;
+
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.opennms.netmgt.snmp.SnmpRequestPriority;
+
+/**
+ * Builds a walk whose results are streamed back in chunks instead of being
+ * accumulated into a single response.
+ *
+ * The walk is retrieved one chunk at a time: the next chunk is only requested
+ * once the previous one was handed to the consumer, or requested by the subscriber
+ * when using {@link #publisher()}. The future returned by {@link #execute()} completes
+ * with the total number of results once the last chunk was delivered.
+ */
+public interface SNMPStreamingWalkRequestBuilder extends SNMPRequestBuilder<Long> {
+
+    int DEFAULT_CHUNK_SIZE = 1000;
+
+    /**
+     * Upper bound on the number of results in a single chunk.
+     */
+    SNMPStreamingWalkRequestBuilder withChunkSize(int chunkSize);
+
+    /**
+     * Callback invoked with every chunk when calling {@link #execute()}.
+     */
+    SNMPStreamingWalkRequestBuilder withConsumer(Consumer<WalkChunk> consumer);
+
+    /**
+     * Returns a publisher that performs the walk for every subscription,
+     * honoring the demand of the subscriber.
+     */
+    Flow.Publisher<WalkChunk> publisher();
+
+    @Override
+    SNMPStreamingWalkRequestBuilder withLocation(String location);
+
+    @Override
+    SNMPStreamingWalkRequestBuilder withSystemId(String systemId);
+
+    @Override
+    SNMPStreamingWalkRequestBuilder withDescription(String string);
+
+    @Override
+    SNMPStreamingWalkRequestBuilder withTimeToLive(Long ttlInMs);
+
+    @Override
+    SNMPStreamingWalkRequestBuilder withTimeToLive(long duration, TimeUnit unit);
+
+    @Override
+    SNMPStreamingWalkRequestBuilder withPriority(SnmpRequestPriority priority);
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.snmp.proxy;
+
+import java.util.List;
+import java.util.Objects;
+
+import org.opennms.netmgt.snmp.SnmpResult;
+
+/**
+ * A bounded batch of results from a streaming walk.
+ *
+ * Chunks of a given walk are numbered from 0 and delivered in order.
+ * The chunk flagged as last completes the walk, it may not carry any results.
+ */
+public class WalkChunk {
+
+    private final long sequenceNumber;
+    private final List<SnmpResult> results;
+    private final boolean last;
+    private final long pdusSent;
+
+    public WalkChunk(long sequenceNumber, List<SnmpResult> results, boolean last) {
+        this(sequenceNumber, results, last, 0);
+    }
+
+    public WalkChunk(long sequenceNumber, List<SnmpResult> results, boolean last, long pdusSent) {
+        this.sequenceNumber = sequenceNumber;
+        this.results = Objects.requireNonNull(results);
+        this.last = last;
+        this.pdusSent = pdusSent;
+    }
+
+    public long getSequenceNumber() {
+        return sequenceNumber;
+    }
+
+    public List<SnmpResult> getResults() {
+        return results;
+    }
+
+    public boolean isLast() {
+        return last;
+    }
+
+    /**
+     * Number of PDUs sent to the agent to retrieve this chunk, 0 if unknown.
+     */
+    public long getPdusSent() {
+        return pdusSent;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(sequenceNumber, results, last, pdusSent);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        final WalkChunk other = (WalkChunk) obj;
+        return Objects.equals(this.sequenceNumber, other.sequenceNumber)
+                && Objects.equals(this.results, other.results)
+                && Objects.equals(this.last, other.last)
+                && Objects.equals(this.pdusSent, other.pdusSent);
+    }
+
+    @Override
+    public String toString() {
+        return "WalkChunk[sequenceNumber=" + sequenceNumber + ", results=" + results.size() + ", last=" + last + ", pdusSent=" + pdusSent + "]";
+    }
+}
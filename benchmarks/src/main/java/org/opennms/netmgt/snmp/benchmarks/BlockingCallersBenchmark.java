@@ -0,0 +1,158 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.snmp.benchmarks;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.netmgt.snmp.FaultInjectingSnmpStrategy;
+import org.opennms.netmgt.snmp.SnmpAgentAddress;
+import org.opennms.netmgt.snmp.SnmpAgentConfig;
+import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.SnmpUtils;
+import org.opennms.netmgt.snmp.SnmpValue;
+import org.opennms.netmgt.snmp.mock.MockSnmpStrategy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.core.io.ByteArrayResource;
+
+/**
+ * Runs a number of callers of the blocking {@link SnmpUtils} APIs at once, each of them
+ * waiting for a response delayed by the given latency, and measures the time until all
+ * of them got their answer.
+ *
+ * With a pool the callers wait for a thread, the time grows with callers / poolSize
+ * round trips. With a thread per request every caller is in flight at once, which
+ * virtual threads allow for 10k callers without as many platform threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class BlockingCallersBenchmark {
+
+    @Param({"1000", "10000"})
+    public int callers;
+
+    /**
+     * pool: a fixed pool of poolSize platform threads, platform: a platform thread per
+     * request, virtual: {@link SnmpUtils#newVirtualThreadPerRequestExecutor(String)}.
+     */
+    @Param({"pool", "platform", "virtual"})
+    public String threads;
+
+    @Param({"200"})
+    public int poolSize;
+
+    @Param({"10"})
+    public int latencyMs;
+
+    private final SnmpAgentAddress m_agentAddress = new SnmpAgentAddress(InetAddress.getLoopbackAddress(), 161);
+    private final SnmpObjId m_column = SnmpObjId.get(".1.3.6.1.2.1.2.2.1.10");
+
+    private SnmpAgentConfig m_agentConfig;
+    private ExecutorService m_executor;
+
+    @Setup
+    public void setUp() throws IOException {
+        final StringBuilder walk = new StringBuilder();
+        for (int row = 1; row <= 4; row++) {
+            walk.append(m_column).append('.').append(row).append(" = Counter32: ").append(row).append('\n');
+        }
+        MockSnmpStrategy.setDataForAddress(m_agentAddress, new ByteArrayResource(walk.toString().getBytes(StandardCharsets.ISO_8859_1)));
+
+        final FaultInjectingSnmpStrategy strategy = new FaultInjectingSnmpStrategy(new MockSnmpStrategy(), 0);
+        final FaultInjectingSnmpStrategy.Faults faults = new FaultInjectingSnmpStrategy.Faults();
+        faults.setLatencyMs(latencyMs);
+        strategy.setDefaultFaults(faults);
+        SnmpUtils.setStrategyResolver(() -> strategy);
+
+        m_agentConfig = new SnmpAgentConfig(m_agentAddress.getAddress());
+        m_agentConfig.setPort(m_agentAddress.getPort());
+        m_agentConfig.setVersion(SnmpAgentConfig.VERSION2C);
+
+        switch (threads) {
+        case "pool":
+            m_executor = Executors.newFixedThreadPool(poolSize);
+            break;
+        case "platform":
+            m_executor = Executors.newThreadPerTaskExecutor(Thread.ofPlatform().name("benchmark-", 0).factory());
+            break;
+        case "virtual":
+            m_executor = SnmpUtils.newVirtualThreadPerRequestExecutor("benchmark");
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown threads: " + threads);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        m_executor.shutdownNow();
+        SnmpUtils.unsetStrategyResolver();
+        MockSnmpStrategy.removeHost(m_agentAddress);
+    }
+
+    @Benchmark
+    public void get(final Blackhole blackhole) throws InterruptedException, ExecutionException {
+        final SnmpObjId oid = SnmpObjId.get(m_column, "1");
+        final List<Future<SnmpValue>> values = new ArrayList<>(callers);
+        for (int i = 0; i < callers; i++) {
+            values.add(m_executor.submit(() -> SnmpUtils.get(m_agentConfig, oid)));
+        }
+        for (final Future<SnmpValue> value : values) {
+            blackhole.consume(value.get());
+        }
+    }
+
+    @Benchmark
+    public void getColumns(final Blackhole blackhole) throws InterruptedException, ExecutionException {
+        final List<Future<List<SnmpValue>>> columns = new ArrayList<>(callers);
+        for (int i = 0; i < callers; i++) {
+            columns.add(m_executor.submit(() -> SnmpUtils.getColumns(m_agentConfig, "benchmark", m_column)));
+        }
+        for (final Future<List<SnmpValue>> column : columns) {
+            blackhole.consume(column.get());
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.snmp.benchmarks;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.netmgt.snmp.AggregateTracker;
+import org.opennms.netmgt.snmp.Collectable;
+import org.opennms.netmgt.snmp.SnmpAgentAddress;
+import org.opennms.netmgt.snmp.SnmpAgentConfig;
+import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.TableTracker;
+import org.opennms.netmgt.snmp.mock.MockSnmpWalker;
+import org.opennms.netmgt.snmp.mock.PropertyOidContainer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.core.io.ByteArrayResource;
+
+/**
+ * Walks a table loaded in a {@link PropertyOidContainer} with the {@link MockSnmpWalker},
+ * which answers every PDU from its own thread like a transport would.
+ *
+ * The container is loaded from a generated snmpwalk dump, sizes are kept lower than in
+ * {@link TrackerBenchmark} since the whole table is held in memory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class MockWalkerBenchmark {
+
+    @Param({"10000", "50000"})
+    public int rows;
+
+    @Param({"5", "20"})
+    public int columns;
+
+    @Param({"50"})
+    public int maxVarsPerPdu;
+
+    private final SnmpAgentAddress m_agentAddress = new SnmpAgentAddress(InetAddress.getLoopbackAddress(), 161);
+
+    private PropertyOidContainer m_container;
+    private SnmpObjId[] m_columns;
+
+    @Setup
+    public void setUp() throws IOException {
+        m_columns = new SyntheticTable(rows, columns).getColumns();
+        final StringBuilder walk = new StringBuilder();
+        for (final SnmpObjId column : m_columns) {
+            for (int row = 1; row <= rows; row++) {
+                walk.append(column).append('.').append(row).append(" = Counter32: ").append(row).append('\n');
+            }
+        }
+        m_container = new PropertyOidContainer(new ByteArrayResource(walk.toString().getBytes(StandardCharsets.ISO_8859_1)));
+    }
+
+    @Benchmark
+    public void walk(final VarbindCounter counter, final Blackhole blackhole) throws InterruptedException {
+        // wrapped as done by SnmpUtils.createWalker
+        final AggregateTracker tracker = new AggregateTracker(new Collectable[] { new TableTracker(blackhole::consume, m_columns) });
+        try (MockSnmpWalker walker = new MockSnmpWalker(m_agentAddress, SnmpAgentConfig.VERSION2C, m_container, "benchmark", tracker, maxVarsPerPdu, 0)) {
+            walker.start();
+            walker.waitFor();
+            if (walker.failed()) {
+                throw new IllegalStateException(walker.getErrorMessage());
+            }
+        }
+        counter.varbinds += (long)rows * columns;
+    }
+}
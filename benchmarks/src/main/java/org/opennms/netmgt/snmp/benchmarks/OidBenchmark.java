@@ -0,0 +1,141 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.snmp.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.netmgt.snmp.SnmpInstId;
+import org.opennms.netmgt.snmp.SnmpObjId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The {@link SnmpObjId} and {@link SnmpInstId} operations done for every variable binding.
+ *
+ * The OIDs mix ifTable instances with ipNetToMediaTable instances, which are indexed
+ * by an interface and an IP address, in random order.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OidBenchmark {
+
+    private static final int COUNT = 4096;
+
+    private static final SnmpObjId IF_DESCR = SnmpObjId.get(".1.3.6.1.2.1.2.2.1.2");
+    private static final SnmpObjId IP_NET_TO_MEDIA_PHYS_ADDRESS = SnmpObjId.get(".1.3.6.1.2.1.4.22.1.2");
+
+    private final SnmpObjId[] m_oids = new SnmpObjId[COUNT];
+    private final SnmpObjId[] m_bases = new SnmpObjId[COUNT];
+    private final SnmpInstId[] m_instances = new SnmpInstId[COUNT];
+    private final String[] m_oidStrings = new String[COUNT];
+    private final String[] m_instanceStrings = new String[COUNT];
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(0);
+        for (int i = 0; i < COUNT; i++) {
+            final String instance;
+            if (random.nextBoolean()) {
+                m_bases[i] = IF_DESCR;
+                instance = String.valueOf(1 + random.nextInt(100000));
+            } else {
+                m_bases[i] = IP_NET_TO_MEDIA_PHYS_ADDRESS;
+                instance = (1 + random.nextInt(1000)) + ".10." + random.nextInt(256) + "." + random.nextInt(256) + "." + random.nextInt(256);
+            }
+            m_instances[i] = new SnmpInstId(instance);
+            m_oids[i] = m_bases[i].append(m_instances[i]);
+            m_oidStrings[i] = m_oids[i].toString();
+            m_instanceStrings[i] = instance;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public void compareTo(final Blackhole blackhole) {
+        for (int i = 1; i < COUNT; i++) {
+            blackhole.consume(m_oids[i - 1].compareTo(m_oids[i]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public void isPrefixOf(final Blackhole blackhole) {
+        for (int i = 0; i < COUNT; i++) {
+            blackhole.consume(IF_DESCR.isPrefixOf(m_oids[i]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public void append(final Blackhole blackhole) {
+        for (int i = 0; i < COUNT; i++) {
+            blackhole.consume(m_bases[i].append(m_instances[i]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public void getInstance(final Blackhole blackhole) {
+        for (int i = 0; i < COUNT; i++) {
+            blackhole.consume(m_oids[i].getInstance(m_bases[i]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public void parseObjId(final Blackhole blackhole) {
+        for (int i = 0; i < COUNT; i++) {
+            blackhole.consume(SnmpObjId.get(m_oidStrings[i]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public void parseInstId(final Blackhole blackhole) {
+        for (int i = 0; i < COUNT; i++) {
+            blackhole.consume(new SnmpInstId(m_instanceStrings[i]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public void toString(final Blackhole blackhole) {
+        for (int i = 0; i < COUNT; i++) {
+            blackhole.consume(m_oids[i].toString());
+        }
+    }
+}
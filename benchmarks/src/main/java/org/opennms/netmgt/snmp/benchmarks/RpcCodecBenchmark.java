@@ -0,0 +1,127 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.snmp.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.netmgt.snmp.SnmpInstId;
+import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.SnmpResult;
+import org.opennms.netmgt.snmp.SnmpValueFactory;
+import org.opennms.netmgt.snmp.proxy.common.SnmpBinaryCodec;
+import org.opennms.netmgt.snmp.proxy.common.SnmpMultiResponseDTO;
+import org.opennms.netmgt.snmp.proxy.common.SnmpProxyRpcModule;
+import org.opennms.netmgt.snmp.proxy.common.SnmpResponseDTO;
+import org.opennms.netmgt.snmp.snmp4j.Snmp4JValueFactory;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Marshals and unmarshals the response of a large walk with the XML and the binary
+ * encoding of the RPC module. The size of the payload is reported next to the time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class RpcCodecBenchmark {
+
+    private static final SnmpObjId[] COLUMNS = new SnmpObjId[] {
+            SnmpObjId.get(".1.3.6.1.2.1.2.2.1.2"),
+            SnmpObjId.get(".1.3.6.1.2.1.2.2.1.10"),
+            SnmpObjId.get(".1.3.6.1.2.1.2.2.1.16"),
+            SnmpObjId.get(".1.3.6.1.2.1.2.2.1.8")
+    };
+
+    public enum Encoding { XML, BINARY }
+
+    @Param({"XML", "BINARY"})
+    public Encoding encoding;
+
+    @Param({"100000"})
+    public int results;
+
+    private final SnmpProxyRpcModule m_module = new SnmpProxyRpcModule();
+    private SnmpMultiResponseDTO m_response;
+    private String m_payload;
+
+    /**
+     * Reports the length of the payload, which does not change between invocations.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class PayloadSize {
+        public long payloadChars;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            payloadChars = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        final SnmpValueFactory valueFactory = new Snmp4JValueFactory();
+        final SnmpResponseDTO response = new SnmpResponseDTO();
+        response.setCorrelationId("0");
+        final int rows = results / COLUMNS.length;
+        for (final SnmpObjId column : COLUMNS) {
+            for (int i = 1; i <= rows; i++) {
+                response.getResults().add(new SnmpResult(column, new SnmpInstId(i), valueFactory.getCounter32(i * 1000L)));
+            }
+        }
+        m_response = new SnmpMultiResponseDTO();
+        m_response.getResponses().add(response);
+        m_payload = marshal();
+    }
+
+    private String marshal() {
+        return encoding == Encoding.BINARY ? SnmpBinaryCodec.marshalResponse(m_response) : m_module.marshalResponse(m_response);
+    }
+
+    @Benchmark
+    public String marshalResponse(final PayloadSize size) {
+        final String payload = marshal();
+        size.payloadChars = payload.length();
+        return payload;
+    }
+
+    @Benchmark
+    public SnmpMultiResponseDTO unmarshalResponse(final PayloadSize size) {
+        size.payloadChars = m_payload.length();
+        // the module detects the encoding of the payload
+        return m_module.unmarshalResponse(m_payload);
+    }
+}
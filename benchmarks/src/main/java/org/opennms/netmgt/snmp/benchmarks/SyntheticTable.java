@@ -0,0 +1,179 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.snmp.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opennms.netmgt.snmp.AggregateTracker;
+import org.opennms.netmgt.snmp.Collectable;
+import org.opennms.netmgt.snmp.CollectionTracker;
+import org.opennms.netmgt.snmp.PduBuilder;
+import org.opennms.netmgt.snmp.ResponseProcessor;
+import org.opennms.netmgt.snmp.SnmpException;
+import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.SnmpValue;
+import org.opennms.netmgt.snmp.mock.MockSnmpValue;
+
+/**
+ * A synthetic agent serving a table of rows by columns under ifEntry.
+ *
+ * The OIDs are computed rather than stored so that tables with millions of rows cost
+ * no memory, and the trackers are driven synchronously, answering GETBULK requests the
+ * way an agent would, so that only the work done by the trackers is measured.
+ */
+public class SyntheticTable {
+
+    public static final SnmpObjId IF_ENTRY = SnmpObjId.get(".1.3.6.1.2.1.2.2.1");
+
+    private static final SnmpValue VALUE = new MockSnmpValue.Counter32SnmpValue(42);
+
+    private final int m_rows;
+    private final int m_columns;
+    private final int[] m_base = IF_ENTRY.getIds();
+    private final int m_baseLength = m_base.length;
+
+    public SyntheticTable(final int rows, final int columns) {
+        m_rows = rows;
+        m_columns = columns;
+    }
+
+    public SnmpObjId[] getColumns() {
+        final SnmpObjId[] columns = new SnmpObjId[m_columns];
+        for (int i = 0; i < m_columns; i++) {
+            columns[i] = SnmpObjId.get(IF_ENTRY, String.valueOf(i + 1));
+        }
+        return columns;
+    }
+
+    /**
+     * @return the OID following the given one in the table, or null past its end
+     */
+    public SnmpObjId next(final SnmpObjId oid) {
+        if (oid.compareTo(IF_ENTRY) < 0) {
+            return oid(1, 1);
+        }
+        if (!IF_ENTRY.isPrefixOf(oid)) {
+            return null;
+        }
+        if (oid.length() == m_baseLength || oid.getSubIdAt(m_baseLength) < 1) {
+            return oid(1, 1);
+        }
+        int column = oid.getSubIdAt(m_baseLength);
+        // anything below a row sorts before the next one
+        int row = oid.length() == m_baseLength + 1 ? 1 : Math.max(oid.getSubIdAt(m_baseLength + 1) + 1, 1);
+        if (row > m_rows) {
+            column++;
+            row = 1;
+        }
+        return column > m_columns ? null : oid(column, row);
+    }
+
+    private SnmpObjId oid(final int column, final int row) {
+        final int[] ids = new int[m_baseLength + 2];
+        System.arraycopy(m_base, 0, ids, 0, m_baseLength);
+        ids[m_baseLength] = column;
+        ids[m_baseLength + 1] = row;
+        return new SnmpObjId(ids, false);
+    }
+
+    /**
+     * Walks the table with the given tracker until it is finished. The tracker is
+     * wrapped in an {@link AggregateTracker} as done by {@code SnmpUtils.createWalker}.
+     *
+     * @return the number of variable bindings handed to the tracker
+     */
+    public long walk(final CollectionTracker collectionTracker, final int maxVarsPerPdu) throws SnmpException {
+        final AggregateTracker tracker = new AggregateTracker(new Collectable[] { collectionTracker });
+        final BulkPduBuilder builder = new BulkPduBuilder(maxVarsPerPdu);
+        long varbinds = 0;
+        while (!tracker.isFinished()) {
+            builder.reset();
+            final ResponseProcessor processor = tracker.buildNextPdu(builder);
+            if (!processor.processErrors(0, 0)) {
+                varbinds += respond(builder, processor);
+            }
+        }
+        return varbinds;
+    }
+
+    private int respond(final BulkPduBuilder builder, final ResponseProcessor processor) throws SnmpException {
+        final List<SnmpObjId> oids = builder.m_oids;
+        final int nonRepeaters = Math.min(builder.m_nonRepeaters, oids.size());
+        int varbinds = 0;
+        for (int i = 0; i < nonRepeaters; i++) {
+            respond(processor, oids.get(i));
+            varbinds++;
+        }
+
+        final SnmpObjId[] last = oids.subList(nonRepeaters, oids.size()).toArray(new SnmpObjId[0]);
+        final int repetitions = Math.max(builder.m_maxRepetitions, 1);
+        for (int r = 0; r < repetitions; r++) {
+            for (int i = 0; i < last.length; i++) {
+                last[i] = respond(processor, last[i]);
+                varbinds++;
+            }
+        }
+        return varbinds;
+    }
+
+    private SnmpObjId respond(final ResponseProcessor processor, final SnmpObjId oid) throws SnmpException {
+        final SnmpObjId next = next(oid);
+        if (next == null) {
+            processor.processResponse(oid, MockSnmpValue.END_OF_MIB);
+            return oid;
+        }
+        processor.processResponse(next, VALUE);
+        return next;
+    }
+
+    private static class BulkPduBuilder extends PduBuilder {
+        private final List<SnmpObjId> m_oids = new ArrayList<>();
+        private int m_nonRepeaters;
+        private int m_maxRepetitions;
+
+        private BulkPduBuilder(final int maxVarsPerPdu) {
+            super(maxVarsPerPdu);
+        }
+
+        private void reset() {
+            m_oids.clear();
+            m_nonRepeaters = 0;
+            m_maxRepetitions = 0;
+        }
+
+        @Override
+        public void addOid(final SnmpObjId snmpObjId) {
+            m_oids.add(snmpObjId);
+        }
+
+        @Override
+        public void setNonRepeaters(final int numNonRepeaters) {
+            m_nonRepeaters = numNonRepeaters;
+        }
+
+        @Override
+        public void setMaxRepetitions(final int maxRepetitions) {
+            m_maxRepetitions = maxRepetitions;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.snmp.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.netmgt.snmp.SnmpInstId;
+import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.SnmpResult;
+import org.opennms.netmgt.snmp.SnmpTableResult;
+import org.opennms.netmgt.snmp.SnmpValue;
+import org.opennms.netmgt.snmp.TableTracker;
+import org.opennms.netmgt.snmp.mock.MockSnmpValue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Assembles rows from results the way {@link SnmpTableResult} receives them during a
+ * walk: column by column, for blocks of {@code pendingRows} rows at a time, which is
+ * the number of rows waiting for their last column.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class TableResultBenchmark {
+
+    private static final SnmpValue VALUE = new MockSnmpValue.Counter32SnmpValue(42);
+
+    @Param({"10000", "100000"})
+    public int rows;
+
+    @Param({"5", "20", "50"})
+    public int columns;
+
+    @Param({"1", "25", "250"})
+    public int pendingRows;
+
+    private SnmpObjId[] m_columns;
+    private SnmpInstId[] m_instances;
+
+    @Setup
+    public void setUp() {
+        m_columns = new SyntheticTable(rows, columns).getColumns();
+        m_instances = new SnmpInstId[rows];
+        for (int i = 0; i < rows; i++) {
+            m_instances[i] = new SnmpInstId(i + 1);
+        }
+    }
+
+    @Benchmark
+    public void assembleRows(final VarbindCounter counter, final Blackhole blackhole) {
+        // the tracker only forwards the results to its SnmpTableResult
+        final TableTracker tracker = new TableTracker(blackhole::consume, m_columns);
+        for (int block = 0; block < rows; block += pendingRows) {
+            final int end = Math.min(block + pendingRows, rows);
+            for (final SnmpObjId column : m_columns) {
+                for (int row = block; row < end; row++) {
+                    tracker.storeResult(new SnmpResult(column, m_instances[row], VALUE));
+                }
+            }
+        }
+        counter.varbinds += (long)rows * columns;
+    }
+}
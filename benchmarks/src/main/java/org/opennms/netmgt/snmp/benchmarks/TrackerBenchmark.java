@@ -0,0 +1,115 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.snmp.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.netmgt.snmp.AggregateTracker;
+import org.opennms.netmgt.snmp.Collectable;
+import org.opennms.netmgt.snmp.ColumnTracker;
+import org.opennms.netmgt.snmp.SnmpException;
+import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.SnmpResult;
+import org.opennms.netmgt.snmp.TableTracker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Walks a {@link SyntheticTable} with the trackers used by the collectors.
+ *
+ * The primary result is in walks per second, the secondary {@code varbinds} result
+ * in variable bindings per second. Run with {@code -prof gc} for the allocation rate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class TrackerBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int rows;
+
+    @Param({"5", "20", "50"})
+    public int columns;
+
+    @Param({"25"})
+    public int maxRepetitions;
+
+    @Param({"50"})
+    public int maxVarsPerPdu;
+
+    private SyntheticTable m_table;
+    private SnmpObjId[] m_columns;
+
+    @Setup
+    public void setUp() {
+        m_table = new SyntheticTable(rows, columns);
+        m_columns = m_table.getColumns();
+    }
+
+    /**
+     * A single column, the column count does not apply.
+     */
+    @Benchmark
+    public void columnTracker(final VarbindCounter counter, final Blackhole blackhole) throws SnmpException {
+        final ColumnTracker tracker = new ColumnTracker(m_columns[0], maxRepetitions, 0) {
+            @Override
+            protected void storeResult(final SnmpResult res) {
+                blackhole.consume(res);
+            }
+        };
+        counter.varbinds += m_table.walk(tracker, maxVarsPerPdu);
+    }
+
+    @Benchmark
+    public void tableTracker(final VarbindCounter counter, final Blackhole blackhole) throws SnmpException {
+        final TableTracker tracker = new TableTracker(blackhole::consume, maxRepetitions, 0, m_columns);
+        counter.varbinds += m_table.walk(tracker, maxVarsPerPdu);
+    }
+
+    @Benchmark
+    public void aggregateTracker(final VarbindCounter counter, final Blackhole blackhole) throws SnmpException {
+        final Collectable[] children = new Collectable[m_columns.length];
+        for (int i = 0; i < m_columns.length; i++) {
+            children[i] = new ColumnTracker(m_columns[i], maxRepetitions, 0);
+        }
+        final AggregateTracker tracker = new AggregateTracker(children) {
+            @Override
+            protected void storeResult(final SnmpResult res) {
+                blackhole.consume(res);
+            }
+        };
+        counter.varbinds += m_table.walk(tracker, maxVarsPerPdu);
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.snmp.snmp4j;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.netmgt.snmp.SnmpAgentConfig;
+import org.opennms.netmgt.snmp.SnmpObjId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.snmp4j.CommandResponder;
+import org.snmp4j.CommandResponderEvent;
+import org.snmp4j.MessageDispatcher;
+import org.snmp4j.MessageDispatcherImpl;
+import org.snmp4j.PDU;
+import org.snmp4j.PDUv1;
+import org.snmp4j.Target;
+import org.snmp4j.UserTarget;
+import org.snmp4j.asn1.BEROutputStream;
+import org.snmp4j.mp.MPv1;
+import org.snmp4j.mp.MPv2c;
+import org.snmp4j.mp.MPv3;
+import org.snmp4j.mp.MessageProcessingModel;
+import org.snmp4j.mp.PduHandle;
+import org.snmp4j.mp.SnmpConstants;
+import org.snmp4j.security.SecurityProtocols;
+import org.snmp4j.security.USM;
+import org.snmp4j.security.UsmUser;
+import org.snmp4j.smi.Address;
+import org.snmp4j.smi.Counter32;
+import org.snmp4j.smi.Counter64;
+import org.snmp4j.smi.Gauge32;
+import org.snmp4j.smi.Integer32;
+import org.snmp4j.smi.IpAddress;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.smi.TimeTicks;
+import org.snmp4j.smi.UdpAddress;
+import org.snmp4j.smi.VariableBinding;
+import org.snmp4j.transport.DummyTransport;
+
+/**
+ * The per-packet cost of the request and trap paths for every SNMP version.
+ *
+ * Messages are encoded on the calling thread by the message processing model of the
+ * dispatcher, the way {@link MessageDispatcher#sendPdu} prepares them before handing them
+ * to the transport, so that neither a session setup nor a thread hand-off is measured.
+ * Decoding hands the encoded trap straight to the dispatcher, which calls the command
+ * responder on the calling thread.
+ *
+ * The SNMPv3 messages are encoded and decoded with the same engine, so that no discovery
+ * is needed and the USM keys are localized once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class Snmp4JMessageBenchmark {
+
+    private static final OID IF_ENTRY = new OID(".1.3.6.1.2.1.2.2.1");
+
+    private static final SnmpObjId[] OIDS = new SnmpObjId[] {
+            SnmpObjId.get(".1.3.6.1.2.1.2.2.1.1.1"),
+            SnmpObjId.get(".1.3.6.1.2.1.2.2.1.2.1"),
+            SnmpObjId.get(".1.3.6.1.2.1.2.2.1.3.1"),
+            SnmpObjId.get(".1.3.6.1.2.1.2.2.1.5.1"),
+            SnmpObjId.get(".1.3.6.1.2.1.2.2.1.7.1"),
+            SnmpObjId.get(".1.3.6.1.2.1.2.2.1.8.1"),
+            SnmpObjId.get(".1.3.6.1.2.1.2.2.1.10.1"),
+            SnmpObjId.get(".1.3.6.1.2.1.2.2.1.16.1"),
+            SnmpObjId.get(".1.3.6.1.2.1.31.1.1.1.6.1"),
+            SnmpObjId.get(".1.3.6.1.2.1.31.1.1.1.10.1")
+    };
+
+    @Param({"v1", "v2c", "v3-authNoPriv", "v3-authPriv"})
+    public String security;
+
+    private Snmp4JAgentConfig m_agentConfig;
+    private Target m_target;
+    private MessageDispatcher m_dispatcher;
+    private MessageProcessingModel m_messageProcessingModel;
+    private DummyTransport<IpAddress> m_transport;
+    private final Address m_source = new UdpAddress(InetAddress.getLoopbackAddress(), 162);
+    private PDU m_received;
+
+    private PDU m_request;
+    private PDU m_trap;
+    private byte[] m_encodedTrap;
+
+    @Setup
+    public void setUp() throws Exception {
+        final SnmpAgentConfig config = new SnmpAgentConfig(InetAddress.getLoopbackAddress());
+        if ("v1".equals(security)) {
+            config.setVersion(SnmpAgentConfig.VERSION1);
+        } else if ("v2c".equals(security)) {
+            config.setVersion(SnmpAgentConfig.VERSION2C);
+        } else {
+            config.setVersion(SnmpAgentConfig.VERSION3);
+            config.setSecurityName("opennmsUser");
+            config.setAuthProtocol("SHA");
+            config.setAuthPassPhrase("0p3nNMSv3");
+            if ("v3-authPriv".equals(security)) {
+                config.setSecurityLevel(SnmpAgentConfig.AUTH_PRIV);
+                config.setPrivProtocol("AES");
+                config.setPrivPassPhrase("0p3nNMSv3");
+            } else {
+                config.setSecurityLevel(SnmpAgentConfig.AUTH_NOPRIV);
+            }
+        }
+        m_agentConfig = new Snmp4JAgentConfig(config);
+
+        final OctetString engineId = new OctetString(MPv3.createLocalEngineID());
+        final USM usm = new USM(SecurityProtocols.getInstance(), engineId, 0);
+        if (m_agentConfig.isSnmpV3()) {
+            usm.addUser(m_agentConfig.getSecurityName(), new UsmUser(
+                    m_agentConfig.getSecurityName(),
+                    m_agentConfig.getAuthProtocol(),
+                    m_agentConfig.getAuthPassPhrase(),
+                    m_agentConfig.getPrivProtocol(),
+                    m_agentConfig.getPrivPassPhrase()));
+        }
+        m_dispatcher = new MessageDispatcherImpl();
+        m_dispatcher.addMessageProcessingModel(new MPv1());
+        m_dispatcher.addMessageProcessingModel(new MPv2c());
+        m_dispatcher.addMessageProcessingModel(new MPv3(usm));
+        m_dispatcher.addCommandResponder(new CommandResponder() {
+            @Override
+            public void processPdu(final CommandResponderEvent e) {
+                m_received = e.getPDU();
+            }
+        });
+
+        m_target = m_agentConfig.getTarget();
+        if (m_target instanceof UserTarget) {
+            ((UserTarget)m_target).setAuthoritativeEngineID(engineId.getValue());
+        }
+
+        m_messageProcessingModel = m_dispatcher.getMessageProcessingModel(m_target.getVersion());
+        // only passed along with the received messages, nothing is sent over it
+        m_transport = new DummyTransport<IpAddress>(null);
+
+        m_request = Snmp4JStrategy.buildPdu(m_agentConfig, PDU.GET, OIDS, null);
+        m_request.setRequestID(new Integer32(42));
+        m_trap = buildTrap();
+        m_encodedTrap = encode(m_trap);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        m_transport.close();
+    }
+
+    private PDU buildTrap() {
+        final PDU trap;
+        if (m_agentConfig.getVersion() == SnmpConstants.version1) {
+            final PDUv1 v1Trap = new PDUv1();
+            v1Trap.setType(PDU.V1TRAP);
+            v1Trap.setEnterprise(new OID(".1.3.6.1.4.1.5813"));
+            v1Trap.setAgentAddress(new IpAddress(InetAddress.getLoopbackAddress()));
+            v1Trap.setGenericTrap(PDUv1.ENTERPRISE_SPECIFIC);
+            v1Trap.setSpecificTrap(1);
+            v1Trap.setTimestamp(5000);
+            trap = v1Trap;
+        } else {
+            trap = m_agentConfig.createPdu(PDU.TRAP);
+            trap.add(new VariableBinding(SnmpConstants.sysUpTime, new TimeTicks(5000)));
+            trap.add(new VariableBinding(SnmpConstants.snmpTrapOID, new OID(".1.3.6.1.6.3.1.1.5.3")));
+        }
+        trap.add(new VariableBinding(new OID(IF_ENTRY, new int[] { 1, 1 }), new Integer32(1)));
+        trap.add(new VariableBinding(new OID(IF_ENTRY, new int[] { 2, 1 }), new OctetString("GigabitEthernet0/0/1")));
+        trap.add(new VariableBinding(new OID(IF_ENTRY, new int[] { 3, 1 }), new Integer32(6)));
+        trap.add(new VariableBinding(new OID(IF_ENTRY, new int[] { 5, 1 }), new Gauge32(1000000000L)));
+        trap.add(new VariableBinding(new OID(IF_ENTRY, new int[] { 7, 1 }), new Integer32(1)));
+        trap.add(new VariableBinding(new OID(IF_ENTRY, new int[] { 8, 1 }), new Integer32(2)));
+        trap.add(new VariableBinding(new OID(IF_ENTRY, new int[] { 10, 1 }), new Counter32(4000000000L)));
+        trap.add(new VariableBinding(new OID(IF_ENTRY, new int[] { 16, 1 }), new Counter32(123456789L)));
+        trap.add(new VariableBinding(new OID(".1.3.6.1.2.1.31.1.1.1.6.1"), new Counter64(1234567890123L)));
+        trap.add(new VariableBinding(new OID(".1.3.6.1.2.1.31.1.1.1.10.1"), new Counter64(9876543210987L)));
+        return trap;
+    }
+
+    private byte[] encode(final PDU pdu) throws Exception {
+        final BEROutputStream out = new BEROutputStream();
+        final int status = m_messageProcessingModel.prepareOutgoingMessage(m_target.getAddress(), m_target.getMaxSizeRequestPDU(),
+                m_target.getVersion(), m_target.getSecurityModel(), m_target.getSecurityName().getValue(), m_target.getSecurityLevel(),
+                pdu, false, new PduHandle(42), m_target.getAddress(), out, null);
+        if (status != SnmpConstants.SNMP_MP_OK) {
+            throw new IllegalStateException("The message was not encoded, status " + status);
+        }
+        return out.getBuffer().array();
+    }
+
+    @Benchmark
+    public PDU buildPdu() {
+        return Snmp4JStrategy.buildPdu(m_agentConfig, PDU.GET, OIDS, null);
+    }
+
+    @Benchmark
+    public byte[] encodeRequest() throws Exception {
+        return encode(m_request);
+    }
+
+    @Benchmark
+    public byte[] encodeTrap() throws Exception {
+        return encode(m_trap);
+    }
+
+    @Benchmark
+    public PDU decodeTrap() {
+        m_received = null;
+        m_dispatcher.processMessage(m_transport, m_source, ByteBuffer.wrap(m_encodedTrap), null);
+        if (m_received == null) {
+            throw new IllegalStateException("The trap was not decoded");
+        }
+        return m_received;
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.snmp.snmp4j;
+
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.netmgt.snmp.SnmpValue;
+import org.opennms.netmgt.snmp.SnmpValueXmlAdapter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.snmp4j.smi.Counter32;
+import org.snmp4j.smi.Counter64;
+import org.snmp4j.smi.Integer32;
+import org.snmp4j.smi.IpAddress;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.smi.Variable;
+
+/**
+ * Conversions between SNMP4J variables and {@link SnmpValue}s done for every variable
+ * binding received, and the XML adapter used by the RPCs.
+ *
+ * The display string is computed on a new value so that the lazy parsing of
+ * {@link OpaqueExt} values is included.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class Snmp4JValueBenchmark {
+
+    @Param({"INTEGER", "COUNTER32", "COUNTER64", "OCTET_STRING", "OBJECT_IDENTIFIER", "IPADDRESS", "OPAQUE_FLOAT", "OPAQUE_DOUBLE"})
+    public String type;
+
+    private final Snmp4JValueFactory m_factory = new Snmp4JValueFactory();
+    private final SnmpValueXmlAdapter m_adapter = new SnmpValueXmlAdapter();
+
+    private Variable m_variable;
+    private SnmpValue m_value;
+    private int m_syntax;
+    private byte[] m_bytes;
+
+    @Setup
+    public void setUp() {
+        switch (type) {
+        case "INTEGER":
+            m_variable = new Integer32(6);
+            break;
+        case "COUNTER32":
+            m_variable = new Counter32(4000000000L);
+            break;
+        case "COUNTER64":
+            m_variable = new Counter64(1234567890123L);
+            break;
+        case "OCTET_STRING":
+            m_variable = new OctetString("GigabitEthernet0/0/1");
+            break;
+        case "OBJECT_IDENTIFIER":
+            m_variable = new OID(".1.3.6.1.4.1.9.1.1208");
+            break;
+        case "IPADDRESS":
+            m_variable = new IpAddress(InetAddress.getLoopbackAddress());
+            break;
+        case "OPAQUE_FLOAT":
+            // 123.0 as a net-snmp opaque float
+            m_variable = new OpaqueExt(new byte[] { (byte)0x9f, 0x78, 0x04, 0x42, (byte)0xf6, 0x00, 0x00 });
+            break;
+        case "OPAQUE_DOUBLE":
+            // and as an opaque double
+            m_variable = new OpaqueExt(new byte[] { (byte)0x9f, 0x79, 0x08, 0x40, 0x5e, (byte)0xc0, 0x00, 0x00, 0x00, 0x00, 0x00 });
+            break;
+        default:
+            throw new IllegalArgumentException(type);
+        }
+        m_value = new Snmp4JValue(m_variable);
+        m_syntax = m_value.getType();
+        m_bytes = m_value.getBytes();
+    }
+
+    @Benchmark
+    public SnmpValue fromVariable() {
+        return new Snmp4JValue(m_variable);
+    }
+
+    @Benchmark
+    public SnmpValue fromBytes() {
+        return m_factory.getValue(m_syntax, m_bytes);
+    }
+
+    @Benchmark
+    public byte[] getBytes() {
+        return m_value.getBytes();
+    }
+
+    @Benchmark
+    public String toDisplayString() {
+        return new Snmp4JValue(m_variable).toDisplayString();
+    }
+
+    @Benchmark
+    public SnmpValue xmlAdapterRoundTrip() throws Exception {
+        return m_adapter.unmarshal(m_adapter.marshal(m_value));
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.snmp.commands;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.apache.karaf.shell.api.action.Action;
+import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.Option;
+import org.apache.karaf.shell.api.action.lifecycle.Service;
+import org.opennms.netmgt.snmp.AggregateTracker;
+import org.opennms.netmgt.snmp.CollectionTracker;
+import org.opennms.netmgt.snmp.ColumnTracker;
+import org.opennms.netmgt.snmp.SnmpAgentConfig;
+import org.opennms.netmgt.snmp.SnmpAgentTimeoutException;
+import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.SnmpResult;
+import org.opennms.netmgt.snmp.SnmpUtils;
+import org.opennms.netmgt.snmp.SnmpWalker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+@Command(scope = "opennms", name = "snmp-bench", description = "Send gets or walks to the agent on the specified host for a while and report the throughput and latencies.")
+@Service
+public class BenchCommand extends SnmpRequestCommand implements Action {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BenchCommand.class);
+
+    @Option(name = "-t", aliases = "--type", description = "Type of request: get or walk")
+    protected String m_type = "get";
+
+    @Option(name = "-c", aliases = "--concurrency", description = "Number of requests in flight")
+    protected int m_concurrency = 10;
+
+    @Option(name = "-r", aliases = "--rate", description = "Maximum number of requests per second, 0 for no limit")
+    protected double m_rate = 0;
+
+    @Option(name = "-d", aliases = "--duration", description = "Duration of the measurement in seconds")
+    protected int m_duration = 30;
+
+    @Option(name = "-w", aliases = "--warm-up", description = "Duration of the warm-up in seconds, its requests are not measured")
+    protected int m_warmUp = 5;
+
+    @Option(name = "-p", aliases = "--port", description = "Port of the agent, overrides the configured one, i.e. for simulated agents")
+    protected Integer m_port;
+
+    @Option(name = "-D", aliases = "--direct", description = "Use the local SNMP strategy instead of the location aware client, the location is ignored")
+    protected boolean m_direct = false;
+
+    @Override
+    public Object execute() {
+        LOG.debug("snmp:bench {} {} {} {}", m_type, m_location != null ? "-l " + m_location : "", m_host, m_oids);
+        if (!"get".equalsIgnoreCase(m_type) && !"walk".equalsIgnoreCase(m_type)) {
+            System.out.println(String.format("Unknown type '%s', use get or walk", m_type));
+            return null;
+        }
+        final List<SnmpObjId> snmpObjIds = m_oids.stream()
+                .map(SnmpObjId::get)
+                .collect(Collectors.toList());
+        final SnmpAgentConfig agent;
+        try {
+            agent = snmpAgentConfigFactory.getAgentConfig(InetAddress.getByName(m_host), m_location);
+        } catch (UnknownHostException uhe) {
+            System.out.println(String.format("Unknown host '%s' at location '%s': %s", m_host, m_location, uhe.getMessage()));
+            return null;
+        }
+        if (m_port != null) {
+            agent.setPort(m_port);
+        }
+
+        final Bench bench = new Bench(agent, snmpObjIds);
+        System.out.println(String.format("Sending %ss to %s:%d with %d in flight%s for %ds after a %ds warm-up",
+                m_type.toLowerCase(), agent.getAddress().getHostAddress(), agent.getPort(), m_concurrency, m_rate > 0 ? String.format(" at most %.0f/s", m_rate) : "", m_duration, m_warmUp));
+        try {
+            bench.run();
+        } catch (InterruptedException e) {
+            bench.stop();
+            Thread.currentThread().interrupt();
+        }
+        bench.report(agent);
+        return null;
+    }
+
+    private CompletableFuture<Integer> send(SnmpAgentConfig agent, List<SnmpObjId> oids) {
+        final boolean walk = "walk".equalsIgnoreCase(m_type);
+        if (!m_direct) {
+            if (walk) {
+                return locationAwareSnmpClient.walk(agent, oids)
+                        .withDescription("snmp:bench")
+                        .withLocation(m_location)
+                        .withSystemId(m_systemId)
+                        .execute()
+                        .thenApply(List::size);
+            }
+            return locationAwareSnmpClient.get(agent, oids)
+                    .withDescription("snmp:bench")
+                    .withLocation(m_location)
+                    .withSystemId(m_systemId)
+                    .execute()
+                    .thenApply(List::size);
+        }
+        if (!walk) {
+            return SnmpUtils.getAsync(agent, oids.toArray(new SnmpObjId[0])).thenApply(values -> values.length);
+        }
+        final CompletableFuture<Integer> future = new CompletableFuture<>();
+        final AtomicLong varbinds = new AtomicLong();
+        final CollectionTracker[] trackers = oids.stream()
+                .map(oid -> new ColumnTracker(oid) {
+                    @Override
+                    protected void storeResult(SnmpResult res) {
+                        varbinds.incrementAndGet();
+                    }
+                })
+                .toArray(CollectionTracker[]::new);
+        final SnmpWalker walker = SnmpUtils.createWalker(agent, "snmp:bench", new AggregateTracker(Arrays.asList(trackers)));
+        walker.setCallback((w, t) -> {
+            if (t != null) {
+                future.completeExceptionally(t);
+            } else if (w.failed()) {
+                future.completeExceptionally(w.getErrorThrowable() != null ? w.getErrorThrowable() : new Exception(w.getErrorMessage()));
+            } else {
+                future.complete((int)varbinds.get());
+            }
+            // not from the walker's own thread, see SnmpProxyRpcModule
+            CompletableFuture.runAsync(w::close);
+        });
+        walker.start();
+        return future;
+    }
+
+    /**
+     * Keeps the configured number of requests in flight until the end of the measurement,
+     * each of them taking the next send slot when a rate is set.
+     */
+    private class Bench {
+        private final SnmpAgentConfig agent;
+        private final List<SnmpObjId> oids;
+        private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "snmp-bench");
+            thread.setDaemon(true);
+            return thread;
+        });
+        private final CountDownLatch done = new CountDownLatch(m_concurrency);
+        private final long intervalNanos = m_rate > 0 ? (long)(TimeUnit.SECONDS.toNanos(1) / m_rate) : 0;
+        private final AtomicLong nextSlot = new AtomicLong();
+        private final long start = System.nanoTime();
+        private final long measureFrom = start + TimeUnit.SECONDS.toNanos(m_warmUp);
+        private volatile long end = measureFrom + TimeUnit.SECONDS.toNanos(m_duration);
+
+        // guarded by this
+        private long[] latencies = new long[1024];
+        private int count = 0;
+        private long varbinds = 0;
+        private long timeouts = 0;
+        private long errors = 0;
+        private long measuredUntil = measureFrom;
+
+        private Bench(SnmpAgentConfig agent, List<SnmpObjId> oids) {
+            this.agent = agent;
+            this.oids = oids;
+            nextSlot.set(start);
+        }
+
+        private void run() throws InterruptedException {
+            for (int i = 0; i < m_concurrency; i++) {
+                scheduler.execute(this::next);
+            }
+            long lastProgress = System.nanoTime();
+            while (!done.await(1, TimeUnit.SECONDS)) {
+                if (System.nanoTime() - lastProgress >= TimeUnit.SECONDS.toNanos(5)) {
+                    lastProgress = System.nanoTime();
+                    synchronized (this) {
+                        System.out.println(String.format("%d requests measured, %d timeouts, %d errors", count, timeouts, errors));
+                    }
+                }
+            }
+            scheduler.shutdown();
+        }
+
+        private void stop() {
+            end = System.nanoTime();
+            scheduler.shutdownNow();
+        }
+
+        private void next() {
+            final long now = System.nanoTime();
+            if (now >= end) {
+                done.countDown();
+                return;
+            }
+            if (intervalNanos > 0) {
+                final long slot = nextSlot.getAndUpdate(s -> Math.max(s, now) + intervalNanos);
+                if (slot > now) {
+                    scheduler.schedule(this::sendOne, slot - now, TimeUnit.NANOSECONDS);
+                    return;
+                }
+            }
+            sendOne();
+        }
+
+        private void sendOne() {
+            final long sent = System.nanoTime();
+            CompletableFuture<Integer> future;
+            try {
+                future = send(agent, oids);
+            } catch (RuntimeException e) {
+                future = new CompletableFuture<>();
+                future.completeExceptionally(e);
+            }
+            // continue on the scheduler so that requests failing right away do not recurse
+            future.whenCompleteAsync((results, t) -> {
+                final long received = System.nanoTime();
+                if (sent >= measureFrom && received <= end) {
+                    record(received - sent, results, t);
+                }
+                next();
+            }, scheduler);
+        }
+
+        private synchronized void record(long latency, Integer results, Throwable t) {
+            measuredUntil = Math.max(measuredUntil, System.nanoTime());
+            if (t != null) {
+                if (isTimeout(t)) {
+                    timeouts++;
+                } else {
+                    errors++;
+                    LOG.debug("snmp:bench request failed", t);
+                }
+                return;
+            }
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = latency;
+            varbinds += results != null ? results : 0;
+        }
+
+        private synchronized void report(SnmpAgentConfig agent) {
+            final double seconds = Math.max(1, measuredUntil - measureFrom) / (double)TimeUnit.SECONDS.toNanos(1);
+            final long[] sorted = Arrays.copyOf(latencies, count);
+            Arrays.sort(sorted);
+            // A get slower than the timeout can only be answered by a retransmission. A walk sends
+            // many PDUs whose latencies add up, so only its last PDU is known to have been retried
+            // when it timed out.
+            long retries = 0;
+            final long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(agent.getTimeout());
+            if (!"walk".equalsIgnoreCase(m_type) && timeoutNanos > 0) {
+                for (final long latency : sorted) {
+                    retries += Math.min(agent.getRetries(), latency / timeoutNanos);
+                }
+            }
+            retries += timeouts * agent.getRetries();
+
+            System.out.println(String.format("%d requests in %.1fs: %.1f requests/s, %.1f varbinds/s",
+                    count, seconds, count / seconds, varbinds / seconds));
+            System.out.println(String.format("latency ms: min=%.2f p50=%.2f p90=%.2f p99=%.2f p99.9=%.2f max=%.2f",
+                    percentile(sorted, 0), percentile(sorted, 50), percentile(sorted, 90), percentile(sorted, 99),
+                    percentile(sorted, 99.9), percentile(sorted, 100)));
+            System.out.println(String.format("timeouts=%d errors=%d retries>=%d (timeout=%dms, retries=%d)",
+                    timeouts, errors, retries, agent.getTimeout(), agent.getRetries()));
+        }
+
+        private double percentile(long[] sorted, double percentile) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            final int index = (int)Math.ceil(percentile / 100 * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(sorted.length - 1, index))] / (double)TimeUnit.MILLISECONDS.toNanos(1);
+        }
+    }
+
+    private static boolean isTimeout(Throwable t) {
+        for (; t != null; t = t.getCause()) {
+            if (t instanceof SnmpAgentTimeoutException || t instanceof TimeoutException) {
+                return true;
+            }
+            // timeouts on a remote location only come back as a message
+            if (t.getMessage() != null && t.getMessage().toLowerCase().contains("timeout")) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
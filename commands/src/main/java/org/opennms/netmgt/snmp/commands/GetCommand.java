@@ -35,6 +35,7 @@ import org.apache.karaf.shell.api.action.Command;
 import org.apache.karaf.shell.api.action.lifecycle.Service;
 import org.opennms.netmgt.snmp.SnmpAgentConfig;
 import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.SnmpRequestPriority;
 import org.opennms.netmgt.snmp.SnmpValue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -62,6 +63,7 @@ public class GetCommand extends SnmpRequestCommand implements Action {
                 .withDescription("snmp:get")
                 .withLocation(m_location)
                 .withSystemId(m_systemId)
+                .withPriority(SnmpRequestPriority.HIGH)
                 .execute();
 
         while (true) {
@@ -0,0 +1,318 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.snmp.commands;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.apache.karaf.shell.api.action.Action;
+import org.apache.karaf.shell.api.action.Argument;
+import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.Option;
+import org.apache.karaf.shell.api.action.lifecycle.Reference;
+import org.apache.karaf.shell.api.action.lifecycle.Service;
+import org.opennms.netmgt.config.api.SnmpAgentConfigFactory;
+import org.opennms.netmgt.snmp.SnmpAgentConfig;
+import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.SnmpRequestPriority;
+import org.opennms.netmgt.snmp.SnmpValue;
+import org.opennms.netmgt.snmp.proxy.LocationAwareSnmpClient;
+import org.opennms.netmgt.snmp.proxy.SNMPBatchRequestBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+@Command(scope = "opennms", name = "snmp-multi-get", description = "Request one or more fully-qualified MIB objects from the agents on many hosts concurrently and print the results as they arrive.")
+@Service
+public class MultiGetCommand implements Action {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MultiGetCommand.class);
+
+    private static final Object BATCH_DONE = new Object();
+
+    @Reference
+    public SnmpAgentConfigFactory snmpAgentConfigFactory;
+    @Reference
+    public LocationAwareSnmpClient locationAwareSnmpClient;
+    @Option(name = "-l", aliases = "--location", description = "Location of the hosts")
+    protected String m_location;
+    @Option(name = "-s", aliases = "--system-id", description = "System ID")
+    protected String m_systemId = null;
+    @Option(name = "-b", aliases = "--batch-size", description = "Number of hosts sent in a single RPC, at most as many as the location queries at the same time by default")
+    protected int m_batchSize = 100;
+    @Option(name = "-c", aliases = "--concurrency", description = "Number of batches in flight")
+    protected int m_concurrency = 4;
+    @Option(name = "-q", aliases = "--quiet", description = "Only print the failures and the summary")
+    protected boolean m_quiet = false;
+    @Argument(index = 0, name = "targets", description = "Comma separated hosts or CIDR ranges, or @file with one of them per line", required = true, multiValued = false)
+    protected String m_targets;
+    @Argument(index = 1, name = "oids", description = "List of OIDs to retrieve from the agents", required = true, multiValued = true)
+    protected List<String> m_oids;
+
+    // only accessed by the shell's thread
+    private long m_hosts = 0;
+    private long m_responded = 0;
+    private long m_errors = 0;
+    private long m_failed = 0;
+
+    @Override
+    public Object execute() {
+        LOG.debug("snmp:multi-get {} {} {}", m_location != null ? "-l " + m_location : "", m_targets, m_oids);
+        final List<SnmpObjId> snmpObjIds = m_oids.stream()
+                .map(SnmpObjId::get)
+                .collect(Collectors.toList());
+        final Iterator<String> targets;
+        try {
+            targets = parseTargets(m_targets);
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println(String.format("Invalid targets '%s': %s", m_targets, e.getMessage()));
+            return null;
+        }
+
+        // Results are printed from the shell's thread as they arrive
+        final BlockingQueue<Object> events = new LinkedBlockingQueue<>();
+        final long start = System.nanoTime();
+        int pendingBatches = 0;
+        try {
+            while (true) {
+                while (pendingBatches < Math.max(1, m_concurrency) && targets.hasNext()) {
+                    if (sendBatch(targets, snmpObjIds, events)) {
+                        pendingBatches++;
+                    }
+                }
+                if (pendingBatches == 0) {
+                    break;
+                }
+                final Object event = events.poll(1, TimeUnit.SECONDS);
+                if (event == BATCH_DONE) {
+                    pendingBatches--;
+                } else if (event != null) {
+                    print((HostResult)event);
+                }
+            }
+            // results delivered after the completion of their batch
+            for (Object event = events.poll(); event != null; event = events.poll()) {
+                if (event != BATCH_DONE) {
+                    print((HostResult)event);
+                }
+            }
+        } catch (InterruptedException e) {
+            System.out.println("Interrupted, results of the hosts still in flight are discarded");
+            Thread.currentThread().interrupt();
+        }
+
+        final double seconds = Math.max(1, System.nanoTime() - start) / (double)TimeUnit.SECONDS.toNanos(1);
+        System.out.println(String.format("%d hosts in %.1fs (%.1f hosts/s): %d responded, %d with errors, %d failed or timed out",
+                m_hosts, seconds, m_hosts / seconds, m_responded, m_errors, m_failed));
+        return null;
+    }
+
+    /**
+     * Sends the gets of the next hosts as a single RPC.
+     *
+     * @return false if none of the hosts could be resolved
+     */
+    private boolean sendBatch(Iterator<String> targets, List<SnmpObjId> oids, BlockingQueue<Object> events) {
+        final SNMPBatchRequestBuilder batch = locationAwareSnmpClient.batch(m_location)
+                .withDescription("snmp:multi-get")
+                .withSystemId(m_systemId);
+        while (batch.size() < Math.max(1, m_batchSize) && targets.hasNext()) {
+            final String host = targets.next();
+            m_hosts++;
+            final SnmpAgentConfig agent;
+            try {
+                agent = snmpAgentConfigFactory.getAgentConfig(InetAddress.getByName(host), m_location);
+            } catch (UnknownHostException uhe) {
+                System.out.println(String.format("Unknown host '%s' at location '%s': %s", host, m_location, uhe.getMessage()));
+                m_failed++;
+                continue;
+            }
+            // long enough for all the attempts at the agent, the batch waits for it once for every window of agents
+            final CompletableFuture<List<SnmpValue>> future = batch.add(locationAwareSnmpClient.get(agent, oids)
+                    .withPriority(SnmpRequestPriority.HIGH)
+                    .withTimeToLive((long)agent.getTimeout() * (agent.getRetries() + 1), TimeUnit.MILLISECONDS));
+            future.whenComplete((values, t) -> events.add(new HostResult(host, oids, values, t)));
+        }
+        if (batch.size() == 0) {
+            return false;
+        }
+        batch.execute().whenComplete((v, t) -> events.add(BATCH_DONE));
+        return true;
+    }
+
+    private void print(HostResult result) {
+        if (result.failure != null) {
+            m_failed++;
+            System.out.println(String.format("%s: %s", result.host, result.failure.getMessage()));
+            return;
+        }
+        m_responded++;
+        final boolean error = result.values.stream().anyMatch(value -> value == null || value.isError());
+        if (error) {
+            m_errors++;
+        }
+        if (m_quiet && !error) {
+            return;
+        }
+        for (int i = 0; i < result.oids.size(); i++) {
+            final SnmpValue value = i < result.values.size() ? result.values.get(i) : null;
+            System.out.println(String.format("%s: %s = %s%s", result.host, result.oids.get(i),
+                    value == null || value.isError() ? "ERROR: " : "", value));
+        }
+    }
+
+    private static class HostResult {
+        private final String host;
+        private final List<SnmpObjId> oids;
+        private final List<SnmpValue> values;
+        private final Throwable failure;
+
+        private HostResult(String host, List<SnmpObjId> oids, List<SnmpValue> values, Throwable failure) {
+            this.host = host;
+            this.oids = oids;
+            this.values = values != null ? values : Collections.emptyList();
+            this.failure = failure;
+        }
+    }
+
+    /**
+     * The entries, or the lines of the file, are read at once but the ranges are expanded
+     * lazily, so that large ranges are not held in memory.
+     */
+    static Iterator<String> parseTargets(String spec) throws IOException {
+        final List<String> entries;
+        if (spec.startsWith("@")) {
+            entries = Files.readAllLines(Paths.get(spec.substring(1)), StandardCharsets.UTF_8).stream()
+                    .map(String::trim)
+                    .filter(line -> !line.isEmpty() && !line.startsWith("#"))
+                    .collect(Collectors.toList());
+        } else {
+            entries = Arrays.stream(spec.split(","))
+                    .map(String::trim)
+                    .filter(entry -> !entry.isEmpty())
+                    .collect(Collectors.toList());
+        }
+        for (final String entry : entries) {
+            if (entry.contains("/")) {
+                // validates the range right away
+                new CidrIterator(entry);
+            }
+        }
+        final Iterator<String> entryIterator = entries.iterator();
+        return new Iterator<String>() {
+            private Iterator<String> current = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!current.hasNext() && entryIterator.hasNext()) {
+                    final String entry = entryIterator.next();
+                    try {
+                        current = entry.contains("/") ? new CidrIterator(entry) : Collections.singletonList(entry).iterator();
+                    } catch (UnknownHostException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+                return current.hasNext();
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+        };
+    }
+
+    /**
+     * Addresses of a CIDR range, without the network and broadcast addresses for IPv4 ranges larger than /31.
+     */
+    private static class CidrIterator implements Iterator<String> {
+        private final int length;
+        private BigInteger next;
+        private final BigInteger last;
+
+        private CidrIterator(String cidr) throws UnknownHostException {
+            final String[] parts = cidr.split("/", 2);
+            final byte[] address = InetAddress.getByName(parts[0]).getAddress();
+            final int prefix;
+            try {
+                prefix = Integer.parseInt(parts[1]);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("invalid prefix length in " + cidr);
+            }
+            length = address.length;
+            final int bits = length * 8;
+            if (prefix < 0 || prefix > bits) {
+                throw new IllegalArgumentException("invalid prefix length in " + cidr);
+            }
+            final BigInteger size = BigInteger.ONE.shiftLeft(bits - prefix);
+            final BigInteger first = new BigInteger(1, address).andNot(size.subtract(BigInteger.ONE));
+            BigInteger from = first;
+            BigInteger to = first.add(size).subtract(BigInteger.ONE);
+            if (length == 4 && prefix < 31) {
+                from = from.add(BigInteger.ONE);
+                to = to.subtract(BigInteger.ONE);
+            }
+            next = from;
+            last = to;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next.compareTo(last) <= 0;
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final byte[] bytes = next.toByteArray();
+            final byte[] address = new byte[length];
+            // drop the sign byte or pad with leading zeros
+            final int copy = Math.min(bytes.length, length);
+            System.arraycopy(bytes, bytes.length - copy, address, length - copy, copy);
+            next = next.add(BigInteger.ONE);
+            try {
+                return InetAddress.getByAddress(address).getHostAddress();
+            } catch (UnknownHostException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
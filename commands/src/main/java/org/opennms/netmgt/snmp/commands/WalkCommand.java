@@ -24,18 +24,23 @@ package org.opennms.netmgt.snmp.commands;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.List;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
 import org.apache.karaf.shell.api.action.Action;
 import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.Option;
 import org.apache.karaf.shell.api.action.lifecycle.Service;
 import org.opennms.netmgt.snmp.SnmpAgentConfig;
 import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.SnmpRequestPriority;
 import org.opennms.netmgt.snmp.SnmpResult;
+import org.opennms.netmgt.snmp.proxy.SNMPStreamingWalkRequestBuilder;
+import org.opennms.netmgt.snmp.proxy.WalkChunk;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -45,9 +50,24 @@ public class WalkCommand extends SnmpRequestCommand implements Action {
 
     private static final Logger LOG = LoggerFactory.getLogger(WalkCommand.class);
 
+    private static final Object COMPLETE = new Object();
+
+    @Option(name = "-m", aliases = "--max-rows", description = "Stop after printing this many results, 0 for no limit")
+    protected long m_maxRows = 0;
+
+    @Option(name = "-f", aliases = "--format", description = "Output format: text or csv")
+    protected String m_format = "text";
+
+    @Option(name = "-c", aliases = "--chunk-size", description = "Number of results retrieved at a time")
+    protected int m_chunkSize = SNMPStreamingWalkRequestBuilder.DEFAULT_CHUNK_SIZE;
+
     @Override
     public Object execute() {
         LOG.debug("snmp:walk {} {} {}", m_location != null ? "-l " + m_location : "", m_host, m_oids);
+        if (!"text".equalsIgnoreCase(m_format) && !"csv".equalsIgnoreCase(m_format)) {
+            System.out.println(String.format("Unknown format '%s', use text or csv", m_format));
+            return null;
+        }
         final List<SnmpObjId> snmpObjIds = m_oids.stream()
                     .map(SnmpObjId::get)
                     .collect(Collectors.toList());
@@ -58,27 +78,93 @@ public class WalkCommand extends SnmpRequestCommand implements Action {
             System.out.println(String.format("Unknown host '%s' at location '%s': %s", m_host, m_location, uhe.getMessage()));
             return null;
         }
-        final CompletableFuture<List<SnmpResult>> future = locationAwareSnmpClient.walk(agent, snmpObjIds)
+        final Flow.Publisher<WalkChunk> publisher = locationAwareSnmpClient.walkStreaming(agent, snmpObjIds)
             .withDescription("snmp:walk")
             .withLocation(m_location)
             .withSystemId(m_systemId)
-            .execute();
-
-        while (true) {
-            try {
-                future.get(1, TimeUnit.SECONDS).stream()
-                    .forEach(res -> {
-                        System.out.println(String.format("[%s].[%s] = %s", res.getBase(), res.getInstance(), res.getValue()));
-                    });
-                break;
-            } catch (TimeoutException e) {
-                //pass
-                System.out.print(".");
-            } catch (InterruptedException | ExecutionException e) {
-                System.out.println(String.format("\n %s: %s", m_host, e.getMessage()));
-                break;
+            .withPriority(SnmpRequestPriority.HIGH)
+            .withChunkSize(m_chunkSize)
+            .publisher();
+
+        // Chunks are printed from the shell's thread, the next one is only requested once printed
+        final BlockingQueue<Object> events = new LinkedBlockingQueue<>();
+        final AtomicReference<Flow.Subscription> subscription = new AtomicReference<>();
+        publisher.subscribe(new Flow.Subscriber<WalkChunk>() {
+            @Override
+            public void onSubscribe(Flow.Subscription s) {
+                subscription.set(s);
+                s.request(1);
+            }
+
+            @Override
+            public void onNext(WalkChunk chunk) {
+                events.add(chunk);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                events.add(t);
             }
+
+            @Override
+            public void onComplete() {
+                events.add(COMPLETE);
+            }
+        });
+
+        final long start = System.nanoTime();
+        long varbinds = 0;
+        long pdus = 0;
+        if ("csv".equalsIgnoreCase(m_format)) {
+            System.out.println("oid,type,value");
+        }
+        try {
+            while (true) {
+                final Object event = events.poll(1, TimeUnit.SECONDS);
+                if (event == null) {
+                    continue;
+                } else if (event == COMPLETE) {
+                    break;
+                } else if (event instanceof Throwable) {
+                    System.out.println(String.format("\n %s: %s", m_host, ((Throwable)event).getMessage()));
+                    break;
+                }
+                final WalkChunk chunk = (WalkChunk)event;
+                pdus += chunk.getPdusSent();
+                boolean truncated = false;
+                for (final SnmpResult res : chunk.getResults()) {
+                    if (m_maxRows > 0 && varbinds >= m_maxRows) {
+                        truncated = true;
+                        break;
+                    }
+                    print(res);
+                    varbinds++;
+                }
+                if (truncated || (m_maxRows > 0 && varbinds >= m_maxRows && !chunk.isLast())) {
+                    subscription.get().cancel();
+                    System.out.println(String.format("Stopped after %d results", varbinds));
+                    break;
+                }
+                subscription.get().request(1);
+            }
+        } catch (InterruptedException e) {
+            subscription.get().cancel();
+            Thread.currentThread().interrupt();
         }
+
+        final double elapsedMs = (System.nanoTime() - start) / (double)TimeUnit.MILLISECONDS.toNanos(1);
+        System.out.println(String.format("%d varbinds, %d PDUs sent in %.0f ms (%.1f varbinds/s)",
+                varbinds, pdus, elapsedMs, elapsedMs > 0 ? varbinds * 1000 / elapsedMs : 0));
         return null;
     }
+
+    private void print(SnmpResult res) {
+        if ("csv".equalsIgnoreCase(m_format)) {
+            final String value = res.getValue() == null ? "" : res.getValue().toDisplayString().replace("\"", "\"\"");
+            System.out.println(String.format("%s,%d,\"%s\"", res.getAbsoluteInstance(),
+                    res.getValue() == null ? 0 : res.getValue().getType(), value));
+        } else {
+            System.out.println(String.format("[%s].[%s] = %s", res.getBase(), res.getInstance(), res.getValue()));
+        }
+    }
 }
@@ -26,10 +26,10 @@ import java.math.BigInteger;
 import java.net.InetAddress;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.opennms.netmgt.snmp.CollectionTracker;
 import org.opennms.netmgt.snmp.InetAddrUtils;
@@ -58,7 +58,7 @@ public class MockSnmpStrategy implements SnmpStrategy {
 
     // TOG's enterprise ID
     private static int s_enterpriseId = 5813;
-    private static Map<SnmpAgentAddress,PropertyOidContainer> m_loaders = new HashMap<SnmpAgentAddress,PropertyOidContainer>();
+    private static final Map<SnmpAgentAddress,PropertyOidContainer> m_loaders = new ConcurrentHashMap<SnmpAgentAddress,PropertyOidContainer>();
 
     public MockSnmpStrategy() {
     }
@@ -68,8 +68,9 @@ public class MockSnmpStrategy implements SnmpStrategy {
     }
 
     protected PropertyOidContainer getOidContainer(final SnmpAgentAddress aa) {
-        if (m_loaders.containsKey(aa)) {
-            return m_loaders.get(aa);
+        final PropertyOidContainer container = m_loaders.get(aa);
+        if (container != null) {
+            return container;
         } else {
             return m_loaders.get(ALL_AGENTS);
         }
@@ -236,6 +237,14 @@ public class MockSnmpStrategy implements SnmpStrategy {
         m_loaders.put(agentAddress, new PropertyOidContainer(resource));
     }
 
+    /**
+     * Serves the given data for the agent, so that a single container can be loaded
+     * once and shared by many agents.
+     */
+    public static void setDataForAddress(final SnmpAgentAddress agentAddress, final PropertyOidContainer container) {
+        m_loaders.put(agentAddress, container);
+    }
+
     public static void updateIntValue(final SnmpAgentAddress agentAddress, String oid, int value) {
         m_loaders.get(agentAddress).set(SnmpObjId.get(oid), new MockSnmpValueFactory().getInt32(value));
     }
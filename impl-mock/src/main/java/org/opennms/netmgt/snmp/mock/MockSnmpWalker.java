@@ -23,8 +23,12 @@ package org.opennms.netmgt.snmp.mock;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 //import org.opennms.core.concurrent.LogPreservingThreadFactory;
 import org.opennms.netmgt.snmp.CollectionTracker;
@@ -93,22 +97,36 @@ public class MockSnmpWalker extends SnmpWalker {
 		
 	}
 
+    /**
+     * Shared by all of the walkers, a walker having at most one PDU in flight. Runs the
+     * responses on virtual threads unless a number of platform threads is configured.
+     */
+    private static final Executor s_executor = createExecutor(Integer.getInteger("org.opennms.core.snmp.mock.walkerThreads", 0));
+
 	private final SnmpAgentAddress m_agentAddress;
 	private final int m_snmpVersion;
     private final PropertyOidContainer m_container;
-    private final ExecutorService m_executor;
 
     public MockSnmpWalker(final SnmpAgentAddress agentAddress, final int snmpVersion, final PropertyOidContainer container, final String name, final CollectionTracker tracker, final int maxVarsPerPdu, final int maxRetries) {
         super(agentAddress.getAddress(), name, maxVarsPerPdu, 1, maxRetries, tracker);
         m_agentAddress = agentAddress;
         m_snmpVersion = snmpVersion;
         m_container = container;
-		m_executor = Executors.newFixedThreadPool(1);
-/*
-        m_executor = Executors.newSingleThreadExecutor(
-            new LogPreservingThreadFactory(getClass().getSimpleName(), 1)
-        );
-*/
+    }
+
+    private static Executor createExecutor(final int threads) {
+        if (threads <= 0) {
+            return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("MockSnmpWalker-", 0).factory());
+        }
+        final AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "MockSnmpWalker-" + count.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
     }
 
     @Override
@@ -122,7 +140,7 @@ public class MockSnmpWalker extends SnmpWalker {
         final List<SnmpObjId> oids = builder.getOids();
         LOG.debug("'Sending' tracker PDU of size {}", oids.size());
 
-        m_executor.submit(new ResponseHandler(oids));
+        s_executor.execute(new ResponseHandler(oids));
     }
 
     @Override
@@ -163,7 +181,7 @@ public class MockSnmpWalker extends SnmpWalker {
 
     @Override
     public void close() {
-        m_executor.shutdown();
+        // nothing to release, the executor is shared
     }
 
     @Override
@@ -189,8 +207,10 @@ public class MockSnmpWalker extends SnmpWalker {
 	        try {
 	            if (m_container == null) {
 	            	LOG.info("No SNMP response data configured for {}; pretending we've timed out.", m_agentAddress);
-	            	Thread.sleep(100);
-	            	handleTimeout("No MockSnmpAgent data configured for '" + m_agentAddress + "'.");
+	            	// without holding one of the threads for the delay
+	            	CompletableFuture.delayedExecutor(100, TimeUnit.MILLISECONDS, s_executor).execute(() -> {
+	            	    handleTimeout("No MockSnmpAgent data configured for '" + m_agentAddress + "'.");
+	            	});
 	            	return;
 	            }
 
@@ -0,0 +1,451 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.snmp.mock;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.SnmpValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The OIDs of a MIB dump and their values, sorted and packed in a few flat buffers
+ * rather than a tree of objects: the sub-identifiers of all of the OIDs end to end
+ * with the offset of each OID, and the MIB values as text with their offsets. Values
+ * are parsed when they are read.
+ *
+ * The buffers are either on the heap, when built from a properties file, or mapped
+ * from an index file written by {@link #write(Path)}.
+ */
+final class PackedOidTable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PackedOidTable.class);
+
+    private static final int MAGIC = 0x4f494458; // "OIDX"
+    private static final int VERSION = 1;
+    // magic, version, entries, sub-identifiers, value bytes
+    private static final int HEADER_BYTES = 5 * Integer.BYTES;
+
+    private final MockSnmpValueFactory m_factory = new MockSnmpValueFactory();
+
+    private final int m_size;
+    private final IntBuffer m_oidOffsets;
+    private final IntBuffer m_subIds;
+    private final IntBuffer m_valueOffsets;
+    private final ByteBuffer m_values;
+
+    private PackedOidTable(final int size, final IntBuffer oidOffsets, final IntBuffer subIds, final IntBuffer valueOffsets, final ByteBuffer values) {
+        m_size = size;
+        m_oidOffsets = oidOffsets;
+        m_subIds = subIds;
+        m_valueOffsets = valueOffsets;
+        m_values = values;
+    }
+
+    int size() {
+        return m_size;
+    }
+
+    /**
+     * The value of the given OID, or null if it is not in the table.
+     */
+    SnmpValue getValue(final SnmpObjId oid) {
+        final int index = indexOf(oid);
+        return index < 0 ? null : getValue(index);
+    }
+
+    /**
+     * The first OID of the table after the given one, or null at the end of the table.
+     */
+    SnmpObjId getNext(final SnmpObjId oid) {
+        final int index = indexOf(oid);
+        final int next = index < 0 ? -index - 1 : index + 1;
+        return next < m_size ? getOid(next) : null;
+    }
+
+    SnmpObjId getOid(final int index) {
+        final int start = m_oidOffsets.get(index);
+        final int[] ids = new int[m_oidOffsets.get(index + 1) - start];
+        m_subIds.get(start, ids);
+        return new SnmpObjId(ids, false);
+    }
+
+    SnmpValue getValue(final int index) {
+        return m_factory.parseMibValue(getMibValue(index));
+    }
+
+    private String getMibValue(final int index) {
+        final int start = m_valueOffsets.get(index);
+        final byte[] bytes = new byte[m_valueOffsets.get(index + 1) - start];
+        m_values.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Binary search, with the same result as {@link Arrays#binarySearch(Object[], Object)}.
+     */
+    private int indexOf(final SnmpObjId oid) {
+        int low = 0;
+        int high = m_size - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int cmp = compare(m_oidOffsets.get(mid), m_oidOffsets.get(mid + 1), oid);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * Compares the packed OID between start and end with the given one,
+     * in the order of {@link SnmpObjId#compareTo(SnmpObjId)}.
+     */
+    private int compare(final int start, final int end, final SnmpObjId oid) {
+        final int length = end - start;
+        final int common = Math.min(length, oid.length());
+        for (int i = 0; i < common; i++) {
+            final int cmp = Integer.compareUnsigned(m_subIds.get(start + i), oid.getSubIdAt(i));
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return length - oid.length();
+    }
+
+    /**
+     * Writes the table to an index file that {@link #map(Path)} loads without parsing.
+     */
+    void write(final Path path) throws IOException {
+        try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(m_size);
+            out.writeInt(m_oidOffsets.get(m_size));
+            out.writeInt(m_valueOffsets.get(m_size));
+            writeInts(out, m_oidOffsets, m_size + 1);
+            writeInts(out, m_subIds, m_oidOffsets.get(m_size));
+            writeInts(out, m_valueOffsets, m_size + 1);
+            for (int i = 0; i < m_valueOffsets.get(m_size); i++) {
+                out.writeByte(m_values.get(i));
+            }
+        }
+    }
+
+    private static void writeInts(final DataOutputStream out, final IntBuffer ints, final int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            out.writeInt(ints.get(i));
+        }
+    }
+
+    /**
+     * Maps an index file written by {@link #write(Path)}, the pages are
+     * loaded by the OS as the OIDs are looked up.
+     */
+    static PackedOidTable map(final Path path) throws IOException {
+        final ByteBuffer buffer;
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(path + " is too large to be mapped: " + channel.size() + " bytes");
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+            throw new IOException(path + " is not an OID index");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException(path + " has unsupported version " + buffer.getInt(4));
+        }
+        final int size = buffer.getInt(8);
+        final int subIds = buffer.getInt(12);
+        final int valueBytes = buffer.getInt(16);
+
+        int offset = HEADER_BYTES;
+        final IntBuffer oidOffsets = buffer.slice(offset, (size + 1) * Integer.BYTES).asIntBuffer();
+        offset += (size + 1) * Integer.BYTES;
+        final IntBuffer subIdBuffer = buffer.slice(offset, subIds * Integer.BYTES).asIntBuffer();
+        offset += subIds * Integer.BYTES;
+        final IntBuffer valueOffsets = buffer.slice(offset, (size + 1) * Integer.BYTES).asIntBuffer();
+        offset += (size + 1) * Integer.BYTES;
+        if (offset + valueBytes != buffer.capacity()) {
+            throw new IOException(path + " is truncated, expected " + (offset + valueBytes) + " bytes");
+        }
+        return new PackedOidTable(size, oidOffsets, subIdBuffer, valueOffsets, buffer.slice(offset, valueBytes));
+    }
+
+    /**
+     * Builds the table in one pass over a file in the format of {@link java.util.Properties},
+     * keeping the entries whose key is an OID and whose value can be parsed. Dumps from
+     * snmpwalk are in order already, others are sorted once loaded. The last value wins
+     * for a duplicate OID, as with {@link java.util.Properties#load(InputStream)}.
+     */
+    static PackedOidTable load(final InputStream in) throws IOException {
+        final Builder builder = new Builder();
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.ISO_8859_1));
+        String line;
+        while ((line = readLogicalLine(reader)) != null) {
+            final int keyEnd = keyEnd(line);
+            final String key = unescape(line.substring(0, keyEnd));
+            if (!key.startsWith(".")) continue;
+            final String value = unescape(line.substring(valueStart(line, keyEnd)));
+            if (value.contains("No Such Object available on this agent at this OID")) { continue; }
+            if (value.contains("No more variables left in this MIB View")) { continue; }
+            try {
+                builder.m_factory.parseMibValue(value);
+            } catch (final NumberFormatException nfe) {
+                LOG.debug("Unable to store '{} = {}', skipping. ({})", key, value, nfe.getLocalizedMessage());
+                continue;
+            }
+            builder.add(SnmpObjId.convertStringToInts(key), value);
+        }
+        return builder.build();
+    }
+
+    /**
+     * The next non-blank, non-comment line with its continuation lines joined.
+     */
+    private static String readLogicalLine(final BufferedReader reader) throws IOException {
+        String line;
+        do {
+            line = reader.readLine();
+            if (line == null) {
+                return null;
+            }
+            line = stripLeading(line);
+        } while (line.isEmpty() || line.charAt(0) == '#' || line.charAt(0) == '!');
+
+        while (endsWithContinuation(line)) {
+            final String next = reader.readLine();
+            line = line.substring(0, line.length() - 1);
+            if (next == null) {
+                break;
+            }
+            line += stripLeading(next);
+        }
+        return line;
+    }
+
+    private static String stripLeading(final String line) {
+        int i = 0;
+        while (i < line.length() && isWhitespace(line.charAt(i))) {
+            i++;
+        }
+        return line.substring(i);
+    }
+
+    private static boolean isWhitespace(final char c) {
+        return c == ' ' || c == '\t' || c == '\f';
+    }
+
+    private static boolean endsWithContinuation(final String line) {
+        int backslashes = 0;
+        for (int i = line.length() - 1; i >= 0 && line.charAt(i) == '\\'; i--) {
+            backslashes++;
+        }
+        return backslashes % 2 == 1;
+    }
+
+    private static int keyEnd(final String line) {
+        for (int i = 0; i < line.length(); i++) {
+            final char c = line.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '=' || c == ':' || isWhitespace(c)) {
+                return i;
+            }
+        }
+        return line.length();
+    }
+
+    private static int valueStart(final String line, final int keyEnd) {
+        int i = keyEnd;
+        while (i < line.length() && isWhitespace(line.charAt(i))) {
+            i++;
+        }
+        if (i < line.length() && (line.charAt(i) == '=' || line.charAt(i) == ':')) {
+            i++;
+        }
+        while (i < line.length() && isWhitespace(line.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static String unescape(final String s) {
+        if (s.indexOf('\\') < 0) {
+            return s;
+        }
+        final StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\' && i + 1 < s.length()) {
+                c = s.charAt(++i);
+                switch (c) {
+                case 't': c = '\t'; break;
+                case 'r': c = '\r'; break;
+                case 'n': c = '\n'; break;
+                case 'f': c = '\f'; break;
+                case 'u':
+                    if (i + 4 >= s.length()) {
+                        throw new IllegalArgumentException("Malformed \\uxxxx encoding in '" + s + "'");
+                    }
+                    c = (char)Integer.parseInt(s.substring(i + 1, i + 5), 16);
+                    i += 4;
+                    break;
+                default:
+                    break;
+                }
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    private static class Builder {
+        private final MockSnmpValueFactory m_factory = new MockSnmpValueFactory();
+        private int m_size = 0;
+        private int[] m_oidOffsets = new int[1024];
+        private int[] m_subIds = new int[16 * 1024];
+        private int[] m_valueOffsets = new int[1024];
+        private byte[] m_values = new byte[16 * 1024];
+        private boolean m_sorted = true;
+
+        void add(final int[] oid, final String value) {
+            if (m_size > 0) {
+                final int cmp = compare(m_size - 1, oid, 0, oid.length);
+                if (cmp == 0) {
+                    // a duplicate of the previous entry replaces it
+                    m_size--;
+                } else if (cmp > 0) {
+                    m_sorted = false;
+                }
+            }
+            final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            final int subIdStart = m_oidOffsets[m_size];
+            final int valueStart = m_valueOffsets[m_size];
+            if (m_size + 2 > m_oidOffsets.length) {
+                m_oidOffsets = Arrays.copyOf(m_oidOffsets, m_oidOffsets.length * 2);
+                m_valueOffsets = Arrays.copyOf(m_valueOffsets, m_valueOffsets.length * 2);
+            }
+            m_subIds = ensureCapacity(m_subIds, subIdStart + oid.length);
+            m_values = ensureCapacity(m_values, valueStart + bytes.length);
+
+            System.arraycopy(oid, 0, m_subIds, subIdStart, oid.length);
+            System.arraycopy(bytes, 0, m_values, valueStart, bytes.length);
+            m_size++;
+            m_oidOffsets[m_size] = subIdStart + oid.length;
+            m_valueOffsets[m_size] = valueStart + bytes.length;
+        }
+
+        private int compare(final int index, final int[] ids, final int from, final int to) {
+            final int start = m_oidOffsets[index];
+            final int length = m_oidOffsets[index + 1] - start;
+            final int otherLength = to - from;
+            final int common = Math.min(length, otherLength);
+            for (int i = 0; i < common; i++) {
+                final int cmp = Integer.compareUnsigned(m_subIds[start + i], ids[from + i]);
+                if (cmp != 0) {
+                    return cmp;
+                }
+            }
+            return length - otherLength;
+        }
+
+        private int compare(final int index, final int other) {
+            return compare(index, m_subIds, m_oidOffsets[other], m_oidOffsets[other + 1]);
+        }
+
+        PackedOidTable build() {
+            if (!m_sorted) {
+                sort();
+            }
+            return new PackedOidTable(m_size,
+                    IntBuffer.wrap(Arrays.copyOf(m_oidOffsets, m_size + 1)),
+                    IntBuffer.wrap(Arrays.copyOf(m_subIds, m_oidOffsets[m_size])),
+                    IntBuffer.wrap(Arrays.copyOf(m_valueOffsets, m_size + 1)),
+                    ByteBuffer.wrap(Arrays.copyOf(m_values, m_valueOffsets[m_size])));
+        }
+
+        /**
+         * Reorders the entries, keeping the last one added of equal OIDs.
+         */
+        private void sort() {
+            final Integer[] order = new Integer[m_size];
+            for (int i = 0; i < m_size; i++) {
+                order[i] = i;
+            }
+            // stable, so equal OIDs stay in the order they were added
+            Arrays.sort(order, this::compare);
+
+            final int[] oidOffsets = new int[m_size + 1];
+            final int[] subIds = new int[m_oidOffsets[m_size]];
+            final int[] valueOffsets = new int[m_size + 1];
+            final byte[] values = new byte[m_valueOffsets[m_size]];
+            int size = 0;
+            for (int i = 0; i < m_size; i++) {
+                final int index = order[i];
+                if (i + 1 < m_size && compare(index, order[i + 1]) == 0) {
+                    continue;
+                }
+                final int oidLength = m_oidOffsets[index + 1] - m_oidOffsets[index];
+                final int valueLength = m_valueOffsets[index + 1] - m_valueOffsets[index];
+                System.arraycopy(m_subIds, m_oidOffsets[index], subIds, oidOffsets[size], oidLength);
+                System.arraycopy(m_values, m_valueOffsets[index], values, valueOffsets[size], valueLength);
+                oidOffsets[size + 1] = oidOffsets[size] + oidLength;
+                valueOffsets[size + 1] = valueOffsets[size] + valueLength;
+                size++;
+            }
+            m_size = size;
+            m_oidOffsets = oidOffsets;
+            m_subIds = subIds;
+            m_valueOffsets = valueOffsets;
+            m_values = values;
+            m_sorted = true;
+        }
+
+        private static int[] ensureCapacity(final int[] array, final int capacity) {
+            return capacity <= array.length ? array : Arrays.copyOf(array, Math.max(capacity, array.length * 2));
+        }
+
+        private static byte[] ensureCapacity(final byte[] array, final int capacity) {
+            return capacity <= array.length ? array : Arrays.copyOf(array, Math.max(capacity, array.length * 2));
+        }
+    }
+}
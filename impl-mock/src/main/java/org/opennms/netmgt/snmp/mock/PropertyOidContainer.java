@@ -23,9 +23,12 @@ package org.opennms.netmgt.snmp.mock;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Path;
 import java.util.NavigableMap;
 import java.util.Properties;
 import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.commons.io.IOUtils;
 import org.opennms.netmgt.snmp.SnmpObjId;
@@ -34,13 +37,44 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.core.io.Resource;
 
+/**
+ * The OIDs and values served by the mock strategy and the simulator, loaded from a
+ * properties file of "OID = MIB value" lines as written by snmpwalk.
+ *
+ * By default the values are parsed and kept in a tree. The compact mode, enabled with
+ * the {@code org.opennms.core.snmp.mock.compact} system property or the constructor,
+ * keeps them in a {@link PackedOidTable} instead, which loads large dumps in a single
+ * pass and takes a fraction of the heap. A dump can also be converted once with
+ * {@link #writeIndex(Resource, Path)} and memory-mapped with {@link #fromIndex(Path)}.
+ * In both cases the values that are set are kept in the tree and take precedence.
+ *
+ * A container is safe to share between concurrent walks and simulated agents, the
+ * tree being guarded by a read-write lock as it is only written to by sets.
+ */
 public class PropertyOidContainer {
 	
 	private static final Logger LOG = LoggerFactory.getLogger(PropertyOidContainer.class);
+
+    private static final boolean COMPACT = Boolean.getBoolean("org.opennms.core.snmp.mock.compact");
 	
     private final NavigableMap<SnmpObjId,SnmpValue> m_tree = new TreeMap<SnmpObjId,SnmpValue>();
+    private final PackedOidTable m_table;
+    private final ReadWriteLock m_lock = new ReentrantReadWriteLock();
 
     public PropertyOidContainer(final Resource resource) throws IOException {
+        this(resource, COMPACT);
+    }
+
+    public PropertyOidContainer(final Resource resource, final boolean compact) throws IOException {
+        if (compact) {
+            try (InputStream inStream = resource.getInputStream()) {
+                m_table = PackedOidTable.load(inStream);
+            }
+            LOG.debug("Loaded {} OIDs from {}", m_table.size(), resource);
+            return;
+        }
+        m_table = null;
+
     	MockSnmpValueFactory factory = new MockSnmpValueFactory();
         final Properties moProps = new Properties();
         InputStream inStream = null;
@@ -66,8 +100,37 @@ public class PropertyOidContainer {
         }
     }
 
+    private PropertyOidContainer(final PackedOidTable table) {
+        m_table = table;
+    }
+
+    /**
+     * Loads an index file written by {@link #writeIndex(Resource, Path)}.
+     */
+    public static PropertyOidContainer fromIndex(final Path index) throws IOException {
+        return new PropertyOidContainer(PackedOidTable.map(index));
+    }
+
+    /**
+     * Converts a properties file to an index file for {@link #fromIndex(Path)}.
+     */
+    public static void writeIndex(final Resource resource, final Path index) throws IOException {
+        try (InputStream inStream = resource.getInputStream()) {
+            PackedOidTable.load(inStream).write(index);
+        }
+    }
+
     public SnmpValue findValueForOid(final SnmpObjId oid) {
-        final SnmpValue value = m_tree.get(oid);
+        SnmpValue value;
+        m_lock.readLock().lock();
+        try {
+            value = m_tree.get(oid);
+        } finally {
+            m_lock.readLock().unlock();
+        }
+        if (value == null && m_table != null) {
+            value = m_table.getValue(oid);
+        }
         if (value == null) {
             if (oid.getLastSubId() == 0) {
                 return MockSnmpValue.NO_SUCH_OBJECT;
@@ -79,12 +142,21 @@ public class PropertyOidContainer {
     }
 
     public SnmpObjId findNextOidForOid(final SnmpObjId oid) {
-        final NavigableMap<SnmpObjId,SnmpValue> next = m_tree.tailMap(oid, false);
-        if (next.size() == 0) {
-            return null;
-        } else {
-            return next.firstKey();
+        final SnmpObjId next;
+        m_lock.readLock().lock();
+        try {
+            next = m_tree.higherKey(oid);
+        } finally {
+            m_lock.readLock().unlock();
+        }
+        if (m_table == null) {
+            return next;
         }
+        final SnmpObjId nextInTable = m_table.getNext(oid);
+        if (next == null || (nextInTable != null && nextInTable.compareTo(next) < 0)) {
+            return nextInTable;
+        }
+        return next;
     }
     
     public SnmpValue findNextValueForOid(final SnmpObjId oid) {
@@ -97,13 +169,23 @@ public class PropertyOidContainer {
     }
 
     public SnmpValue set(final SnmpObjId oid, final SnmpValue value) {
-        m_tree.put(oid, value);
+        m_lock.writeLock().lock();
+        try {
+            m_tree.put(oid, value);
+        } finally {
+            m_lock.writeLock().unlock();
+        }
         return value;
     }
 
     public SnmpValue[] set(final SnmpObjId[] oids, final SnmpValue[] values) {
-        for (int i = 0; i < oids.length; i++) {
-            m_tree.put(oids[i], values[i]);
+        m_lock.writeLock().lock();
+        try {
+            for (int i = 0; i < oids.length; i++) {
+                m_tree.put(oids[i], values[i]);
+            }
+        } finally {
+            m_lock.writeLock().unlock();
         }
         return values;
     }
@@ -0,0 +1,283 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.snmp.snmp4j;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.opennms.netmgt.snmp.SnmpAgentAddress;
+import org.opennms.netmgt.snmp.SnmpAgentTimeoutException;
+import org.opennms.netmgt.snmp.SnmpException;
+import org.opennms.netmgt.snmp.SnmpValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.snmp4j.PDU;
+import org.snmp4j.smi.Integer32;
+
+/**
+ * Sends INFORMs without blocking the caller.
+ *
+ * Retries are handled here rather than by SNMP4J so that every retransmission can be
+ * counted. The number of unacknowledged INFORMs per destination is bounded; requests
+ * beyond that limit are queued and sent as soon as an earlier INFORM is acknowledged
+ * or gives up, and are rejected once the queue is full. Destinations without any
+ * INFORM in flight are forgotten.
+ */
+public class Snmp4JInformSender {
+    private static final transient Logger LOG = LoggerFactory.getLogger(Snmp4JInformSender.class);
+
+    private final Snmp4JStrategy m_strategy;
+    private final int m_maxInFlightPerDestination;
+    private final int m_maxPendingPerDestination;
+
+    private final Map<SnmpAgentAddress, Destination> m_destinations = new ConcurrentHashMap<>();
+    private final InformStats m_stats = new InformStats();
+
+    // queued INFORMs whose turn came, sent by a single thread at a time
+    private final Queue<Runnable> m_ready = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger m_draining = new AtomicInteger();
+
+    public Snmp4JInformSender(final Snmp4JStrategy strategy) {
+        this(strategy, Integer.getInteger("org.opennms.core.snmp.informs.maxInFlightPerDestination", 32),
+                Integer.getInteger("org.opennms.core.snmp.informs.maxPendingPerDestination", 1000));
+    }
+
+    public Snmp4JInformSender(final Snmp4JStrategy strategy, final int maxInFlightPerDestination, final int maxPendingPerDestination) {
+        m_strategy = strategy;
+        m_maxInFlightPerDestination = maxInFlightPerDestination;
+        m_maxPendingPerDestination = maxPendingPerDestination;
+    }
+
+    public InformStats getStats() {
+        return m_stats;
+    }
+
+    /**
+     * Number of destinations with INFORMs in flight.
+     */
+    int getDestinations() {
+        return m_destinations.size();
+    }
+
+    /**
+     * @param agentConfig configuration of the receiver, its retries should be 0
+     * @param pdu the INFORM to send, a copy is made so the caller may keep modifying it
+     * @param retries number of retransmissions before giving up
+     */
+    public CompletableFuture<SnmpValue[]> send(final Snmp4JAgentConfig agentConfig, final PDU pdu, final int retries) {
+        final CompletableFuture<SnmpValue[]> future = new CompletableFuture<>();
+        final PDU copy = (PDU)pdu.clone();
+        // let SNMP4J assign a new request id, the builder may be used for several INFORMs
+        copy.setRequestID(new Integer32(0));
+
+        final SnmpAgentAddress address = new SnmpAgentAddress(agentConfig.getInetAddress(), agentConfig.getPort());
+        final Runnable task = () -> {
+            future.whenComplete((values, t) -> release(address));
+            attempt(agentConfig, copy, 0, retries, System.nanoTime(), future);
+        };
+        final boolean[] accepted = new boolean[] { true };
+        final boolean[] send = new boolean[] { false };
+        m_destinations.compute(address, (a, destination) -> {
+            if (destination == null) {
+                destination = new Destination();
+            }
+            if (destination.m_inFlight < m_maxInFlightPerDestination) {
+                destination.m_inFlight++;
+                m_stats.m_inFlight.incrementAndGet();
+                send[0] = true;
+            } else if (destination.m_pending.size() < m_maxPendingPerDestination) {
+                LOG.debug("send: {} INFORMs in flight to {}, queueing", destination.m_inFlight, address);
+                destination.m_pending.add(task);
+            } else {
+                accepted[0] = false;
+            }
+            return destination;
+        });
+        if (!accepted[0]) {
+            m_stats.m_rejected.increment();
+            future.completeExceptionally(new SnmpException("Too many INFORMs pending for " + address + ", limit is " + m_maxPendingPerDestination));
+        } else if (send[0]) {
+            task.run();
+        }
+        return future;
+    }
+
+    /**
+     * Hands the slot of an INFORM that completed over to the next queued one, or
+     * forgets the destination once it has nothing in flight.
+     */
+    private void release(final SnmpAgentAddress address) {
+        final Runnable[] next = new Runnable[1];
+        m_destinations.computeIfPresent(address, (a, destination) -> {
+            next[0] = destination.m_pending.poll();
+            if (next[0] != null) {
+                return destination;
+            }
+            destination.m_inFlight--;
+            m_stats.m_inFlight.decrementAndGet();
+            return destination.m_inFlight == 0 ? null : destination;
+        });
+        if (next[0] != null) {
+            m_ready.add(next[0]);
+            drain();
+        }
+    }
+
+    /**
+     * Sends the queued INFORMs in a loop rather than from the callback of the one that
+     * completed, so that a queue of INFORMs failing right away does not recurse.
+     */
+    private void drain() {
+        if (m_draining.getAndIncrement() != 0) {
+            return;
+        }
+        do {
+            Runnable next;
+            while ((next = m_ready.poll()) != null) {
+                next.run();
+            }
+        } while (m_draining.decrementAndGet() != 0);
+    }
+
+    private void attempt(final Snmp4JAgentConfig agentConfig, final PDU pdu, final int attempt, final int retries, final long start, final CompletableFuture<SnmpValue[]> future) {
+        if (future.isDone()) {
+            // cancelled by the caller while waiting
+            return;
+        }
+
+        if (attempt == 0) {
+            m_stats.m_sent.increment();
+        } else {
+            m_stats.m_retransmissions.increment();
+            LOG.debug("attempt: retransmitting INFORM to {}, attempt {} of {}", agentConfig, attempt, retries);
+        }
+
+        final CompletableFuture<SnmpValue[]> response = new CompletableFuture<>();
+        m_strategy.send(agentConfig, pdu, true, response);
+        response.whenComplete((values, t) -> {
+            if (t == null) {
+                m_stats.acknowledged(System.nanoTime() - start);
+                future.complete(values);
+            } else if (isTimeout(t) && attempt < retries) {
+                attempt(agentConfig, pdu, attempt + 1, retries, start, future);
+            } else {
+                if (isTimeout(t)) {
+                    m_stats.m_timedOut.increment();
+                } else {
+                    m_stats.m_failed.increment();
+                }
+                future.completeExceptionally(t);
+            }
+        });
+    }
+
+    private static boolean isTimeout(Throwable t) {
+        for (; t != null; t = t.getCause()) {
+            if (t instanceof SnmpAgentTimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * INFORMs in flight to a destination and queued for it, guarded by the map of destinations.
+     */
+    private static class Destination {
+        private final Deque<Runnable> m_pending = new ArrayDeque<>();
+        private int m_inFlight = 0;
+    }
+
+    /**
+     * Counters of the INFORMs sent asynchronously by a sender.
+     */
+    public static class InformStats {
+        private final LongAdder m_sent = new LongAdder();
+        private final LongAdder m_acknowledged = new LongAdder();
+        private final LongAdder m_timedOut = new LongAdder();
+        private final LongAdder m_failed = new LongAdder();
+        private final LongAdder m_rejected = new LongAdder();
+        private final LongAdder m_retransmissions = new LongAdder();
+        private final LongAdder m_ackLatencyTotal = new LongAdder();
+        private final AtomicLong m_ackLatencyMax = new AtomicLong();
+        private final AtomicLong m_inFlight = new AtomicLong();
+
+        private void acknowledged(final long latencyNanos) {
+            m_acknowledged.increment();
+            m_ackLatencyTotal.add(latencyNanos);
+            m_ackLatencyMax.accumulateAndGet(latencyNanos, Math::max);
+        }
+
+        public long getSent() {
+            return m_sent.sum();
+        }
+
+        public long getAcknowledged() {
+            return m_acknowledged.sum();
+        }
+
+        public long getTimedOut() {
+            return m_timedOut.sum();
+        }
+
+        public long getFailed() {
+            return m_failed.sum();
+        }
+
+        public long getRejected() {
+            return m_rejected.sum();
+        }
+
+        public long getRetransmissions() {
+            return m_retransmissions.sum();
+        }
+
+        public long getInFlight() {
+            return m_inFlight.get();
+        }
+
+        public double getAverageAckLatencyMs() {
+            final long acknowledged = getAcknowledged();
+            return acknowledged == 0 ? 0 : (double)m_ackLatencyTotal.sum() / acknowledged / TimeUnit.MILLISECONDS.toNanos(1);
+        }
+
+        public double getMaxAckLatencyMs() {
+            return (double)m_ackLatencyMax.get() / TimeUnit.MILLISECONDS.toNanos(1);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("sent=%d, acknowledged=%d, timedOut=%d, failed=%d, rejected=%d, retransmissions=%d, inFlight=%d, avgAckLatencyMs=%.1f, maxAckLatencyMs=%.1f",
+                    getSent(), getAcknowledged(), getTimedOut(), getFailed(), getRejected(), getRetransmissions(), getInFlight(),
+                    getAverageAckLatencyMs(), getMaxAckLatencyMs());
+        }
+    }
+}
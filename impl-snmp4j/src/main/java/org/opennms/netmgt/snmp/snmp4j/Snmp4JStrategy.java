@@ -54,6 +54,7 @@ import org.opennms.netmgt.snmp.SnmpException;
 import org.opennms.netmgt.snmp.SnmpObjId;
 import org.opennms.netmgt.snmp.SnmpStrategy;
 import org.opennms.netmgt.snmp.SnmpTrapBuilder;
+import org.opennms.netmgt.snmp.SnmpUtils;
 import org.opennms.netmgt.snmp.SnmpV1TrapBuilder;
 import org.opennms.netmgt.snmp.SnmpV2TrapBuilder;
 import org.opennms.netmgt.snmp.SnmpV3TrapBuilder;
@@ -114,7 +115,9 @@ import org.snmp4j.transport.DefaultUdpTransportMapping;
 public class Snmp4JStrategy implements SnmpStrategy {
     private static final transient Logger LOG = LoggerFactory.getLogger(Snmp4JStrategy.class);
 
-    private static final ExecutorService REAPER_EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+    private static final ExecutorService REAPER_EXECUTOR = SnmpUtils.isVirtualThreadMode()
+            ? Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("SNMP4J-Session-Reaper").factory())
+            : Executors.newCachedThreadPool(new ThreadFactory() {
         @Override
         public Thread newThread(Runnable r) {
             return new Thread(r, "SNMP4J-Session-Reaper");
@@ -129,6 +132,8 @@ public class Snmp4JStrategy implements SnmpStrategy {
 
     private Snmp4JValueFactory m_valueFactory;
 
+    private final Snmp4JInformSender m_informSender = new Snmp4JInformSender(this);
+
     private static ScheduledExecutorService s_sessionStatsExecutor;
     private static ConcurrentHashMap<Snmp, SessionInfo> s_sessions;
     private static boolean s_trackSessions = Boolean.getBoolean("org.opennms.core.snmp.trackSessions");
@@ -158,6 +163,11 @@ public class Snmp4JStrategy implements SnmpStrategy {
         SNMP4JSettings.setAllowSNMPv2InV1(Boolean.getBoolean("org.opennms.snmp.snmp4j.allowSNMPv2InV1"));
         SNMP4JSettings.setNoGetBulk(Boolean.getBoolean("org.opennms.snmp.snmp4j.noGetBulk"));
 
+        // The listener of each session waits for the responses on a virtual thread
+        if (SnmpUtils.isVirtualThreadMode()) {
+            SNMP4JSettings.setThreadFactory(new Snmp4JVirtualThreadFactory());
+        }
+
         // NMS-9223: This call can be expensive, and is synchronized
         // so we perform it only once during initialization
         SecurityProtocols.getInstance().addDefaultProtocols();
@@ -333,7 +343,19 @@ public class Snmp4JStrategy implements SnmpStrategy {
         }
     }
 
-    private void send(Snmp4JAgentConfig agentConfig, PDU pdu, boolean expectResponse, CompletableFuture<SnmpValue[]> future) {
+    /**
+     * Sends an INFORM without waiting for the acknowledgement. Retries are performed by
+     * {@link Snmp4JInformSender} so the retries of the agent configuration are ignored.
+     */
+    protected CompletableFuture<SnmpValue[]> sendInformAsync(Snmp4JAgentConfig agentConfig, PDU pdu, int retries) {
+        return m_informSender.send(agentConfig, pdu, retries);
+    }
+
+    public Snmp4JInformSender.InformStats getInformStats() {
+        return m_informSender.getStats();
+    }
+
+    void send(Snmp4JAgentConfig agentConfig, PDU pdu, boolean expectResponse, CompletableFuture<SnmpValue[]> future) {
         Snmp session;
 
         try {
@@ -357,7 +379,7 @@ public class Snmp4JStrategy implements SnmpStrategy {
 
             try {
                 final Snmp mySession = session;
-                mySession.send(pdu, agentConfig.getTarget(pdu.getType() == PDU.SET), null, new ResponseListener() {
+                final ResponseListener listener = new ResponseListener() {
                     @Override
                     public void onResponse(final ResponseEvent responseEvent) {
                         try {
@@ -376,6 +398,15 @@ public class Snmp4JStrategy implements SnmpStrategy {
                             });
                         }
                     }
+                };
+                mySession.send(pdu, agentConfig.getTarget(pdu.getType() == PDU.SET), null, listener);
+                // Stop waiting for the response when the caller is no longer interested in it
+                future.whenComplete((values, t) -> {
+                    if (future.isCancelled()) {
+                        LOG.debug("send: request to {} was cancelled", agentConfig);
+                        mySession.cancel(pdu, listener);
+                        REAPER_EXECUTOR.submit(() -> closeQuietly(mySession));
+                    }
                 });
             } catch (final Exception e) {
                 // The ResponseListener will not be called since an exception occurred in the send,
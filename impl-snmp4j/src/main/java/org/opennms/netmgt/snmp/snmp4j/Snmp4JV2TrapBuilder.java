@@ -21,6 +21,8 @@
  */
 package org.opennms.netmgt.snmp.snmp4j;
 
+import java.util.concurrent.CompletableFuture;
+
 import org.opennms.netmgt.snmp.SnmpAgentConfig;
 import org.opennms.netmgt.snmp.SnmpObjId;
 import org.opennms.netmgt.snmp.SnmpTrapBuilder;
@@ -64,6 +66,19 @@ public class Snmp4JV2TrapBuilder implements SnmpTrapBuilder {
         return m_strategy.send(agentConfig, m_pdu, true);
 	}
 
+	public CompletableFuture<SnmpValue[]> sendInformAsync(String destAddr, int destPort, int timeout,
+			int retries, String community) {
+        try {
+            // retries are counted by the inform sender, each attempt is sent only once
+            SnmpAgentConfig snmpAgentConfig = m_strategy.buildAgentConfig(destAddr, destPort, timeout, 0, community, m_pdu);
+            Snmp4JAgentConfig agentConfig = new Snmp4JAgentConfig(snmpAgentConfig);
+
+            return m_strategy.sendInformAsync(agentConfig, m_pdu, retries);
+        } catch (final Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+	}
+
 	public void send(String destAddr, int destPort, int securityLevel,
 			String securityName, String authPassPhrase, String authProtocol,
 			String privPassPhrase, String privProtocol) throws Exception {
@@ -86,6 +101,21 @@ public class Snmp4JV2TrapBuilder implements SnmpTrapBuilder {
         return m_strategy.send(agentConfig, m_pdu, true);
 	}
 
+	public CompletableFuture<SnmpValue[]> sendInformAsync(String destAddr, int destPort, int timeout,
+			int retries, int securityLevel, String securityName,
+			String authPassPhrase, String authProtocol, String privPassPhrase,
+			String privProtocol) {
+        try {
+            SnmpAgentConfig snmpAgentConfig =
+            	m_strategy.buildAgentConfig(destAddr, destPort, timeout, 0, securityLevel, securityName, authPassPhrase, authProtocol, privPassPhrase, privProtocol, m_pdu);
+            Snmp4JAgentConfig agentConfig = new Snmp4JAgentConfig(snmpAgentConfig);
+
+            return m_strategy.sendInformAsync(agentConfig, m_pdu, retries);
+        } catch (final Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+	}
+
     @Override
     public void addVarBind(SnmpObjId name, SnmpValue value) {
         OID oid = new OID(name.getIds());
@@ -21,6 +21,8 @@
  */
 package org.opennms.netmgt.snmp.snmp4j;
 
+import java.util.concurrent.CompletableFuture;
+
 import org.opennms.netmgt.snmp.SnmpConfiguration;
 import org.opennms.netmgt.snmp.SnmpV3TrapBuilder;
 import org.opennms.netmgt.snmp.SnmpValue;
@@ -37,4 +39,10 @@ public class Snmp4JV3InformBuilder extends Snmp4JV2TrapBuilder implements SnmpV3
     	return super.sendInform(destAddr, destPort, 1000, 3, SnmpConfiguration.NOAUTH_NOPRIV, community, SnmpConfiguration.DEFAULT_AUTH_PASS_PHRASE,
     			SnmpConfiguration.DEFAULT_AUTH_PROTOCOL, SnmpConfiguration.DEFAULT_PRIV_PASS_PHRASE, SnmpConfiguration.DEFAULT_PRIV_PROTOCOL);
     }  
+
+    @Override
+    public CompletableFuture<SnmpValue[]> sendInformAsync(String destAddr, int destPort, int timeout, int retry, String community) {
+    	return super.sendInformAsync(destAddr, destPort, timeout, retry, SnmpConfiguration.NOAUTH_NOPRIV, community, SnmpConfiguration.DEFAULT_AUTH_PASS_PHRASE,
+    			SnmpConfiguration.DEFAULT_AUTH_PROTOCOL, SnmpConfiguration.DEFAULT_PRIV_PASS_PHRASE, SnmpConfiguration.DEFAULT_PRIV_PROTOCOL);
+    }
 }
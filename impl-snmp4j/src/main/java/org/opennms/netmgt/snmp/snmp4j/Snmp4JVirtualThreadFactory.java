@@ -0,0 +1,71 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.snmp.snmp4j;
+
+import org.snmp4j.util.ThreadFactory;
+import org.snmp4j.util.WorkerTask;
+
+/**
+ * Starts the worker threads of SNMP4J, i.e. the listener of every UDP transport, as
+ * virtual threads. Since the strategy opens a session per request, each request in
+ * flight otherwise holds a platform thread waiting for its response.
+ */
+class Snmp4JVirtualThreadFactory implements ThreadFactory {
+
+    @Override
+    public WorkerTask createWorkerThread(final String name, final WorkerTask task, final boolean daemon) {
+        // virtual threads are always daemon threads
+        return new VirtualWorkerThread(name, task);
+    }
+
+    private static class VirtualWorkerThread implements WorkerTask {
+        private final WorkerTask m_task;
+        private final Thread m_thread;
+
+        private VirtualWorkerThread(final String name, final WorkerTask task) {
+            m_task = task;
+            m_thread = Thread.ofVirtual().name(name).unstarted(task);
+        }
+
+        @Override
+        public void run() {
+            m_thread.start();
+        }
+
+        @Override
+        public void terminate() {
+            m_task.terminate();
+        }
+
+        @Override
+        public void join() throws InterruptedException {
+            m_task.join();
+            m_thread.join();
+        }
+
+        @Override
+        public void interrupt() {
+            m_task.interrupt();
+            m_thread.interrupt();
+        }
+    }
+}
@@ -156,7 +156,10 @@ public class Snmp4JWalker extends SnmpWalker {
         @Override
         public void onResponse(ResponseEvent responseEvent) {
             // need to cancel the request here otherwise SNMP4J Keeps it around forever... go figure
-            m_session.cancel(responseEvent.getRequest(), this);
+            final Snmp session = m_session;
+            if (session != null) {
+                session.cancel(responseEvent.getRequest(), this);
+            }
 
             // Check to see if we got an interrupted exception
             if (responseEvent.getError() instanceof InterruptedException) {
@@ -181,7 +184,8 @@ public class Snmp4JWalker extends SnmpWalker {
         
     }
     
-    private Snmp m_session;
+    private volatile Snmp m_session;
+    private boolean m_closed = false;
     private final Target m_tgt;
     private final ResponseListener m_listener;
     private final Snmp4JAgentConfig m_agentConfig;
@@ -213,20 +217,21 @@ public class Snmp4JWalker extends SnmpWalker {
         @Override
     protected void sendNextPdu(WalkerPduBuilder pduBuilder) throws SnmpException {
         Snmp4JPduBuilder snmp4JPduBuilder = (Snmp4JPduBuilder)pduBuilder;
+        final Snmp session;
         try {
-            if (m_session == null) {
-                m_session = m_agentConfig.createSnmpSession();
-                Snmp4JStrategy.trackSession(m_session);
-                m_session.listen();
-            }
+            session = getSession();
         } catch (final IOException e) {
             close();
             throw new SnmpException(e);
         }
+        if (session == null) {
+            LOG.debug("{}: walker for {} was closed, not sending the next pdu", getName(), getAddress());
+            return;
+        }
 
         LOG.debug("Sending tracker pdu of size {}", snmp4JPduBuilder.getPdu().size());
         try {
-            m_session.send(snmp4JPduBuilder.getPdu(), m_tgt, null, m_listener);
+            session.send(snmp4JPduBuilder.getPdu(), m_tgt, null, m_listener);
         } catch (final IOException e) {
             LOG.debug("Failed to send pdu of size {}", snmp4JPduBuilder.getPdu().size(), e);
             close();
@@ -238,17 +243,40 @@ public class Snmp4JWalker extends SnmpWalker {
         return m_tgt.getVersion();
     }
 
+    /**
+     * Opens the session on first use. Returns null once the walker was closed,
+     * i.e. when it was cancelled while building the next PDU.
+     */
+    private synchronized Snmp getSession() throws IOException {
+        if (m_closed) {
+            return null;
+        }
+        if (m_session == null) {
+            final Snmp session = m_agentConfig.createSnmpSession();
+            Snmp4JStrategy.trackSession(session);
+            m_session = session;
+            session.listen();
+        }
+        return m_session;
+    }
+
     @Override
     public void close() {
-        if (m_session != null) {
+        final Snmp session;
+        // Closing the session waits for its listener thread, which may be in getSession()
+        synchronized (this) {
+            m_closed = true;
+            session = m_session;
+            m_session = null;
+        }
+        if (session != null) {
             try {
-                m_session.close();
+                session.close();
             } catch (IOException e) {
                 LOG.error("{}: Unexpected Error occured closing SNMP session for: {}", getName(), m_agentConfig, e);
             } finally {
-                Snmp4JStrategy.reapSession(m_session);
+                Snmp4JStrategy.reapSession(session);
             }
-            m_session = null;
         }
     }
 }
@@ -0,0 +1,164 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.snmp.snmp4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Test;
+import org.opennms.netmgt.snmp.SnmpAgentConfig;
+import org.opennms.netmgt.snmp.SnmpAgentTimeoutException;
+import org.opennms.netmgt.snmp.SnmpException;
+import org.opennms.netmgt.snmp.SnmpValue;
+import org.snmp4j.PDU;
+
+public class Snmp4JInformSenderTest {
+
+    /**
+     * Records the requests instead of sending them so the test decides
+     * when and how each of them completes.
+     */
+    private static class RecordingStrategy extends Snmp4JStrategy {
+        private final List<CompletableFuture<SnmpValue[]>> m_requests = new ArrayList<>();
+
+        @Override
+        void send(Snmp4JAgentConfig agentConfig, PDU pdu, boolean expectResponse, CompletableFuture<SnmpValue[]> future) {
+            m_requests.add(future);
+        }
+    }
+
+    private static Snmp4JAgentConfig agentConfig(int port) throws Exception {
+        final SnmpAgentConfig config = new SnmpAgentConfig(InetAddress.getLoopbackAddress());
+        config.setPort(port);
+        config.setRetries(0);
+        return new Snmp4JAgentConfig(config);
+    }
+
+    @Test
+    public void testRetransmitsOnTimeout() throws Exception {
+        final RecordingStrategy strategy = new RecordingStrategy();
+        final Snmp4JInformSender sender = new Snmp4JInformSender(strategy);
+
+        final CompletableFuture<SnmpValue[]> future = sender.send(agentConfig(20162), new PDU(), 2);
+        assertEquals(1, strategy.m_requests.size());
+
+        strategy.m_requests.get(0).completeExceptionally(new SnmpException(new SnmpAgentTimeoutException(InetAddress.getLoopbackAddress())));
+        assertEquals(2, strategy.m_requests.size());
+        assertFalse(future.isDone());
+
+        final SnmpValue[] values = new SnmpValue[0];
+        strategy.m_requests.get(1).complete(values);
+        assertTrue(future.isDone());
+        assertEquals(values, future.get());
+        assertEquals(1, sender.getStats().getRetransmissions());
+    }
+
+    @Test
+    public void testGivesUpAfterRetries() throws Exception {
+        final RecordingStrategy strategy = new RecordingStrategy();
+        final Snmp4JInformSender sender = new Snmp4JInformSender(strategy);
+
+        final CompletableFuture<SnmpValue[]> future = sender.send(agentConfig(20163), new PDU(), 1);
+        strategy.m_requests.get(0).completeExceptionally(new SnmpException(new SnmpAgentTimeoutException(InetAddress.getLoopbackAddress())));
+        strategy.m_requests.get(1).completeExceptionally(new SnmpException(new SnmpAgentTimeoutException(InetAddress.getLoopbackAddress())));
+
+        assertEquals(2, strategy.m_requests.size());
+        assertTrue(future.isCompletedExceptionally());
+        assertEquals(1, sender.getStats().getTimedOut());
+    }
+
+    @Test
+    public void testLimitsInFlightPerDestination() throws Exception {
+        final RecordingStrategy strategy = new RecordingStrategy();
+        final int limit = 4;
+        final Snmp4JInformSender sender = new Snmp4JInformSender(strategy, limit, 10);
+
+        final List<CompletableFuture<SnmpValue[]>> futures = new ArrayList<>();
+        for (int i = 0; i <= limit; i++) {
+            futures.add(sender.send(agentConfig(20164), new PDU(), 0));
+        }
+        // the last one is queued
+        assertEquals(limit, strategy.m_requests.size());
+
+        // another destination is not affected
+        sender.send(agentConfig(20165), new PDU(), 0);
+        assertEquals(limit + 1, strategy.m_requests.size());
+
+        // acknowledging the first one lets the queued INFORM through
+        strategy.m_requests.get(0).complete(new SnmpValue[0]);
+        assertTrue(futures.get(0).isDone());
+        assertEquals(limit + 2, strategy.m_requests.size());
+        assertFalse(futures.get(limit).isDone());
+    }
+
+    @Test
+    public void testRejectsWhenQueueIsFull() throws Exception {
+        final RecordingStrategy strategy = new RecordingStrategy();
+        final Snmp4JInformSender sender = new Snmp4JInformSender(strategy, 1, 1);
+
+        sender.send(agentConfig(20166), new PDU(), 0);
+        final CompletableFuture<SnmpValue[]> queued = sender.send(agentConfig(20166), new PDU(), 0);
+        final CompletableFuture<SnmpValue[]> rejected = sender.send(agentConfig(20166), new PDU(), 0);
+
+        assertFalse(queued.isDone());
+        assertTrue(rejected.isCompletedExceptionally());
+        assertEquals(1, sender.getStats().getRejected());
+    }
+
+    @Test
+    public void testSendsQueuedInformsFailingRightAwayWithoutRecursion() throws Exception {
+        final int count = 100000;
+        final RecordingStrategy strategy = new RecordingStrategy() {
+            @Override
+            void send(Snmp4JAgentConfig agentConfig, PDU pdu, boolean expectResponse, CompletableFuture<SnmpValue[]> future) {
+                // the first INFORM holds the only slot, the queued ones fail right away like on an unreachable session
+                if (super.m_requests.isEmpty()) {
+                    super.send(agentConfig, pdu, expectResponse, future);
+                } else {
+                    future.completeExceptionally(new SnmpException("unreachable"));
+                }
+            }
+        };
+        final Snmp4JInformSender sender = new Snmp4JInformSender(strategy, 1, count);
+
+        final List<CompletableFuture<SnmpValue[]>> futures = new ArrayList<>();
+        for (int i = 0; i <= count; i++) {
+            futures.add(sender.send(agentConfig(20167), new PDU(), 0));
+        }
+        assertEquals(1, sender.getDestinations());
+
+        strategy.m_requests.get(0).complete(new SnmpValue[0]);
+        for (final CompletableFuture<SnmpValue[]> future : futures.subList(1, futures.size())) {
+            assertTrue(future.isCompletedExceptionally());
+        }
+        assertEquals(count, sender.getStats().getFailed());
+        assertEquals(0, sender.getStats().getInFlight());
+        // the destination is forgotten once nothing is in flight
+        assertEquals(0, sender.getDestinations());
+    }
+}
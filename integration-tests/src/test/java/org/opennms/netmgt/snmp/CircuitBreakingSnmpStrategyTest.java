@@ -0,0 +1,184 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.snmp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.InetAddress;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.snmp.CircuitBreakingSnmpStrategy.State;
+import org.opennms.netmgt.snmp.FaultInjectingSnmpStrategy.Faults;
+import org.opennms.netmgt.snmp.mock.MockSnmpStrategy;
+import org.springframework.core.io.ClassPathResource;
+
+public class CircuitBreakingSnmpStrategyTest {
+
+    private final InetAddress m_agentAddress = InetAddressUtils.addr("127.0.0.1");
+    private final int m_agentPort = 1691;
+    private final SnmpAgentAddress m_address = new SnmpAgentAddress(m_agentAddress, m_agentPort);
+    private final SnmpObjId m_oid = SnmpObjId.get(".1.3.5.1.1.3.0");
+
+    private FaultInjectingSnmpStrategy m_network;
+    private CircuitBreakingSnmpStrategy m_strategy;
+
+    @Before
+    public void setUp() throws Exception {
+        MockSnmpStrategy.setDataForAddress(m_address, new ClassPathResource("loadSnmpDataTest.properties"));
+        m_network = new FaultInjectingSnmpStrategy(new MockSnmpStrategy(), 0);
+        m_strategy = new CircuitBreakingSnmpStrategy(m_network, 3, 100);
+    }
+
+    @Test
+    public void testOpensAfterConsecutiveTimeouts() throws Exception {
+        agentDies();
+        for (int i = 0; i < 3; i++) {
+            assertEquals(State.CLOSED, m_strategy.getState(m_address));
+            assertNull(m_strategy.get(getAgentConfig(), m_oid));
+        }
+        assertEquals(State.OPEN, m_strategy.getState(m_address));
+        assertEquals(1, m_strategy.getStats().getOpened());
+        assertEquals(1, m_strategy.getStats().getOpenCircuits());
+
+        // requests fail right away instead of waiting for the timeout
+        final long start = System.nanoTime();
+        assertNull(m_strategy.get(getAgentConfig(), m_oid));
+        try {
+            m_strategy.getAsync(getAgentConfig(), new SnmpObjId[] { m_oid }).get();
+            fail("the request should time out");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().getCause() instanceof SnmpAgentTimeoutException);
+        }
+        final CollectionTracker tracker = new ColumnTracker(SnmpObjId.get(".1.3.5.1.1"));
+        try (final SnmpWalker walker = m_strategy.createWalker(getAgentConfig(), "test", tracker)) {
+            walker.start();
+            walker.waitFor();
+            assertTrue(walker.failed());
+            assertTrue(walker.timedOut());
+            assertTrue(walker.getErrorThrowable() instanceof SnmpAgentTimeoutException);
+        }
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < getAgentConfig().getTimeout());
+        assertEquals(3, m_strategy.getStats().getRejected());
+    }
+
+    @Test
+    public void testAnswerResetsConsecutiveTimeouts() throws Exception {
+        agentDies();
+        m_strategy.get(getAgentConfig(), m_oid);
+        m_strategy.get(getAgentConfig(), m_oid);
+        agentRecovers();
+        assertEquals(42, m_strategy.get(getAgentConfig(), m_oid).toInt());
+        agentDies();
+        m_strategy.get(getAgentConfig(), m_oid);
+        m_strategy.get(getAgentConfig(), m_oid);
+        assertEquals(State.CLOSED, m_strategy.getState(m_address));
+    }
+
+    @Test
+    public void testProbeClosesCircuit() throws Exception {
+        agentDies();
+        for (int i = 0; i < 3; i++) {
+            m_strategy.getAsync(getAgentConfig(), new SnmpObjId[] { m_oid }).handle((v, t) -> v).get();
+        }
+        assertEquals(State.OPEN, m_strategy.getState(m_address));
+
+        // the probes keep failing while the agent is down
+        waitFor(() -> m_strategy.getStats().getProbesFailed() > 0);
+        assertTrue(m_strategy.getState(m_address) != State.CLOSED);
+
+        agentRecovers();
+        waitFor(() -> m_strategy.getState(m_address) == State.CLOSED);
+        assertEquals(1, m_strategy.getStats().getOpened());
+        assertEquals(1, m_strategy.getStats().getClosed());
+        assertEquals(0, m_strategy.getStats().getOpenCircuits());
+        assertEquals(42, m_strategy.get(getAgentConfig(), m_oid).toInt());
+    }
+
+    @Test
+    public void testWalkTimeoutsOpenCircuit() throws Exception {
+        agentDies();
+        for (int i = 0; i < 3; i++) {
+            try (final SnmpWalker walker = m_strategy.createWalker(getAgentConfig(), "test", new ColumnTracker(SnmpObjId.get(".1.3.5.1.1")))) {
+                walker.start();
+                walker.waitFor();
+                assertTrue(walker.timedOut());
+            }
+        }
+        assertEquals(State.OPEN, m_strategy.getState(m_address));
+    }
+
+    @Test
+    public void testIdleCircuitsAreDropped() throws Exception {
+        final CircuitBreakingSnmpStrategy strategy = new CircuitBreakingSnmpStrategy(m_network, 3, 100, 0);
+        agentDies();
+        assertNull(strategy.get(getAgentConfig(), m_oid));
+        assertEquals(1, strategy.getCircuitCount());
+
+        // a circuit counting timeouts is kept
+        agentRecovers();
+        assertEquals(42, strategy.get(getAgentConfig(), m_oid).toInt());
+        assertEquals(1, strategy.getCircuitCount());
+
+        // it is dropped by the next request once the agent answered, only the circuit of the other agent remains
+        final SnmpAgentConfig other = getAgentConfig();
+        other.setPort(m_agentPort + 1);
+        strategy.getAsync(other, new SnmpObjId[] { m_oid }).handle((v, t) -> v).get();
+        assertEquals(1, strategy.getCircuitCount());
+        assertEquals(State.CLOSED, strategy.getState(m_address));
+    }
+
+    private void agentDies() {
+        final Faults faults = new Faults();
+        faults.setLossRate(1);
+        m_network.setFaults(m_agentAddress, faults);
+    }
+
+    private void agentRecovers() {
+        m_network.removeFaults(m_agentAddress);
+    }
+
+    private static void waitFor(final BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue("timed out waiting for the condition", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private SnmpAgentConfig getAgentConfig() {
+        final SnmpAgentConfig config = new SnmpAgentConfig();
+        config.setAddress(m_agentAddress);
+        config.setPort(m_agentPort);
+        config.setVersion(SnmpAgentConfig.VERSION1);
+        config.setTimeout(50);
+        config.setRetries(0);
+        return config;
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.snmp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.snmp.FaultInjectingSnmpStrategy.Faults;
+import org.opennms.netmgt.snmp.mock.MockSnmpStrategy;
+import org.springframework.core.io.ClassPathResource;
+
+public class FaultInjectingSnmpStrategyTest {
+
+    private static final String PREFIX = "org.opennms.core.snmp.faults.";
+
+    private final InetAddress m_agentAddress = InetAddressUtils.addr("127.0.0.1");
+    private final int m_agentPort = 1691;
+    private final SnmpObjId m_oid = SnmpObjId.get(".1.3.5.1.1.3.0");
+
+    @Before
+    public void setUp() throws Exception {
+        MockSnmpStrategy.setDataForAddress(new SnmpAgentAddress(m_agentAddress, m_agentPort), new ClassPathResource("loadSnmpDataTest.properties"));
+    }
+
+    @After
+    public void tearDown() {
+        System.getProperties().stringPropertyNames().stream()
+            .filter(key -> key.startsWith(PREFIX))
+            .forEach(System::clearProperty);
+    }
+
+    @Test
+    public void testNoFaultsByDefault() throws Exception {
+        final FaultInjectingSnmpStrategy strategy = new FaultInjectingSnmpStrategy(new MockSnmpStrategy(), 0);
+        assertEquals(42, strategy.get(getAgentConfig(), m_oid).toInt());
+        assertEquals(42, strategy.getAsync(getAgentConfig(), new SnmpObjId[] { m_oid }).get()[0].toInt());
+    }
+
+    @Test
+    public void testSameSeedInjectsSameFaults() throws Exception {
+        final List<Boolean> first = getAnswered(lossy(42), 50);
+        final List<Boolean> second = getAnswered(lossy(42), 50);
+        assertEquals(first, second);
+        assertTrue(first.contains(true));
+        assertTrue(first.contains(false));
+    }
+
+    @Test
+    public void testLostRequestsTimeOut() throws Exception {
+        final FaultInjectingSnmpStrategy strategy = new FaultInjectingSnmpStrategy(new MockSnmpStrategy(), 0);
+        strategy.setDefaultFaults(faults(f -> f.setLossRate(1)));
+        final SnmpAgentConfig config = getAgentConfig();
+        config.setTimeout(20);
+        config.setRetries(2);
+
+        final long start = System.currentTimeMillis();
+        final SnmpValue[] values = strategy.get(config, new SnmpObjId[] { m_oid });
+        assertTrue("every attempt should wait for the timeout", System.currentTimeMillis() - start >= 60);
+        assertEquals(1, values.length);
+        assertNull(values[0]);
+
+        try {
+            strategy.getAsync(config, new SnmpObjId[] { m_oid }).get();
+            fail("the request should time out");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof SnmpException);
+            assertTrue(e.getCause().getCause() instanceof SnmpAgentTimeoutException);
+        }
+    }
+
+    @Test
+    public void testLatency() throws Exception {
+        final FaultInjectingSnmpStrategy strategy = new FaultInjectingSnmpStrategy(new MockSnmpStrategy(), 0);
+        strategy.setDefaultFaults(faults(f -> f.setLatencyMs(100)));
+
+        long start = System.currentTimeMillis();
+        assertEquals(42, strategy.get(getAgentConfig(), m_oid).toInt());
+        assertTrue(System.currentTimeMillis() - start >= 100);
+
+        start = System.currentTimeMillis();
+        assertEquals(42, strategy.getAsync(getAgentConfig(), new SnmpObjId[] { m_oid }).get()[0].toInt());
+        assertTrue(System.currentTimeMillis() - start >= 100);
+    }
+
+    @Test
+    public void testFailingSendFailsTheRequest() throws Exception {
+        final FaultInjectingSnmpStrategy strategy = new FaultInjectingSnmpStrategy(new MockSnmpStrategy() {
+            @Override
+            public CompletableFuture<SnmpValue[]> getAsync(final SnmpAgentConfig agentConfig, final SnmpObjId[] oids) {
+                throw new IllegalStateException("Oups");
+            }
+        }, 0);
+        strategy.setDefaultFaults(faults(f -> f.setLatencyMs(10)));
+        try {
+            strategy.getAsync(getAgentConfig(), new SnmpObjId[] { m_oid }).get(5, TimeUnit.SECONDS);
+            fail("the request should fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void testFaultsOfAnotherAgentDoNotApply() throws Exception {
+        final FaultInjectingSnmpStrategy strategy = new FaultInjectingSnmpStrategy(new MockSnmpStrategy(), 0);
+        strategy.setFaults(InetAddressUtils.addr("127.0.0.2"), faults(f -> f.setLossRate(1)));
+        assertEquals(42, strategy.get(getAgentConfig(), m_oid).toInt());
+
+        strategy.setFaults(m_agentAddress, faults(f -> f.setTooBigRate(1)));
+        assertNull(strategy.get(getAgentConfig(), m_oid));
+    }
+
+    @Test
+    public void testWalkRecoversFromLostResponses() throws Exception {
+        final long expected = walk(new FaultInjectingSnmpStrategy(new MockSnmpStrategy(), 0), getAgentConfig()).getCount();
+
+        final FaultInjectingSnmpStrategy strategy = lossy(7);
+        final SnmpAgentConfig config = getAgentConfig();
+        config.setRetries(10);
+        final CountingTracker tracker = walk(strategy, config);
+        assertFalse(tracker.m_walker.failed());
+        assertEquals(expected, tracker.getCount());
+    }
+
+    @Test
+    public void testWalkTimesOutWhenEveryResponseIsLost() throws Exception {
+        final FaultInjectingSnmpStrategy strategy = new FaultInjectingSnmpStrategy(new MockSnmpStrategy(), 0);
+        strategy.setDefaultFaults(faults(f -> f.setLossRate(1)));
+        final SnmpAgentConfig config = getAgentConfig();
+        config.setTimeout(1);
+
+        final CountingTracker tracker = walk(strategy, config);
+        assertTrue(tracker.m_walker.failed());
+        assertTrue(tracker.m_walker.timedOut());
+        assertEquals(0, tracker.getCount());
+    }
+
+    @Test
+    public void testWalkFailsOnTooBig() throws Exception {
+        final FaultInjectingSnmpStrategy strategy = new FaultInjectingSnmpStrategy(new MockSnmpStrategy(), 0);
+        strategy.setDefaultFaults(faults(f -> f.setTooBigRate(1)));
+
+        final CountingTracker tracker = walk(strategy, getAgentConfig());
+        assertTrue(tracker.m_walker.failed());
+        assertFalse(tracker.m_walker.timedOut());
+    }
+
+    @Test
+    public void testConfiguredFromSystemProperties() throws Exception {
+        System.setProperty(PREFIX + "delegate", MockSnmpStrategy.class.getName());
+        System.setProperty(PREFIX + "latencyMs", "5");
+        System.setProperty(PREFIX + "127.0.0.1.tooBigRate", "1");
+
+        final FaultInjectingSnmpStrategy strategy = new FaultInjectingSnmpStrategy();
+        assertTrue(strategy.getDelegate() instanceof MockSnmpStrategy);
+        assertEquals(5, strategy.getDefaultFaults().getLatencyMs());
+        assertNull(strategy.get(getAgentConfig(), m_oid));
+    }
+
+    private static Faults faults(final Consumer<Faults> configurer) {
+        final Faults faults = new Faults();
+        configurer.accept(faults);
+        return faults;
+    }
+
+    private static FaultInjectingSnmpStrategy lossy(final long seed) {
+        final FaultInjectingSnmpStrategy strategy = new FaultInjectingSnmpStrategy(new MockSnmpStrategy(), seed);
+        strategy.setDefaultFaults(faults(f -> f.setLossRate(0.3)));
+        return strategy;
+    }
+
+    private List<Boolean> getAnswered(final FaultInjectingSnmpStrategy strategy, final int count) {
+        final SnmpAgentConfig config = getAgentConfig();
+        config.setTimeout(1);
+        config.setRetries(0);
+        final List<Boolean> answered = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            answered.add(strategy.get(config, m_oid) != null);
+        }
+        return answered;
+    }
+
+    private static CountingTracker walk(final SnmpStrategy strategy, final SnmpAgentConfig config) throws Exception {
+        final CountingTracker tracker = new CountingTracker(SnmpObjId.get(".1.3.5.1.1"));
+        try (final SnmpWalker walker = strategy.createWalker(config, "test", tracker)) {
+            assertNotNull(walker);
+            tracker.m_walker = walker;
+            walker.start();
+            walker.waitFor();
+        }
+        return tracker;
+    }
+
+    private SnmpAgentConfig getAgentConfig() {
+        final SnmpAgentConfig config = new SnmpAgentConfig();
+        config.setAddress(m_agentAddress);
+        config.setPort(m_agentPort);
+        config.setVersion(SnmpAgentConfig.VERSION1);
+        config.setMaxVarsPerPdu(1);
+        config.setTimeout(1);
+        config.setRetries(3);
+        return config;
+    }
+
+    private static class CountingTracker extends ColumnTracker {
+        private long m_count = 0;
+        private SnmpWalker m_walker;
+
+        public CountingTracker(final SnmpObjId base) {
+            super(base);
+        }
+
+        public long getCount() {
+            return m_count;
+        }
+
+        @Override
+        protected void storeResult(final SnmpResult res) {
+            m_count++;
+        }
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.snmp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.snmp.FaultInjectingSnmpStrategy.Faults;
+import org.opennms.netmgt.snmp.mock.MockSnmpStrategy;
+import org.springframework.core.io.ClassPathResource;
+
+public class SchedulingSnmpStrategyTest {
+
+    private final InetAddress m_agentAddress = InetAddressUtils.addr("127.0.0.1");
+    private final SnmpAgentAddress m_first = new SnmpAgentAddress(m_agentAddress, 1691);
+    private final SnmpAgentAddress m_second = new SnmpAgentAddress(m_agentAddress, 1692);
+    private final SnmpObjId m_oid = SnmpObjId.get(".1.3.5.1.1.3.0");
+
+    private FaultInjectingSnmpStrategy m_network;
+
+    @Before
+    public void setUp() throws Exception {
+        MockSnmpStrategy.setDataForAddress(m_first, new ClassPathResource("loadSnmpDataTest.properties"));
+        MockSnmpStrategy.setDataForAddress(m_second, new ClassPathResource("loadSnmpDataTest.properties"));
+        m_network = new FaultInjectingSnmpStrategy(new MockSnmpStrategy(), 0);
+        final Faults faults = new Faults();
+        faults.setLatencyMs(20);
+        m_network.setDefaultFaults(faults);
+    }
+
+    @Test
+    public void testLimitsInFlightPerAgent() throws Exception {
+        // no slot is reserved so that all of them are used by the normal requests
+        final SchedulingSnmpStrategy strategy = new SchedulingSnmpStrategy(m_network, 2, 0, 0, 0, 0);
+        final List<CompletableFuture<SnmpValue[]>> futures = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            futures.add(strategy.getAsync(getAgentConfig(m_first), new SnmpObjId[] { m_oid }));
+        }
+        // another agent is not affected
+        futures.add(strategy.getAsync(getAgentConfig(m_second), new SnmpObjId[] { m_oid }));
+        assertEquals(2, strategy.getInFlight(m_first));
+        assertEquals(8, strategy.getQueued(m_first));
+        assertEquals(1, strategy.getInFlight(m_second));
+
+        for (final CompletableFuture<SnmpValue[]> future : futures) {
+            assertEquals(42, future.get()[0].toInt());
+        }
+        final SchedulingSnmpStrategy.SchedulerStats stats = strategy.getStats();
+        assertEquals(11, stats.getCompleted());
+        assertEquals(0, stats.getInFlight());
+        assertEquals(0, stats.getQueued());
+        // the last requests waited for 4 rounds of the first ones, the round trip does not include it
+        assertTrue(stats.getMaxQueueTimeMs() >= 80);
+        assertTrue(stats.getMaxRoundTripMs() < stats.getMaxQueueTimeMs());
+    }
+
+    @Test
+    public void testAgentsAreServedInTurn() throws Exception {
+        final SchedulingSnmpStrategy strategy = new SchedulingSnmpStrategy(m_network, 0, 1, 0, 0);
+        final List<Integer> completed = Collections.synchronizedList(new ArrayList<>());
+        final List<CompletableFuture<SnmpValue[]>> futures = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            futures.add(strategy.getAsync(getAgentConfig(m_first), new SnmpObjId[] { m_oid }));
+        }
+        futures.add(strategy.getAsync(getAgentConfig(m_second), new SnmpObjId[] { m_oid }));
+        for (int i = 0; i < futures.size(); i++) {
+            final int index = i;
+            futures.get(i).whenComplete((v, t) -> completed.add(index));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get();
+
+        // the request to the second agent does not wait for all of the requests to the first one
+        assertTrue(completed.indexOf(5) <= 2);
+    }
+
+    @Test
+    public void testHighPriorityRequestsGoFirst() throws Exception {
+        final SchedulingSnmpStrategy strategy = new SchedulingSnmpStrategy(m_network, 2, 0, 0, 0, 1);
+        final List<Integer> completed = Collections.synchronizedList(new ArrayList<>());
+        final List<CompletableFuture<SnmpValue[]>> futures = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            futures.add(strategy.getAsync(getAgentConfig(m_first), new SnmpObjId[] { m_oid }));
+        }
+        // one of the two slots is kept for the high priority requests
+        assertEquals(1, strategy.getInFlight(m_first));
+
+        futures.add(SnmpRequestPriority.HIGH.call(() -> strategy.getAsync(getAgentConfig(m_first), new SnmpObjId[] { m_oid })));
+        assertEquals(2, strategy.getInFlight(m_first));
+        assertEquals(4, strategy.getQueued(m_first));
+        for (int i = 0; i < futures.size(); i++) {
+            final int index = i;
+            futures.get(i).whenComplete((v, t) -> completed.add(index));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get();
+
+        // it does not wait for the normal requests queued before it
+        assertTrue(completed.indexOf(5) <= 1);
+        assertEquals(1, strategy.getStats(SnmpRequestPriority.HIGH).getCompleted());
+        assertEquals(5, strategy.getStats(SnmpRequestPriority.NORMAL).getCompleted());
+        assertTrue(strategy.getStats(SnmpRequestPriority.HIGH).getMaxQueueTimeMs() < strategy.getStats(SnmpRequestPriority.NORMAL).getMaxQueueTimeMs());
+    }
+
+    @Test
+    public void testPacing() throws Exception {
+        final SchedulingSnmpStrategy strategy = new SchedulingSnmpStrategy(new MockSnmpStrategy(), 0, 0, 20, 0);
+        final long start = System.nanoTime();
+        final List<CompletableFuture<SnmpValue[]>> futures = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            futures.add(strategy.getAsync(getAgentConfig(m_first), new SnmpObjId[] { m_oid }));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get();
+        // 4 intervals of 50ms between the 5 requests
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 190);
+    }
+
+    @Test
+    public void testBlockingCallsWaitForTheirSlot() throws Exception {
+        final SchedulingSnmpStrategy strategy = new SchedulingSnmpStrategy(m_network, 1, 0, 0, 0);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final long start = System.nanoTime();
+            final List<Future<SnmpValue>> values = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                values.add(executor.submit(() -> strategy.get(getAgentConfig(m_first), m_oid)));
+            }
+            for (final Future<SnmpValue> value : values) {
+                assertEquals(42, value.get().toInt());
+            }
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 80);
+            assertEquals(0, strategy.getInFlight(m_first));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testWalkHoldsASlot() throws Exception {
+        final SchedulingSnmpStrategy strategy = new SchedulingSnmpStrategy(m_network, 1, 0, 0, 0);
+        final CountingTracker tracker = new CountingTracker(SnmpObjId.get(".1.3.5.1.1"));
+        final CountingTracker cancelled = new CountingTracker(SnmpObjId.get(".1.3.5.1.1"));
+        try (final SnmpWalker walker = strategy.createWalker(getAgentConfig(m_first), "test", tracker);
+                final SnmpWalker queued = strategy.createWalker(getAgentConfig(m_first), "queued", cancelled)) {
+            walker.start();
+            queued.start();
+            final CompletableFuture<SnmpValue[]> get = strategy.getAsync(getAgentConfig(m_first), new SnmpObjId[] { m_oid });
+            assertEquals(1, strategy.getInFlight(m_first));
+            assertEquals(2, strategy.getQueued(m_first));
+
+            queued.cancel();
+            queued.waitFor();
+            assertTrue(queued.failed());
+            assertTrue(queued.getErrorThrowable() instanceof CancellationException);
+
+            walker.waitFor();
+            assertFalse(walker.failed());
+            assertTrue(tracker.getCount() > 0);
+            assertTrue(walker.getPdusSent() > 0);
+            assertEquals(42, get.get()[0].toInt());
+        }
+        assertEquals(0, cancelled.getCount());
+        assertEquals(0, strategy.getStats().getInFlight());
+    }
+
+    @Test
+    public void testWalkReportsTheOutcomeOfItsDelegate() throws Exception {
+        final SchedulingSnmpStrategy strategy = new SchedulingSnmpStrategy(new MockSnmpStrategy(), 1, 0, 0, 0);
+        final SnmpAgentAddress unknown = new SnmpAgentAddress(m_agentAddress, 1693);
+        try (final SnmpWalker walker = strategy.createWalker(getAgentConfig(unknown), "test", new CountingTracker(SnmpObjId.get(".1.3.5.1.1")))) {
+            walker.start();
+            walker.waitFor();
+            assertTrue(walker.failed());
+            assertTrue(walker.timedOut());
+            assertTrue(walker.getErrorThrowable() instanceof SnmpAgentTimeoutException);
+            // the message of the delegate is not prefixed a second time
+            assertTrue(walker.getErrorMessage().startsWith("Timeout retrieving test for "));
+            assertEquals(walker.getErrorMessage().indexOf("Timeout retrieving"), walker.getErrorMessage().lastIndexOf("Timeout retrieving"));
+        }
+        assertEquals(0, strategy.getStats().getInFlight());
+    }
+
+    @Test
+    public void testFailingSendFailsTheRequest() throws Exception {
+        final SchedulingSnmpStrategy strategy = new SchedulingSnmpStrategy(new MockSnmpStrategy() {
+            @Override
+            public CompletableFuture<SnmpValue[]> getAsync(final SnmpAgentConfig agentConfig, final SnmpObjId[] oids) {
+                throw new IllegalStateException("Oups");
+            }
+        }, 1, 0, 0, 0);
+        final CompletableFuture<SnmpValue[]> future = strategy.getAsync(getAgentConfig(m_first), new SnmpObjId[] { m_oid });
+        assertTrue(future.isCompletedExceptionally());
+        assertEquals(0, strategy.getInFlight(m_first));
+    }
+
+    @Test
+    public void testCancellingReleasesTheSlot() throws Exception {
+        final List<CompletableFuture<SnmpValue[]>> sent = new ArrayList<>();
+        final SchedulingSnmpStrategy strategy = new SchedulingSnmpStrategy(new MockSnmpStrategy() {
+            @Override
+            public CompletableFuture<SnmpValue[]> getAsync(final SnmpAgentConfig agentConfig, final SnmpObjId[] oids) {
+                final CompletableFuture<SnmpValue[]> future = new CompletableFuture<>();
+                sent.add(future);
+                return future;
+            }
+        }, 1, 0, 0, 0);
+        final CompletableFuture<SnmpValue[]> first = strategy.getAsync(getAgentConfig(m_first), new SnmpObjId[] { m_oid });
+        strategy.getAsync(getAgentConfig(m_first), new SnmpObjId[] { m_oid });
+        assertEquals(1, sent.size());
+
+        // the queued request gets the slot without waiting for the agent to answer the first one
+        first.cancel(true);
+        assertTrue(sent.get(0).isCancelled());
+        assertEquals(2, sent.size());
+        assertEquals(1, strategy.getInFlight(m_first));
+        assertEquals(0, strategy.getQueued(m_first));
+    }
+
+    private SnmpAgentConfig getAgentConfig(final SnmpAgentAddress address) {
+        final SnmpAgentConfig config = new SnmpAgentConfig();
+        config.setAddress(address.getAddress());
+        config.setPort(address.getPort());
+        config.setVersion(SnmpAgentConfig.VERSION1);
+        config.setMaxVarsPerPdu(1);
+        return config;
+    }
+
+    private static class CountingTracker extends ColumnTracker {
+        private long m_count = 0;
+
+        public CountingTracker(final SnmpObjId base) {
+            super(base);
+        }
+
+        public long getCount() {
+            return m_count;
+        }
+
+        @Override
+        protected void storeResult(final SnmpResult res) {
+            m_count++;
+        }
+    }
+}
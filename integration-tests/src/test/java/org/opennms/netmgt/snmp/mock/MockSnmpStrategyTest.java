@@ -26,7 +26,11 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 
 import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.junit.After;
 import org.junit.Before;
@@ -261,6 +265,52 @@ public class MockSnmpStrategyTest {
         }
     }
 
+    @Test
+    public void testManyConcurrentWalksShareOneContainer() throws Exception {
+        final PropertyOidContainer container = new PropertyOidContainer(new ClassPathResource("loadSnmpDataTest.properties"));
+        final List<SnmpAgentAddress> agents = new ArrayList<>();
+        final List<CountingColumnTracker> trackers = new ArrayList<>();
+        final List<SnmpWalker> walkers = new ArrayList<>();
+        try {
+            for (int i = 0; i < 2000; i++) {
+                final SnmpAgentAddress agent = new SnmpAgentAddress(m_agentAddress, 20000 + i);
+                MockSnmpStrategy.setDataForAddress(agent, container);
+                agents.add(agent);
+
+                final SnmpAgentConfig config = getAgentConfig();
+                config.setPort(agent.getPort());
+                final CountingColumnTracker ct = new CountingColumnTracker(SnmpObjId.get(".1.3.5.1.1"));
+                final SnmpWalker walker = SnmpUtils.createWalker(config, "test" + i, ct);
+                trackers.add(ct);
+                walkers.add(walker);
+                walker.start();
+                // sets take the write lock while the walks are reading
+                container.set(SnmpObjId.get(".1.3.5.1.1.3.0"), m_strategy.getValueFactory().getInt32(i));
+            }
+            for (int i = 0; i < walkers.size(); i++) {
+                walkers.get(i).waitFor();
+                assertEquals("walk " + i, 9, trackers.get(i).getCount());
+            }
+        } finally {
+            walkers.forEach(SnmpWalker::close);
+            agents.forEach(MockSnmpStrategy::removeHost);
+        }
+    }
+
+    @Test
+    public void testBlockingCallsOnVirtualThreads() throws Exception {
+        final SnmpObjId column = SnmpObjId.get(".1.3.5.1.1");
+        final List<Future<List<SnmpValue>>> columns = new ArrayList<>();
+        try (ExecutorService executor = SnmpUtils.newVirtualThreadPerRequestExecutor("test")) {
+            for (int i = 0; i < 10000; i++) {
+                columns.add(executor.submit(() -> SnmpUtils.getColumns(getAgentConfig(), "test", column)));
+            }
+            for (final Future<List<SnmpValue>> values : columns) {
+                assertEquals(9, values.get().size());
+            }
+        }
+    }
+
     private static CompletableFuture<Long> toCompletableFuture(CountingColumnTracker ct, SnmpWalker walker) {
         final CompletableFuture<Long> future = new CompletableFuture<>();
         walker.setCallback(new SnmpWalkCallback() {
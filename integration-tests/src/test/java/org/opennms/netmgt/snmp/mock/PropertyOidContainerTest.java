@@ -0,0 +1,118 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.snmp.mock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.SnmpValue;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.Resource;
+
+public class PropertyOidContainerTest {
+
+    @Rule
+    public TemporaryFolder m_folder = new TemporaryFolder();
+
+    @Test
+    public void testCompactWalksLikeTree() throws Exception {
+        final Resource resource = new ClassPathResource("snmpTestData1.properties");
+        assertSameWalk(new PropertyOidContainer(resource, false), new PropertyOidContainer(resource, true));
+    }
+
+    @Test
+    public void testIndexWalksLikeTree() throws Exception {
+        final Resource resource = new ClassPathResource("snmpTestData1.properties");
+        final File index = m_folder.newFile("snmpTestData1.oidx");
+        PropertyOidContainer.writeIndex(resource, index.toPath());
+        assertSameWalk(new PropertyOidContainer(resource, false), PropertyOidContainer.fromIndex(index.toPath()));
+    }
+
+    @Test
+    public void testCompactSortsAndKeepsLastDuplicate() throws Exception {
+        final Resource resource = new ByteArrayResource((
+                "# out of order, with duplicates\n"
+                + ".1.3.6.1.2.1.1.5.0 = STRING: second\n"
+                + ".1.3.6.1.2.1.1.10.0 = INTEGER: 10\n"
+                + ".1.3.6.1.2.1.1.1.0 = STRING: a \\\n"
+                + "    continued line\n"
+                + ".1.3.6.1.2.1.1.5.0 = STRING: third\n"
+                + ".1.3.6.1.2.1.1.2.0 = OID: .1.3.6.1.4.1.5813\n"
+                + ".1.3.6.1.2.1.1.3.1 = Counter32: not a number\n"
+                + ".1.3.6.1.2.1.1.4.0 = No Such Object available on this agent at this OID\n"
+                + ".1.3.6.1.2.1.1.2.0 = OID: .1.3.6.1.4.1.9\n"
+                + ".4294967295.1 = INTEGER: 1\n").getBytes(StandardCharsets.ISO_8859_1));
+        final PropertyOidContainer tree = new PropertyOidContainer(resource, false);
+        final PropertyOidContainer compact = new PropertyOidContainer(resource, true);
+        assertSameWalk(tree, compact);
+
+        assertEquals("third", compact.findValueForOid(SnmpObjId.get(".1.3.6.1.2.1.1.5.0")).toDisplayString());
+        assertEquals("a continued line", compact.findValueForOid(SnmpObjId.get(".1.3.6.1.2.1.1.1.0")).toDisplayString());
+        assertEquals(SnmpObjId.get(".1.3.6.1.4.1.9"), compact.findValueForOid(SnmpObjId.get(".1.3.6.1.2.1.1.2.0")).toSnmpObjId());
+        assertEquals(MockSnmpValue.NO_SUCH_INSTANCE, compact.findValueForOid(SnmpObjId.get(".1.3.6.1.2.1.1.3.1")));
+        assertEquals(MockSnmpValue.NO_SUCH_OBJECT, compact.findValueForOid(SnmpObjId.get(".1.3.6.1.2.1.1.4.0")));
+        // sub-identifiers compare unsigned
+        assertEquals(SnmpObjId.get(".4294967295.1"), compact.findNextOidForOid(SnmpObjId.get(".1.3.6.1.2.1.1.10.0")));
+    }
+
+    @Test
+    public void testSetOverridesCompactValues() throws Exception {
+        final PropertyOidContainer compact = new PropertyOidContainer(new ClassPathResource("snmpTestData1.properties"), true);
+        final SnmpObjId sysName = SnmpObjId.get(".1.3.6.1.2.1.1.5.0");
+        final SnmpObjId added = SnmpObjId.get(".1.3.6.1.2.1.1.5.1");
+        final SnmpObjId next = compact.findNextOidForOid(sysName);
+
+        final MockSnmpValueFactory factory = new MockSnmpValueFactory();
+        compact.set(sysName, factory.getOctetString("renamed".getBytes()));
+        assertEquals("renamed", compact.findValueForOid(sysName).toDisplayString());
+
+        compact.set(added, factory.getInt32(42));
+        assertEquals(added, compact.findNextOidForOid(sysName));
+        assertEquals(next, compact.findNextOidForOid(added));
+    }
+
+    private static void assertSameWalk(final PropertyOidContainer expected, final PropertyOidContainer actual) {
+        SnmpObjId oid = SnmpObjId.get(".0");
+        SnmpObjId actualOid = oid;
+        do {
+            oid = expected.findNextOidForOid(oid);
+            actualOid = actual.findNextOidForOid(actualOid);
+            assertEquals(oid, actualOid);
+            if (oid != null) {
+                final SnmpValue value = expected.findValueForOid(oid);
+                final SnmpValue actualValue = actual.findValueForOid(oid);
+                assertEquals(oid.toString(), value.getType(), actualValue.getType());
+                assertEquals(oid.toString(), value.toString(), actualValue.toString());
+            }
+        } while (oid != null);
+        assertNull(actual.findNextOidForOid(SnmpObjId.get(".4294967295.4294967295")));
+        assertEquals(MockSnmpValue.END_OF_MIB, actual.findNextValueForOid(SnmpObjId.get(".4294967295.4294967295")));
+    }
+}
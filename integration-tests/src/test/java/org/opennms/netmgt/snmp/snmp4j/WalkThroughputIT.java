@@ -0,0 +1,470 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.snmp.snmp4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.mock.snmp.MockSnmpAgent;
+import org.opennms.netmgt.snmp.SnmpAgentConfig;
+import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.SnmpResult;
+import org.opennms.netmgt.snmp.SnmpRowResult;
+import org.opennms.netmgt.snmp.SnmpUtils;
+import org.opennms.netmgt.snmp.SnmpValue;
+import org.opennms.netmgt.snmp.SnmpWalker;
+import org.opennms.netmgt.snmp.TableTracker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * End-to-end throughput of walks and GETs against agents on the loopback.
+ *
+ * Starts {@link MockSnmpAgent}s loaded with a generated ifTable/ifXTable, walks them
+ * with {@link SnmpUtils#createWalker} from a fixed number of blocking callers, then
+ * sends GETs with {@link Snmp4JStrategy#getAsync} keeping the same number in flight.
+ * Walks/sec, varbinds/sec, the p50/p99 latencies and the peak number of threads and
+ * sockets opened by the client are written to {@code target/walk-throughput.properties}
+ * and compared with the baseline in {@code WalkThroughputIT-baseline.properties}.
+ *
+ * Every dimension can be set with {@code -Dorg.opennms.core.snmp.throughput.*}, see the
+ * constants below. Regressions beyond the tolerance are only logged unless
+ * {@code enforceBaseline} is set, numbers from another machine being meaningless.
+ * Run it with {@code recordBaseline} to overwrite the baseline with the results.
+ * Metrics missing from the baseline are warned about, and fail the run when
+ * {@code enforceBaseline} is set, so that an empty baseline does not pass silently.
+ */
+public class WalkThroughputIT {
+    private static final Logger LOG = LoggerFactory.getLogger(WalkThroughputIT.class);
+
+    private static final String PREFIX = "org.opennms.core.snmp.throughput.";
+    private static final int AGENTS = Integer.getInteger(PREFIX + "agents", 2);
+    private static final int INTERFACES = Integer.getInteger(PREFIX + "interfaces", 1000);
+    private static final int WALKS = Integer.getInteger(PREFIX + "walks", 100);
+    private static final int GETS = Integer.getInteger(PREFIX + "gets", 5000);
+    private static final int CONCURRENCY = Integer.getInteger(PREFIX + "concurrency", 8);
+    private static final int VERSION = Integer.getInteger(PREFIX + "version", SnmpAgentConfig.VERSION2C);
+    private static final int MAX_REPETITIONS = Integer.getInteger(PREFIX + "maxRepetitions", 25);
+    private static final double TOLERANCE = Double.parseDouble(System.getProperty(PREFIX + "tolerance", "0.25"));
+    private static final boolean ENFORCE_BASELINE = Boolean.getBoolean(PREFIX + "enforceBaseline");
+    private static final boolean RECORD_BASELINE = Boolean.getBoolean(PREFIX + "recordBaseline");
+    private static final String BASELINE = System.getProperty(PREFIX + "baseline", "src/test/resources/org/opennms/netmgt/snmp/snmp4j/WalkThroughputIT-baseline.properties");
+    private static final String OUTPUT = System.getProperty(PREFIX + "output", "target/walk-throughput.properties");
+
+    private static final SnmpObjId IF_ENTRY = SnmpObjId.get(".1.3.6.1.2.1.2.2.1");
+    private static final SnmpObjId IF_XENTRY = SnmpObjId.get(".1.3.6.1.2.1.31.1.1.1");
+    private static final SnmpObjId[] COLUMNS;
+    static {
+        final List<SnmpObjId> columns = new ArrayList<>();
+        for (int column = 1; column <= 22; column++) {
+            columns.add(SnmpObjId.get(IF_ENTRY, Integer.toString(column)));
+        }
+        for (int column = 1; column <= 19; column++) {
+            columns.add(SnmpObjId.get(IF_XENTRY, Integer.toString(column)));
+        }
+        COLUMNS = columns.toArray(new SnmpObjId[0]);
+    }
+
+    /**
+     * Metrics in the order they are reported, those ending with "PerSec" are better
+     * when higher, the others when lower.
+     */
+    private static final String[] METRICS = new String[] {
+            "walksPerSec", "varbindsPerSec", "walkP50Ms", "walkP99Ms",
+            "getsPerSec", "getP50Ms", "getP99Ms", "peakThreads", "peakSockets"
+    };
+
+    /**
+     * Counts the varbinds and rows without keeping them.
+     */
+    private static class CountingTableTracker extends TableTracker {
+        private final AtomicLong m_varbinds;
+        private int m_rows = 0;
+
+        CountingTableTracker(AtomicLong varbinds) {
+            super(COLUMNS);
+            m_varbinds = varbinds;
+        }
+
+        @Override
+        public void storeResult(SnmpResult res) {
+            m_varbinds.incrementAndGet();
+            super.storeResult(res);
+        }
+
+        @Override
+        public void rowCompleted(SnmpRowResult row) {
+            m_rows++;
+        }
+    }
+
+    /**
+     * Samples the threads and sockets of the JVM, the agents included,
+     * so the idle values are subtracted.
+     */
+    private static class ResourceSampler implements AutoCloseable {
+        private final ScheduledExecutorService m_executor = Executors.newSingleThreadScheduledExecutor();
+        private final int m_idleThreads = threads();
+        private final int m_idleSockets = sockets();
+        private final AtomicInteger m_peakThreads = new AtomicInteger(m_idleThreads);
+        private final AtomicInteger m_peakSockets = new AtomicInteger(m_idleSockets);
+
+        ResourceSampler() {
+            m_executor.scheduleAtFixedRate(() -> {
+                m_peakThreads.accumulateAndGet(threads(), Math::max);
+                m_peakSockets.accumulateAndGet(sockets(), Math::max);
+            }, 0, 10, TimeUnit.MILLISECONDS);
+        }
+
+        private static int threads() {
+            return ManagementFactory.getThreadMXBean().getThreadCount();
+        }
+
+        /**
+         * Sockets held by the process, or 0 where /proc is not available.
+         */
+        private static int sockets() {
+            final Path fds = Paths.get("/proc/self/fd");
+            if (!Files.isDirectory(fds)) {
+                return 0;
+            }
+            try (Stream<Path> stream = Files.list(fds)) {
+                return (int)stream.filter(fd -> {
+                    try {
+                        return Files.readSymbolicLink(fd).toString().startsWith("socket:");
+                    } catch (IOException e) {
+                        // closed while listing
+                        return false;
+                    }
+                }).count();
+            } catch (IOException e) {
+                return 0;
+            }
+        }
+
+        int getPeakThreads() {
+            // the sampler thread itself
+            return m_peakThreads.get() - m_idleThreads - 1;
+        }
+
+        int getPeakSockets() {
+            return m_peakSockets.get() - m_idleSockets;
+        }
+
+        @Override
+        public void close() {
+            m_executor.shutdownNow();
+        }
+    }
+
+    private final List<MockSnmpAgent> m_agents = new ArrayList<>();
+    private final List<SnmpAgentConfig> m_agentConfigs = new ArrayList<>();
+    private final Properties m_results = new Properties();
+    private File m_data;
+    private String m_oldProperty;
+
+    @Before
+    public void setUp() throws Exception {
+        m_oldProperty = System.getProperty("org.opennms.snmp.strategyClass");
+        System.setProperty("org.opennms.snmp.strategyClass", Snmp4JStrategy.class.getName());
+
+        m_data = File.createTempFile("walk-throughput", ".properties");
+        writeInterfaces(m_data, INTERFACES);
+        for (int i = 0; i < AGENTS; i++) {
+            final MockSnmpAgent agent = MockSnmpAgent.createAgentAndRun(m_data.toURI().toURL(), "127.0.0.1/0");
+            m_agents.add(agent);
+
+            final SnmpAgentConfig agentConfig = new SnmpAgentConfig(agent.getInetAddress());
+            agentConfig.setPort(agent.getPort());
+            agentConfig.setVersion(VERSION);
+            agentConfig.setMaxRepetitions(MAX_REPETITIONS);
+            agentConfig.setTimeout(5000);
+            m_agentConfigs.add(agentConfig);
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (final MockSnmpAgent agent : m_agents) {
+            agent.shutDownAndWait();
+        }
+        if (m_data != null) {
+            m_data.delete();
+        }
+        if (m_oldProperty == null) {
+            System.getProperties().remove("org.opennms.snmp.strategyClass");
+        } else {
+            System.setProperty("org.opennms.snmp.strategyClass", m_oldProperty);
+        }
+    }
+
+    @Test
+    public void measureThroughput() throws Exception {
+        LOG.info("Walking {} interfaces x {} columns on {} agents, {} walks and {} GETs with {} callers",
+                INTERFACES, COLUMNS.length, AGENTS, WALKS, GETS, CONCURRENCY);
+        // one walk to warm up the strategy, the agents and the JIT
+        walk(m_agentConfigs.get(0), new AtomicLong());
+
+        try (ResourceSampler sampler = new ResourceSampler()) {
+            measureWalks();
+            measureGets();
+            m_results.setProperty("peakThreads", Integer.toString(sampler.getPeakThreads()));
+            m_results.setProperty("peakSockets", Integer.toString(sampler.getPeakSockets()));
+        }
+
+        store(m_results, OUTPUT);
+        if (RECORD_BASELINE) {
+            store(m_results, BASELINE);
+            return;
+        }
+        compareWithBaseline();
+    }
+
+    private void measureWalks() throws Exception {
+        final AtomicLong varbinds = new AtomicLong();
+        final AtomicInteger next = new AtomicInteger();
+        final long[] latencies = new long[WALKS];
+
+        final ExecutorService callers = Executors.newFixedThreadPool(CONCURRENCY);
+        final long start = System.nanoTime();
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < CONCURRENCY; i++) {
+                futures.add(callers.submit(() -> {
+                    for (int walk = next.getAndIncrement(); walk < WALKS; walk = next.getAndIncrement()) {
+                        final long walkStart = System.nanoTime();
+                        walk(m_agentConfigs.get(walk % AGENTS), varbinds);
+                        latencies[walk] = System.nanoTime() - walkStart;
+                    }
+                    return null;
+                }));
+            }
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            callers.shutdownNow();
+        }
+        final double seconds = (System.nanoTime() - start) / 1e9;
+
+        assertEquals((long)WALKS * INTERFACES * COLUMNS.length, varbinds.get());
+        m_results.setProperty("walksPerSec", format(WALKS / seconds));
+        m_results.setProperty("varbindsPerSec", format(varbinds.get() / seconds));
+        m_results.setProperty("walkP50Ms", format(percentile(latencies, 0.50)));
+        m_results.setProperty("walkP99Ms", format(percentile(latencies, 0.99)));
+    }
+
+    private static void walk(SnmpAgentConfig agentConfig, AtomicLong varbinds) throws Exception {
+        final CountingTableTracker tracker = new CountingTableTracker(varbinds);
+        try (SnmpWalker walker = SnmpUtils.createWalker(agentConfig, "ifTable", tracker)) {
+            walker.start();
+            walker.waitFor();
+            assertFalse(walker.getErrorMessage(), walker.failed());
+        }
+        assertEquals(INTERFACES, tracker.m_rows);
+    }
+
+    private void measureGets() throws Exception {
+        final Snmp4JStrategy strategy = new Snmp4JStrategy();
+        final Semaphore inFlight = new Semaphore(CONCURRENCY);
+        final long[] latencies = new long[GETS];
+        final List<CompletableFuture<SnmpValue[]>> futures = new ArrayList<>(GETS);
+
+        final long start = System.nanoTime();
+        for (int i = 0; i < GETS; i++) {
+            final int get = i;
+            // ifDescr and ifInOctets of one interface
+            final int ifIndex = i % INTERFACES + 1;
+            final SnmpObjId[] oids = new SnmpObjId[] {
+                    SnmpObjId.get(IF_ENTRY, "2." + ifIndex),
+                    SnmpObjId.get(IF_ENTRY, "10." + ifIndex)
+            };
+            inFlight.acquire();
+            final long getStart = System.nanoTime();
+            futures.add(strategy.getAsync(m_agentConfigs.get(i % AGENTS), oids).whenComplete((values, t) -> {
+                latencies[get] = System.nanoTime() - getStart;
+                inFlight.release();
+            }));
+        }
+        for (final CompletableFuture<SnmpValue[]> future : futures) {
+            assertEquals(2, future.get().length);
+        }
+        final double seconds = (System.nanoTime() - start) / 1e9;
+
+        m_results.setProperty("getsPerSec", format(GETS / seconds));
+        m_results.setProperty("getP50Ms", format(percentile(latencies, 0.50)));
+        m_results.setProperty("getP99Ms", format(percentile(latencies, 0.99)));
+    }
+
+    private void compareWithBaseline() throws IOException {
+        final Properties baseline = new Properties();
+        final Path path = Paths.get(BASELINE);
+        if (Files.exists(path)) {
+            try (InputStream in = Files.newInputStream(path)) {
+                baseline.load(in);
+            }
+        }
+
+        final List<String> regressions = new ArrayList<>();
+        final List<String> missing = new ArrayList<>();
+        for (final String metric : METRICS) {
+            final double value = Double.parseDouble(m_results.getProperty(metric));
+            final String expected = baseline.getProperty(metric);
+            if (expected == null) {
+                LOG.info("{}: {} (no baseline)", metric, format(value));
+                missing.add(metric);
+                continue;
+            }
+            final double reference = Double.parseDouble(expected);
+            final double change = reference == 0 ? 0 : (value - reference) / reference;
+            LOG.info("{}: {} (baseline {}, {}%)", metric, format(value), expected, format(change * 100));
+            final boolean worse = metric.endsWith("PerSec") ? change < -TOLERANCE : change > TOLERANCE;
+            if (worse) {
+                regressions.add(metric + " " + format(value) + " vs " + expected);
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            final String message = (missing.size() == METRICS.length ? "NO METRIC WAS COMPARED, " : "Metrics not compared, ")
+                    + BASELINE + " has no value for " + missing + ". Record it on the reference machine with -D" + PREFIX + "recordBaseline=true";
+            if (ENFORCE_BASELINE) {
+                throw new AssertionError(message);
+            }
+            LOG.warn(message);
+        }
+        if (!regressions.isEmpty()) {
+            final String message = "Regressions beyond " + format(TOLERANCE * 100) + "% of " + BASELINE + ": " + regressions;
+            if (ENFORCE_BASELINE) {
+                throw new AssertionError(message);
+            }
+            LOG.warn(message);
+        }
+    }
+
+    /**
+     * ifTable and ifXTable rows with the syntaxes and value sizes of a real device.
+     */
+    private static void writeInterfaces(File file, int interfaces) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file.toPath()))) {
+            for (int column = 1; column <= 22; column++) {
+                for (int ifIndex = 1; ifIndex <= interfaces; ifIndex++) {
+                    out.println(IF_ENTRY + "." + column + "." + ifIndex + " = " + ifEntry(column, ifIndex));
+                }
+            }
+            for (int column = 1; column <= 19; column++) {
+                for (int ifIndex = 1; ifIndex <= interfaces; ifIndex++) {
+                    out.println(IF_XENTRY + "." + column + "." + ifIndex + " = " + ifXEntry(column, ifIndex));
+                }
+            }
+        }
+    }
+
+    private static String ifEntry(int column, int ifIndex) {
+        switch (column) {
+        case 1: return "INTEGER: " + ifIndex;
+        case 2: return "STRING: GigabitEthernet0/" + ifIndex;
+        case 3: return "INTEGER: 6";
+        case 4: return "INTEGER: 1500";
+        case 5: return "Gauge32: 1000000000";
+        case 6: return String.format("Hex-STRING: 00:16:3e:%02x:%02x:%02x", (ifIndex >> 16) & 0xff, (ifIndex >> 8) & 0xff, ifIndex & 0xff);
+        case 7:
+        case 8: return "INTEGER: 1";
+        case 9: return "Timeticks: (" + ifIndex * 100 + ") 0:00:" + ifIndex;
+        case 21: return "Gauge32: 0";
+        case 22: return "OID: .0.0";
+        default: return "Counter32: " + ((long)ifIndex * column * 7919 & 0xffffffffL);
+        }
+    }
+
+    private static String ifXEntry(int column, int ifIndex) {
+        switch (column) {
+        case 1: return "STRING: Gi0/" + ifIndex;
+        case 14:
+        case 16:
+        case 17: return "INTEGER: 1";
+        case 15: return "Gauge32: 1000";
+        case 18: return "STRING: uplink " + ifIndex;
+        case 19: return "Timeticks: (0) 0:00:00.00";
+        default:
+            if (column >= 6 && column <= 13) {
+                return "Counter64: " + (long)ifIndex * column * 1000003L;
+            }
+            return "Counter32: " + ((long)ifIndex * column * 7919 & 0xffffffffL);
+        }
+    }
+
+    private static double percentile(long[] latencies, double percentile) {
+        final long[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+        final int index = Math.min(sorted.length - 1, (int)Math.ceil(percentile * sorted.length) - 1);
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+
+    private static String format(double value) {
+        return String.format("%.2f", value);
+    }
+
+    private static void store(Properties results, String path) throws IOException {
+        final Path file = Paths.get(path);
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        // sorted and without the date comment, so that a recorded baseline diffs cleanly
+        try (OutputStream out = Files.newOutputStream(file); PrintWriter writer = new PrintWriter(out)) {
+            writer.println("# " + WalkThroughputIT.class.getSimpleName() + ": " + AGENTS + " agents, " + INTERFACES + " interfaces, "
+                    + WALKS + " walks, " + GETS + " gets, " + CONCURRENCY + " callers, version " + VERSION + ", maxRepetitions " + MAX_REPETITIONS);
+            // the numbers only mean something on the machine they were recorded on
+            writer.println("# recorded on " + System.getProperty("os.name") + " " + System.getProperty("os.arch") + ", "
+                    + Runtime.getRuntime().availableProcessors() + " cores, Java " + System.getProperty("java.version"));
+            for (final String metric : METRICS) {
+                writer.println(metric + "=" + results.getProperty(metric));
+            }
+        }
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.core.snmp.profile.mapper.impl;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+
+import org.opennms.netmgt.config.api.SnmpAgentConfigFactory;
+import org.opennms.netmgt.config.snmp.SnmpProfile;
+import org.opennms.netmgt.snmp.SnmpAgentConfig;
+import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.SnmpProfileFitListener;
+import org.opennms.netmgt.snmp.SnmpRequestPriority;
+import org.opennms.netmgt.snmp.SnmpValue;
+import org.opennms.netmgt.snmp.proxy.LocationAwareSnmpClient;
+import org.opennms.netmgt.snmp.proxy.SNMPBatchRequestBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fits profiles to many addresses, i.e. a range being discovered.
+ *
+ * The addresses are taken in chunks of {@code batchSize}. For each chunk the profiles are probed
+ * by priority: the addresses matching the filter of the first profile are all probed with a single
+ * batched RPC, the ones that did not fit are probed with the next profile in another one, and so on.
+ * At most {@code maxBatches} chunks are in flight at a time. Addresses already in the fit cache
+ * are not probed, and the outcome of the others is added to it.
+ *
+ * When the RPC of a batch fails, or the probe of an address fails for another reason than the
+ * agent not answering, the address is probed with the next profile as if the profile did not fit. Those that do not fit any profile of lower priority are reported as failed rather
+ * than as not fitting, since it is unknown whether the profile that could not be probed fits, and
+ * are not cached. Cancelling the sweep cancels the batches in flight.
+ */
+class BulkProfileFit {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BulkProfileFit.class);
+
+    private final SnmpProfileMapperImpl mapper;
+    private final List<SnmpProfile> profiles;
+    private final String location;
+    private final String oid;
+    private final SnmpObjId snmpObjId;
+    private final Iterator<InetAddress> addresses;
+    private final long total;
+    private final SnmpProfileFitListener listener;
+    private final int batchSize;
+    private final int maxBatches;
+    private final int profilesVersion;
+    private final CompletableFuture<Void> result = new CompletableFuture<>();
+    private final Set<CompletableFuture<Void>> batches = ConcurrentHashMap.newKeySet();
+
+    // guarded by this
+    private int running = 0;
+    private long fitted = 0;
+
+    BulkProfileFit(SnmpProfileMapperImpl mapper, List<SnmpProfile> profiles, Iterator<InetAddress> addresses, long total,
+                   String location, String oid, SnmpObjId snmpObjId, SnmpProfileFitListener listener, int batchSize, int maxBatches) {
+        this.mapper = mapper;
+        this.profiles = profiles;
+        this.addresses = addresses;
+        this.total = total;
+        this.location = location;
+        this.oid = oid;
+        this.snmpObjId = snmpObjId;
+        this.listener = listener;
+        this.batchSize = Math.max(1, batchSize);
+        this.maxBatches = Math.max(1, maxBatches);
+        this.profilesVersion = profiles.hashCode();
+    }
+
+    CompletableFuture<Void> execute() {
+        result.whenComplete((v, t) -> {
+            if (result.isCancelled()) {
+                batches.forEach(batch -> batch.cancel(false));
+            }
+        });
+        for (int i = 0; i < maxBatches; i++) {
+            nextChunk();
+        }
+        return result;
+    }
+
+    private void nextChunk() {
+        final List<InetAddress> chunk = new ArrayList<>(batchSize);
+        synchronized (this) {
+            if (result.isDone()) {
+                return;
+            }
+            while (chunk.size() < batchSize && addresses.hasNext()) {
+                chunk.add(addresses.next());
+            }
+            if (chunk.isEmpty()) {
+                if (running == 0) {
+                    result.complete(null);
+                }
+                return;
+            }
+            running++;
+        }
+
+        final List<InetAddress> pending = new ArrayList<>(chunk.size());
+        for (final InetAddress address : chunk) {
+            final Optional<SnmpAgentConfig> cached = mapper.getFitCache().getIfPresent(fitKey(address));
+            if (cached != null) {
+                fitted(address, cached, false);
+            } else {
+                pending.add(address);
+            }
+        }
+        probe(0, pending, new HashMap<>());
+    }
+
+    /**
+     * @param failures why the addresses that could not be probed with one of the previous profiles failed
+     */
+    private void probe(int index, List<InetAddress> pending, Map<InetAddress, Throwable> failures) {
+        if (result.isDone() || pending.isEmpty() || index == profiles.size()) {
+            for (final InetAddress address : pending) {
+                final Throwable failure = failures.get(address);
+                if (failure != null) {
+                    failed(address, failure);
+                } else {
+                    fitted(address, Optional.empty(), true);
+                }
+            }
+            chunkDone();
+            return;
+        }
+
+        final SnmpProfile profile = profiles.get(index);
+        final List<InetAddress> skipped = new ArrayList<>();
+        final Map<InetAddress, SnmpAgentConfig> agentConfigs = new LinkedHashMap<>();
+        final Map<InetAddress, CompletableFuture<SnmpValue>> probes = new LinkedHashMap<>();
+        final CompletableFuture<Void> batchFuture;
+        try {
+            final SnmpAgentConfigFactory agentConfigFactory = mapper.getAgentConfigFactory();
+            final LocationAwareSnmpClient client = mapper.getLocationAwareSnmpClient();
+            final SNMPBatchRequestBuilder batch = client.batch(location)
+                    .withDescription("Snmp-Profile:" + profile.getLabel());
+            for (final InetAddress address : pending) {
+                if (!mapper.isFilterExpressionValid(address, profile.getFilterExpression())) {
+                    skipped.add(address);
+                    continue;
+                }
+                final SnmpAgentConfig interpolatedAgentConfig = agentConfigFactory.getAgentConfigFromProfile(profile, address);
+                agentConfigs.put(address, agentConfigFactory.getAgentConfigFromProfile(profile, address, false));
+                probes.put(address, batch.add(client.get(interpolatedAgentConfig, snmpObjId).withPriority(SnmpRequestPriority.HIGH)));
+            }
+            if (probes.isEmpty()) {
+                probe(index + 1, skipped, failures);
+                return;
+            }
+            batchFuture = batch.execute();
+            batches.add(batchFuture);
+            if (result.isCancelled()) {
+                batchFuture.cancel(false);
+            }
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+            chunkDone();
+            return;
+        }
+
+        batchFuture.whenComplete((v, t) -> {
+            batches.remove(batchFuture);
+            if (t != null) {
+                // the agents may never have been asked, the next profile is tried but the failure is remembered
+                LOG.info("Exception while probing {} addresses with profile '{}'", probes.size(), profile.getLabel(), t);
+            }
+            final List<InetAddress> remaining = new ArrayList<>(skipped);
+            probes.forEach((address, future) -> {
+                final SnmpValue snmpValue = t == null && future.isDone() && !future.isCompletedExceptionally() ? future.join() : null;
+                if (snmpValue != null && !snmpValue.isError()) {
+                    fitted(address, Optional.of(agentConfigs.get(address)), true);
+                } else {
+                    final Throwable failure = t != null ? t : future.state() == Future.State.FAILED ? future.exceptionNow() : null;
+                    if (failure != null && (t != null || !SnmpProfileMapperImpl.isAgentFailure(failure))) {
+                        failures.put(address, failure);
+                    }
+                    remaining.add(address);
+                }
+            });
+            probe(index + 1, remaining, failures);
+        });
+    }
+
+    private void fitted(InetAddress address, Optional<SnmpAgentConfig> agentConfig, boolean cache) {
+        if (cache && !result.isDone()) {
+            mapper.getFitCache().put(fitKey(address), agentConfig);
+        }
+        synchronized (this) {
+            if (result.isDone()) {
+                return;
+            }
+            listener.fitted(address, agentConfig);
+            listener.progress(++fitted, total);
+        }
+    }
+
+    private void failed(InetAddress address, Throwable cause) {
+        synchronized (this) {
+            if (result.isDone()) {
+                return;
+            }
+            listener.failed(address, cause);
+            listener.progress(++fitted, total);
+        }
+    }
+
+    private void chunkDone() {
+        synchronized (this) {
+            running--;
+        }
+        nextChunk();
+    }
+
+    private SnmpProfileFitCache.Key fitKey(InetAddress address) {
+        return SnmpProfileMapperImpl.fitKey(address, location, oid, null, profilesVersion);
+    }
+}
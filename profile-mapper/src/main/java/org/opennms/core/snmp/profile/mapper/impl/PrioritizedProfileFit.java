@@ -0,0 +1,168 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.core.snmp.profile.mapper.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+import org.opennms.netmgt.config.snmp.SnmpProfile;
+import org.opennms.netmgt.snmp.SnmpAgentConfig;
+
+/**
+ * Probes a list of profiles, ordered by priority, and completes with the configuration
+ * of the first one that fits as soon as all the profiles before it have failed.
+ *
+ * At most {@code parallelism} probes are in flight at a time, the next profile being probed
+ * whenever one of them fails; probes after a profile known to fit are never started, and the
+ * ones still running once the outcome is known are cancelled.
+ *
+ * A probe that completes exceptionally is passed over like a profile that does not fit, but
+ * when no profile fits the fit completes with the first of these failures rather than empty,
+ * since it is unknown whether the profile that failed fits.
+ */
+class PrioritizedProfileFit {
+
+    private final List<SnmpProfile> profiles;
+    private final Function<SnmpProfile, CompletableFuture<Optional<SnmpAgentConfig>>> probe;
+    private final int parallelism;
+
+    private final List<CompletableFuture<Optional<SnmpAgentConfig>>> probes;
+    private final List<Optional<SnmpAgentConfig>> outcomes;
+    private final CompletableFuture<Optional<SnmpAgentConfig>> result = new CompletableFuture<>();
+
+    // guarded by this
+    private int next = 0;
+    private int firstUnknown = 0;
+    private int firstFit;
+    private Throwable failure;
+
+    /**
+     * @param parallelism maximum number of probes in flight, 0 or less to probe all the profiles at once
+     */
+    PrioritizedProfileFit(List<SnmpProfile> profiles, Function<SnmpProfile, CompletableFuture<Optional<SnmpAgentConfig>>> probe, int parallelism) {
+        this.profiles = profiles;
+        this.probe = probe;
+        this.parallelism = parallelism > 0 ? parallelism : Math.max(1, profiles.size());
+        this.probes = new ArrayList<>(Collections.nCopies(profiles.size(), null));
+        this.outcomes = new ArrayList<>(Collections.nCopies(profiles.size(), null));
+        this.firstFit = profiles.size();
+    }
+
+    CompletableFuture<Optional<SnmpAgentConfig>> execute() {
+        if (profiles.isEmpty()) {
+            result.complete(Optional.empty());
+            return result;
+        }
+        final List<Integer> indexes;
+        synchronized (this) {
+            indexes = nextProbes(parallelism);
+        }
+        start(indexes);
+        return result;
+    }
+
+    private void start(List<Integer> indexes) {
+        for (final int index : indexes) {
+            final CompletableFuture<Optional<SnmpAgentConfig>> future = probe.apply(profiles.get(index));
+            synchronized (this) {
+                probes.set(index, future);
+            }
+            if (result.isDone()) {
+                future.cancel(false);
+                return;
+            }
+            future.whenComplete((config, t) -> onProbe(index, t == null ? config : Optional.empty(), t));
+        }
+    }
+
+    private void onProbe(int index, Optional<SnmpAgentConfig> config, Throwable t) {
+        final Optional<SnmpAgentConfig> outcome;
+        final List<Integer> indexes;
+        Throwable error = null;
+        final List<CompletableFuture<Optional<SnmpAgentConfig>>> superseded = new ArrayList<>();
+        synchronized (this) {
+            if (result.isDone()) {
+                return;
+            }
+            outcomes.set(index, config);
+            if (t != null && failure == null && index < firstFit) {
+                failure = t;
+            }
+            if (config.isPresent() && index < firstFit) {
+                // profiles of lower priority are no longer needed
+                for (int i = index + 1; i < firstFit; i++) {
+                    if (probes.get(i) != null) {
+                        superseded.add(probes.get(i));
+                    }
+                }
+                firstFit = index;
+            }
+            while (firstUnknown < profiles.size() && outcomes.get(firstUnknown) != null && !outcomes.get(firstUnknown).isPresent()) {
+                firstUnknown++;
+            }
+            if (firstUnknown == profiles.size()) {
+                outcome = Optional.empty();
+                indexes = Collections.emptyList();
+                error = failure;
+            } else if (firstUnknown == firstFit) {
+                outcome = outcomes.get(firstFit);
+                indexes = Collections.emptyList();
+            } else {
+                outcome = null;
+                indexes = nextProbes(1);
+            }
+        }
+        superseded.forEach(future -> future.cancel(false));
+        if (error != null) {
+            result.completeExceptionally(error);
+        } else if (outcome != null) {
+            result.complete(outcome);
+            cancelRemaining();
+        } else {
+            start(indexes);
+        }
+    }
+
+    private List<Integer> nextProbes(int count) {
+        final List<Integer> indexes = new ArrayList<>(count);
+        while (indexes.size() < count && next < firstFit) {
+            indexes.add(next++);
+        }
+        return indexes;
+    }
+
+    private void cancelRemaining() {
+        final List<CompletableFuture<Optional<SnmpAgentConfig>>> remaining;
+        synchronized (this) {
+            remaining = new ArrayList<>(probes);
+        }
+        for (final CompletableFuture<Optional<SnmpAgentConfig>> future : remaining) {
+            if (future != null && !future.isDone()) {
+                future.cancel(false);
+            }
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.core.snmp.profile.mapper.impl;
+
+import java.net.InetAddress;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.opennms.netmgt.filter.api.FilterDao;
+import org.opennms.netmgt.filter.api.FilterParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Remembers whether addresses match the filter expressions of the profiles, so that fitting
+ * thousands of addresses does not evaluate every filter against the database for each of them.
+ *
+ * By default the outcome is memoized per address and expression. When {@link #RESOLVE_FILTERS_SYS_PROP}
+ * is set, each expression is instead resolved once to the list of all the addresses it matches,
+ * which suits sweeps over many addresses. Entries are keyed on the expression itself, so edited
+ * profiles are evaluated again right away.
+ *
+ * The cache is not notified of node changes: an outcome may be stale for up to {@link #TTL_SYS_PROP},
+ * 30 seconds by default, after which the filter is evaluated again. That is long enough for a sweep
+ * to evaluate each expression once per address range, and short enough for an edited node to be
+ * matched by the next fit. Callers that know the nodes changed can also use {@link #invalidateAll()}.
+ */
+public class SnmpProfileFilterCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SnmpProfileFilterCache.class);
+
+    public static final String MAX_SIZE_SYS_PROP = "org.opennms.core.snmp.profileMapper.filterCache.maxSize";
+    public static final String TTL_SYS_PROP = "org.opennms.core.snmp.profileMapper.filterCache.ttl";
+    public static final String RESOLVE_FILTERS_SYS_PROP = "org.opennms.core.snmp.profileMapper.filterCache.resolveFilters";
+
+    private final Cache<Key, Boolean> matches;
+    private final Cache<String, Set<InetAddress>> resolvedFilters;
+    private final boolean resolveFilters;
+    private final LongAdder evaluations = new LongAdder();
+
+    public SnmpProfileFilterCache() {
+        this(Long.getLong(MAX_SIZE_SYS_PROP, 100000),
+                Long.getLong(TTL_SYS_PROP, TimeUnit.SECONDS.toMillis(30)),
+                Boolean.getBoolean(RESOLVE_FILTERS_SYS_PROP));
+    }
+
+    public SnmpProfileFilterCache(long maxSize, long ttlMs, boolean resolveFilters) {
+        this.resolveFilters = resolveFilters;
+        matches = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttlMs, TimeUnit.MILLISECONDS)
+                .build();
+        resolvedFilters = CacheBuilder.newBuilder()
+                .maximumSize(1000)
+                .expireAfterWrite(ttlMs, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * @return whether the address matches the expression, invalid expressions matching no address
+     */
+    public boolean isValid(FilterDao filterDao, InetAddress address, String filterExpression) {
+        if (resolveFilters) {
+            return resolve(filterDao, filterExpression).contains(address);
+        }
+        final Key key = new Key(address, filterExpression);
+        Boolean valid = matches.getIfPresent(key);
+        if (valid == null) {
+            evaluations.increment();
+            try {
+                valid = filterDao.isValid(address.getHostAddress(), filterExpression);
+            } catch (FilterParseException e) {
+                LOG.warn("Filter expression '{}' is invalid. ", filterExpression, e);
+                valid = false;
+            }
+            matches.put(key, valid);
+        }
+        return valid;
+    }
+
+    private Set<InetAddress> resolve(FilterDao filterDao, String filterExpression) {
+        Set<InetAddress> addresses = resolvedFilters.getIfPresent(filterExpression);
+        if (addresses == null) {
+            evaluations.increment();
+            try {
+                addresses = new HashSet<>(filterDao.getIPAddressList(filterExpression));
+            } catch (FilterParseException e) {
+                LOG.warn("Filter expression '{}' is invalid. ", filterExpression, e);
+                addresses = new HashSet<>();
+            }
+            resolvedFilters.put(filterExpression, addresses);
+        }
+        return addresses;
+    }
+
+    /**
+     * Forgets all the outcomes, i.e. when the nodes or their interfaces are known to have changed.
+     */
+    public void invalidateAll() {
+        matches.invalidateAll();
+        resolvedFilters.invalidateAll();
+    }
+
+    /**
+     * Number of times a filter was evaluated by the {@link FilterDao}.
+     */
+    public long getEvaluations() {
+        return evaluations.sum();
+    }
+
+    private static class Key {
+        private final InetAddress address;
+        private final String filterExpression;
+
+        private Key(InetAddress address, String filterExpression) {
+            this.address = address;
+            this.filterExpression = filterExpression;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(address, filterExpression);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof Key))
+                return false;
+            final Key other = (Key) obj;
+            return Objects.equals(address, other.address)
+                    && Objects.equals(filterExpression, other.filterExpression);
+        }
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.core.snmp.profile.mapper.impl;
+
+import java.net.InetAddress;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.opennms.netmgt.snmp.SnmpAgentConfig;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Remembers the outcome of profile fitting, so that addresses fitted again during
+ * discovery and provisioning do not probe every profile each time.
+ *
+ * Successful fits are kept for {@link #POSITIVE_TTL_SYS_PROP}, addresses that matched no
+ * profile for {@link #NEGATIVE_TTL_SYS_PROP}. A TTL of 0 disables the corresponding cache.
+ * Fits that completed exceptionally, i.e. because the location could not be reached, are not kept.
+ * Concurrent fits of the same key share a single probe whether or not caching is enabled.
+ */
+public class SnmpProfileFitCache {
+
+    public static final String MAX_SIZE_SYS_PROP = "org.opennms.core.snmp.profileMapper.fitCache.maxSize";
+    public static final String POSITIVE_TTL_SYS_PROP = "org.opennms.core.snmp.profileMapper.fitCache.positiveTtl";
+    public static final String NEGATIVE_TTL_SYS_PROP = "org.opennms.core.snmp.profileMapper.fitCache.negativeTtl";
+
+    private final Cache<Key, Fit> fits;
+    private final ConcurrentMap<Key, CompletableFuture<Optional<SnmpAgentConfig>>> inFlight = new ConcurrentHashMap<>();
+    private final long positiveTtlNanos;
+    private final long negativeTtlNanos;
+    private final Stats stats = new Stats();
+
+    public SnmpProfileFitCache() {
+        this(Long.getLong(MAX_SIZE_SYS_PROP, 10000),
+                Long.getLong(POSITIVE_TTL_SYS_PROP, TimeUnit.MINUTES.toMillis(10)),
+                Long.getLong(NEGATIVE_TTL_SYS_PROP, TimeUnit.MINUTES.toMillis(2)));
+    }
+
+    public SnmpProfileFitCache(long maxSize, long positiveTtlMs, long negativeTtlMs) {
+        positiveTtlNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, positiveTtlMs));
+        negativeTtlNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, negativeTtlMs));
+        fits = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Math.max(positiveTtlNanos, negativeTtlNanos), TimeUnit.NANOSECONDS)
+                .build();
+    }
+
+    /**
+     * Returns the cached fit for the key, joins the probe already running for it,
+     * or starts a new one with the given function.
+     *
+     * Every caller gets its own copy of the agent configuration.
+     */
+    public CompletableFuture<Optional<SnmpAgentConfig>> get(Key key, Supplier<CompletableFuture<Optional<SnmpAgentConfig>>> fit) {
+        final Fit cached = fits.getIfPresent(key);
+        if (cached != null && cached.isUsable(System.nanoTime())) {
+            stats.hits.increment();
+            return CompletableFuture.completedFuture(copyOf(cached.config));
+        }
+
+        final boolean[] owner = new boolean[] { false };
+        final Fit[] completed = new Fit[] { null };
+        final CompletableFuture<Optional<SnmpAgentConfig>> future = inFlight.computeIfAbsent(key, k -> {
+            // the probe may have completed since the cache was checked, its owner caches the fit before releasing the key
+            final Fit recent = fits.getIfPresent(k);
+            if (recent != null && recent.isUsable(System.nanoTime())) {
+                completed[0] = recent;
+                return null;
+            }
+            owner[0] = true;
+            return new CompletableFuture<>();
+        });
+        if (completed[0] != null) {
+            stats.hits.increment();
+            return CompletableFuture.completedFuture(copyOf(completed[0].config));
+        }
+        if (owner[0]) {
+            stats.misses.increment();
+            CompletableFuture<Optional<SnmpAgentConfig>> probe;
+            try {
+                probe = fit.get();
+            } catch (RuntimeException e) {
+                probe = new CompletableFuture<>();
+                probe.completeExceptionally(e);
+            }
+            probe.whenComplete((config, t) -> {
+                if (t == null) {
+                    final long ttl = config.isPresent() ? positiveTtlNanos : negativeTtlNanos;
+                    if (ttl > 0) {
+                        fits.put(key, new Fit(config, System.nanoTime() + ttl));
+                    }
+                }
+                // the cache is populated before the key is released, so no probe is started in between
+                inFlight.remove(key, future);
+                if (t == null) {
+                    future.complete(config);
+                } else {
+                    future.completeExceptionally(t);
+                }
+            });
+        } else {
+            stats.sharedProbes.increment();
+        }
+        return future.thenApply(SnmpProfileFitCache::copyOf);
+    }
+
+    /**
+     * @return a copy of the cached fit for the key, null if there is none
+     */
+    public Optional<SnmpAgentConfig> getIfPresent(Key key) {
+        final Fit cached = fits.getIfPresent(key);
+        if (cached != null && cached.isUsable(System.nanoTime())) {
+            stats.hits.increment();
+            return copyOf(cached.config);
+        }
+        return null;
+    }
+
+    /**
+     * Remembers a fit made without {@link #get}.
+     */
+    public void put(Key key, Optional<SnmpAgentConfig> config) {
+        final long ttl = config.isPresent() ? positiveTtlNanos : negativeTtlNanos;
+        if (ttl > 0) {
+            fits.put(key, new Fit(copyOf(config), System.nanoTime() + ttl));
+        }
+    }
+
+    public void invalidateAll() {
+        fits.invalidateAll();
+    }
+
+    public long size() {
+        return fits.size();
+    }
+
+    public Stats getStats() {
+        return stats;
+    }
+
+    private static Optional<SnmpAgentConfig> copyOf(Optional<SnmpAgentConfig> config) {
+        return config.map(agentConfig -> {
+            final SnmpAgentConfig copy = SnmpAgentConfig.fromMap(agentConfig.toMap());
+            copy.setProfileLabel(agentConfig.getProfileLabel());
+            copy.setDefault(agentConfig.isDefault());
+            return copy;
+        });
+    }
+
+    private static class Fit {
+        private final Optional<SnmpAgentConfig> config;
+        private final long expiresAt;
+
+        private Fit(Optional<SnmpAgentConfig> config, long expiresAt) {
+            this.config = config;
+            this.expiresAt = expiresAt;
+        }
+
+        private boolean isUsable(long now) {
+            return now - expiresAt < 0;
+        }
+    }
+
+    /**
+     * Identifies a fit: the address, where it is probed from, the OID that is probed, the profile
+     * that is fitted or null for the first matching one, and the version of the profiles so that
+     * editing them makes earlier fits obsolete.
+     */
+    public static class Key {
+        private final InetAddress address;
+        private final String location;
+        private final String oid;
+        private final String profileLabel;
+        private final int profilesVersion;
+        private final int hashCode;
+
+        public Key(InetAddress address, String location, String oid, String profileLabel, int profilesVersion) {
+            this.address = Objects.requireNonNull(address);
+            this.location = location;
+            this.oid = oid;
+            this.profileLabel = profileLabel;
+            this.profilesVersion = profilesVersion;
+            this.hashCode = Objects.hash(address, location, oid, profileLabel, profilesVersion);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof Key))
+                return false;
+            final Key other = (Key) obj;
+            return profilesVersion == other.profilesVersion
+                    && Objects.equals(address, other.address)
+                    && Objects.equals(location, other.location)
+                    && Objects.equals(oid, other.oid)
+                    && Objects.equals(profileLabel, other.profileLabel);
+        }
+    }
+
+    public static class Stats {
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder sharedProbes = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+
+        /**
+         * Fits returned from the cache.
+         */
+        public long getHits() {
+            return hits.sum();
+        }
+
+        /**
+         * Fits that were running for another request and were waited for.
+         */
+        public long getSharedProbes() {
+            return sharedProbes.sum();
+        }
+
+        /**
+         * Fits that probed the profiles.
+         */
+        public long getMisses() {
+            return misses.sum();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("hits=%d, sharedProbes=%d, misses=%d", getHits(), getSharedProbes(), getMisses());
+        }
+    }
+}
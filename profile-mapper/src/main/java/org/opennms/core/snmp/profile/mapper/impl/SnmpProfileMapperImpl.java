@@ -22,19 +22,22 @@
 package org.opennms.core.snmp.profile.mapper.impl;
 
 import java.net.InetAddress;
+import java.util.Collection;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
+import org.opennms.core.rpc.api.RemoteExecutionException;
 import org.opennms.netmgt.config.api.SnmpAgentConfigFactory;
 import org.opennms.netmgt.config.snmp.SnmpProfile;
 import org.opennms.netmgt.filter.api.FilterDao;
-import org.opennms.netmgt.filter.api.FilterParseException;
 import org.opennms.netmgt.snmp.SnmpAgentConfig;
 import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.SnmpProfileFitListener;
 import org.opennms.netmgt.snmp.SnmpProfileMapper;
+import org.opennms.netmgt.snmp.SnmpRequestPriority;
 import org.opennms.netmgt.snmp.SnmpValue;
 import org.opennms.netmgt.snmp.proxy.LocationAwareSnmpClient;
 import org.slf4j.Logger;
@@ -58,8 +61,33 @@ public class SnmpProfileMapperImpl implements SnmpProfileMapper {
 
     private static final String SYS_OBJECTID_INSTANCE = ".1.3.6.1.2.1.1.2.0";
 
+    /**
+     * Maximum number of profiles probed at the same time for an address, 0 to probe them all at once.
+     */
+    public static final String PARALLELISM_SYS_PROP = "org.opennms.core.snmp.profileMapper.parallelism";
+
+    /**
+     * Number of addresses probed together by {@link #fitProfiles(Iterable, String, String, SnmpProfileFitListener)}.
+     */
+    public static final String BULK_BATCH_SIZE_SYS_PROP = "org.opennms.core.snmp.profileMapper.bulk.batchSize";
+
+    /**
+     * Number of batches of addresses being fitted at the same time by a sweep.
+     */
+    public static final String BULK_MAX_BATCHES_SYS_PROP = "org.opennms.core.snmp.profileMapper.bulk.maxBatches";
+
     private final SnmpObjId snmpObjId = SnmpObjId.get(SYS_OBJECTID_INSTANCE);
 
+    private SnmpProfileFitCache fitCache = new SnmpProfileFitCache();
+
+    private SnmpProfileFilterCache filterCache = new SnmpProfileFilterCache();
+
+    private int parallelism = Integer.getInteger(PARALLELISM_SYS_PROP, 0);
+
+    private int bulkBatchSize = Integer.getInteger(BULK_BATCH_SIZE_SYS_PROP, 256);
+
+    private int bulkMaxBatches = Integer.getInteger(BULK_MAX_BATCHES_SYS_PROP, 4);
+
     public SnmpProfileMapperImpl() {
     }
 
@@ -72,31 +100,20 @@ public class SnmpProfileMapperImpl implements SnmpProfileMapper {
     @Override
     public CompletableFuture<Optional<SnmpAgentConfig>> getAgentConfigFromProfiles(InetAddress inetAddress, String location, String oid, boolean metaDataInterpolation) {
 
-        CompletableFuture<Optional<SnmpAgentConfig>> future = new CompletableFuture<>();
         List<SnmpProfile> snmpProfiles = agentConfigFactory.getProfiles();
+        return fitCache.get(fitKey(inetAddress, location, oid, null, snmpProfiles),
+                () -> fitProfiles(snmpProfiles, inetAddress, location, oid));
+    }
+
+    private CompletableFuture<Optional<SnmpAgentConfig>> fitProfiles(List<SnmpProfile> snmpProfiles, InetAddress inetAddress, String location, String oid) {
+
         // Get matching profiles for this IpAddress.
         List<SnmpProfile> matchedProfiles = snmpProfiles.stream()
                 .filter(snmpProfile -> isFilterExpressionValid(inetAddress, snmpProfile.getFilterExpression()))
                 .collect(Collectors.toList());
-        // Run and collect futures.
-        List<CompletableFuture<Optional<SnmpAgentConfig>>> futures = matchedProfiles.stream()
-                .map(matchedProfile -> fitProfile(matchedProfile, inetAddress, location, oid))
-                .collect(Collectors.toList());
-        CompletableFuture<Void> allFutures = CompletableFuture.allOf(futures.toArray(new CompletableFuture[futures.size()]));
-        //Join all the results.
-        CompletableFuture<List<Optional<SnmpAgentConfig>>> results = allFutures.thenApply(agentConfig -> {
-            return futures.stream().map(CompletableFuture::join).collect(Collectors.toList());
-        });
-        //Complete the future with first non-empty agent config.
-        results.whenComplete((configList, throwable) -> {
-            if (throwable == null) {
-                Optional<Optional<SnmpAgentConfig>> configOptional = configList.stream().filter(Optional::isPresent).findFirst();
-                future.complete(configOptional.orElse(Optional.empty()));
-            } else {
-                future.complete(Optional.empty());
-            }
-        });
-        return future;
+        // Probe them by priority, the first matching profile that fits wins.
+        return new PrioritizedProfileFit(matchedProfiles,
+                matchedProfile -> fitProfile(matchedProfile, inetAddress, location, oid), parallelism).execute();
     }
 
     private CompletableFuture<Optional<SnmpAgentConfig>> fitProfile(SnmpProfile snmpProfile, InetAddress inetAddress, String location, String oid) {
@@ -113,6 +130,7 @@ public class SnmpProfileMapperImpl implements SnmpProfileMapper {
         CompletableFuture<SnmpValue> snmpResult = locationAwareSnmpClient.get(interpolatedAgentConfig, snmpObjectId)
                 .withLocation(location)
                 .withDescription("Snmp-Profile:" + snmpProfile.getLabel())
+                .withPriority(SnmpRequestPriority.HIGH)
                 .execute();
         //Logging purposes
         final String objectId = Strings.isNullOrEmpty(oid) ? SYS_OBJECTID_INSTANCE : oid;
@@ -123,11 +141,22 @@ public class SnmpProfileMapperImpl implements SnmpProfileMapper {
                 } else {
                     future.complete(Optional.empty());
                 }
-            } else {
-                LOG.info("Exception while doing SNMP get on OID '{}' with profile '{}'", objectId, snmpProfile.getLabel());
-                future.complete(Optional.empty());
+            } else if (!future.isDone()) {
+                LOG.info("Exception while doing SNMP get on OID '{}' with profile '{}'", objectId, snmpProfile.getLabel(), throwable);
+                if (isAgentFailure(throwable)) {
+                    future.complete(Optional.empty());
+                } else {
+                    // unknown whether the profile fits, the probe fails so that it is not cached as not fitting
+                    future.completeExceptionally(throwable);
+                }
             }
         }));
+        // Stop the get when the probe is no longer needed.
+        future.whenComplete((result, throwable) -> {
+            if (future.isCancelled()) {
+                snmpResult.cancel(false);
+            }
+        });
         return future;
     }
 
@@ -137,6 +166,18 @@ public class SnmpProfileMapperImpl implements SnmpProfileMapper {
         return getAgentConfigFromProfiles(inetAddress, location, null, metaDataInterpolation);
     }
 
+    /**
+     * Fits the addresses in chunks, probing all the addresses of a chunk with the same profile
+     * in a single batched RPC.
+     */
+    @Override
+    public CompletableFuture<Void> fitProfiles(Iterable<InetAddress> inetAddresses, String location, String oid, SnmpProfileFitListener listener) {
+        final long total = inetAddresses instanceof Collection ? ((Collection<?>) inetAddresses).size() : -1;
+        final SnmpObjId snmpObjectId = Strings.isNullOrEmpty(oid) ? this.snmpObjId : SnmpObjId.get(oid);
+        return new BulkProfileFit(this, agentConfigFactory.getProfiles(), inetAddresses.iterator(), total,
+                location, oid, snmpObjectId, listener, bulkBatchSize, bulkMaxBatches).execute();
+    }
+
     @Override
     public CompletableFuture<Optional<SnmpAgentConfig>> fitProfile(String profileLabel, InetAddress inetAddress, String location, String oid) {
 
@@ -149,24 +190,45 @@ public class SnmpProfileMapperImpl implements SnmpProfileMapper {
                 .filter(profile -> profile.getLabel().equals(profileLabel))
                 .findFirst();
         if (matchingProfile.isPresent()) {
-            return fitProfile(matchingProfile.get(), inetAddress, location, oid);
+            return fitCache.get(fitKey(inetAddress, location, oid, profileLabel, profiles),
+                    () -> fitProfile(matchingProfile.get(), inetAddress, location, oid));
         } else {
             return CompletableFuture.completedFuture(Optional.empty());
         }
     }
 
-    private boolean isFilterExpressionValid(InetAddress inetAddress, String filterExpression) {
+    private static SnmpProfileFitCache.Key fitKey(InetAddress inetAddress, String location, String oid, String profileLabel, List<SnmpProfile> profiles) {
+        return fitKey(inetAddress, location, oid, profileLabel, profiles.hashCode());
+    }
+
+    static SnmpProfileFitCache.Key fitKey(InetAddress inetAddress, String location, String oid, String profileLabel, int profilesVersion) {
+        return new SnmpProfileFitCache.Key(inetAddress, location, Strings.isNullOrEmpty(oid) ? SYS_OBJECTID_INSTANCE : oid,
+                profileLabel, profilesVersion);
+    }
+
+    /**
+     * Whether the probe failed on the location, i.e. the agent did not answer, which tells that the
+     * profile does not fit. Other failures, i.e. the location could not be reached, tell nothing.
+     */
+    static boolean isAgentFailure(Throwable t) {
+        for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+            if (cause instanceof RemoteExecutionException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    boolean isFilterExpressionValid(InetAddress inetAddress, String filterExpression) {
         // Consider profiles without filter expression or an empty one as matching.
         if (Strings.isNullOrEmpty(filterExpression)) {
             return true;
-        } else {
-            try {
-                return filterDao.isValid(inetAddress.getHostAddress(), filterExpression);
-            } catch (FilterParseException e) {
-                LOG.warn("Filter expression '{}' is invalid. ", filterExpression, e);
-            }
         }
-        return false;
+        return filterCache.isValid(filterDao, inetAddress, filterExpression);
+    }
+
+    public LocationAwareSnmpClient getLocationAwareSnmpClient() {
+        return locationAwareSnmpClient;
     }
 
     public void setLocationAwareSnmpClient(LocationAwareSnmpClient locationAwareSnmpClient) {
@@ -181,6 +243,52 @@ public class SnmpProfileMapperImpl implements SnmpProfileMapper {
         this.agentConfigFactory = agentConfigFactory;
     }
 
+    /**
+     * Cache of the previous fits, to be invalidated when the SNMP configuration changes.
+     */
+    public SnmpProfileFitCache getFitCache() {
+        return fitCache;
+    }
+
+    public void setFitCache(SnmpProfileFitCache fitCache) {
+        this.fitCache = Objects.requireNonNull(fitCache);
+    }
+
+    /**
+     * Cache of the filter expression evaluations, which picks up node changes once its entries expire.
+     */
+    public SnmpProfileFilterCache getFilterCache() {
+        return filterCache;
+    }
+
+    public void setFilterCache(SnmpProfileFilterCache filterCache) {
+        this.filterCache = Objects.requireNonNull(filterCache);
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public int getBulkBatchSize() {
+        return bulkBatchSize;
+    }
+
+    public void setBulkBatchSize(int bulkBatchSize) {
+        this.bulkBatchSize = bulkBatchSize;
+    }
+
+    public int getBulkMaxBatches() {
+        return bulkMaxBatches;
+    }
+
+    public void setBulkMaxBatches(int bulkMaxBatches) {
+        this.bulkMaxBatches = bulkMaxBatches;
+    }
+
     public FilterDao getFilterDao() {
         return filterDao;
     }
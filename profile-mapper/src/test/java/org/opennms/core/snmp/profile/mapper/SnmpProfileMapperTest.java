@@ -22,23 +22,53 @@
 package org.opennms.core.snmp.profile.mapper;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 import java.io.File;
+import java.net.InetAddress;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Test;
+import org.opennms.core.rpc.api.RemoteExecutionException;
+import org.opennms.core.snmp.profile.mapper.impl.SnmpProfileFilterCache;
+import org.opennms.core.snmp.profile.mapper.impl.SnmpProfileFitCache;
+import org.opennms.core.snmp.profile.mapper.impl.SnmpProfileMapperImpl;
 import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.netmgt.config.SnmpPeerFactory;
+import org.opennms.netmgt.config.api.SnmpAgentConfigFactory;
 import org.opennms.netmgt.config.snmp.Definition;
 import org.opennms.netmgt.config.snmp.SnmpProfile;
+import org.opennms.netmgt.filter.api.FilterDao;
 import org.opennms.netmgt.snmp.SnmpAgentConfig;
+import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.SnmpProfileFitListener;
+import org.opennms.netmgt.snmp.SnmpValue;
+import org.opennms.netmgt.snmp.proxy.LocationAwareSnmpClient;
+import org.opennms.netmgt.snmp.proxy.SNMPBatchRequestBuilder;
+import org.opennms.netmgt.snmp.proxy.SNMPRequestBuilder;
 
 public class SnmpProfileMapperTest {
 
+    // probes sent by the mocked profile mappers, they stay pending until the test completes them
+    private final List<CompletableFuture<SnmpValue>> probes = new ArrayList<>();
+
+    private final List<RecordingBatch> batches = new ArrayList<>();
+
     // This tests SnmpPeerFactory w.r.to profiles.
     @Test
     public void testSnmpPeerFactoryWithProfiles() {
@@ -85,4 +115,328 @@ public class SnmpProfileMapperTest {
 
     }
 
+    @Test
+    public void testFitsAreCachedAndShared() throws Exception {
+        final SnmpProfileMapperImpl profileMapper = mockedProfileMapper("profile1");
+        final InetAddress address = InetAddressUtils.addr("192.0.2.1");
+        final InetAddress unreachable = InetAddressUtils.addr("192.0.2.2");
+
+        // concurrent fits of the same address share the probe
+        final CompletableFuture<Optional<SnmpAgentConfig>> first = profileMapper.getAgentConfigFromProfiles(address, "Default");
+        final CompletableFuture<Optional<SnmpAgentConfig>> second = profileMapper.getAgentConfigFromProfiles(address, "Default");
+        assertEquals(1, probes.size());
+        probes.get(0).complete(mock(SnmpValue.class));
+        assertTrue(first.get().isPresent());
+        assertNotSame(first.get().get(), second.get().get());
+
+        // fitted again from the cache, but not from another location
+        assertTrue(profileMapper.getAgentConfigFromProfiles(address, "Default").get().isPresent());
+        assertEquals(1, probes.size());
+        profileMapper.getAgentConfigFromProfiles(address, "Remote");
+        assertEquals(2, probes.size());
+
+        // agents that do not answer are remembered too
+        final CompletableFuture<Optional<SnmpAgentConfig>> failed = profileMapper.getAgentConfigFromProfiles(unreachable, "Default");
+        probes.get(2).completeExceptionally(new RemoteExecutionException("timeout"));
+        assertFalse(failed.get().isPresent());
+        assertFalse(profileMapper.getAgentConfigFromProfiles(unreachable, "Default").get().isPresent());
+        assertEquals(3, probes.size());
+
+        final SnmpProfileFitCache.Stats stats = profileMapper.getFitCache().getStats();
+        assertEquals(2, stats.getHits());
+        assertEquals(1, stats.getSharedProbes());
+        assertEquals(3, stats.getMisses());
+
+        // invalidating forces a new probe
+        profileMapper.getFitCache().invalidateAll();
+        profileMapper.getAgentConfigFromProfiles(address, "Default");
+        assertEquals(4, probes.size());
+    }
+
+    @Test
+    public void testUnreachableLocationsAreNotCached() throws Exception {
+        final SnmpProfileMapperImpl profileMapper = mockedProfileMapper("profile1", "profile2");
+        final InetAddress address = InetAddressUtils.addr("192.0.2.7");
+
+        // the location cannot be reached for the first profile and the second one does not fit
+        final CompletableFuture<Optional<SnmpAgentConfig>> future = profileMapper.getAgentConfigFromProfiles(address, "Default");
+        assertEquals(2, probes.size());
+        probes.get(0).completeExceptionally(new Exception("location unreachable"));
+        probes.get(1).completeExceptionally(new RemoteExecutionException("timeout"));
+        assertTrue(future.isCompletedExceptionally());
+
+        // so the address is probed again
+        profileMapper.getAgentConfigFromProfiles(address, "Default");
+        assertEquals(4, probes.size());
+        assertEquals(0, profileMapper.getFitCache().size());
+    }
+
+    @Test
+    public void testProfilesAreProbedByPriority() throws Exception {
+        final SnmpProfileMapperImpl profileMapper = mockedProfileMapper("profile1", "profile2", "profile3", "profile4");
+        profileMapper.setParallelism(2);
+
+        final CompletableFuture<Optional<SnmpAgentConfig>> future = profileMapper.getAgentConfigFromProfiles(InetAddressUtils.addr("192.0.2.3"), "Default");
+        assertEquals(2, probes.size());
+
+        // a failure lets the next profile be probed
+        probes.get(0).completeExceptionally(new RemoteExecutionException("timeout"));
+        assertEquals(3, probes.size());
+
+        // the third one fits, but the second one has the priority
+        probes.get(2).complete(mock(SnmpValue.class));
+        assertFalse(future.isDone());
+        assertEquals(3, probes.size());
+
+        // as soon as it fails the third one wins, the fourth is never probed
+        probes.get(1).completeExceptionally(new RemoteExecutionException("timeout"));
+        assertTrue(future.isDone());
+        assertEquals("profile3", future.get().get().getProfileLabel());
+        assertEquals(3, probes.size());
+    }
+
+    @Test
+    public void testRemainingProbesAreCancelled() throws Exception {
+        final SnmpProfileMapperImpl profileMapper = mockedProfileMapper("profile1", "profile2", "profile3");
+
+        final CompletableFuture<Optional<SnmpAgentConfig>> future = profileMapper.getAgentConfigFromProfiles(InetAddressUtils.addr("192.0.2.4"), "Default");
+        assertEquals(3, probes.size());
+
+        // the first profile fits, there is no need to wait for the others
+        probes.get(0).complete(mock(SnmpValue.class));
+        assertEquals("profile1", future.get().get().getProfileLabel());
+        assertTrue(probes.get(1).isCancelled());
+        assertTrue(probes.get(2).isCancelled());
+    }
+
+    @Test
+    public void testFilterExpressionsAreMemoized() {
+        final FilterDao filterDao = mock(FilterDao.class);
+        when(filterDao.isValid("192.0.2.5", "IPADDR IPLIKE 192.0.2.*")).thenReturn(true);
+        when(filterDao.getIPAddressList("IPADDR IPLIKE 192.0.2.*")).thenReturn(Arrays.asList(
+                InetAddressUtils.addr("192.0.2.5"), InetAddressUtils.addr("192.0.2.6")));
+
+        final SnmpProfileFilterCache memoizing = new SnmpProfileFilterCache(100, 60000, false);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(memoizing.isValid(filterDao, InetAddressUtils.addr("192.0.2.5"), "IPADDR IPLIKE 192.0.2.*"));
+            assertFalse(memoizing.isValid(filterDao, InetAddressUtils.addr("192.0.2.7"), "IPADDR IPLIKE 192.0.2.*"));
+        }
+        verify(filterDao, times(1)).isValid("192.0.2.5", "IPADDR IPLIKE 192.0.2.*");
+        assertEquals(2, memoizing.getEvaluations());
+        memoizing.invalidateAll();
+        memoizing.isValid(filterDao, InetAddressUtils.addr("192.0.2.5"), "IPADDR IPLIKE 192.0.2.*");
+        assertEquals(3, memoizing.getEvaluations());
+
+        // the filter is resolved once for all the addresses
+        final SnmpProfileFilterCache resolving = new SnmpProfileFilterCache(100, 60000, true);
+        assertTrue(resolving.isValid(filterDao, InetAddressUtils.addr("192.0.2.5"), "IPADDR IPLIKE 192.0.2.*"));
+        assertTrue(resolving.isValid(filterDao, InetAddressUtils.addr("192.0.2.6"), "IPADDR IPLIKE 192.0.2.*"));
+        assertFalse(resolving.isValid(filterDao, InetAddressUtils.addr("192.0.2.7"), "IPADDR IPLIKE 192.0.2.*"));
+        assertEquals(1, resolving.getEvaluations());
+    }
+
+    @Test
+    public void testAddressesAreFittedInBatches() throws Exception {
+        final SnmpProfileMapperImpl profileMapper = mockedProfileMapper("profile1", "profile2");
+        profileMapper.setBulkBatchSize(2);
+        profileMapper.setBulkMaxBatches(1);
+
+        final List<String> fits = new ArrayList<>();
+        final List<Long> progress = new ArrayList<>();
+        final List<InetAddress> addresses = Arrays.asList(InetAddressUtils.addr("192.0.2.10"),
+                InetAddressUtils.addr("192.0.2.11"), InetAddressUtils.addr("192.0.2.12"));
+        final CompletableFuture<Void> sweep = profileMapper.fitProfiles(addresses, "Default", null, new SnmpProfileFitListener() {
+            @Override
+            public void fitted(InetAddress address, Optional<SnmpAgentConfig> agentConfig) {
+                fits.add(InetAddressUtils.str(address) + "=" + agentConfig.map(SnmpAgentConfig::getProfileLabel).orElse(null));
+            }
+
+            @Override
+            public void progress(long fitted, long total) {
+                assertEquals(3, total);
+                progress.add(fitted);
+            }
+        });
+
+        // the first two addresses are probed with the first profile in a single batch
+        assertEquals(1, batches.size());
+        assertEquals(2, batches.get(0).requests.size());
+        batches.get(0).complete(true, false);
+        assertEquals(Arrays.asList("192.0.2.10=profile1"), fits);
+
+        // the one that did not fit is probed with the second profile
+        assertEquals(2, batches.size());
+        assertEquals(1, batches.get(1).requests.size());
+        batches.get(1).complete(false);
+        assertEquals(Arrays.asList("192.0.2.10=profile1", "192.0.2.11=null"), fits);
+
+        // then the next chunk
+        assertEquals(3, batches.size());
+        batches.get(2).complete(true);
+        assertTrue(sweep.isDone());
+        assertEquals(Arrays.asList("192.0.2.10=profile1", "192.0.2.11=null", "192.0.2.12=profile1"), fits);
+        assertEquals(Arrays.asList(1L, 2L, 3L), progress);
+
+        // the fits were cached
+        final int probed = probes.size();
+        assertEquals("profile1", profileMapper.getAgentConfigFromProfiles(InetAddressUtils.addr("192.0.2.12"), "Default").get().get().getProfileLabel());
+        assertEquals(probed, probes.size());
+    }
+
+    @Test
+    public void testFailedBatchesAreNotCached() throws Exception {
+        final SnmpProfileMapperImpl profileMapper = mockedProfileMapper("profile1", "profile2");
+        final List<String> fits = new ArrayList<>();
+        final CompletableFuture<Void> sweep = profileMapper.fitProfiles(Arrays.asList(InetAddressUtils.addr("192.0.2.20"),
+                InetAddressUtils.addr("192.0.2.21")), "Default", null, new SnmpProfileFitListener() {
+            @Override
+            public void fitted(InetAddress address, Optional<SnmpAgentConfig> agentConfig) {
+                fits.add(InetAddressUtils.str(address) + "=" + agentConfig.map(SnmpAgentConfig::getProfileLabel).orElse(null));
+            }
+
+            @Override
+            public void failed(InetAddress address, Throwable cause) {
+                fits.add(InetAddressUtils.str(address) + "=failed");
+            }
+
+            @Override
+            public void progress(long fitted, long total) {
+            }
+        });
+
+        // the RPC fails, the other profile is still tried
+        assertEquals(1, batches.size());
+        batches.get(0).fail(new Exception("location unreachable"));
+        assertFalse(sweep.isDone());
+        assertEquals(2, batches.size());
+        batches.get(1).complete(true, false);
+        assertTrue(sweep.isDone());
+        assertEquals(Arrays.asList("192.0.2.20=profile2", "192.0.2.21=failed"), fits);
+
+        // the address that failed is probed again next time
+        assertTrue(probes.isEmpty());
+        profileMapper.getAgentConfigFromProfiles(InetAddressUtils.addr("192.0.2.21"), "Default");
+        assertFalse(probes.isEmpty());
+    }
+
+    @Test
+    public void testCancellingTheSweepCancelsTheBatches() throws Exception {
+        final SnmpProfileMapperImpl profileMapper = mockedProfileMapper("profile1", "profile2");
+        final CompletableFuture<Void> sweep = profileMapper.fitProfiles(Arrays.asList(InetAddressUtils.addr("192.0.2.30"),
+                InetAddressUtils.addr("192.0.2.31")), "Default", null, (address, agentConfig) -> {});
+
+        assertEquals(1, batches.size());
+        sweep.cancel(false);
+        assertTrue(batches.get(0).future.isCancelled());
+        assertEquals(1, batches.size());
+    }
+
+    private SnmpProfileMapperImpl mockedProfileMapper(String... labels) {
+        final List<SnmpProfile> profiles = new ArrayList<>();
+        for (final String label : labels) {
+            final SnmpProfile profile = new SnmpProfile();
+            profile.setLabel(label);
+            profiles.add(profile);
+        }
+        final SnmpAgentConfigFactory agentConfigFactory = mock(SnmpAgentConfigFactory.class);
+        when(agentConfigFactory.getProfiles()).thenReturn(profiles);
+        when(agentConfigFactory.getAgentConfigFromProfile(any(SnmpProfile.class), any(InetAddress.class)))
+                .thenAnswer(invocation -> agentConfig(invocation.getArgument(0), invocation.getArgument(1)));
+        when(agentConfigFactory.getAgentConfigFromProfile(any(SnmpProfile.class), any(InetAddress.class), anyBoolean()))
+                .thenAnswer(invocation -> agentConfig(invocation.getArgument(0), invocation.getArgument(1)));
+
+        final LocationAwareSnmpClient client = mock(LocationAwareSnmpClient.class);
+        when(client.get(any(SnmpAgentConfig.class), any(SnmpObjId.class))).thenAnswer(invocation -> {
+            @SuppressWarnings("unchecked")
+            final SNMPRequestBuilder<SnmpValue> builder = mock(SNMPRequestBuilder.class);
+            when(builder.withLocation(any())).thenReturn(builder);
+            when(builder.withDescription(any())).thenReturn(builder);
+            when(builder.withPriority(any())).thenReturn(builder);
+            final CompletableFuture<SnmpValue> probe = new CompletableFuture<>();
+            probes.add(probe);
+            when(builder.execute()).thenReturn(probe);
+            return builder;
+        });
+
+        when(client.batch(any())).thenAnswer(invocation -> {
+            final RecordingBatch batch = new RecordingBatch();
+            batches.add(batch);
+            return batch;
+        });
+
+        return new SnmpProfileMapperImpl(mock(FilterDao.class), agentConfigFactory, client);
+    }
+
+    /**
+     * Keeps the requests pending until the test completes the batch.
+     */
+    private static class RecordingBatch implements SNMPBatchRequestBuilder {
+        private final List<CompletableFuture<SnmpValue>> requests = new ArrayList<>();
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        @Override
+        public SNMPBatchRequestBuilder withSystemId(String systemId) {
+            return this;
+        }
+
+        @Override
+        public SNMPBatchRequestBuilder withDescription(String description) {
+            return this;
+        }
+
+        @Override
+        public SNMPBatchRequestBuilder withTimeToLive(Long ttlInMs) {
+            return this;
+        }
+
+        @Override
+        public SNMPBatchRequestBuilder withTimeToLive(long duration, TimeUnit unit) {
+            return this;
+        }
+
+        @Override
+        public SNMPBatchRequestBuilder withMaxConcurrency(int maxConcurrency) {
+            return this;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> CompletableFuture<T> add(SNMPRequestBuilder<T> request) {
+            final CompletableFuture<SnmpValue> response = new CompletableFuture<>();
+            requests.add(response);
+            return (CompletableFuture<T>) response;
+        }
+
+        @Override
+        public int size() {
+            return requests.size();
+        }
+
+        @Override
+        public CompletableFuture<Void> execute() {
+            return future;
+        }
+
+        private void complete(boolean... fits) {
+            for (int i = 0; i < fits.length; i++) {
+                if (fits[i]) {
+                    requests.get(i).complete(mock(SnmpValue.class));
+                } else {
+                    requests.get(i).completeExceptionally(new RemoteExecutionException("timeout"));
+                }
+            }
+            future.complete(null);
+        }
+
+        private void fail(Exception e) {
+            requests.forEach(request -> request.completeExceptionally(e));
+            future.completeExceptionally(e);
+        }
+    }
+
+    private static SnmpAgentConfig agentConfig(SnmpProfile profile, InetAddress address) {
+        final SnmpAgentConfig agentConfig = new SnmpAgentConfig(address);
+        agentConfig.setProfileLabel(profile.getLabel());
+        return agentConfig;
+    }
 }
@@ -29,6 +29,7 @@ import java.util.concurrent.TimeUnit;
 import org.opennms.core.rpc.api.RpcRequest;
 import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.netmgt.snmp.SnmpAgentConfig;
+import org.opennms.netmgt.snmp.SnmpRequestPriority;
 import org.opennms.netmgt.snmp.proxy.SNMPRequestBuilder;
 
 public abstract class AbstractSNMPRequestBuilder<T> implements SNMPRequestBuilder<T> {
@@ -42,6 +43,8 @@ public abstract class AbstractSNMPRequestBuilder<T> implements SNMPRequestBuilde
     private String systemId;
     private String description;
     private Long timeToLiveInMilliseconds = null;
+    private Long maxAgeInMilliseconds = null;
+    private SnmpRequestPriority priority = null;
 
     public AbstractSNMPRequestBuilder(LocationAwareSnmpClientRpcImpl client,
             SnmpAgentConfig agent, List<SnmpGetRequestDTO> gets, List<SnmpWalkRequestDTO> walks, List<SnmpSetRequestDTO> sets) {
@@ -82,13 +85,46 @@ public abstract class AbstractSNMPRequestBuilder<T> implements SNMPRequestBuilde
         return this;
     }
 
+    @Override
+    public SNMPRequestBuilder<T> withCachedResponses(long maxAge, TimeUnit unit) {
+        maxAgeInMilliseconds = unit.toMillis(maxAge);
+        return this;
+    }
+
+    @Override
+    public SNMPRequestBuilder<T> withPriority(SnmpRequestPriority priority) {
+        this.priority = priority;
+        return this;
+    }
+
     @Override
     public CompletableFuture<T> execute() {
+        final CompletableFuture<SnmpMultiResponseDTO> response = client.execute(buildRequest());
+        // Different types of requests can process the responses differently
+        final CompletableFuture<T> future = response.thenApply(this::processResponse);
+        // Cancelling the request cancels the RPC, which stops the walks and PDUs when executed locally
+        future.whenComplete((result, t) -> {
+            if (future.isCancelled()) {
+                response.cancel(true);
+            }
+        });
+        return future;
+    }
+
+    protected SnmpRequestDTO buildRequest() {
+        return buildRequest(gets, walks, sets);
+    }
+
+    protected SnmpRequestDTO buildRequest(List<SnmpGetRequestDTO> gets, List<SnmpWalkRequestDTO> walks, List<SnmpSetRequestDTO> sets) {
         final SnmpRequestDTO snmpRequestDTO = new SnmpRequestDTO();
         snmpRequestDTO.setLocation(location);
         snmpRequestDTO.setSystemId(systemId);
         snmpRequestDTO.setAgent(agent);
         snmpRequestDTO.setDescription(description);
+        snmpRequestDTO.setPriority(priority);
+        if (maxAgeInMilliseconds != null) {
+            gets.forEach(get -> get.setMaxAge(maxAgeInMilliseconds));
+        }
         snmpRequestDTO.setGetRequests(gets);
         snmpRequestDTO.setWalkRequests(walks);
         snmpRequestDTO.setSetRequests(sets);
@@ -101,9 +137,11 @@ public abstract class AbstractSNMPRequestBuilder<T> implements SNMPRequestBuilde
         if (description != null) {
             snmpRequestDTO.addTracingInfo(RpcRequest.TAG_DESCRIPTION, description);
         }
-        return client.execute(snmpRequestDTO)
-            // Different types of requests can process the responses differently
-            .thenApply(this::processResponse);
+        return snmpRequestDTO;
+    }
+
+    protected LocationAwareSnmpClientRpcImpl getClient() {
+        return client;
     }
 
     protected abstract T processResponse(SnmpMultiResponseDTO response);
@@ -36,7 +36,9 @@ import org.opennms.netmgt.snmp.SnmpObjId;
 import org.opennms.netmgt.snmp.SnmpResult;
 import org.opennms.netmgt.snmp.SnmpValue;
 import org.opennms.netmgt.snmp.proxy.LocationAwareSnmpClient;
+import org.opennms.netmgt.snmp.proxy.SNMPBatchRequestBuilder;
 import org.opennms.netmgt.snmp.proxy.SNMPRequestBuilder;
+import org.opennms.netmgt.snmp.proxy.SNMPStreamingWalkRequestBuilder;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 
@@ -88,6 +90,16 @@ public class LocationAwareSnmpClientRpcImpl implements LocationAwareSnmpClient,
         return new SNMPWalkWithTrackerBuilder(this, agent, tracker);
     }
 
+    @Override
+    public SNMPStreamingWalkRequestBuilder walkStreaming(SnmpAgentConfig agent, List<SnmpObjId> oids) {
+        return new SNMPStreamingWalkBuilder(this, agent, oids);
+    }
+
+    @Override
+    public SNMPBatchRequestBuilder batch(String location) {
+        return new SNMPBatchBuilder(this, location);
+    }
+
     @Override
     public SNMPRequestBuilder<SnmpValue> get(SnmpAgentConfig agent, String oid) {
         return get(agent, SnmpObjId.get(oid));
@@ -0,0 +1,176 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.snmp.proxy.common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.core.rpc.api.RemoteExecutionException;
+import org.opennms.core.rpc.api.RpcRequest;
+import org.opennms.netmgt.snmp.proxy.SNMPBatchRequestBuilder;
+import org.opennms.netmgt.snmp.proxy.SNMPRequestBuilder;
+
+/**
+ * Carries the requests of many agents in the {@link SnmpRequestDTO#getRequests()} of
+ * a single request, and dispatches the {@link SnmpMultiResponseDTO#getAgentResponses()}
+ * back to the builders that created them.
+ */
+public class SNMPBatchBuilder implements SNMPBatchRequestBuilder {
+
+    private final LocationAwareSnmpClientRpcImpl client;
+    private final String location;
+    private final List<Item<?>> items = new ArrayList<>();
+    private String systemId;
+    private String description;
+    private Long timeToLiveInMilliseconds = null;
+    private Integer maxConcurrency = null;
+
+    public SNMPBatchBuilder(LocationAwareSnmpClientRpcImpl client, String location) {
+        this.client = Objects.requireNonNull(client);
+        this.location = location;
+    }
+
+    @Override
+    public SNMPBatchRequestBuilder withSystemId(String systemId) {
+        this.systemId = systemId;
+        return this;
+    }
+
+    @Override
+    public SNMPBatchRequestBuilder withDescription(String description) {
+        this.description = description;
+        return this;
+    }
+
+    @Override
+    public SNMPBatchRequestBuilder withTimeToLive(Long ttlInMs) {
+        timeToLiveInMilliseconds = ttlInMs;
+        return this;
+    }
+
+    @Override
+    public SNMPBatchRequestBuilder withTimeToLive(long duration, TimeUnit unit) {
+        timeToLiveInMilliseconds = unit.toMillis(duration);
+        return this;
+    }
+
+    @Override
+    public SNMPBatchRequestBuilder withMaxConcurrency(int maxConcurrency) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("maxConcurrency must be positive, got " + maxConcurrency);
+        }
+        this.maxConcurrency = maxConcurrency;
+        return this;
+    }
+
+    @Override
+    public <T> CompletableFuture<T> add(SNMPRequestBuilder<T> request) {
+        if (!(request instanceof AbstractSNMPRequestBuilder) || request instanceof SNMPStreamingWalkBuilder) {
+            throw new IllegalArgumentException("Request cannot be part of a batch: " + request);
+        }
+        final Item<T> item = new Item<>((AbstractSNMPRequestBuilder<T>)request);
+        items.add(item);
+        return item.future;
+    }
+
+    @Override
+    public int size() {
+        return items.size();
+    }
+
+    @Override
+    public CompletableFuture<Void> execute() {
+        if (items.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        final SnmpRequestDTO snmpRequestDTO = new SnmpRequestDTO();
+        snmpRequestDTO.setLocation(location);
+        snmpRequestDTO.setSystemId(systemId);
+        snmpRequestDTO.setDescription(description);
+        snmpRequestDTO.setMaxConcurrency(maxConcurrency);
+        Long timeToLive = timeToLiveInMilliseconds;
+        for (final Item<?> item : items) {
+            final SnmpRequestDTO agentRequest = item.builder.buildRequest();
+            // Without a TTL for the batch, wait for as long as the most patient agent
+            if (timeToLiveInMilliseconds == null && agentRequest.getTimeToLive() != null) {
+                timeToLive = timeToLive == null ? agentRequest.getTimeToLive() : Math.max(timeToLive, agentRequest.getTimeToLive());
+            }
+            snmpRequestDTO.getRequests().add(agentRequest);
+        }
+        if (timeToLiveInMilliseconds == null && timeToLive != null) {
+            // ... for every window of agents the receiving end executes one after the other
+            final int window = maxConcurrency != null ? maxConcurrency : SnmpProxyRpcModule.DEFAULT_BATCH_MAX_CONCURRENCY;
+            timeToLive *= (items.size() + window - 1) / window;
+        }
+        snmpRequestDTO.setTimeToLive(timeToLive);
+        if (description != null) {
+            snmpRequestDTO.addTracingInfo(RpcRequest.TAG_DESCRIPTION, description);
+        }
+
+        final CompletableFuture<SnmpMultiResponseDTO> rpc = client.execute(snmpRequestDTO);
+        final CompletableFuture<Void> future = rpc.whenComplete((response, t) -> {
+            for (int i = 0; i < items.size(); i++) {
+                if (t != null) {
+                    items.get(i).future.completeExceptionally(t);
+                } else if (i < response.getAgentResponses().size()) {
+                    items.get(i).complete(response.getAgentResponses().get(i));
+                } else {
+                    // Systems that predate batches ignore the agent requests
+                    items.get(i).future.completeExceptionally(new IllegalStateException("No response for agent request #" + i
+                            + " in batch at location " + location + ", got " + response.getAgentResponses().size() + " responses."));
+                }
+            }
+        }).thenApply(response -> null);
+        // stop waiting for the RPC when the caller is no longer interested in the batch
+        future.whenComplete((v, t) -> {
+            if (future.isCancelled()) {
+                rpc.cancel(false);
+            }
+        });
+        return future;
+    }
+
+    private static class Item<T> {
+        private final AbstractSNMPRequestBuilder<T> builder;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+
+        private Item(AbstractSNMPRequestBuilder<T> builder) {
+            this.builder = builder;
+        }
+
+        private void complete(SnmpMultiResponseDTO response) {
+            if (response.getErrorMessage() != null) {
+                future.completeExceptionally(new RemoteExecutionException(response.getErrorMessage()));
+                return;
+            }
+            try {
+                future.complete(builder.processResponse(response));
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,351 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.snmp.proxy.common;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.opennms.netmgt.snmp.SnmpAgentConfig;
+import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.SnmpRequestPriority;
+import org.opennms.netmgt.snmp.SnmpResult;
+import org.opennms.netmgt.snmp.proxy.SNMPStreamingWalkRequestBuilder;
+import org.opennms.netmgt.snmp.proxy.WalkChunk;
+
+/**
+ * Retrieves a walk as a series of RPCs, each of them limited by max-results
+ * and resuming every column after the last OID received so far.
+ *
+ * Every RPC yields one {@link WalkChunk}, so neither the minion nor the
+ * core ever hold more than a chunk of the table at once.
+ */
+public class SNMPStreamingWalkBuilder extends AbstractSNMPRequestBuilder<Long> implements SNMPStreamingWalkRequestBuilder {
+
+    private final List<SnmpObjId> oids;
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private Consumer<WalkChunk> consumer = chunk -> {};
+
+    public SNMPStreamingWalkBuilder(LocationAwareSnmpClientRpcImpl client, SnmpAgentConfig agent, List<SnmpObjId> oids) {
+        super(client, agent, Collections.emptyList(), Collections.emptyList(), Collections.emptyList());
+        this.oids = Objects.requireNonNull(oids);
+    }
+
+    @Override
+    public SNMPStreamingWalkRequestBuilder withChunkSize(int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be positive.");
+        }
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
+    @Override
+    public SNMPStreamingWalkRequestBuilder withConsumer(Consumer<WalkChunk> consumer) {
+        this.consumer = Objects.requireNonNull(consumer);
+        return this;
+    }
+
+    @Override
+    public SNMPStreamingWalkRequestBuilder withLocation(String location) {
+        super.withLocation(location);
+        return this;
+    }
+
+    @Override
+    public SNMPStreamingWalkRequestBuilder withSystemId(String systemId) {
+        super.withSystemId(systemId);
+        return this;
+    }
+
+    @Override
+    public SNMPStreamingWalkRequestBuilder withDescription(String description) {
+        super.withDescription(description);
+        return this;
+    }
+
+    @Override
+    public SNMPStreamingWalkRequestBuilder withTimeToLive(Long ttlInMs) {
+        super.withTimeToLive(ttlInMs);
+        return this;
+    }
+
+    @Override
+    public SNMPStreamingWalkRequestBuilder withTimeToLive(long duration, TimeUnit unit) {
+        super.withTimeToLive(duration, unit);
+        return this;
+    }
+
+    @Override
+    public SNMPStreamingWalkRequestBuilder withPriority(SnmpRequestPriority priority) {
+        super.withPriority(priority);
+        return this;
+    }
+
+    @Override
+    public CompletableFuture<Long> execute() {
+        return walk(chunk -> {
+            consumer.accept(chunk);
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    @Override
+    public Flow.Publisher<WalkChunk> publisher() {
+        return subscriber -> {
+            final WalkChunkSubscription subscription = new WalkChunkSubscription(subscriber);
+            subscriber.onSubscribe(subscription);
+            subscription.start(walk(subscription::deliver));
+        };
+    }
+
+    /**
+     * Number of results in a single page.
+     */
+    @Override
+    protected Long processResponse(SnmpMultiResponseDTO response) {
+        return response.getResponses().stream()
+                .mapToLong(r -> r.getResults().size())
+                .sum();
+    }
+
+    /**
+     * Walks the columns page by page. The next page is only requested once the
+     * stage returned by the delivery of the previous chunk completes.
+     */
+    private CompletableFuture<Long> walk(Function<WalkChunk, CompletionStage<?>> delivery) {
+        final List<Column> columns = new ArrayList<>(oids.size());
+        for (final SnmpObjId oid : oids) {
+            columns.add(new Column(oid));
+        }
+        final CompletableFuture<Long> future = new CompletableFuture<>();
+        // Only the page in flight is referenced, the ones already delivered can be collected
+        final AtomicReference<CompletableFuture<SnmpMultiResponseDTO>> inFlight = new AtomicReference<>();
+        future.whenComplete((r, t) -> {
+            final CompletableFuture<SnmpMultiResponseDTO> page = inFlight.getAndSet(null);
+            if (page != null && future.isCancelled()) {
+                page.cancel(true);
+            }
+        });
+        nextPage(columns, delivery, 0, 0, future, inFlight);
+        return future;
+    }
+
+    private void nextPage(List<Column> columns, Function<WalkChunk, CompletionStage<?>> delivery, long sequenceNumber, long total,
+            CompletableFuture<Long> future, AtomicReference<CompletableFuture<SnmpMultiResponseDTO>> inFlight) {
+        if (future.isDone()) {
+            // cancelled
+            return;
+        }
+
+        final List<SnmpWalkRequestDTO> walks = new ArrayList<>(columns.size());
+        for (int i = 0; i < columns.size(); i++) {
+            if (!columns.get(i).complete) {
+                walks.add(columns.get(i).toWalkRequest(Integer.toString(i)));
+            }
+        }
+        if (walks.isEmpty()) {
+            delivery.apply(new WalkChunk(sequenceNumber, Collections.emptyList(), true))
+                .whenComplete((r, t) -> completeWalk(future, total, t));
+            return;
+        }
+        // Share the chunk between the remaining columns
+        final int maxResults = Math.max(1, chunkSize / walks.size());
+        walks.forEach(w -> w.setMaxResults(maxResults));
+
+        final CompletableFuture<SnmpMultiResponseDTO> page = getClient().execute(buildRequest(Collections.emptyList(), walks, Collections.emptyList()));
+        inFlight.set(page);
+        if (future.isCancelled()) {
+            // cancelled while the page was being sent
+            page.cancel(true);
+        }
+        page.whenComplete((response, ex) -> {
+            inFlight.compareAndSet(page, null);
+            if (ex != null) {
+                future.completeExceptionally(ex);
+                return;
+            }
+            final List<SnmpResult> results = new ArrayList<>();
+            for (final SnmpWalkRequestDTO walk : walks) {
+                final Column column = columns.get(Integer.parseInt(walk.getCorrelationId()));
+                // Peers unaware of max-results return the whole column, or no response at all if it is empty
+                column.complete = true;
+                for (final SnmpResponseDTO responseDTO : response.getResponses()) {
+                    if (walk.getCorrelationId().equals(responseDTO.getCorrelationId())) {
+                        column.update(responseDTO);
+                        results.addAll(responseDTO.getResults());
+                    }
+                }
+            }
+            final boolean last = columns.stream().allMatch(c -> c.complete);
+            final long newTotal = total + results.size();
+            final long pdusSent = response.getPdusSent() != null ? response.getPdusSent() : 0;
+            delivery.apply(new WalkChunk(sequenceNumber, results, last, pdusSent)).whenComplete((r, t) -> {
+                if (t != null || last) {
+                    completeWalk(future, newTotal, t);
+                } else {
+                    nextPage(columns, delivery, sequenceNumber + 1, newTotal, future, inFlight);
+                }
+            });
+        });
+    }
+
+    private static void completeWalk(CompletableFuture<Long> future, long total, Throwable t) {
+        if (t != null) {
+            future.completeExceptionally(t);
+        } else {
+            future.complete(total);
+        }
+    }
+
+    private static class Column {
+        private final SnmpObjId base;
+        private SnmpObjId resumeAfter;
+        private boolean complete = false;
+
+        private Column(SnmpObjId base) {
+            this.base = base;
+        }
+
+        private SnmpWalkRequestDTO toWalkRequest(String correlationId) {
+            final SnmpWalkRequestDTO walk = new SnmpWalkRequestDTO();
+            walk.setCorrelationId(correlationId);
+            walk.setOids(Collections.singletonList(base));
+            walk.setResumeAfter(resumeAfter);
+            return walk;
+        }
+
+        private void update(SnmpResponseDTO response) {
+            final List<SnmpResult> results = response.getResults();
+            if (!results.isEmpty()) {
+                resumeAfter = results.get(results.size() - 1).getAbsoluteInstance();
+            }
+            complete = !Boolean.FALSE.equals(response.getComplete());
+        }
+    }
+
+    /**
+     * Hands the chunks over to a {@link Flow.Subscriber}, holding back the
+     * next page until the subscriber requested more.
+     */
+    private static class WalkChunkSubscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super WalkChunk> subscriber;
+        private CompletableFuture<Long> walk;
+        private long demand = 0;
+        private boolean cancelled = false;
+        private WalkChunk pending;
+        private CompletableFuture<Void> pendingDelivery;
+
+        private WalkChunkSubscription(Flow.Subscriber<? super WalkChunk> subscriber) {
+            this.subscriber = Objects.requireNonNull(subscriber);
+        }
+
+        private void start(CompletableFuture<Long> walk) {
+            synchronized (this) {
+                this.walk = walk;
+                if (cancelled) {
+                    walk.cancel(false);
+                }
+            }
+            walk.whenComplete((total, t) -> {
+                if (isCancelled()) {
+                    return;
+                }
+                if (t != null) {
+                    subscriber.onError(t);
+                } else {
+                    subscriber.onComplete();
+                }
+            });
+        }
+
+        private CompletionStage<Void> deliver(WalkChunk chunk) {
+            final CompletableFuture<Void> delivery = new CompletableFuture<>();
+            synchronized (this) {
+                pending = chunk;
+                pendingDelivery = delivery;
+            }
+            drain();
+            return delivery;
+        }
+
+        private void drain() {
+            final WalkChunk chunk;
+            final CompletableFuture<Void> delivery;
+            synchronized (this) {
+                if (pending == null || (demand == 0 && !cancelled)) {
+                    return;
+                }
+                chunk = pending;
+                delivery = pendingDelivery;
+                pending = null;
+                pendingDelivery = null;
+                if (!cancelled) {
+                    demand--;
+                }
+            }
+            if (!isCancelled()) {
+                subscriber.onNext(chunk);
+            }
+            delivery.complete(null);
+        }
+
+        private synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                cancel();
+                subscriber.onError(new IllegalArgumentException("Requested " + n + " chunks, must be positive."));
+                return;
+            }
+            synchronized (this) {
+                demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            final CompletableFuture<Long> walk;
+            synchronized (this) {
+                cancelled = true;
+                walk = this.walk;
+            }
+            if (walk != null) {
+                walk.cancel(false);
+            }
+            // release the walk if it is waiting on us
+            drain();
+        }
+    }
+}
@@ -0,0 +1,510 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.snmp.proxy.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.opennms.netmgt.snmp.SnmpAgentConfig;
+import org.opennms.netmgt.snmp.SnmpInstId;
+import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.SnmpRequestPriority;
+import org.opennms.netmgt.snmp.SnmpResult;
+import org.opennms.netmgt.snmp.SnmpUtils;
+import org.opennms.netmgt.snmp.SnmpValue;
+import org.opennms.netmgt.snmp.SnmpValueFactory;
+
+/**
+ * Compact binary encoding of the SNMP RPC DTOs.
+ *
+ * The payload is a sequence of length-prefixed fields using unsigned varints.
+ * OIDs are written relative to the previous OID of the same kind: only the length of
+ * the shared prefix and the remaining sub-identifiers are sent, so the repeated bases
+ * and the increasing instances of a walk cost a few bytes each. Values carry their
+ * SMI type and raw bytes, like {@link org.opennms.netmgt.snmp.SnmpValueXmlAdapter}.
+ *
+ * Since RPC payloads are strings, the bytes are base64 encoded behind {@link #PREFIX}.
+ * XML documents can never start with that prefix, which lets readers detect the
+ * encoding of a payload and keep accepting XML from peers that do not use this codec.
+ */
+public final class SnmpBinaryCodec {
+
+    public static final String PREFIX = "SNMPB1:";
+
+    private SnmpBinaryCodec() {}
+
+    public static boolean isBinary(final String payload) {
+        return payload != null && payload.startsWith(PREFIX);
+    }
+
+    public static String marshalRequest(final SnmpRequestDTO request) {
+        return toPayload(encodeRequest(request));
+    }
+
+    public static SnmpRequestDTO unmarshalRequest(final String payload) {
+        return decodeRequest(fromPayload(payload));
+    }
+
+    public static String marshalResponse(final SnmpMultiResponseDTO response) {
+        return toPayload(encodeResponse(response));
+    }
+
+    public static SnmpMultiResponseDTO unmarshalResponse(final String payload) {
+        return decodeResponse(fromPayload(payload));
+    }
+
+    private static String toPayload(final byte[] bytes) {
+        return PREFIX + Base64.getEncoder().encodeToString(bytes);
+    }
+
+    private static byte[] fromPayload(final String payload) {
+        if (!isBinary(payload)) {
+            throw new IllegalArgumentException("Payload is not binary encoded.");
+        }
+        return Base64.getDecoder().decode(payload.substring(PREFIX.length()));
+    }
+
+    public static byte[] encodeRequest(final SnmpRequestDTO request) {
+        try {
+            final Writer out = new Writer();
+            writeRequest(out, request);
+            return out.toByteArray();
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeRequest(final Writer out, final SnmpRequestDTO request) throws IOException {
+        out.writeString(request.getLocation());
+        out.writeString(request.getSystemId());
+        out.writeString(request.getDescription());
+        out.writeAgent(request.getAgent());
+
+        out.writeVarInt(request.getGetRequests().size());
+        for (final SnmpGetRequestDTO get : request.getGetRequests()) {
+            out.writeString(get.getCorrelationId());
+            out.writeOids(get.getOids());
+            out.writeLong(get.getMaxAge());
+        }
+
+        out.writeVarInt(request.getWalkRequest().size());
+        for (final SnmpWalkRequestDTO walk : request.getWalkRequest()) {
+            out.writeString(walk.getCorrelationId());
+            out.writeOids(walk.getOids());
+            out.writeInteger(walk.getMaxRepetitions());
+            out.writeOid(walk.getInstance(), out.m_instances);
+            out.writeInteger(walk.getMaxResults());
+            out.writeOid(walk.getResumeAfter(), out.m_oids);
+        }
+
+        out.writeVarInt(request.getSetRequest().size());
+        for (final SnmpSetRequestDTO set : request.getSetRequest()) {
+            out.writeString(set.getCorrelationId());
+            out.writeOids(set.getOids());
+            out.writeVarInt(set.getValues().size());
+            for (final SnmpValue value : set.getValues()) {
+                out.writeValue(value);
+            }
+        }
+
+        out.writeInteger(request.getMaxConcurrency());
+        out.writeLong(request.getTimeToLive());
+        out.writeString(request.getPriority() == null ? null : request.getPriority().name());
+        out.writeVarInt(request.getRequests().size());
+        for (final SnmpRequestDTO agentRequest : request.getRequests()) {
+            writeRequest(out, agentRequest);
+        }
+    }
+
+    public static SnmpRequestDTO decodeRequest(final byte[] bytes) {
+        try {
+            return readRequest(new Reader(bytes));
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static SnmpRequestDTO readRequest(final Reader in) throws IOException {
+        final SnmpRequestDTO request = new SnmpRequestDTO();
+        request.setLocation(in.readString());
+        request.setSystemId(in.readString());
+        request.setDescription(in.readString());
+        request.setAgent(in.readAgent());
+
+        final int numGets = in.readVarInt();
+        final List<SnmpGetRequestDTO> gets = new ArrayList<>(numGets);
+        for (int i = 0; i < numGets; i++) {
+            final SnmpGetRequestDTO get = new SnmpGetRequestDTO();
+            get.setCorrelationId(in.readString());
+            get.setOids(in.readOids());
+            get.setMaxAge(in.readLong());
+            gets.add(get);
+        }
+        request.setGetRequests(gets);
+
+        final int numWalks = in.readVarInt();
+        final List<SnmpWalkRequestDTO> walks = new ArrayList<>(numWalks);
+        for (int i = 0; i < numWalks; i++) {
+            final SnmpWalkRequestDTO walk = new SnmpWalkRequestDTO();
+            walk.setCorrelationId(in.readString());
+            walk.setOids(in.readOids());
+            walk.setMaxRepetitions(in.readInteger());
+            walk.setInstance(in.readOid(in.m_instances));
+            walk.setMaxResults(in.readInteger());
+            walk.setResumeAfter(in.readOid(in.m_oids));
+            walks.add(walk);
+        }
+        request.setWalkRequests(walks);
+
+        final int numSets = in.readVarInt();
+        final List<SnmpSetRequestDTO> sets = new ArrayList<>(numSets);
+        for (int i = 0; i < numSets; i++) {
+            final SnmpSetRequestDTO set = new SnmpSetRequestDTO();
+            set.setCorrelationId(in.readString());
+            set.setOids(in.readOids());
+            final int numValues = in.readVarInt();
+            final List<SnmpValue> values = new ArrayList<>(numValues);
+            for (int j = 0; j < numValues; j++) {
+                values.add(in.readValue());
+            }
+            set.setValues(values);
+            sets.add(set);
+        }
+        request.setSetRequests(sets);
+
+        request.setMaxConcurrency(in.readInteger());
+        request.setTimeToLive(in.readLong());
+        final String priority = in.readString();
+        request.setPriority(priority == null ? null : SnmpRequestPriority.valueOf(priority));
+        final int numRequests = in.readVarInt();
+        final List<SnmpRequestDTO> requests = new ArrayList<>(numRequests);
+        for (int i = 0; i < numRequests; i++) {
+            requests.add(readRequest(in));
+        }
+        request.setRequests(requests);
+        return request;
+    }
+
+    public static byte[] encodeResponse(final SnmpMultiResponseDTO response) {
+        try {
+            final Writer out = new Writer();
+            writeResponse(out, response);
+            return out.toByteArray();
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeResponse(final Writer out, final SnmpMultiResponseDTO response) throws IOException {
+        out.writeString(response.getErrorMessage());
+        out.writeLong(response.getPdusSent());
+        out.writeVarInt(response.getResponses().size());
+        for (final SnmpResponseDTO dto : response.getResponses()) {
+            out.writeString(dto.getCorrelationId());
+            out.writeBoolean(dto.getComplete());
+            out.writeVarInt(dto.getResults().size());
+            for (final SnmpResult result : dto.getResults()) {
+                out.writeOid(result.getBase(), out.m_bases);
+                out.writeOid(result.getInstance(), out.m_instances);
+                out.writeValue(result.getValue());
+            }
+        }
+
+        out.writeVarInt(response.getAgentResponses().size());
+        for (final SnmpMultiResponseDTO agentResponse : response.getAgentResponses()) {
+            writeResponse(out, agentResponse);
+        }
+    }
+
+    public static SnmpMultiResponseDTO decodeResponse(final byte[] bytes) {
+        try {
+            return readResponse(new Reader(bytes));
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static SnmpMultiResponseDTO readResponse(final Reader in) throws IOException {
+        final SnmpMultiResponseDTO response = new SnmpMultiResponseDTO();
+        response.setErrorMessage(in.readString());
+        response.setPdusSent(in.readLong());
+        final int numResponses = in.readVarInt();
+        final List<SnmpResponseDTO> responses = new ArrayList<>(numResponses);
+        for (int i = 0; i < numResponses; i++) {
+            final SnmpResponseDTO dto = new SnmpResponseDTO();
+            dto.setCorrelationId(in.readString());
+            dto.setComplete(in.readBoolean());
+            final int numResults = in.readVarInt();
+            final List<SnmpResult> results = new ArrayList<>(numResults);
+            for (int j = 0; j < numResults; j++) {
+                final SnmpObjId base = in.readOid(in.m_bases);
+                final SnmpObjId instance = in.readOid(in.m_instances);
+                results.add(new SnmpResult(base, instance == null ? null : new SnmpInstId(instance), in.readValue()));
+            }
+            dto.setResults(results);
+            responses.add(dto);
+        }
+        response.setResponses(responses);
+
+        final int numAgentResponses = in.readVarInt();
+        final List<SnmpMultiResponseDTO> agentResponses = new ArrayList<>(numAgentResponses);
+        for (int i = 0; i < numAgentResponses; i++) {
+            agentResponses.add(readResponse(in));
+        }
+        response.setAgentResponses(agentResponses);
+        return response;
+    }
+
+    /**
+     * Holds the last OID of a given kind, against which the next one is compressed.
+     */
+    private static class OidContext {
+        private int[] m_last = new int[0];
+    }
+
+    private static class Writer {
+        private final ByteArrayOutputStream m_bytes = new ByteArrayOutputStream(256);
+        private final DataOutputStream m_out = new DataOutputStream(m_bytes);
+        private final OidContext m_oids = new OidContext();
+        private final OidContext m_bases = new OidContext();
+        private final OidContext m_instances = new OidContext();
+
+        private byte[] toByteArray() throws IOException {
+            m_out.flush();
+            return m_bytes.toByteArray();
+        }
+
+        private void writeVarLong(long value) throws IOException {
+            while ((value & ~0x7FL) != 0) {
+                m_out.writeByte((int)((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            m_out.writeByte((int)value);
+        }
+
+        private void writeVarInt(final int value) throws IOException {
+            writeVarLong(value & 0xFFFFFFFFL);
+        }
+
+        /**
+         * Nullable values are shifted by one so that 0 can stand for null.
+         */
+        private void writeInteger(final Integer value) throws IOException {
+            writeVarLong(value == null ? 0 : (value & 0xFFFFFFFFL) + 1);
+        }
+
+        /**
+         * Longs use the whole range, so they are preceded by a presence flag instead.
+         */
+        private void writeLong(final Long value) throws IOException {
+            if (value == null) {
+                m_out.writeByte(0);
+            } else {
+                m_out.writeByte(1);
+                writeVarLong(value);
+            }
+        }
+
+        private void writeBoolean(final Boolean value) throws IOException {
+            writeVarInt(value == null ? 0 : value ? 2 : 1);
+        }
+
+        private void writeBytes(final byte[] bytes) throws IOException {
+            if (bytes == null) {
+                writeVarInt(0);
+                return;
+            }
+            writeVarInt(bytes.length + 1);
+            m_out.write(bytes);
+        }
+
+        private void writeString(final String value) throws IOException {
+            writeBytes(value == null ? null : value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        private void writeAgent(final SnmpAgentConfig agent) throws IOException {
+            if (agent == null) {
+                writeVarInt(0);
+                return;
+            }
+            final Map<String, String> attributes = agent.toMap();
+            writeVarInt(attributes.size() + 1);
+            for (final Map.Entry<String, String> entry : attributes.entrySet()) {
+                writeString(entry.getKey());
+                writeString(entry.getValue());
+            }
+        }
+
+        private void writeOids(final List<SnmpObjId> oids) throws IOException {
+            writeVarInt(oids.size());
+            for (final SnmpObjId oid : oids) {
+                writeOid(oid, m_oids);
+            }
+        }
+
+        /**
+         * Writes the length of the prefix shared with the previous OID plus one (0 meaning null),
+         * followed by the number of remaining sub-identifiers and the sub-identifiers themselves.
+         */
+        private void writeOid(final SnmpObjId oid, final OidContext context) throws IOException {
+            if (oid == null) {
+                writeVarInt(0);
+                return;
+            }
+            final int[] last = context.m_last;
+            final int length = oid.length();
+            int shared = 0;
+            while (shared < length && shared < last.length && oid.getSubIdAt(shared) == last[shared]) {
+                shared++;
+            }
+            writeVarInt(shared + 1);
+            writeVarInt(length - shared);
+            final int[] ids = new int[length];
+            System.arraycopy(last, 0, ids, 0, shared);
+            for (int i = shared; i < length; i++) {
+                ids[i] = oid.getSubIdAt(i);
+                writeVarInt(ids[i]);
+            }
+            context.m_last = ids;
+        }
+
+        private void writeValue(final SnmpValue value) throws IOException {
+            if (value == null) {
+                writeVarInt(0);
+                return;
+            }
+            writeVarInt(value.getType() + 1);
+            writeBytes(value.getBytes());
+        }
+    }
+
+    private static class Reader {
+        private final DataInputStream m_in;
+        private final OidContext m_oids = new OidContext();
+        private final OidContext m_bases = new OidContext();
+        private final OidContext m_instances = new OidContext();
+        private final SnmpValueFactory m_valueFactory = SnmpUtils.getValueFactory();
+
+        private Reader(final byte[] bytes) {
+            m_in = new DataInputStream(new ByteArrayInputStream(bytes));
+        }
+
+        private long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                final int b = m_in.readUnsignedByte();
+                value |= (long)(b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint.");
+        }
+
+        private int readVarInt() throws IOException {
+            return (int)readVarLong();
+        }
+
+        private Integer readInteger() throws IOException {
+            final long value = readVarLong();
+            return value == 0 ? null : (int)(value - 1);
+        }
+
+        private Long readLong() throws IOException {
+            return m_in.readBoolean() ? readVarLong() : null;
+        }
+
+        private Boolean readBoolean() throws IOException {
+            final int value = readVarInt();
+            return value == 0 ? null : value == 2;
+        }
+
+        private byte[] readBytes() throws IOException {
+            final int length = readVarInt();
+            if (length == 0) {
+                return null;
+            }
+            final byte[] bytes = new byte[length - 1];
+            m_in.readFully(bytes);
+            return bytes;
+        }
+
+        private String readString() throws IOException {
+            final byte[] bytes = readBytes();
+            return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private SnmpAgentConfig readAgent() throws IOException {
+            final int size = readVarInt();
+            if (size == 0) {
+                return null;
+            }
+            final Map<String, String> attributes = new LinkedHashMap<>();
+            for (int i = 0; i < size - 1; i++) {
+                attributes.put(readString(), readString());
+            }
+            return SnmpAgentConfig.fromMap(attributes);
+        }
+
+        private List<SnmpObjId> readOids() throws IOException {
+            final int size = readVarInt();
+            final List<SnmpObjId> oids = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                oids.add(readOid(m_oids));
+            }
+            return oids;
+        }
+
+        private SnmpObjId readOid(final OidContext context) throws IOException {
+            final int shared = readVarInt();
+            if (shared == 0) {
+                return null;
+            }
+            final int remaining = readVarInt();
+            final int[] ids = new int[shared - 1 + remaining];
+            System.arraycopy(context.m_last, 0, ids, 0, shared - 1);
+            for (int i = shared - 1; i < ids.length; i++) {
+                ids[i] = readVarInt();
+            }
+            context.m_last = ids;
+            return new SnmpObjId(ids, false);
+        }
+
+        private SnmpValue readValue() throws IOException {
+            final int type = readVarInt();
+            if (type == 0) {
+                return null;
+            }
+            return m_valueFactory.getValue(type - 1, readBytes());
+        }
+    }
+}
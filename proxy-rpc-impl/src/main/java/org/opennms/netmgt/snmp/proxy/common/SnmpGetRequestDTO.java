@@ -46,6 +46,9 @@ public class SnmpGetRequestDTO {
     @XmlJavaTypeAdapter(SnmpObjIdXmlAdapter.class)
     private List<SnmpObjId> oids = new ArrayList<>(0);
 
+    @XmlAttribute(name="max-age")
+    private Long maxAge;
+
     public String getCorrelationId() {
         return correlationId;
     }
@@ -62,9 +65,21 @@ public class SnmpGetRequestDTO {
         this.oids = oids;
     }
 
+    /**
+     * Maximum age in milliseconds of a cached value that may be returned
+     * instead of querying the agent, or null to always query the agent.
+     */
+    public Long getMaxAge() {
+        return maxAge;
+    }
+
+    public void setMaxAge(Long maxAge) {
+        this.maxAge = maxAge;
+    }
+
     @Override
     public int hashCode() {
-        return Objects.hash(correlationId, oids);
+        return Objects.hash(correlationId, oids, maxAge);
     }
 
     @Override
@@ -77,6 +92,7 @@ public class SnmpGetRequestDTO {
             return false;
         final SnmpGetRequestDTO other = (SnmpGetRequestDTO) obj;
         return Objects.equals(this.correlationId, other.correlationId)
-                && Objects.equals(this.oids, other.oids);
+                && Objects.equals(this.oids, other.oids)
+                && Objects.equals(this.maxAge, other.maxAge);
     }
 }
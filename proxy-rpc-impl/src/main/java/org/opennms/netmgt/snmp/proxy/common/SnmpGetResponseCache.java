@@ -0,0 +1,240 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.snmp.proxy.common;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.SnmpValue;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Short-lived cache of the values returned by gets, keyed by agent configuration and OID.
+ *
+ * Entries hold the future value, so that concurrent gets for the same OID share a single
+ * query: the first caller becomes the owner of the entry and must {@link #complete} or
+ * {@link #fail} it, the others wait for the same future. Each caller decides how old a
+ * value it accepts, entries are bounded in number and dropped after {@link #MAX_AGE_SYS_PROP}.
+ *
+ * Callers that stop waiting, i.e. because their request timed out, {@link #release} their
+ * lease, the owner included. The query is only abandoned once no caller waits for it anymore.
+ */
+public class SnmpGetResponseCache {
+
+    public static final String MAX_SIZE_SYS_PROP = "org.opennms.core.snmp.rpc.getCache.maxSize";
+
+    /**
+     * Upper bound on the age of the cached values in milliseconds, whatever the callers accept.
+     */
+    public static final String MAX_AGE_SYS_PROP = "org.opennms.core.snmp.rpc.getCache.maxAge";
+
+    private final Cache<Key, Entry> m_cache;
+    private final Stats m_stats = new Stats();
+
+    public SnmpGetResponseCache() {
+        this(Long.getLong(MAX_SIZE_SYS_PROP, 10000), Long.getLong(MAX_AGE_SYS_PROP, TimeUnit.MINUTES.toMillis(5)));
+    }
+
+    public SnmpGetResponseCache(long maxSize, long maxAgeMs) {
+        m_cache = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(maxAgeMs, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * Returns the entry for the OID if its value is at most maxAge old or still being retrieved,
+     * or a new entry owned by the caller otherwise.
+     *
+     * @param agent identity of the agent configuration, i.e. {@link org.opennms.netmgt.snmp.SnmpAgentConfig#toMap()}
+     */
+    public Lease acquire(Map<String, String> agent, SnmpObjId oid, long maxAgeMs) {
+        final Key key = new Key(agent, oid);
+        final long now = System.nanoTime();
+        final long maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxAgeMs);
+        final boolean[] owner = new boolean[] { false };
+        final Entry entry = m_cache.asMap().compute(key, (k, existing) -> {
+            if (existing != null && existing.isUsable(now, maxAgeNanos)) {
+                existing.m_waiters.incrementAndGet();
+                return existing;
+            }
+            owner[0] = true;
+            return new Entry();
+        });
+        if (owner[0]) {
+            m_stats.m_misses.increment();
+        } else if (entry.m_future.isDone()) {
+            m_stats.m_hits.increment();
+        } else {
+            m_stats.m_sharedQueries.increment();
+        }
+        return new Lease(key, entry, owner[0]);
+    }
+
+    public void complete(Lease lease, SnmpValue value) {
+        lease.m_entry.m_completedAt = System.nanoTime();
+        lease.m_entry.m_future.complete(value);
+    }
+
+    /**
+     * Fails the callers waiting for the value and drops the entry so that the next one queries the agent.
+     */
+    public void fail(Lease lease, Throwable t) {
+        m_cache.asMap().remove(lease.m_key, lease.m_entry);
+        lease.m_entry.m_future.completeExceptionally(t);
+    }
+
+    /**
+     * Stops waiting for the value. Once no caller waits for a value still being retrieved,
+     * the entry is dropped and its future cancelled, which tells the owner that it may
+     * abandon the query.
+     */
+    public void release(Lease lease) {
+        final boolean[] abandoned = new boolean[] { false };
+        // serialized with acquire() so that no caller joins an entry that is being abandoned
+        m_cache.asMap().compute(lease.m_key, (k, existing) -> {
+            if (lease.m_entry.m_waiters.decrementAndGet() == 0 && !lease.m_entry.m_future.isDone()) {
+                abandoned[0] = true;
+                return existing == lease.m_entry ? null : existing;
+            }
+            return existing;
+        });
+        if (abandoned[0]) {
+            lease.m_entry.m_future.cancel(false);
+        }
+    }
+
+    public void invalidateAll() {
+        m_cache.invalidateAll();
+    }
+
+    public long size() {
+        return m_cache.size();
+    }
+
+    public Stats getStats() {
+        return m_stats;
+    }
+
+    public static class Lease {
+        private final Key m_key;
+        private final Entry m_entry;
+        private final boolean m_owner;
+
+        private Lease(Key key, Entry entry, boolean owner) {
+            m_key = key;
+            m_entry = entry;
+            m_owner = owner;
+        }
+
+        /**
+         * Whether the caller must query the agent and complete or fail the lease.
+         */
+        public boolean isOwner() {
+            return m_owner;
+        }
+
+        public CompletableFuture<SnmpValue> getFuture() {
+            return m_entry.m_future;
+        }
+    }
+
+    private static class Entry {
+        private final CompletableFuture<SnmpValue> m_future = new CompletableFuture<>();
+        private final AtomicInteger m_waiters = new AtomicInteger(1);
+        private volatile long m_completedAt;
+
+        private boolean isUsable(long now, long maxAgeNanos) {
+            if (!m_future.isDone()) {
+                return true;
+            }
+            return !m_future.isCompletedExceptionally() && now - m_completedAt <= maxAgeNanos;
+        }
+    }
+
+    private static class Key {
+        private final Map<String, String> m_agent;
+        private final SnmpObjId m_oid;
+        private final int m_hashCode;
+
+        private Key(Map<String, String> agent, SnmpObjId oid) {
+            m_agent = agent;
+            m_oid = oid;
+            m_hashCode = Objects.hash(agent, oid);
+        }
+
+        @Override
+        public int hashCode() {
+            return m_hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof Key))
+                return false;
+            final Key other = (Key) obj;
+            return Objects.equals(m_oid, other.m_oid)
+                    && Objects.equals(m_agent, other.m_agent);
+        }
+    }
+
+    public static class Stats {
+        private final LongAdder m_hits = new LongAdder();
+        private final LongAdder m_sharedQueries = new LongAdder();
+        private final LongAdder m_misses = new LongAdder();
+
+        /**
+         * Values returned from the cache.
+         */
+        public long getHits() {
+            return m_hits.sum();
+        }
+
+        /**
+         * Values that were being retrieved for another request and were waited for.
+         */
+        public long getSharedQueries() {
+            return m_sharedQueries.sum();
+        }
+
+        /**
+         * Values that had to be retrieved from the agent.
+         */
+        public long getMisses() {
+            return m_misses.sum();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("hits=%d, sharedQueries=%d, misses=%d", getHits(), getSharedQueries(), getMisses());
+        }
+    }
+}
@@ -30,6 +30,7 @@ import javax.xml.bind.annotation.XmlAccessorType;
 import javax.xml.bind.annotation.XmlAttribute;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.XmlTransient;
 
 import org.opennms.core.rpc.api.RemoteExecutionException;
 import org.opennms.core.rpc.api.RpcResponse;
@@ -41,9 +42,18 @@ public class SnmpMultiResponseDTO implements RpcResponse {
     @XmlAttribute(name="error")
     private String error;
 
+    @XmlAttribute(name="pdus-sent")
+    private Long pdusSent;
+
     @XmlElement(name="response")
     private List<SnmpResponseDTO> responses = new ArrayList<>(0);
 
+    @XmlElement(name="agent-response")
+    private List<SnmpMultiResponseDTO> agentResponses = new ArrayList<>(0);
+
+    @XmlTransient
+    private SnmpRpcEncoding encoding;
+
     public SnmpMultiResponseDTO() { }
 
     public SnmpMultiResponseDTO(Throwable ex) {
@@ -58,9 +68,49 @@ public class SnmpMultiResponseDTO implements RpcResponse {
         return responses;
     }
 
+    public void setAgentResponses(List<SnmpMultiResponseDTO> agentResponses) {
+        this.agentResponses = agentResponses;
+    }
+
+    /**
+     * Responses to the agent requests of a batch, in the order of
+     * {@link SnmpRequestDTO#getRequests()}. Each of them carries its own error.
+     */
+    public List<SnmpMultiResponseDTO> getAgentResponses() {
+        return agentResponses;
+    }
+
+    /**
+     * Number of PDUs sent to walk the agent, null if there were no walks
+     * or the peer does not report it.
+     */
+    public Long getPdusSent() {
+        return pdusSent;
+    }
+
+    public void setPdusSent(Long pdusSent) {
+        this.pdusSent = pdusSent;
+    }
+
+    public void setErrorMessage(String error) {
+        this.error = error;
+    }
+
+    /**
+     * The encoding used to marshal this response, the minion answers
+     * in the encoding the request was received in.
+     */
+    public SnmpRpcEncoding getEncoding() {
+        return encoding;
+    }
+
+    public void setEncoding(SnmpRpcEncoding encoding) {
+        this.encoding = encoding;
+    }
+
     @Override
     public int hashCode() {
-        return Objects.hash(responses, error);
+        return Objects.hash(responses, agentResponses, error, pdusSent);
     }
 
     @Override
@@ -73,7 +123,9 @@ public class SnmpMultiResponseDTO implements RpcResponse {
             return false;
         final SnmpMultiResponseDTO other = (SnmpMultiResponseDTO) obj;
         return Objects.equals(this.responses, other.responses) &&
-                Objects.equals(this.error, other.error);
+                Objects.equals(this.agentResponses, other.agentResponses) &&
+                Objects.equals(this.error, other.error) &&
+                Objects.equals(this.pdusSent, other.pdusSent);
     }
 
     @Override
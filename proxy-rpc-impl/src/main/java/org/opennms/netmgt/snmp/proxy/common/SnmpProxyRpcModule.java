@@ -22,14 +22,24 @@
 package org.opennms.netmgt.snmp.proxy.common;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.stream.Collectors;
 
 import org.opennms.core.rpc.xml.AbstractXmlRpcModule;
@@ -40,8 +50,10 @@ import org.opennms.netmgt.snmp.Collectable;
 import org.opennms.netmgt.snmp.CollectionTracker;
 import org.opennms.netmgt.snmp.ColumnTracker;
 import org.opennms.netmgt.snmp.SingleInstanceTracker;
+import org.opennms.netmgt.snmp.SnmpException;
 import org.opennms.netmgt.snmp.SnmpInstId;
 import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.SnmpRequestPriority;
 import org.opennms.netmgt.snmp.SnmpResult;
 import org.opennms.netmgt.snmp.SnmpUtils;
 import org.opennms.netmgt.snmp.SnmpValue;
@@ -65,6 +77,34 @@ public class SnmpProxyRpcModule extends AbstractXmlRpcModule<SnmpRequestDTO, Snm
 
     public static final String RPC_MODULE_ID = "SNMP";
 
+    /**
+     * Encoding used for requests sent from this JVM. Responses are always sent back in the
+     * encoding of the request, and both encodings are accepted when unmarshalling, so binary
+     * should only be enabled once the minions are able to decode it.
+     */
+    public static final String ENCODING_SYS_PROP = "org.opennms.core.snmp.rpc.encoding";
+
+    private SnmpRpcEncoding m_encoding = SnmpRpcEncoding.fromString(System.getProperty(ENCODING_SYS_PROP));
+
+    private final SnmpGetResponseCache m_getCache = new SnmpGetResponseCache();
+
+    /**
+     * Number of agent requests of a batch that are executed at the same time when the
+     * batch does not specify it.
+     */
+    public static final String BATCH_MAX_CONCURRENCY_SYS_PROP = "org.opennms.core.snmp.rpc.batch.maxConcurrency";
+
+    static final int DEFAULT_BATCH_MAX_CONCURRENCY = Integer.getInteger(BATCH_MAX_CONCURRENCY_SYS_PROP, 100);
+
+    private static final ScheduledExecutorService DEADLINE_EXECUTOR = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            final Thread thread = new Thread(r, "SNMP-Proxy-RPC-Deadline");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
     private static final ExecutorService REAPER_EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
         @Override
         public Thread newThread(Runnable r) {
@@ -78,6 +118,15 @@ public class SnmpProxyRpcModule extends AbstractXmlRpcModule<SnmpRequestDTO, Snm
 
     @Override
     public CompletableFuture<SnmpMultiResponseDTO> execute(SnmpRequestDTO request) {
+        // The strategy takes the priority of the walks and PDUs from the thread sending them,
+        // without one the request keeps the priority of the caller when executed locally
+        if (request.getPriority() != null) {
+            return request.getPriority().call(() -> executeWithPriority(request));
+        }
+        return executeWithPriority(request);
+    }
+
+    private CompletableFuture<SnmpMultiResponseDTO> executeWithPriority(SnmpRequestDTO request) {
         if (request.getAgent() != null &&
                 request.getAgent().getAddress().isLoopbackAddress() &&
                 !LocationUtils.DEFAULT_LOCATION_NAME.equals(request.getLocation()) &&
@@ -87,33 +136,205 @@ public class SnmpProxyRpcModule extends AbstractXmlRpcModule<SnmpRequestDTO, Snm
                 request.getAgent().setReadCommunity(credentials.getAttribute(SnmpUtils.SNMP_COMMUNITY_ATTRIBUTE));
             }
         }
-        CompletableFuture<SnmpMultiResponseDTO> combinedFuture = CompletableFuture
-                .completedFuture(new SnmpMultiResponseDTO());
-        for (SnmpGetRequestDTO getRequest : request.getGetRequests()) {
-            CompletableFuture<SnmpResponseDTO> future = get(request, getRequest);
-            combinedFuture = combinedFuture.thenCombine(future, (m, s) -> {
-                m.getResponses().add(s);
-                return m;
-            });
-        }
+        final CompletableFuture<List<SnmpResponseDTO>> getFuture = get(request, request.getGetRequests());
+        final List<CompletableFuture<SnmpResponseDTO>> setFutures = new ArrayList<>(request.getSetRequest().size());
         for (SnmpSetRequestDTO setRequest : request.getSetRequest()) {
-            CompletableFuture<SnmpResponseDTO> future = set(request, setRequest);
-            combinedFuture = combinedFuture.thenCombine(future, (m, s) -> {
-                m.getResponses().add(s);
+            setFutures.add(set(request, setRequest));
+        }
+        final AtomicLong pdusSent = new AtomicLong();
+        final CompletableFuture<Collection<SnmpResponseDTO>> walkFuture = request.getWalkRequest().size() > 0
+                ? walk(request, request.getWalkRequest(), pdusSent)
+                : CompletableFuture.completedFuture(Collections.emptyList());
+
+        final List<CompletableFuture<?>> futures = new ArrayList<>(setFutures.size() + 2);
+        futures.add(getFuture);
+        futures.addAll(setFutures);
+        futures.add(walkFuture);
+        CompletableFuture<SnmpMultiResponseDTO> future = cancelOnFailure(CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).thenApply(v -> {
+            final SnmpMultiResponseDTO m = new SnmpMultiResponseDTO();
+            m.getResponses().addAll(getFuture.join());
+            setFutures.forEach(f -> m.getResponses().add(f.join()));
+            m.getResponses().addAll(walkFuture.join());
+            if (!request.getWalkRequest().isEmpty()) {
+                m.setPdusSent(pdusSent.get());
+            }
+            m.setEncoding(request.getEncoding());
+            return m;
+        }), futures);
+        BatchExecution batchExecution = null;
+        if (!request.getRequests().isEmpty()) {
+            final CompletableFuture<SnmpMultiResponseDTO> own = future;
+            batchExecution = batch(request);
+            final CompletableFuture<List<SnmpMultiResponseDTO>> batch = batchExecution.start();
+            future = cancelOnFailure(own.thenCombine(batch, (m, agentResponses) -> {
+                m.setAgentResponses(agentResponses);
                 return m;
+            }), Arrays.asList(own, batch));
+        }
+        return withDeadline(request, future, batchExecution);
+    }
+
+    /**
+     * Fails the request once its time to live is exceeded. Since the caller has stopped
+     * waiting for the response by then, the walks and PDUs still in flight are cancelled.
+     * A batch is not failed as a whole: it is answered with the responses of the agents
+     * that completed in time and a failure for each of the others.
+     */
+    private static CompletableFuture<SnmpMultiResponseDTO> withDeadline(SnmpRequestDTO request, CompletableFuture<SnmpMultiResponseDTO> future, BatchExecution batch) {
+        final Long ttl = request.getTimeToLive();
+        if (ttl == null || ttl <= 0 || future.isDone()) {
+            return future;
+        }
+        final ScheduledFuture<?> deadline = DEADLINE_EXECUTOR.schedule(() -> {
+            if (batch != null) {
+                batch.expire(ttl);
+            }
+            if (future.completeExceptionally(new SnmpException("Request for agent " + request.getAgent() + " exceeded its time to live of " + ttl + "ms."))) {
+                LOG.debug("Request for agent {} exceeded its time to live of {}ms, cancelling it.", request.getAgent(), ttl);
+            }
+        }, ttl, TimeUnit.MILLISECONDS);
+        future.whenComplete((m, t) -> deadline.cancel(false));
+        return future;
+    }
+
+    /**
+     * Cancels the given sources, if still running, when the future derived from them fails,
+     * is cancelled, or exceeds its deadline.
+     */
+    private static <T> CompletableFuture<T> cancelOnFailure(CompletableFuture<T> future, Collection<? extends CompletableFuture<?>> sources) {
+        future.whenComplete((result, t) -> {
+            if (t != null) {
+                sources.forEach(source -> source.cancel(false));
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Executes the agent requests of a batch, at most {@link SnmpRequestDTO#getMaxConcurrency()}
+     * at a time. The failure of one agent is reported in its own response and does not fail the batch.
+     */
+    private BatchExecution batch(SnmpRequestDTO request) {
+        final int maxConcurrency = request.getMaxConcurrency() != null && request.getMaxConcurrency() > 0
+                ? request.getMaxConcurrency()
+                : DEFAULT_BATCH_MAX_CONCURRENCY;
+        for (final SnmpRequestDTO agentRequest : request.getRequests()) {
+            if (agentRequest.getLocation() == null) {
+                agentRequest.setLocation(request.getLocation());
+            }
+            if (agentRequest.getPriority() == null) {
+                agentRequest.setPriority(request.getPriority());
+            }
+        }
+        return new BatchExecution(request.getRequests(), maxConcurrency);
+    }
+
+    private class BatchExecution {
+        private final List<SnmpRequestDTO> m_requests;
+        private final int m_maxConcurrency;
+        private final AtomicReferenceArray<SnmpMultiResponseDTO> m_responses;
+        private final CompletableFuture<List<SnmpMultiResponseDTO>> m_future = new CompletableFuture<>();
+        private final AtomicInteger m_inFlight = new AtomicInteger();
+        private final AtomicInteger m_remaining;
+        private final AtomicInteger m_drains = new AtomicInteger();
+        private final AtomicReferenceArray<CompletableFuture<SnmpMultiResponseDTO>> m_futures;
+        private int m_next = 0;
+
+        private BatchExecution(List<SnmpRequestDTO> requests, int maxConcurrency) {
+            m_requests = requests;
+            m_maxConcurrency = maxConcurrency;
+            m_responses = new AtomicReferenceArray<>(requests.size());
+            m_remaining = new AtomicInteger(requests.size());
+            m_futures = new AtomicReferenceArray<>(requests.size());
+        }
+
+        private CompletableFuture<List<SnmpMultiResponseDTO>> start() {
+            m_future.whenComplete((responses, t) -> {
+                if (t != null) {
+                    for (int i = 0; i < m_futures.length(); i++) {
+                        final CompletableFuture<SnmpMultiResponseDTO> future = m_futures.get(i);
+                        if (future != null) {
+                            future.cancel(false);
+                        }
+                    }
+                }
             });
+            drain();
+            return m_future;
         }
-        if (request.getWalkRequest().size() > 0) {
-            CompletableFuture<Collection<SnmpResponseDTO>> future = walk(request, request.getWalkRequest());
-            combinedFuture = combinedFuture.thenCombine(future, (m, s) -> {
-                m.getResponses().addAll(s);
-                return m;
+
+        /**
+         * Completes the batch with the responses received so far, the agents that did not
+         * answer in time get a failure of their own and their requests are cancelled.
+         */
+        private void expire(long ttl) {
+            for (int i = 0; i < m_responses.length(); i++) {
+                if (m_responses.compareAndSet(i, null, new SnmpMultiResponseDTO(new SnmpException("Request for agent "
+                        + m_requests.get(i).getAgent() + " did not complete within the time to live of its batch of " + ttl + "ms.")))) {
+                    final CompletableFuture<SnmpMultiResponseDTO> future = m_futures.get(i);
+                    if (future != null) {
+                        future.cancel(false);
+                    }
+                }
+            }
+            complete();
+        }
+
+        private void complete() {
+            final List<SnmpMultiResponseDTO> responses = new ArrayList<>(m_responses.length());
+            for (int i = 0; i < m_responses.length(); i++) {
+                responses.add(m_responses.get(i));
+            }
+            m_future.complete(responses);
+        }
+
+        /**
+         * Starts as many requests as the window allows. Only one thread drains at a time,
+         * the others leave a mark for it to loop again, which also keeps requests that
+         * complete synchronously from recursing.
+         */
+        private void drain() {
+            if (m_drains.getAndIncrement() != 0) {
+                return;
+            }
+            do {
+                while (!m_future.isDone() && m_next < m_requests.size() && m_inFlight.get() < m_maxConcurrency) {
+                    m_inFlight.incrementAndGet();
+                    execute(m_next++);
+                }
+            } while (m_drains.decrementAndGet() != 0);
+        }
+
+        private void execute(int index) {
+            CompletableFuture<SnmpMultiResponseDTO> future;
+            try {
+                future = SnmpProxyRpcModule.this.execute(m_requests.get(index));
+            } catch (RuntimeException e) {
+                future = CompletableFuture.failedFuture(e);
+            }
+            m_futures.set(index, future);
+            if (m_future.isDone()) {
+                // the batch expired while this request was being started
+                future.cancel(false);
+            }
+            future.whenComplete((response, t) -> {
+                if (t != null) {
+                    LOG.debug("Request for agent {} failed.", m_requests.get(index).getAgent(), t);
+                    response = new SnmpMultiResponseDTO(t instanceof CompletionException && t.getCause() != null ? t.getCause() : t);
+                }
+                // keeps the failure of a request that outlived the batch
+                m_responses.compareAndSet(index, null, response);
+                m_inFlight.decrementAndGet();
+                if (m_remaining.decrementAndGet() == 0) {
+                    complete();
+                } else {
+                    drain();
+                }
             });
         }
-        return combinedFuture;
     }
 
-    private CompletableFuture<Collection<SnmpResponseDTO>> walk(SnmpRequestDTO request, List<SnmpWalkRequestDTO> walks) {
+    private CompletableFuture<Collection<SnmpResponseDTO>> walk(SnmpRequestDTO request, List<SnmpWalkRequestDTO> walks, AtomicLong pdusSent) {
         final CompletableFuture<Collection<SnmpResponseDTO>> future = new CompletableFuture<>();
         final Map<String, SnmpResponseDTO> responsesByCorrelationId = new LinkedHashMap<>();
 
@@ -132,6 +353,12 @@ public class SnmpProxyRpcModule extends AbstractXmlRpcModule<SnmpRequestDTO, Snm
                         addResult(res, walk.getCorrelationId(), responsesByCorrelationId);
                     }
                 };
+            } else if (walk.getMaxResults() != null) {
+                if (walk.getOids().size() != 1) {
+                    future.completeExceptionally(new IllegalArgumentException("Requests limited by max-results must have a single OID."));
+                    return future;
+                }
+                tracker = createLimitedTracker(walk, responsesByCorrelationId);
             } else {
                 final Collection<Collectable> columnTrackers = walk.getOids().stream()
                         .map(SnmpObjId::get)
@@ -156,6 +383,7 @@ public class SnmpProxyRpcModule extends AbstractXmlRpcModule<SnmpRequestDTO, Snm
             @Override
             public void complete(SnmpWalker tracker, Throwable t) {
                 try {
+                    pdusSent.set(tracker.getPdusSent());
                     if (t != null) {
                         future.completeExceptionally(t);
                     } else {
@@ -174,48 +402,224 @@ public class SnmpProxyRpcModule extends AbstractXmlRpcModule<SnmpRequestDTO, Snm
                 }
             }
         });
+        future.whenComplete((responses, t) -> {
+            if (t != null) {
+                // does nothing if the walk itself failed, stops it if the request was cancelled or timed out
+                walker.cancel(t instanceof CompletionException && t.getCause() != null ? t.getCause() : t);
+            }
+        });
         walker.start();
         return future;
     }
 
+    /**
+     * Walks a single column, starting after the resume OID if any, and stops once max-results
+     * results were collected. The response tells whether the column was walked to its end.
+     */
+    private static CollectionTracker createLimitedTracker(SnmpWalkRequestDTO walk, Map<String, SnmpResponseDTO> responsesByCorrelationId) {
+        final SnmpObjId base = walk.getOids().get(0);
+        final SnmpObjId resumeAfter = walk.getResumeAfter() != null ? walk.getResumeAfter() : base;
+        final int maxResults = walk.getMaxResults();
+        // Always respond, even without any results, so that the client sees the walk is complete
+        final SnmpResponseDTO response = getResponse(walk.getCorrelationId(), responsesByCorrelationId);
+        response.setComplete(true);
+
+        final ColumnTracker column = new ColumnTracker(null, base, resumeAfter, 2, 0);
+        return new AggregateTracker(new Collectable[] { column }) {
+            @Override
+            protected void storeResult(SnmpResult res) {
+                // Bulk responses may hold more results than we asked for, these are fetched again when resuming
+                if (response.getResults().size() >= maxResults) {
+                    return;
+                }
+                response.getResults().add(res);
+                if (response.getResults().size() >= maxResults) {
+                    response.setComplete(false);
+                    column.setFinished(true);
+                }
+            }
+        };
+    }
+
     private static final void addResult(SnmpResult result, String correlationId, Map<String, SnmpResponseDTO> responsesByCorrelationId) {
+        getResponse(correlationId, responsesByCorrelationId).getResults().add(result);
+    }
+
+    private static SnmpResponseDTO getResponse(String correlationId, Map<String, SnmpResponseDTO> responsesByCorrelationId) {
         SnmpResponseDTO response = responsesByCorrelationId.get(correlationId);
         if (response == null) {
             response = new SnmpResponseDTO();
             response.setCorrelationId(correlationId);
             responsesByCorrelationId.put(correlationId, response);
         }
-        response.getResults().add(result);
+        return response;
     }
 
-    private CompletableFuture<SnmpResponseDTO> get(SnmpRequestDTO request, SnmpGetRequestDTO get) {
-        final SnmpObjId[] oids = get.getOids().toArray(new SnmpObjId[get.getOids().size()]);
-        final CompletableFuture<SnmpValue[]> future = SnmpUtils.getAsync(request.getAgent(), oids);
-        return future.thenApply(values -> {
-            final List<SnmpResult> results = new ArrayList<>(oids.length);
-            if (values.length < oids.length) {
-                // Should never reach here, should have thrown exception in SnmpUtils.
-                LOG.warn("Received error response from SNMP for the agent {} for oids = {}", request.getAgent(), oids);
+    /**
+     * Requests the OIDs of all the gets together, in as few PDUs as the agent allows,
+     * and splits the values back out by correlation id.
+     *
+     * OIDs of gets that accept cached values are only requested if no recent enough
+     * value is cached or being retrieved for another request.
+     */
+    private CompletableFuture<List<SnmpResponseDTO>> get(SnmpRequestDTO request, List<SnmpGetRequestDTO> gets) {
+        if (gets.isEmpty()) {
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        }
+        final List<SnmpObjId> oids = new ArrayList<>();
+        final Map<Integer, SnmpGetResponseCache.Lease> leases = new HashMap<>();
+        final List<Integer> requested = new ArrayList<>();
+        Map<String, String> agentKey = null;
+        for (final SnmpGetRequestDTO get : gets) {
+            for (final SnmpObjId oid : get.getOids()) {
+                final int index = oids.size();
+                oids.add(oid);
+                if (get.getMaxAge() != null && get.getMaxAge() > 0 && request.getAgent() != null) {
+                    if (agentKey == null) {
+                        agentKey = request.getAgent().toMap();
+                    }
+                    final SnmpGetResponseCache.Lease lease = m_getCache.acquire(agentKey, oid, get.getMaxAge());
+                    leases.put(index, lease);
+                    if (!lease.isOwner()) {
+                        continue;
+                    }
+                }
+                requested.add(index);
+            }
+        }
+        final int maxVarsPerPdu = request.getAgent() != null && request.getAgent().getMaxVarsPerPdu() > 0
+                ? request.getAgent().getMaxVarsPerPdu()
+                : Math.max(1, requested.size());
+
+        final SnmpValue[] values = new SnmpValue[oids.size()];
+        final boolean[] missing = new boolean[oids.size()];
+        final List<CompletableFuture<?>> futures = new ArrayList<>();
+        final List<CompletableFuture<SnmpValue[]>> pdus = new ArrayList<>();
+        final List<List<Integer>> pduIndexes = new ArrayList<>();
+        for (int i = 0; i < requested.size(); i += maxVarsPerPdu) {
+            final List<Integer> indexes = requested.subList(i, Math.min(i + maxVarsPerPdu, requested.size()));
+            final SnmpObjId[] pduOids = indexes.stream()
+                    .map(oids::get)
+                    .toArray(SnmpObjId[]::new);
+            final CompletableFuture<SnmpValue[]> pdu = SnmpUtils.getAsync(request.getAgent(), pduOids);
+            pdus.add(pdu);
+            pduIndexes.add(indexes);
+            // Each PDU hands its values over to the other requests waiting for them on its own,
+            // it may outlive this request if they still need it
+            futures.add(pdu.whenComplete((pduValues, t) -> {
+                for (int j = 0; j < indexes.size(); j++) {
+                    final int index = indexes.get(j);
+                    if (t == null) {
+                        if (pduValues.length < indexes.size()) {
+                            // Should never reach here, should have thrown exception in SnmpUtils.
+                            missing[index] = true;
+                        } else {
+                            values[index] = pduValues[j];
+                        }
+                    }
+                    final SnmpGetResponseCache.Lease lease = leases.get(index);
+                    if (lease == null) {
+                        continue;
+                    } else if (t != null) {
+                        m_getCache.fail(lease, t instanceof CompletionException && t.getCause() != null ? t.getCause() : t);
+                    } else if (missing[index]) {
+                        m_getCache.fail(lease, new MissingValueException(oids.get(index)));
+                    } else {
+                        m_getCache.complete(lease, values[index]);
+                    }
+                }
+            }));
+        }
+
+        for (final Map.Entry<Integer, SnmpGetResponseCache.Lease> lease : leases.entrySet()) {
+            if (lease.getValue().isOwner()) {
+                continue;
+            }
+            final int index = lease.getKey();
+            futures.add(lease.getValue().getFuture().handle((value, t) -> {
+                if (t == null) {
+                    values[index] = value;
+                } else if (t instanceof MissingValueException) {
+                    missing[index] = true;
+                } else {
+                    throw t instanceof CompletionException ? (CompletionException)t : new CompletionException(t);
+                }
+                return null;
+            }));
+        }
+
+        final CompletableFuture<List<SnmpResponseDTO>> future = CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).thenApply(v -> {
+            final List<SnmpResponseDTO> responses = new ArrayList<>(gets.size());
+            int offset = 0;
+            for (final SnmpGetRequestDTO get : gets) {
+                final int count = get.getOids().size();
+                final List<SnmpResult> results = new ArrayList<>(count);
+                boolean complete = true;
+                for (int i = offset; i < offset + count; i++) {
+                    complete &= !missing[i];
+                }
+                if (!complete) {
+                    LOG.warn("Received error response from SNMP for the agent {} for oids = {}", request.getAgent(), get.getOids());
+                } else {
+                    for (int i = 0; i < count; i++) {
+                        results.add(new SnmpResult(get.getOids().get(i), null, values[offset + i]));
+                    }
+                }
+                offset += count;
+
                 final SnmpResponseDTO responseDTO = new SnmpResponseDTO();
                 responseDTO.setCorrelationId(get.getCorrelationId());
-            } else {
-                for (int i = 0; i < oids.length; i++) {
-                    final SnmpResult result = new SnmpResult(oids[i], null, values[i]);
-                    results.add(result);
+                responseDTO.setResults(results);
+                responses.add(responseDTO);
+            }
+            return responses;
+        });
+        future.whenComplete((responses, t) -> {
+            if (t == null) {
+                return;
+            }
+            // Stop waiting for the values, the PDUs go on as long as another request waits for one of theirs
+            leases.values().stream()
+                    .filter(lease -> !lease.isOwner())
+                    .forEach(m_getCache::release);
+            for (int i = 0; i < pdus.size(); i++) {
+                final CompletableFuture<SnmpValue[]> pdu = pdus.get(i);
+                final List<CompletableFuture<SnmpValue>> shared = new ArrayList<>();
+                for (final int index : pduIndexes.get(i)) {
+                    final SnmpGetResponseCache.Lease lease = leases.get(index);
+                    if (lease != null) {
+                        m_getCache.release(lease);
+                        shared.add(lease.getFuture());
+                    }
                 }
+                // the cache cancels the values nobody waits for anymore
+                CompletableFuture.allOf(shared.toArray(new CompletableFuture<?>[0])).whenComplete((v, e) -> {
+                    if (shared.stream().allMatch(CompletableFuture::isCancelled)) {
+                        pdu.cancel(false);
+                    }
+                });
             }
-            final SnmpResponseDTO responseDTO = new SnmpResponseDTO();
-            responseDTO.setCorrelationId(get.getCorrelationId());
-            responseDTO.setResults(results);
-            return responseDTO;
         });
+        return future;
+    }
+
+    /**
+     * Marks OIDs that were missing from the response of the agent,
+     * for the requests sharing the query of another one.
+     */
+    private static class MissingValueException extends SnmpException {
+        private static final long serialVersionUID = 1L;
+
+        private MissingValueException(SnmpObjId oid) {
+            super("No value returned for " + oid);
+        }
     }
 
     private CompletableFuture<SnmpResponseDTO> set(SnmpRequestDTO request, SnmpSetRequestDTO get) {
         final SnmpObjId[] oids = get.getOids().toArray(new SnmpObjId[0]);
         final SnmpValue[] value = get.getValues().toArray(new SnmpValue[0]);
         final CompletableFuture<SnmpValue[]> future = SnmpUtils.setAsync(request.getAgent(), oids, value);
-        return future.thenApply(values -> {
+        return cancelOnFailure(future.thenApply(values -> {
             final List<SnmpResult> results = new ArrayList<>(oids.length);
             if (values.length < oids.length) {
                 // Should never reach here, should have thrown exception in SnmpUtils.
@@ -232,7 +636,41 @@ public class SnmpProxyRpcModule extends AbstractXmlRpcModule<SnmpRequestDTO, Snm
             responseDTO.setCorrelationId(get.getCorrelationId());
             responseDTO.setResults(results);
             return responseDTO;
-        });
+        }), Collections.singletonList(future));
+    }
+
+    @Override
+    public String marshalRequest(SnmpRequestDTO request) {
+        if (m_encoding == SnmpRpcEncoding.BINARY) {
+            return SnmpBinaryCodec.marshalRequest(request);
+        }
+        return super.marshalRequest(request);
+    }
+
+    @Override
+    public SnmpRequestDTO unmarshalRequest(String payload) {
+        if (SnmpBinaryCodec.isBinary(payload)) {
+            final SnmpRequestDTO request = SnmpBinaryCodec.unmarshalRequest(payload);
+            request.setEncoding(SnmpRpcEncoding.BINARY);
+            return request;
+        }
+        return super.unmarshalRequest(payload);
+    }
+
+    @Override
+    public String marshalResponse(SnmpMultiResponseDTO response) {
+        if (response.getEncoding() == SnmpRpcEncoding.BINARY) {
+            return SnmpBinaryCodec.marshalResponse(response);
+        }
+        return super.marshalResponse(response);
+    }
+
+    @Override
+    public SnmpMultiResponseDTO unmarshalResponse(String payload) {
+        if (SnmpBinaryCodec.isBinary(payload)) {
+            return SnmpBinaryCodec.unmarshalResponse(payload);
+        }
+        return super.unmarshalResponse(payload);
     }
 
     @Override
@@ -248,4 +686,19 @@ public class SnmpProxyRpcModule extends AbstractXmlRpcModule<SnmpRequestDTO, Snm
     public void setSecureCredentialsVault(SecureCredentialsVault scv) {
         this.m_scv = scv;
     }
+
+    /**
+     * Cache used for the gets that accept cached values, see {@link SnmpGetRequestDTO#getMaxAge()}.
+     */
+    public SnmpGetResponseCache getResponseCache() {
+        return m_getCache;
+    }
+
+    public SnmpRpcEncoding getEncoding() {
+        return m_encoding;
+    }
+
+    public void setEncoding(SnmpRpcEncoding encoding) {
+        m_encoding = encoding;
+    }
 }
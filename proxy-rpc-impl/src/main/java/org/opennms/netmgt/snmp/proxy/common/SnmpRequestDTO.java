@@ -36,6 +36,7 @@ import javax.xml.bind.annotation.XmlTransient;
 
 import org.opennms.core.rpc.api.RpcRequest;
 import org.opennms.netmgt.snmp.SnmpAgentConfig;
+import org.opennms.netmgt.snmp.SnmpRequestPriority;
 
 import io.opentracing.Span;
 
@@ -64,9 +65,21 @@ public class SnmpRequestDTO implements RpcRequest {
     @XmlElement(name="set")
     private List<SnmpSetRequestDTO> sets = new ArrayList<>(0);
 
-    @XmlTransient
+    @XmlElement(name="request")
+    private List<SnmpRequestDTO> requests = new ArrayList<>(0);
+
+    @XmlAttribute(name="max-concurrency")
+    private Integer maxConcurrency;
+
+    @XmlAttribute(name="ttl")
     private Long timeToLive;
 
+    @XmlAttribute(name="priority")
+    private SnmpRequestPriority priority;
+
+    @XmlTransient
+    private SnmpRpcEncoding encoding;
+
     private Map<String, String> tracingInfo = new HashMap<>();
 
     @Override
@@ -119,6 +132,29 @@ public class SnmpRequestDTO implements RpcRequest {
         return sets;
     }
 
+    public void setRequests(List<SnmpRequestDTO> requests) {
+        this.requests = requests;
+    }
+
+    /**
+     * Requests for other agents carried in the same message, each of them
+     * is answered with its own response, see {@link SnmpMultiResponseDTO#getAgentResponses()}.
+     */
+    public List<SnmpRequestDTO> getRequests() {
+        return requests;
+    }
+
+    /**
+     * Maximum number of agent requests that are executed at the same time,
+     * or null to use the default of the executor.
+     */
+    public Integer getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    public void setMaxConcurrency(Integer maxConcurrency) {
+        this.maxConcurrency = maxConcurrency;
+    }
 
     public String getDescription() {
         return description;
@@ -136,6 +172,29 @@ public class SnmpRequestDTO implements RpcRequest {
         this.timeToLive = timeToLive;
     }
 
+    /**
+     * Priority of the walks and PDUs of this request, or null for {@link SnmpRequestPriority#NORMAL}.
+     * The requests of a batch each have their own.
+     */
+    public SnmpRequestPriority getPriority() {
+        return priority;
+    }
+
+    public void setPriority(SnmpRequestPriority priority) {
+        this.priority = priority;
+    }
+
+    /**
+     * The encoding this request was unmarshalled from, if any.
+     */
+    public SnmpRpcEncoding getEncoding() {
+        return encoding;
+    }
+
+    public void setEncoding(SnmpRpcEncoding encoding) {
+        this.encoding = encoding;
+    }
+
     @Override
     public Long getTimeToLiveMs() {
         return timeToLive;
@@ -157,7 +216,7 @@ public class SnmpRequestDTO implements RpcRequest {
 
     @Override
     public int hashCode() {
-        return Objects.hash(location, systemId, agent, gets, walks, sets, description, timeToLive);
+        return Objects.hash(location, systemId, agent, gets, walks, sets, requests, maxConcurrency, description, timeToLive, priority);
     }
 
     @Override
@@ -175,7 +234,10 @@ public class SnmpRequestDTO implements RpcRequest {
                 && Objects.equals(this.gets, other.gets)
                 && Objects.equals(this.walks, other.walks)
                 && Objects.equals(this.sets, other.sets)
+                && Objects.equals(this.requests, other.requests)
+                && Objects.equals(this.maxConcurrency, other.maxConcurrency)
                 && Objects.equals(this.description, other.description)
-                && Objects.equals(this.timeToLive, other.timeToLive);
+                && Objects.equals(this.timeToLive, other.timeToLive)
+                && Objects.equals(this.priority, other.priority);
     }
 }
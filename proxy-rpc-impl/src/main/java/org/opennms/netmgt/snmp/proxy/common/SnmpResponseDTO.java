@@ -43,6 +43,9 @@ public class SnmpResponseDTO {
     @XmlElement(name="result")
     private List<SnmpResult> results = new ArrayList<>(0);
 
+    @XmlAttribute(name="complete")
+    private Boolean complete;
+
     public String getCorrelationId() {
         return correlationId;
     }
@@ -59,9 +62,21 @@ public class SnmpResponseDTO {
         return results;
     }
 
+    /**
+     * Only set for walks limited by max-results: false when the walk was
+     * stopped after max-results and should be resumed to retrieve the rest.
+     */
+    public Boolean getComplete() {
+        return complete;
+    }
+
+    public void setComplete(Boolean complete) {
+        this.complete = complete;
+    }
+
     @Override
     public int hashCode() {
-        return Objects.hash(correlationId, results);
+        return Objects.hash(correlationId, results, complete);
     }
 
     @Override
@@ -74,6 +89,7 @@ public class SnmpResponseDTO {
             return false;
         final SnmpResponseDTO other = (SnmpResponseDTO) obj;
         return Objects.equals(this.correlationId, other.correlationId)
-                && Objects.equals(this.results, other.results);
+                && Objects.equals(this.results, other.results)
+                && Objects.equals(this.complete, other.complete);
     }
 }
@@ -55,6 +55,13 @@ public class SnmpWalkRequestDTO {
     @XmlJavaTypeAdapter(SnmpObjIdXmlAdapter.class)
     private SnmpObjId instance;
 
+    @XmlAttribute(name="max-results")
+    private Integer maxResults;
+
+    @XmlAttribute(name="resume-after")
+    @XmlJavaTypeAdapter(SnmpObjIdXmlAdapter.class)
+    private SnmpObjId resumeAfter;
+
     public String getCorrelationId() {
         return correlationId;
     }
@@ -87,9 +94,32 @@ public class SnmpWalkRequestDTO {
         return instance;
     }
 
+    /**
+     * Limits the number of results returned for this walk, used to retrieve a walk in chunks.
+     * Requires a single OID.
+     */
+    public void setMaxResults(Integer maxResults) {
+        this.maxResults = maxResults;
+    }
+
+    public Integer getMaxResults() {
+        return maxResults;
+    }
+
+    /**
+     * Starts the walk after the given OID instead of the base OID.
+     */
+    public void setResumeAfter(SnmpObjId resumeAfter) {
+        this.resumeAfter = resumeAfter;
+    }
+
+    public SnmpObjId getResumeAfter() {
+        return resumeAfter;
+    }
+
     @Override
     public int hashCode() {
-        return Objects.hash(correlationId, oids, maxRepetitions, instance);
+        return Objects.hash(correlationId, oids, maxRepetitions, instance, maxResults, resumeAfter);
     }
 
     @Override
@@ -104,6 +134,8 @@ public class SnmpWalkRequestDTO {
         return Objects.equals(this.correlationId, other.correlationId)
                 && Objects.equals(this.oids, other.oids)
                 && Objects.equals(this.maxRepetitions, other.maxRepetitions)
-                && Objects.equals(this.instance, other.instance);
+                && Objects.equals(this.instance, other.instance)
+                && Objects.equals(this.maxResults, other.maxResults)
+                && Objects.equals(this.resumeAfter, other.resumeAfter);
     }
 }
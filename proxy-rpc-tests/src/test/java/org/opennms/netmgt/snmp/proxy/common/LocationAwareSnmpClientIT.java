@@ -22,12 +22,18 @@
 package org.opennms.netmgt.snmp.proxy.common;
 
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Dictionary;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.camel.Component;
 import org.apache.camel.util.KeyValueHolder;
@@ -49,10 +55,13 @@ import org.opennms.netmgt.provision.service.snmp.IpAddrTable;
 import org.opennms.netmgt.snmp.SnmpAgentConfig;
 import org.opennms.netmgt.snmp.SnmpInstId;
 import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.SnmpResult;
 import org.opennms.netmgt.snmp.SnmpUtils;
 import org.opennms.netmgt.snmp.SnmpValue;
 import org.opennms.netmgt.snmp.SnmpWalker;
 import org.opennms.netmgt.snmp.proxy.LocationAwareSnmpClient;
+import org.opennms.netmgt.snmp.proxy.SNMPBatchRequestBuilder;
+import org.opennms.netmgt.snmp.proxy.WalkChunk;
 import org.opennms.netmgt.snmp.proxy.common.testutils.ExpectedResults;
 import org.opennms.netmgt.snmp.proxy.common.testutils.IPAddressGatheringTracker;
 import org.opennms.test.JUnitConfigurationEnvironment;
@@ -235,4 +244,109 @@ public class LocationAwareSnmpClientIT extends CamelBlueprintTest {
             .execute().get();
         ExpectedResults.compareToKnownIpAddressList(tracker.getIpAddresses());
     }
+
+    /**
+     * Verifies that a streamed walk returns the same results as a regular walk,
+     * in bounded and sequentially numbered chunks.
+     */
+    @Test(timeout=60000)
+    public void canStreamWalkViaAnotherLocation() throws Exception {
+        final List<SnmpObjId> oids = List.of(SnmpObjId.get(".1.3.6.1.2.1.4.34.1.3"), SnmpObjId.get(".1.3.6.1.2.1.4.34.1.5"));
+        final List<SnmpResult> expected = new ArrayList<>(locationAwareSnmpClient.walk(agentConfig, oids)
+                .withLocation(REMOTE_LOCATION_NAME)
+                .execute().get());
+        Collections.sort(expected);
+
+        final List<WalkChunk> chunks = new ArrayList<>();
+        final long total = locationAwareSnmpClient.walkStreaming(agentConfig, oids)
+                .withChunkSize(4)
+                .withConsumer(chunks::add)
+                .withLocation(REMOTE_LOCATION_NAME)
+                .execute().get();
+
+        final List<SnmpResult> actual = new ArrayList<>();
+        for (int i = 0; i < chunks.size(); i++) {
+            final WalkChunk chunk = chunks.get(i);
+            assertEquals(i, chunk.getSequenceNumber());
+            assertEquals(i == chunks.size() - 1, chunk.isLast());
+            assertTrue(chunk.getResults().size() <= 4);
+            // the peer reports the PDUs it sent to retrieve the chunk
+            assertTrue(chunk.getResults().isEmpty() || chunk.getPdusSent() > 0);
+            actual.addAll(chunk.getResults());
+        }
+        Collections.sort(actual);
+        assertTrue(chunks.size() > 1);
+        assertEquals(expected.size(), total);
+        assertEquals(expected, actual);
+    }
+
+    /**
+     * Verifies that the chunks of a streamed walk are only delivered when requested.
+     */
+    @Test(timeout=60000)
+    public void canPublishWalkChunks() throws Exception {
+        final List<WalkChunk> chunks = Collections.synchronizedList(new ArrayList<>());
+        final CompletableFuture<Void> completed = new CompletableFuture<>();
+        final CompletableFuture<Flow.Subscription> subscribed = new CompletableFuture<>();
+        locationAwareSnmpClient.walkStreaming(agentConfig, SnmpObjId.get(".1.3.6.1.2.1.4.34.1.3"))
+                .withChunkSize(2)
+                .publisher()
+                .subscribe(new Flow.Subscriber<WalkChunk>() {
+                    @Override
+                    public void onSubscribe(Flow.Subscription subscription) {
+                        subscribed.complete(subscription);
+                    }
+
+                    @Override
+                    public void onNext(WalkChunk item) {
+                        chunks.add(item);
+                    }
+
+                    @Override
+                    public void onError(Throwable throwable) {
+                        completed.completeExceptionally(throwable);
+                    }
+
+                    @Override
+                    public void onComplete() {
+                        completed.complete(null);
+                    }
+                });
+
+        final Flow.Subscription subscription = subscribed.get();
+        subscription.request(1);
+        while (chunks.isEmpty()) {
+            Thread.sleep(10);
+        }
+        // nothing more is delivered until requested
+        Thread.sleep(500);
+        assertEquals(1, chunks.size());
+        assertFalse(completed.isDone());
+
+        subscription.request(Long.MAX_VALUE);
+        completed.get(30, TimeUnit.SECONDS);
+        assertTrue(chunks.get(chunks.size() - 1).isLast());
+    }
+
+    /**
+     * Verifies that the requests of a batch sent to a remote location
+     * are answered individually.
+     */
+    @Test(timeout=60000)
+    public void canExecuteBatchViaAnotherLocation() throws Exception {
+        final SNMPBatchRequestBuilder batch = locationAwareSnmpClient.batch(REMOTE_LOCATION_NAME)
+                .withMaxConcurrency(2);
+        final CompletableFuture<SnmpValue> loopback = batch.add(locationAwareSnmpClient.get(agentConfig,
+                SnmpObjId.get(".1.3.6.1.2.1.4.34.1.3.1.4.127.0.0.1")));
+        final CompletableFuture<SnmpValue> docker = batch.add(locationAwareSnmpClient.get(agentConfig,
+                SnmpObjId.get(".1.3.6.1.2.1.4.34.1.3.1.4.172.17.0.1")));
+        final IPAddressGatheringTracker tracker = new IPAddressGatheringTracker();
+        final CompletableFuture<IPAddressGatheringTracker> walk = batch.add(locationAwareSnmpClient.walk(agentConfig, tracker));
+        assertEquals(3, batch.size());
+
+        batch.execute().get();
+        assertEquals(1, loopback.get().toInt());
+        assertEquals(7, docker.get().toInt());
+        ExpectedResults.compareToKnownIpAddressList(walk.get().getIpAddresses());
+    }
 }
@@ -22,18 +22,34 @@
 package org.opennms.netmgt.snmp.proxy.common;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.net.InetAddress;
+import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.junit.After;
 import org.junit.Test;
+import org.opennms.netmgt.snmp.CollectionTracker;
+import org.opennms.netmgt.snmp.SnmpAgentConfig;
 import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.SnmpResult;
 import org.opennms.netmgt.snmp.SnmpUtils;
 import org.opennms.netmgt.snmp.SnmpValue;
+import org.opennms.netmgt.snmp.SnmpValueFactory;
+import org.opennms.netmgt.snmp.SnmpWalker;
+import org.opennms.netmgt.snmp.snmp4j.Snmp4JValueFactory;
+
+import com.google.common.collect.Lists;
 
 public class SnmpProxyRpcModuleTest {
 
@@ -50,11 +66,17 @@ public class SnmpProxyRpcModuleTest {
     public void testBehaviorWhenOneGetFails() throws InterruptedException, ExecutionException {
         // Mock the strategy class
         System.setProperty("org.opennms.snmp.strategyClass", MockSnmpStrategy.class.getName());
-        // Create a basic request with two gets
-        // (the agent and the OIDs don't matter here since we're mocking)
+        MockSnmpStrategy.setFirstCall(true);
+        // Create a basic request with two gets, limiting the agent
+        // to a single varbind per PDU so that each get is sent separately
         SnmpRequestDTO request = new SnmpRequestDTO();
+        SnmpAgentConfig agent = new SnmpAgentConfig(InetAddress.getLoopbackAddress());
+        agent.setMaxVarsPerPdu(1);
+        request.setAgent(agent);
         SnmpGetRequestDTO get1 = new SnmpGetRequestDTO();
+        get1.setOids(Lists.newArrayList(SnmpObjId.get(".1.3.6.1.2.1.1.2.0")));
         SnmpGetRequestDTO get2 = new SnmpGetRequestDTO();
+        get2.setOids(Lists.newArrayList(SnmpObjId.get(".1.3.6.1.2.1.1.5.0")));
         request.getGetRequests().add(get1);
         request.getGetRequests().add(get2);
 
@@ -103,4 +125,355 @@ public class SnmpProxyRpcModuleTest {
             fail();
         }
     }
+
+    @Test
+    public void testGetsAreCoalescedIntoPdus() throws InterruptedException, ExecutionException {
+        // Answers every OID with its own name and records the size of each PDU
+        final List<Integer> pduSizes = new ArrayList<>();
+        final SnmpValueFactory valueFactory = new Snmp4JValueFactory();
+        final MockSnmpStrategy strategy = new MockSnmpStrategy() {
+            @Override
+            public CompletableFuture<SnmpValue[]> getAsync(SnmpAgentConfig agentConfig, SnmpObjId[] oids) {
+                pduSizes.add(oids.length);
+                final SnmpValue[] values = new SnmpValue[oids.length];
+                for (int i = 0; i < oids.length; i++) {
+                    values[i] = valueFactory.getOctetString(oids[i].toString().getBytes());
+                }
+                return CompletableFuture.completedFuture(values);
+            }
+        };
+        SnmpUtils.setStrategyResolver(() -> strategy);
+
+        SnmpAgentConfig agent = new SnmpAgentConfig(InetAddress.getLoopbackAddress());
+        agent.setMaxVarsPerPdu(4);
+        SnmpRequestDTO request = new SnmpRequestDTO();
+        request.setAgent(agent);
+        for (int i = 0; i < 3; i++) {
+            SnmpGetRequestDTO get = new SnmpGetRequestDTO();
+            get.setCorrelationId(Integer.toString(i));
+            get.setOids(Lists.newArrayList(SnmpObjId.get(".1.3.6.1.2.1.2.2.1.2." + i),
+                    SnmpObjId.get(".1.3.6.1.2.1.2.2.1.5." + i), SnmpObjId.get(".1.3.6.1.2.1.2.2.1.8." + i)));
+            request.getGetRequests().add(get);
+        }
+
+        SnmpMultiResponseDTO response = SnmpProxyRpcModule.INSTANCE.execute(request).get();
+
+        // 9 OIDs fit in 3 PDUs of at most 4 varbinds instead of one PDU per get
+        assertEquals(Lists.newArrayList(4, 4, 1), pduSizes);
+        assertEquals(3, response.getResponses().size());
+        for (int i = 0; i < 3; i++) {
+            SnmpResponseDTO get = response.getResponses().get(i);
+            assertEquals(Integer.toString(i), get.getCorrelationId());
+            assertEquals(3, get.getResults().size());
+            for (SnmpResult result : get.getResults()) {
+                assertEquals(result.getBase().toString(), new String(result.getValue().getBytes()));
+            }
+        }
+    }
+
+    @Test
+    public void testBatchIsExecutedWithinWindow() throws InterruptedException, ExecutionException {
+        // Leaves every PDU pending until the test completes it
+        final List<CompletableFuture<SnmpValue[]>> pdus = new ArrayList<>();
+        final MockSnmpStrategy strategy = new MockSnmpStrategy() {
+            @Override
+            public CompletableFuture<SnmpValue[]> getAsync(SnmpAgentConfig agentConfig, SnmpObjId[] oids) {
+                final CompletableFuture<SnmpValue[]> pdu = new CompletableFuture<>();
+                pdus.add(pdu);
+                return pdu;
+            }
+        };
+        SnmpUtils.setStrategyResolver(() -> strategy);
+
+        SnmpRequestDTO batch = new SnmpRequestDTO();
+        batch.setMaxConcurrency(2);
+        for (int i = 0; i < 5; i++) {
+            SnmpGetRequestDTO get = new SnmpGetRequestDTO();
+            get.setOids(Lists.newArrayList(SnmpObjId.get(".1.3.6.1.2.1.1.5.0")));
+            SnmpRequestDTO agentRequest = new SnmpRequestDTO();
+            agentRequest.setAgent(new SnmpAgentConfig(InetAddress.getLoopbackAddress()));
+            agentRequest.getGetRequests().add(get);
+            batch.getRequests().add(agentRequest);
+        }
+
+        CompletableFuture<SnmpMultiResponseDTO> future = SnmpProxyRpcModule.INSTANCE.execute(batch);
+        assertEquals(2, pdus.size());
+
+        // Each agent that is done lets the next one in, failures included
+        final SnmpValue sysName = new Snmp4JValueFactory().getOctetString("sysName".getBytes());
+        pdus.get(0).complete(new SnmpValue[] { sysName });
+        assertEquals(3, pdus.size());
+        pdus.get(1).completeExceptionally(new IllegalStateException("Oups"));
+        assertEquals(4, pdus.size());
+        pdus.get(2).complete(new SnmpValue[] { sysName });
+        pdus.get(3).complete(new SnmpValue[] { sysName });
+        assertEquals(5, pdus.size());
+        assertFalse(future.isDone());
+        pdus.get(4).complete(new SnmpValue[] { sysName });
+
+        SnmpMultiResponseDTO response = future.get();
+        assertEquals(5, response.getAgentResponses().size());
+        for (int i = 0; i < 5; i++) {
+            SnmpMultiResponseDTO agentResponse = response.getAgentResponses().get(i);
+            if (i == 1) {
+                assertTrue(agentResponse.getErrorMessage().contains("Oups"));
+            } else {
+                assertNull(agentResponse.getErrorMessage());
+                assertEquals(sysName, agentResponse.getResponses().get(0).getResults().get(0).getValue());
+            }
+        }
+    }
+
+    @Test
+    public void testExpiredBatchKeepsTheResponsesReceived() throws InterruptedException, ExecutionException {
+        // Leaves every PDU pending until the test completes it
+        final List<CompletableFuture<SnmpValue[]>> pdus = new ArrayList<>();
+        final MockSnmpStrategy strategy = new MockSnmpStrategy() {
+            @Override
+            public CompletableFuture<SnmpValue[]> getAsync(SnmpAgentConfig agentConfig, SnmpObjId[] oids) {
+                final CompletableFuture<SnmpValue[]> pdu = new CompletableFuture<>();
+                pdus.add(pdu);
+                return pdu;
+            }
+        };
+        SnmpUtils.setStrategyResolver(() -> strategy);
+
+        SnmpRequestDTO batch = new SnmpRequestDTO();
+        batch.setMaxConcurrency(2);
+        batch.setTimeToLive(100L);
+        for (int i = 0; i < 3; i++) {
+            SnmpGetRequestDTO get = new SnmpGetRequestDTO();
+            get.setOids(Lists.newArrayList(SnmpObjId.get(".1.3.6.1.2.1.1.5.0")));
+            SnmpRequestDTO agentRequest = new SnmpRequestDTO();
+            agentRequest.setAgent(new SnmpAgentConfig(InetAddress.getLoopbackAddress()));
+            agentRequest.getGetRequests().add(get);
+            batch.getRequests().add(agentRequest);
+        }
+
+        CompletableFuture<SnmpMultiResponseDTO> future = SnmpProxyRpcModule.INSTANCE.execute(batch);
+        final SnmpValue sysName = new Snmp4JValueFactory().getOctetString("sysName".getBytes());
+        pdus.get(0).complete(new SnmpValue[] { sysName });
+        assertEquals(3, pdus.size());
+
+        // The agent that answered keeps its response, the others time out on their own
+        SnmpMultiResponseDTO response = future.get();
+        assertEquals(3, response.getAgentResponses().size());
+        assertNull(response.getAgentResponses().get(0).getErrorMessage());
+        assertEquals(sysName, response.getAgentResponses().get(0).getResponses().get(0).getResults().get(0).getValue());
+        for (int i = 1; i < 3; i++) {
+            assertTrue(response.getAgentResponses().get(i).getErrorMessage().contains("time to live"));
+            assertTrue(pdus.get(i).isCancelled());
+        }
+    }
+
+    @Test
+    public void testTimeToLiveCancelsPendingPdus() throws InterruptedException {
+        // The agent never answers
+        final List<CompletableFuture<SnmpValue[]>> pdus = new ArrayList<>();
+        final MockSnmpStrategy strategy = new MockSnmpStrategy() {
+            @Override
+            public CompletableFuture<SnmpValue[]> getAsync(SnmpAgentConfig agentConfig, SnmpObjId[] oids) {
+                final CompletableFuture<SnmpValue[]> pdu = new CompletableFuture<>();
+                pdus.add(pdu);
+                return pdu;
+            }
+        };
+        SnmpUtils.setStrategyResolver(() -> strategy);
+
+        SnmpRequestDTO request = new SnmpRequestDTO();
+        request.setAgent(new SnmpAgentConfig(InetAddress.getLoopbackAddress()));
+        request.setTimeToLive(100L);
+        SnmpGetRequestDTO get = new SnmpGetRequestDTO();
+        get.setOids(Lists.newArrayList(SnmpObjId.get(".1.3.6.1.2.1.1.5.0")));
+        request.getGetRequests().add(get);
+
+        CompletableFuture<SnmpMultiResponseDTO> future = SnmpProxyRpcModule.INSTANCE.execute(request);
+        try {
+            future.get();
+            fail("did not time out!");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().getMessage().contains("time to live"));
+        }
+        assertEquals(1, pdus.size());
+        assertCancelled(pdus.get(0));
+    }
+
+    @Test
+    public void testCancellingTheRequestCancelsTheWalk() throws InterruptedException {
+        // The walker sends its first PDU and never gets an answer
+        final CountDownLatch closed = new CountDownLatch(1);
+        final List<SnmpWalker> walkers = new ArrayList<>();
+        final MockSnmpStrategy strategy = new MockSnmpStrategy() {
+            @Override
+            public SnmpWalker createWalker(SnmpAgentConfig agentConfig, String name, CollectionTracker tracker) {
+                final SnmpWalker walker = new SnmpWalker(agentConfig.getAddress(), name, 10, 10, 0, tracker) {
+                    @Override
+                    protected WalkerPduBuilder createPduBuilder(int maxVarsPerPdu) {
+                        return new WalkerPduBuilder(maxVarsPerPdu) {
+                            @Override
+                            public void reset() { }
+
+                            @Override
+                            public void addOid(SnmpObjId snmpObjId) { }
+
+                            @Override
+                            public void setNonRepeaters(int numNonRepeaters) { }
+
+                            @Override
+                            public void setMaxRepetitions(int maxRepetitions) { }
+                        };
+                    }
+
+                    @Override
+                    protected void sendNextPdu(WalkerPduBuilder pduBuilder) { }
+
+                    @Override
+                    public void close() {
+                        closed.countDown();
+                    }
+                };
+                walkers.add(walker);
+                return walker;
+            }
+        };
+        SnmpUtils.setStrategyResolver(() -> strategy);
+
+        SnmpRequestDTO request = new SnmpRequestDTO();
+        request.setAgent(new SnmpAgentConfig(InetAddress.getLoopbackAddress()));
+        SnmpWalkRequestDTO walk = new SnmpWalkRequestDTO();
+        walk.setOids(Lists.newArrayList(SnmpObjId.get(".1.3.6.1.2.1.2.2.1.2")));
+        request.getWalkRequest().add(walk);
+
+        CompletableFuture<SnmpMultiResponseDTO> future = SnmpProxyRpcModule.INSTANCE.execute(request);
+        assertEquals(1, walkers.size());
+        assertFalse(walkers.get(0).isFinished());
+        assertEquals(1, walkers.get(0).getPdusSent());
+
+        future.cancel(true);
+        assertTrue(walkers.get(0).isFinished());
+        assertTrue(walkers.get(0).failed());
+        // the session is released on the reaper thread
+        assertTrue(closed.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testGetsShareCachedValues() throws InterruptedException, ExecutionException, UnknownHostException {
+        final List<CompletableFuture<SnmpValue[]>> pdus = new ArrayList<>();
+        final MockSnmpStrategy strategy = new MockSnmpStrategy() {
+            @Override
+            public CompletableFuture<SnmpValue[]> getAsync(SnmpAgentConfig agentConfig, SnmpObjId[] oids) {
+                final CompletableFuture<SnmpValue[]> pdu = new CompletableFuture<>();
+                pdus.add(pdu);
+                return pdu;
+            }
+        };
+        SnmpUtils.setStrategyResolver(() -> strategy);
+        final SnmpProxyRpcModule module = new SnmpProxyRpcModule();
+        final SnmpObjId sysName = SnmpObjId.get(".1.3.6.1.2.1.1.5.0");
+        final SnmpValue value = new Snmp4JValueFactory().getOctetString("sysName".getBytes());
+
+        // Two concurrent requests accepting cached values share a single query
+        CompletableFuture<SnmpMultiResponseDTO> first = module.execute(getRequest(sysName, 60000L));
+        CompletableFuture<SnmpMultiResponseDTO> second = module.execute(getRequest(sysName, 60000L));
+        assertEquals(1, pdus.size());
+        pdus.get(0).complete(new SnmpValue[] { value });
+        assertEquals(value, first.get().getResponses().get(0).getResults().get(0).getValue());
+        assertEquals(value, second.get().getResponses().get(0).getResults().get(0).getValue());
+
+        // Later ones are answered from the cache
+        SnmpMultiResponseDTO third = module.execute(getRequest(sysName, 60000L)).get();
+        assertEquals(value, third.getResponses().get(0).getResults().get(0).getValue());
+        assertEquals(1, pdus.size());
+        assertEquals(1, module.getResponseCache().getStats().getMisses());
+        assertEquals(1, module.getResponseCache().getStats().getSharedQueries());
+        assertEquals(1, module.getResponseCache().getStats().getHits());
+
+        // Unless they do not accept cached values
+        module.execute(getRequest(sysName, null));
+        assertEquals(2, pdus.size());
+
+        // Failures are not cached
+        module.getResponseCache().invalidateAll();
+        CompletableFuture<SnmpMultiResponseDTO> failed = module.execute(getRequest(sysName, 60000L));
+        pdus.get(2).completeExceptionally(new IllegalStateException("Oups"));
+        assertTrue(failed.isCompletedExceptionally());
+        module.execute(getRequest(sysName, 60000L));
+        assertEquals(4, pdus.size());
+    }
+
+    @Test
+    public void testSharedQueryOutlivesTheRequestOwningIt() throws InterruptedException, ExecutionException, UnknownHostException {
+        final List<CompletableFuture<SnmpValue[]>> pdus = new ArrayList<>();
+        final MockSnmpStrategy strategy = new MockSnmpStrategy() {
+            @Override
+            public CompletableFuture<SnmpValue[]> getAsync(SnmpAgentConfig agentConfig, SnmpObjId[] oids) {
+                final CompletableFuture<SnmpValue[]> pdu = new CompletableFuture<>();
+                pdus.add(pdu);
+                return pdu;
+            }
+        };
+        SnmpUtils.setStrategyResolver(() -> strategy);
+        final SnmpProxyRpcModule module = new SnmpProxyRpcModule();
+        final SnmpObjId sysName = SnmpObjId.get(".1.3.6.1.2.1.1.5.0");
+        final SnmpValue value = new Snmp4JValueFactory().getOctetString("sysName".getBytes());
+
+        // The first request queries the agent and times out while the second one waits for the same value
+        final SnmpRequestDTO owner = getRequest(sysName, 60000L);
+        owner.setTimeToLive(100L);
+        CompletableFuture<SnmpMultiResponseDTO> first = module.execute(owner);
+        CompletableFuture<SnmpMultiResponseDTO> second = module.execute(getRequest(sysName, 60000L));
+        assertEquals(1, pdus.size());
+        try {
+            first.get();
+            fail("did not time out!");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().getMessage().contains("time to live"));
+        }
+        assertFalse(pdus.get(0).isDone());
+        assertFalse(second.isDone());
+
+        pdus.get(0).complete(new SnmpValue[] { value });
+        assertEquals(value, second.get().getResponses().get(0).getResults().get(0).getValue());
+
+        // The query is abandoned once the last request waiting for it gives up
+        module.getResponseCache().invalidateAll();
+        final SnmpRequestDTO alone = getRequest(sysName, 60000L);
+        alone.setTimeToLive(100L);
+        final SnmpRequestDTO waiting = getRequest(sysName, 60000L);
+        waiting.setTimeToLive(200L);
+        CompletableFuture<SnmpMultiResponseDTO> third = module.execute(alone);
+        CompletableFuture<SnmpMultiResponseDTO> fourth = module.execute(waiting);
+        assertEquals(2, pdus.size());
+        try {
+            fourth.get();
+            fail("did not time out!");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().getMessage().contains("time to live"));
+        }
+        assertTrue(third.isCompletedExceptionally());
+        assertCancelled(pdus.get(1));
+    }
+
+    /**
+     * The PDUs still in flight are cancelled by the thread failing the request, which may
+     * only get to it after the caller was woken up by the failure.
+     */
+    private static void assertCancelled(CompletableFuture<?> pdu) throws InterruptedException {
+        try {
+            pdu.handle((v, t) -> null).get(10, TimeUnit.SECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            fail("the PDU was not cancelled");
+        }
+        assertTrue(pdu.isCancelled());
+    }
+
+    private static SnmpRequestDTO getRequest(SnmpObjId oid, Long maxAge) throws UnknownHostException {
+        SnmpRequestDTO request = new SnmpRequestDTO();
+        request.setAgent(new SnmpAgentConfig(InetAddress.getByName("192.0.2.1")));
+        SnmpGetRequestDTO get = new SnmpGetRequestDTO();
+        get.setOids(Lists.newArrayList(oid));
+        get.setMaxAge(maxAge);
+        request.getGetRequests().add(get);
+        return request;
+    }
 }
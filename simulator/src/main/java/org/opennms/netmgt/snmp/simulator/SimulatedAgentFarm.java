@@ -0,0 +1,596 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.snmp.simulator;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.SnmpValue;
+import org.opennms.netmgt.snmp.mock.PropertyOidContainer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.snmp4j.PDU;
+import org.snmp4j.PDUv1;
+import org.snmp4j.asn1.BER;
+import org.snmp4j.asn1.BERInputStream;
+import org.snmp4j.asn1.BEROutputStream;
+import org.snmp4j.mp.SnmpConstants;
+import org.snmp4j.smi.Counter32;
+import org.snmp4j.smi.Counter64;
+import org.snmp4j.smi.Gauge32;
+import org.snmp4j.smi.Integer32;
+import org.snmp4j.smi.IpAddress;
+import org.snmp4j.smi.Null;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.smi.Opaque;
+import org.snmp4j.smi.TimeTicks;
+import org.snmp4j.smi.Variable;
+import org.snmp4j.smi.VariableBinding;
+import org.springframework.core.io.FileSystemResource;
+
+/**
+ * Serves many simulated SNMPv1/v2c agents from a single JVM over real UDP.
+ *
+ * Every agent is bound to its own address and port, typically a range of ports on the
+ * loopback address or the same port on several loopback aliases, and answers GET, GETNEXT
+ * and GETBULK requests from a {@link PropertyOidContainer} loaded from the usual
+ * property/snmpwalk data files. Agents may share the same container.
+ *
+ * All sockets are served by a single selector thread, so thousands of agents do not cost
+ * thousands of threads. Responses can be delayed by a fixed latency plus a random jitter,
+ * requests can be dropped at a given rate and responses larger than the configured maximum
+ * size are answered with tooBig, except GETBULK responses which are truncated as real agents
+ * do. SETs are rejected as not writable and SNMPv3 requests are ignored.
+ *
+ * The randomness is seeded so that a run can be reproduced.
+ */
+public class SimulatedAgentFarm implements Closeable {
+    private static final transient Logger LOG = LoggerFactory.getLogger(SimulatedAgentFarm.class);
+
+    private static final int MAX_DATAGRAM_SIZE = 65535;
+
+    /**
+     * Upper bound of the bytes the message, PDU and variable bindings headers grow by
+     * once variable bindings are added to an empty response.
+     */
+    private static final int HEADERS_GROWTH = 6;
+
+    private final Selector m_selector;
+    private final Queue<SimulatedAgent> m_pending = new ConcurrentLinkedQueue<>();
+    private final List<SimulatedAgent> m_agents = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService m_scheduler;
+    private final PropertyOidContainer m_defaultData;
+    private final FarmStats m_stats = new FarmStats();
+
+    // only used by the I/O thread
+    private final Random m_random = new Random(Long.getLong("org.opennms.core.snmp.simulator.seed", 0L));
+
+    private volatile OctetString m_community = new OctetString(System.getProperty("org.opennms.core.snmp.simulator.community", "public"));
+    private volatile long m_latencyMs = Long.getLong("org.opennms.core.snmp.simulator.latencyMs", 0L);
+    private volatile int m_jitterMs = Integer.getInteger("org.opennms.core.snmp.simulator.jitterMs", 0);
+    private volatile double m_lossRate = Double.parseDouble(System.getProperty("org.opennms.core.snmp.simulator.lossRate", "0"));
+    private volatile int m_maxResponseSize = Integer.getInteger("org.opennms.core.snmp.simulator.maxResponseSize", MAX_DATAGRAM_SIZE);
+
+    private volatile boolean m_running = false;
+    private Thread m_thread;
+
+    /**
+     * @param defaultData the MIB served by the agents added without their own data
+     */
+    public SimulatedAgentFarm(final PropertyOidContainer defaultData) throws IOException {
+        m_defaultData = defaultData;
+        m_selector = Selector.open();
+        m_scheduler = Executors.newScheduledThreadPool(Integer.getInteger("org.opennms.core.snmp.simulator.schedulerThreads", 1), r -> {
+            final Thread thread = new Thread(r, "SimulatedAgentFarm-Scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Binds a new agent serving the default data.
+     *
+     * @param address where the agent listens, port 0 picks an ephemeral port
+     * @return the address the agent is bound to
+     */
+    public InetSocketAddress addAgent(final InetSocketAddress address) throws IOException {
+        return addAgent(address, m_defaultData);
+    }
+
+    public InetSocketAddress addAgent(final InetSocketAddress address, final PropertyOidContainer data) throws IOException {
+        final DatagramChannel channel = DatagramChannel.open();
+        try {
+            channel.configureBlocking(false);
+            channel.bind(address);
+        } catch (final IOException e) {
+            channel.close();
+            throw e;
+        }
+        final SimulatedAgent agent = new SimulatedAgent(channel, data);
+        m_agents.add(agent);
+        m_pending.add(agent);
+        // channels can only be registered while the selector is not blocked
+        m_selector.wakeup();
+        LOG.debug("addAgent: agent listening on {}", agent.getAddress());
+        return agent.getAddress();
+    }
+
+    /**
+     * Binds {@code count} agents on consecutive ports of the given address.
+     *
+     * @param firstPort port of the first agent, 0 gives every agent an ephemeral port
+     */
+    public List<InetSocketAddress> addAgents(final InetAddress address, final int firstPort, final int count) throws IOException {
+        final List<InetSocketAddress> addresses = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            addresses.add(addAgent(new InetSocketAddress(address, firstPort == 0 ? 0 : firstPort + i)));
+        }
+        return addresses;
+    }
+
+    public List<InetSocketAddress> getAgentAddresses() {
+        final List<InetSocketAddress> addresses = new ArrayList<>(m_agents.size());
+        for (final SimulatedAgent agent : m_agents) {
+            addresses.add(agent.getAddress());
+        }
+        return Collections.unmodifiableList(addresses);
+    }
+
+    public synchronized void start() {
+        if (m_running) {
+            return;
+        }
+        m_running = true;
+        m_thread = new Thread(this::run, "SimulatedAgentFarm-IO");
+        m_thread.start();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        m_running = false;
+        m_selector.wakeup();
+        if (m_thread != null) {
+            try {
+                m_thread.join();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            m_thread = null;
+        }
+        m_scheduler.shutdownNow();
+        for (final SimulatedAgent agent : m_agents) {
+            agent.m_channel.close();
+        }
+        m_agents.clear();
+        m_selector.close();
+    }
+
+    public FarmStats getStats() {
+        return m_stats;
+    }
+
+    public void setCommunity(final String community) {
+        m_community = new OctetString(community);
+    }
+
+    /**
+     * Delays every response by {@code latencyMs} plus a uniformly distributed jitter
+     * of up to {@code jitterMs}. Jitter lets responses overtake each other.
+     */
+    public void setLatency(final long latencyMs, final int jitterMs) {
+        m_latencyMs = latencyMs;
+        m_jitterMs = jitterMs;
+    }
+
+    /**
+     * @param lossRate fraction of the requests that are silently dropped, between 0 and 1
+     */
+    public void setLossRate(final double lossRate) {
+        m_lossRate = lossRate;
+    }
+
+    /**
+     * @param maxResponseSize size of the largest message the agents send, in bytes
+     */
+    public void setMaxResponseSize(final int maxResponseSize) {
+        m_maxResponseSize = maxResponseSize;
+    }
+
+    private void run() {
+        final ByteBuffer buffer = ByteBuffer.allocate(MAX_DATAGRAM_SIZE);
+        while (m_running) {
+            try {
+                SimulatedAgent agent;
+                while ((agent = m_pending.poll()) != null) {
+                    agent.m_channel.register(m_selector, SelectionKey.OP_READ, agent);
+                }
+                m_selector.select();
+                final Iterator<SelectionKey> keys = m_selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    final SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    agent = (SimulatedAgent)key.attachment();
+                    SocketAddress source;
+                    while ((source = agent.m_channel.receive(buffer.clear())) != null) {
+                        buffer.flip();
+                        handle(agent, source, buffer);
+                    }
+                }
+            } catch (final IOException e) {
+                if (m_running) {
+                    LOG.warn("run: failed to read requests", e);
+                }
+            }
+        }
+    }
+
+    private void handle(final SimulatedAgent agent, final SocketAddress source, final ByteBuffer request) {
+        m_stats.m_received.increment();
+        if (m_lossRate > 0 && m_random.nextDouble() < m_lossRate) {
+            m_stats.m_dropped.increment();
+            return;
+        }
+
+        final ByteBuffer response;
+        try {
+            response = respond(agent.m_data, request);
+        } catch (final IOException | RuntimeException e) {
+            LOG.debug("handle: ignoring malformed request from {} to {}", source, agent.getAddress(), e);
+            m_stats.m_ignored.increment();
+            return;
+        }
+        if (response == null) {
+            m_stats.m_ignored.increment();
+            return;
+        }
+
+        final long delayMs = m_latencyMs + (m_jitterMs > 0 ? m_random.nextInt(m_jitterMs + 1) : 0);
+        if (delayMs > 0) {
+            m_scheduler.schedule(() -> send(agent, source, response), delayMs, TimeUnit.MILLISECONDS);
+        } else {
+            send(agent, source, response);
+        }
+    }
+
+    private void send(final SimulatedAgent agent, final SocketAddress destination, final ByteBuffer response) {
+        try {
+            agent.m_channel.send(response, destination);
+            m_stats.m_responded.increment();
+        } catch (final IOException e) {
+            LOG.debug("send: failed to answer {} from {}", destination, agent.getAddress(), e);
+        }
+    }
+
+    /**
+     * @return the encoded response or null if the request should be ignored
+     */
+    ByteBuffer respond(final PropertyOidContainer data, final ByteBuffer request) throws IOException {
+        final BERInputStream in = new BERInputStream(request);
+        final BER.MutableByte type = new BER.MutableByte();
+        BER.decodeHeader(in, type);
+        if (type.getValue() != BER.SEQUENCE) {
+            return null;
+        }
+        final Integer32 version = new Integer32();
+        version.decodeBER(in);
+        if (version.getValue() != SnmpConstants.version1 && version.getValue() != SnmpConstants.version2c) {
+            return null;
+        }
+        final OctetString community = new OctetString();
+        community.decodeBER(in);
+        if (!community.equals(m_community)) {
+            return null;
+        }
+        final boolean v1 = version.getValue() == SnmpConstants.version1;
+        final PDU pdu = v1 ? new PDUv1() : new PDU();
+        pdu.decodeBER(in);
+
+        PDU response = newResponse(pdu, v1);
+        switch (pdu.getType()) {
+        case PDU.GET:
+            for (int i = 0; i < pdu.size(); i++) {
+                final OID oid = pdu.get(i).getOid();
+                final SnmpValue value = data.findValueForOid(toSnmpObjId(oid));
+                if (v1 && value.isError()) {
+                    return encode(version, community, error(pdu, v1, PDU.noSuchName, i + 1));
+                }
+                response.add(new VariableBinding(oid, toVariable(value)));
+            }
+            break;
+        case PDU.GETNEXT:
+            for (int i = 0; i < pdu.size(); i++) {
+                final VariableBinding next = next(data, pdu.get(i).getOid());
+                if (v1 && next.getVariable().isException()) {
+                    return encode(version, community, error(pdu, v1, PDU.noSuchName, i + 1));
+                }
+                response.add(next);
+            }
+            break;
+        case PDU.GETBULK:
+            if (v1) {
+                return null;
+            }
+            response = bulk(data, version, community, pdu);
+            break;
+        case PDU.SET:
+            response = error(pdu, v1, v1 ? PDU.noSuchName : PDU.notWritable, 1);
+            break;
+        default:
+            return null;
+        }
+
+        if (length(version, community, response) > m_maxResponseSize) {
+            m_stats.m_tooBig.increment();
+            response = newResponse(pdu, v1);
+            response.setErrorStatus(PDU.tooBig);
+            // SNMPv1 echoes the request, SNMPv2c sends no variable bindings
+            if (v1) {
+                for (int i = 0; i < pdu.size(); i++) {
+                    response.add(pdu.get(i));
+                }
+            }
+        }
+        return encode(version, community, response);
+    }
+
+    /**
+     * Repeats GETNEXT on the repeaters as long as the response fits in the maximum size,
+     * see RFC 3416 section 4.2.3. Only the non-repeaters are required to fit.
+     */
+    private PDU bulk(final PropertyOidContainer data, final Integer32 version, final OctetString community, final PDU request) {
+        final PDU response = newResponse(request, false);
+        final int nonRepeaters = Math.min(Math.max(request.getNonRepeaters(), 0), request.size());
+        final int maxRepetitions = Math.max(request.getMaxRepetitions(), 0);
+        int available = m_maxResponseSize - length(version, community, response) - HEADERS_GROWTH;
+
+        for (int i = 0; i < nonRepeaters; i++) {
+            final VariableBinding next = next(data, request.get(i).getOid());
+            available -= next.getBERLength();
+            response.add(next);
+        }
+
+        final OID[] last = new OID[request.size() - nonRepeaters];
+        for (int i = 0; i < last.length; i++) {
+            last[i] = request.get(nonRepeaters + i).getOid();
+        }
+        for (int r = 0; r < maxRepetitions && available >= 0; r++) {
+            boolean more = false;
+            for (int i = 0; i < last.length; i++) {
+                final VariableBinding next = next(data, last[i]);
+                if (available < next.getBERLength()) {
+                    m_stats.m_truncated.increment();
+                    return response;
+                }
+                available -= next.getBERLength();
+                response.add(next);
+                last[i] = next.getOid();
+                more |= !next.getVariable().isException();
+            }
+            if (!more) {
+                break;
+            }
+        }
+        return response;
+    }
+
+    private static VariableBinding next(final PropertyOidContainer data, final OID oid) {
+        final SnmpObjId next = data.findNextOidForOid(toSnmpObjId(oid));
+        if (next == null) {
+            return new VariableBinding(oid, Null.endOfMibView);
+        }
+        return new VariableBinding(new OID(next.getIds()), toVariable(data.findValueForOid(next)));
+    }
+
+    private static PDU newResponse(final PDU request, final boolean v1) {
+        final PDU response = v1 ? new PDUv1() : new PDU();
+        response.setType(PDU.RESPONSE);
+        response.setRequestID(request.getRequestID());
+        return response;
+    }
+
+    private static PDU error(final PDU request, final boolean v1, final int errorStatus, final int errorIndex) {
+        final PDU response = newResponse(request, v1);
+        for (int i = 0; i < request.size(); i++) {
+            response.add(request.get(i));
+        }
+        response.setErrorStatus(errorStatus);
+        response.setErrorIndex(errorIndex);
+        return response;
+    }
+
+    private static int length(final Integer32 version, final OctetString community, final PDU pdu) {
+        final int length = version.getBERLength() + community.getBERLength() + pdu.getBERLength();
+        return 1 + BER.getBERLengthOfLength(length) + length;
+    }
+
+    private static ByteBuffer encode(final Integer32 version, final OctetString community, final PDU pdu) throws IOException {
+        final int length = version.getBERLength() + community.getBERLength() + pdu.getBERLength();
+        final ByteBuffer buffer = ByteBuffer.allocate(1 + BER.getBERLengthOfLength(length) + length);
+        final BEROutputStream out = new BEROutputStream(buffer);
+        BER.encodeHeader(out, BER.SEQUENCE, length);
+        version.encodeBER(out);
+        community.encodeBER(out);
+        pdu.encodeBER(out);
+        buffer.flip();
+        return buffer;
+    }
+
+    private static SnmpObjId toSnmpObjId(final OID oid) {
+        return SnmpObjId.get(oid.getValue());
+    }
+
+    static Variable toVariable(final SnmpValue value) {
+        switch (value.getType()) {
+        case SnmpValue.SNMP_INT32:
+            return new Integer32(value.toInt());
+        case SnmpValue.SNMP_OCTET_STRING:
+            return new OctetString(value.getBytes());
+        case SnmpValue.SNMP_OBJECT_IDENTIFIER:
+            return new OID(value.toSnmpObjId().getIds());
+        case SnmpValue.SNMP_IPADDRESS:
+            return new IpAddress(value.toInetAddress());
+        case SnmpValue.SNMP_COUNTER32:
+            return new Counter32(value.toLong());
+        case SnmpValue.SNMP_GAUGE32:
+            return new Gauge32(value.toLong());
+        case SnmpValue.SNMP_TIMETICKS:
+            return new TimeTicks(value.toLong());
+        case SnmpValue.SNMP_OPAQUE:
+            return new Opaque(value.getBytes());
+        case SnmpValue.SNMP_COUNTER64:
+            return new Counter64(value.toBigInteger().longValue());
+        case SnmpValue.SNMP_NO_SUCH_OBJECT:
+            return Null.noSuchObject;
+        case SnmpValue.SNMP_NO_SUCH_INSTANCE:
+            return Null.noSuchInstance;
+        case SnmpValue.SNMP_END_OF_MIB:
+            return Null.endOfMibView;
+        default:
+            return new Null();
+        }
+    }
+
+    private static class SimulatedAgent {
+        private final DatagramChannel m_channel;
+        private final PropertyOidContainer m_data;
+        private final InetSocketAddress m_address;
+
+        private SimulatedAgent(final DatagramChannel channel, final PropertyOidContainer data) throws IOException {
+            m_channel = channel;
+            m_data = data;
+            m_address = (InetSocketAddress)channel.getLocalAddress();
+        }
+
+        public InetSocketAddress getAddress() {
+            return m_address;
+        }
+    }
+
+    /**
+     * Counters shared by all the agents of a farm.
+     */
+    public static class FarmStats {
+        private final LongAdder m_received = new LongAdder();
+        private final LongAdder m_responded = new LongAdder();
+        private final LongAdder m_dropped = new LongAdder();
+        private final LongAdder m_ignored = new LongAdder();
+        private final LongAdder m_tooBig = new LongAdder();
+        private final LongAdder m_truncated = new LongAdder();
+
+        public long getReceived() {
+            return m_received.sum();
+        }
+
+        public long getResponded() {
+            return m_responded.sum();
+        }
+
+        /**
+         * @return requests dropped to simulate loss
+         */
+        public long getDropped() {
+            return m_dropped.sum();
+        }
+
+        /**
+         * @return malformed, unsupported or unauthorized requests
+         */
+        public long getIgnored() {
+            return m_ignored.sum();
+        }
+
+        public long getTooBig() {
+            return m_tooBig.sum();
+        }
+
+        /**
+         * @return GETBULK responses cut short to fit in the maximum size
+         */
+        public long getTruncated() {
+            return m_truncated.sum();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("received=%d, responded=%d, dropped=%d, ignored=%d, tooBig=%d, truncated=%d",
+                    getReceived(), getResponded(), getDropped(), getIgnored(), getTooBig(), getTruncated());
+        }
+    }
+
+    /**
+     * Runs a farm until the JVM is stopped.
+     *
+     * Usage: {@code SimulatedAgentFarm <data file> [addresses] [first port] [agents per address]}
+     * where addresses is a comma separated list, for example loopback aliases.
+     * Latency, loss and maximum response size are read from the
+     * {@code org.opennms.core.snmp.simulator.*} system properties.
+     */
+    public static void main(final String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: SimulatedAgentFarm <data file> [addresses] [first port] [agents per address]");
+            System.exit(1);
+        }
+        final PropertyOidContainer data = new PropertyOidContainer(new FileSystemResource(args[0]));
+        final String[] addresses = (args.length > 1 ? args[1] : "127.0.0.1").split(",");
+        final int firstPort = args.length > 2 ? Integer.parseInt(args[2]) : 1161;
+        final int count = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+
+        final SimulatedAgentFarm farm = new SimulatedAgentFarm(data);
+        for (final String address : addresses) {
+            final List<InetSocketAddress> agents = farm.addAgents(InetAddress.getByName(address.trim()), firstPort, count);
+            System.out.printf("%d agents listening on %s to %s%n", agents.size(), agents.get(0), agents.get(agents.size() - 1));
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            System.out.println(farm.getStats());
+            try {
+                farm.close();
+            } catch (final IOException e) {
+                LOG.warn("main: failed to close the farm", e);
+            }
+        }));
+        farm.start();
+    }
+}
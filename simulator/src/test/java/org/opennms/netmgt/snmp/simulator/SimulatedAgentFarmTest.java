@@ -0,0 +1,174 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.snmp.simulator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.snmp.ColumnTracker;
+import org.opennms.netmgt.snmp.SnmpAgentConfig;
+import org.opennms.netmgt.snmp.SnmpAgentTimeoutException;
+import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.SnmpResult;
+import org.opennms.netmgt.snmp.SnmpValue;
+import org.opennms.netmgt.snmp.SnmpWalker;
+import org.opennms.netmgt.snmp.mock.PropertyOidContainer;
+import org.opennms.netmgt.snmp.snmp4j.Snmp4JStrategy;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+
+public class SimulatedAgentFarmTest {
+
+    private static final SnmpObjId SYS_DESCR = SnmpObjId.get(".1.3.6.1.2.1.1.1.0");
+    private static final SnmpObjId SYS_NAME = SnmpObjId.get(".1.3.6.1.2.1.1.5.0");
+    private static final SnmpObjId IF_DESCR = SnmpObjId.get(".1.3.6.1.2.1.2.2.1.2");
+
+    private final Snmp4JStrategy m_strategy = new Snmp4JStrategy();
+    private SimulatedAgentFarm m_farm;
+
+    /**
+     * The system group and a small interface table: six ifDescr rows followed by enough
+     * columns for a bulk response of 20 repetitions not to fit in 200 bytes.
+     */
+    private static Resource testData() {
+        final StringBuilder data = new StringBuilder();
+        data.append(".1.3.6.1.2.1.1.1.0 = STRING: Darwin brozow.local 7.9.0 Darwin Kernel Version 7.9.0: Wed Mar 30 20:11:17 PST 2005; root:xnu/xnu-517.12.7.obj~1/RELEASE_PPC  Power Macintosh\n");
+        data.append(".1.3.6.1.2.1.1.5.0 = STRING: brozow.local\n");
+        final String[] interfaces = new String[] { "lo0", "gif0", "stf0", "en0", "en1", "fw0" };
+        for (int i = 1; i <= interfaces.length; i++) {
+            data.append(IF_DESCR).append('.').append(i).append(" = STRING: ").append(interfaces[i - 1]).append('\n');
+        }
+        for (int column = 3; column <= 5; column++) {
+            for (int i = 1; i <= interfaces.length; i++) {
+                data.append(".1.3.6.1.2.1.2.2.1.").append(column).append('.').append(i).append(" = INTEGER: ").append(1500 * column + i).append('\n');
+            }
+        }
+        return new ByteArrayResource(data.toString().getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        m_farm = new SimulatedAgentFarm(new PropertyOidContainer(testData()));
+        m_farm.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        m_farm.close();
+    }
+
+    private static SnmpAgentConfig agentConfig(final InetSocketAddress address, final int version) {
+        final SnmpAgentConfig config = new SnmpAgentConfig(address.getAddress());
+        config.setPort(address.getPort());
+        config.setVersion(version);
+        config.setReadCommunity("public");
+        config.setTimeout(500);
+        config.setRetries(0);
+        return config;
+    }
+
+    @Test
+    public void testServesManyAgents() throws Exception {
+        final List<InetSocketAddress> agents = m_farm.addAgents(InetAddress.getLoopbackAddress(), 0, 200);
+
+        final List<CompletableFuture<SnmpValue[]>> futures = new ArrayList<>();
+        for (final InetSocketAddress agent : agents) {
+            futures.add(m_strategy.getAsync(agentConfig(agent, SnmpAgentConfig.VERSION2C), new SnmpObjId[] { SYS_NAME }));
+        }
+        for (final CompletableFuture<SnmpValue[]> future : futures) {
+            assertEquals("brozow.local", future.get(5, TimeUnit.SECONDS)[0].toDisplayString());
+        }
+        assertEquals(200, m_farm.getStats().getResponded());
+    }
+
+    @Test
+    public void testTruncatesBulkResponses() throws Exception {
+        final InetSocketAddress agent = m_farm.addAgent(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        m_farm.setMaxResponseSize(200);
+
+        final List<SnmpResult> results = new ArrayList<>();
+        final ColumnTracker tracker = new ColumnTracker(IF_DESCR, 20, 0) {
+            @Override
+            protected void storeResult(final SnmpResult res) {
+                results.add(res);
+            }
+        };
+        try (SnmpWalker walker = m_strategy.createWalker(agentConfig(agent, SnmpAgentConfig.VERSION2C), "ifDescr", tracker)) {
+            walker.start();
+            walker.waitFor();
+            assertFalse(walker.failed());
+        }
+        assertEquals(6, results.size());
+        assertTrue(m_farm.getStats().getTruncated() > 0);
+    }
+
+    @Test
+    public void testAnswersTooBig() throws Exception {
+        final InetSocketAddress agent = m_farm.addAgent(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        m_farm.setMaxResponseSize(100);
+
+        try {
+            m_strategy.getAsync(agentConfig(agent, SnmpAgentConfig.VERSION2C), new SnmpObjId[] { SYS_DESCR }).get(5, TimeUnit.SECONDS);
+            fail("sysDescr does not fit in 100 bytes");
+        } catch (final ExecutionException e) {
+            assertEquals(1, m_farm.getStats().getTooBig());
+        }
+
+        // smaller responses still go through, over SNMPv1 as well
+        final SnmpValue[] values = m_strategy.getAsync(agentConfig(agent, SnmpAgentConfig.VERSION1), new SnmpObjId[] { SYS_NAME }).get(5, TimeUnit.SECONDS);
+        assertEquals("brozow.local", values[0].toDisplayString());
+    }
+
+    @Test
+    public void testDelaysAndDropsRequests() throws Exception {
+        final InetSocketAddress agent = m_farm.addAgent(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+        m_farm.setLatency(300, 0);
+        final long start = System.nanoTime();
+        m_strategy.getAsync(agentConfig(agent, SnmpAgentConfig.VERSION2C), new SnmpObjId[] { SYS_NAME }).get(5, TimeUnit.SECONDS);
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 300);
+
+        m_farm.setLatency(0, 0);
+        m_farm.setLossRate(1);
+        try {
+            m_strategy.getAsync(agentConfig(agent, SnmpAgentConfig.VERSION2C), new SnmpObjId[] { SYS_NAME }).get(5, TimeUnit.SECONDS);
+            fail("the request should have been dropped");
+        } catch (final ExecutionException e) {
+            assertTrue(e.getCause().getCause() instanceof SnmpAgentTimeoutException);
+        }
+        assertEquals(1, m_farm.getStats().getDropped());
+    }
+}